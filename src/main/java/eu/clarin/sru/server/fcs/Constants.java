@@ -161,6 +161,9 @@ public final class Constants {
     public static final String X_FCS_DATAVIEWS_KEY = "x-fcs-dataviews";
     public static final String X_FCS_DATAVIEWS_SEPARATOR = ",";
 
+    // FCS request parameter to limit the processing time (in milliseconds)
+    public static final String X_FCS_TIMEOUT_KEY = "x-fcs-timeout";
+
     public static final String CLARIN_FCS_RECORD_SCHEMA = "http://clarin.eu/fcs/resource";
 
     /* hide constructor */
@@ -0,0 +1,154 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import eu.clarin.sru.server.SRUDiagnosticList;
+
+
+/**
+ * The context of a single search request. The context carries the deadline
+ * of the request, which is checked cooperatively by long running operations,
+ * like iterating an index or rendering records. Once the deadline has
+ * passed, these operations should stop early and report the (partial)
+ * results found so far.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @see SimpleEndpointSearchEngineBase#FCS_SEARCH_TIMEOUT_PARAM
+ * @see Constants#X_FCS_TIMEOUT_KEY
+ */
+public final class SearchContext {
+    private final long startTime;
+    private final long timeout;
+    private final AtomicBoolean expiredReported = new AtomicBoolean();
+    private volatile boolean expired = false;
+
+
+    private SearchContext(long timeout) {
+        this.startTime = System.nanoTime();
+        this.timeout = timeout;
+    }
+
+
+    /**
+     * Check, if this request has a deadline.
+     *
+     * @return <code>true</code> if the request has a deadline
+     */
+    public boolean hasDeadline() {
+        return timeout > 0;
+    }
+
+
+    /**
+     * Get the time elapsed since the request started.
+     *
+     * @return the elapsed time in milliseconds
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+
+    /**
+     * Get the time remaining until the deadline.
+     *
+     * @return the remaining time in milliseconds, <code>0</code> if the
+     *         deadline has passed or {@link Long#MAX_VALUE}, if the request
+     *         has no deadline
+     */
+    public long getRemainingMillis() {
+        if (timeout <= 0) {
+            return Long.MAX_VALUE;
+        }
+        final long remaining = timeout - (System.nanoTime() - startTime);
+        return (remaining > 0) ? TimeUnit.NANOSECONDS.toMillis(remaining) : 0;
+    }
+
+
+    /**
+     * Check, if the deadline of this request has passed. This method is
+     * cheap enough to be called for every document during index iteration.
+     *
+     * @return <code>true</code> if the deadline has passed
+     */
+    public boolean isExpired() {
+        if (!expired && (timeout > 0) &&
+                ((System.nanoTime() - startTime) >= timeout)) {
+            expired = true;
+        }
+        return expired;
+    }
+
+
+    /**
+     * Cancel the request, e.g. because its result is no longer needed. From
+     * now on, the context is considered expired, so long running operations
+     * stop at their next check.
+     */
+    public void cancel() {
+        expired = true;
+    }
+
+
+    /**
+     * Report, that processing of this request was stopped because the
+     * deadline has passed. A non-fatal diagnostic is added to the supplied
+     * list, but only once per request, even if several operations stopped
+     * early.
+     *
+     * @param diagnostics
+     *            the <code>SRUDiagnosticList</code> object for storing
+     *            non-fatal diagnostics
+     */
+    public void reportExpired(SRUDiagnosticList diagnostics) {
+        if (diagnostics == null) {
+            throw new NullPointerException("diagnostics == null");
+        }
+        if (expiredReported.compareAndSet(false, true)) {
+            diagnostics.addDiagnostic(
+                    Constants.FCS_DIAGNOSTIC_GENERAL_PROCESSING_HINT, null,
+                    "The search exceeded its time limit of " +
+                            TimeUnit.NANOSECONDS.toMillis(timeout) +
+                            " ms and was stopped early; results and " +
+                            "counts are incomplete.");
+        }
+    }
+
+
+    /**
+     * Create a new search context.
+     *
+     * @param timeout
+     *            the time limit of the request in milliseconds or
+     *            <code>0</code>, if the request has no deadline
+     * @return the search context
+     */
+    public static SearchContext create(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout < 0");
+        }
+        return new SearchContext(TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+} // class SearchContext
@@ -21,11 +21,12 @@ package eu.clarin.sru.server.fcs;
 import java.io.File;
 import java.io.InputStream;
 import java.net.URI;
-import java.security.PublicKey;
-import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import javax.servlet.ServletContext;
 import javax.xml.XMLConstants;
@@ -37,10 +38,6 @@ import org.slf4j.LoggerFactory;
 import org.z3950.zing.cql.CQLNode;
 import org.z3950.zing.cql.CQLTermNode;
 
-import com.auth0.jwk.Jwk;
-import com.auth0.jwk.JwkException;
-import com.auth0.jwk.UrlJwkProvider;
-
 import eu.clarin.sru.server.SRUAuthenticationInfoProvider;
 import eu.clarin.sru.server.SRUConfigException;
 import eu.clarin.sru.server.SRUConstants;
@@ -51,10 +48,31 @@ import eu.clarin.sru.server.SRUQueryParserRegistry;
 import eu.clarin.sru.server.SRURequest;
 import eu.clarin.sru.server.SRUScanResultSet;
 import eu.clarin.sru.server.SRUSearchEngine;
+import eu.clarin.sru.server.SRUSearchResultSet;
 import eu.clarin.sru.server.SRUServer;
 import eu.clarin.sru.server.SRUServerConfig;
 import eu.clarin.sru.server.fcs.ResourceInfo.AvailabilityRestriction;
+import eu.clarin.sru.server.fcs.metrics.EndpointMetrics;
+import eu.clarin.sru.server.fcs.metrics.EndpointMetrics.Operation;
+import eu.clarin.sru.server.fcs.metrics.EndpointMetrics.Phase;
+import eu.clarin.sru.server.fcs.metrics.MetricsRegistry;
+import eu.clarin.sru.server.fcs.metrics.PrometheusMetricsServlet;
+import eu.clarin.sru.server.fcs.metrics.RequestTrace;
+import eu.clarin.sru.server.fcs.metrics.SlowQueryLog;
+import eu.clarin.sru.server.fcs.metrics.TimedQueryParser;
+import eu.clarin.sru.server.fcs.metrics.TimedSearchResultSet;
+import eu.clarin.sru.server.fcs.search.AdmissionController;
+import eu.clarin.sru.server.fcs.search.CountResultSet;
+import eu.clarin.sru.server.fcs.search.ScanIndex;
+import eu.clarin.sru.server.fcs.search.ScanIndexResultSet;
+import eu.clarin.sru.server.fcs.search.ScanTerm;
+import eu.clarin.sru.server.fcs.search.SortedScanIndex;
+import eu.clarin.sru.server.fcs.utils.AllocationCounter;
+import eu.clarin.sru.server.fcs.utils.AuthenticationMetrics;
 import eu.clarin.sru.server.fcs.utils.AuthenticationProvider;
+import eu.clarin.sru.server.fcs.utils.AuthenticationStatistics;
+import eu.clarin.sru.server.fcs.utils.FlightRecorderEvents;
+import eu.clarin.sru.server.fcs.utils.InitParameters;
 import eu.clarin.sru.server.utils.SRUAuthenticationInfoProviderFactory;
 import eu.clarin.sru.server.utils.SRUSearchEngineBase;
 
@@ -84,15 +102,53 @@ public abstract class SimpleEndpointSearchEngineBase extends
             "eu.clarin.sru.server.fcs.authentication.jwks.";
     public static final String FCS_AUTHENTICATION_PUBLIC_ISSUER_PARAM_PREFIX =
             "eu.clarin.sru.server.fcs.authentication.issuer.";
+    public static final String FCS_AUTHENTICATION_TOKEN_CACHE_SIZE_PARAM =
+            "eu.clarin.sru.server.fcs.authentication.tokenCache.size";
+    public static final String FCS_AUTHENTICATION_TOKEN_CACHE_LEEWAY_PARAM =
+            "eu.clarin.sru.server.fcs.authentication.tokenCache.leeway";
+    public static final String FCS_AUTHENTICATION_TOKEN_CACHE_MAX_TTL_PARAM =
+            "eu.clarin.sru.server.fcs.authentication.tokenCache.maxTtl";
+    public static final String FCS_AUTHENTICATION_FAILURE_CACHE_SIZE_PARAM =
+            "eu.clarin.sru.server.fcs.authentication.failureCache.size";
+    public static final String FCS_AUTHENTICATION_FAILURE_CACHE_TTL_PARAM =
+            "eu.clarin.sru.server.fcs.authentication.failureCache.ttl";
+    public static final String FCS_AUTHENTICATION_THROTTLE_MAX_FAILURES_PARAM =
+            "eu.clarin.sru.server.fcs.authentication.throttle.maxFailures";
+    public static final String FCS_AUTHENTICATION_THROTTLE_WINDOW_PARAM =
+            "eu.clarin.sru.server.fcs.authentication.throttle.window";
+    public static final String FCS_AUTHENTICATION_THROTTLE_MAX_CLIENTS_PARAM =
+            "eu.clarin.sru.server.fcs.authentication.throttle.maxClients";
+    public static final String FCS_AUTHENTICATION_JWKS_REFRESH_INTERVAL_PARAM =
+            "eu.clarin.sru.server.fcs.authentication.jwksRefresh.interval";
+    public static final String FCS_AUTHENTICATION_JWKS_MIN_FETCH_INTERVAL_PARAM =
+            "eu.clarin.sru.server.fcs.authentication.jwksRefresh.minInterval";
+    public static final String FCS_AUTHENTICATION_KEY_WATCH_INTERVAL_PARAM =
+            "eu.clarin.sru.server.fcs.authentication.keyWatch.interval";
+    public static final String FCS_AUTHENTICATION_KEY_WATCH_OVERLAP_PARAM =
+            "eu.clarin.sru.server.fcs.authentication.keyWatch.overlap";
+    public static final String FCS_SEARCH_TIMEOUT_PARAM =
+            "eu.clarin.sru.server.fcs.search.timeout";
+    public static final String FCS_METRICS_ALLOCATIONS_PARAM =
+            "eu.clarin.sru.server.fcs.metrics.allocations";
     private static final String RESOURCE_URI_PREFIX = "resource:";
     private static final String X_FCS_ENDPOINT_DESCRIPTION =
             "x-fcs-endpoint-description";
     private static final String ED_NS =
             "http://clarin.eu/fcs/endpoint-description";
     private static final String ED_PREFIX = "ed";
+    private static final String FCS_RESOURCE_INDEX = "fcs.resource";
+    private static final String FCS_RESOURCE_ROOT = "root";
     private static final Logger logger =
             LoggerFactory.getLogger(SimpleEndpointSearchEngineBase.class);
     protected EndpointDescription endpointDescription;
+    private long searchTimeout = 0;
+    private AdmissionController admissionController;
+    private AuthenticationProvider authenticationProvider;
+    private EndpointMetrics metrics;
+    private SlowQueryLog slowQueryLog;
+    private boolean trackAllocations;
+    private boolean customScan;
+    private volatile ResourceScanIndex resourceScanIndex;
 
 
     /**
@@ -112,11 +168,45 @@ public abstract class SimpleEndpointSearchEngineBase extends
         logger.debug("initializing");
         super.init(context, config, parserReqistryBuilder, params);
 
-        parserReqistryBuilder.register(new FCSQueryParser());
-        parserReqistryBuilder.register(new LexCQLQueryParser());
+        this.metrics = createMetrics(context, config, params);
+        if (metrics instanceof MetricsRegistry) {
+            context.setAttribute(MetricsRegistry.CONTEXT_ATTRIBUTE, metrics);
+        }
+
+        this.slowQueryLog = SlowQueryLog.fromParams(params);
+        if ((slowQueryLog != null) && (metrics != null)) {
+            registerMetrics(slowQueryLog, metrics);
+        }
+
+        this.trackAllocations =
+                parseBoolean(params.get(FCS_METRICS_ALLOCATIONS_PARAM));
+        if (trackAllocations && !AllocationCounter.isSupported()) {
+            logger.warn("allocation tracking is not supported by this JVM");
+            this.trackAllocations = false;
+        }
+        logger.debug("allocation tracking: {}", trackAllocations);
+
+        final boolean tracing = (slowQueryLog != null);
+        parserReqistryBuilder.register(TimedQueryParser.wrap(
+                new FCSQueryParser(), metrics, tracing));
+        parserReqistryBuilder.register(TimedQueryParser.wrap(
+                new LexCQLQueryParser(), metrics, tracing));
+
+        this.searchTimeout =
+                InitParameters.parseLong(params, FCS_SEARCH_TIMEOUT_PARAM, 0);
+        logger.debug("search timeout: {} ms", searchTimeout);
+        this.admissionController = AdmissionController.fromParams(params);
+        if ((admissionController != null) && (metrics != null)) {
+            registerMetrics(admissionController, metrics);
+        }
 
         logger.debug("initializing search engine implementation");
         doInit(context, config, parserReqistryBuilder, params);
+        this.customScan = overridesDoScan(getClass());
+        if (customScan) {
+            logger.debug("doScan() is overridden, default scan indexes " +
+                    "are disabled");
+        }
 
         logger.debug("initizalizing endpoint description");
         this.endpointDescription =
@@ -142,6 +232,12 @@ public abstract class SimpleEndpointSearchEngineBase extends
         endpointDescription.destroy();
         logger.debug("performing cleanup of search engine");
         doDestroy();
+        if (authenticationProvider != null) {
+            authenticationProvider.shutdown();
+        }
+        if (slowQueryLog != null) {
+            slowQueryLog.shutdown();
+        }
         super.destroy();
     }
 
@@ -177,27 +273,76 @@ public abstract class SimpleEndpointSearchEngineBase extends
                     logger.debug("will not verify 'iat' claim");
                     builder.withIgnoreIssuedAt();
                 } else {
-                    long issuedAtLeeway = parseLong(
-                            params.get(FCS_AUTHENTICATION_ACCEPT_ISSUEDAT_PARAM), -1);
+                    long issuedAtLeeway = InitParameters.parseLong(params,
+                            FCS_AUTHENTICATION_ACCEPT_ISSUEDAT_PARAM, -1);
                     if (issuedAtLeeway > 0) {
                         logger.debug("allowing {} seconds leeway for 'iat' claim", issuedAtLeeway);
                         builder.withIssuedAt(issuedAtLeeway);
                     }
                 }
-                long expiresAtLeeway = parseLong(
-                        params.get(FCS_AUTHENTICATION_ACCEPT_EXPIRESAT_PARAM), -1);
+                long expiresAtLeeway = InitParameters.parseLong(params,
+                        FCS_AUTHENTICATION_ACCEPT_EXPIRESAT_PARAM, -1);
                 if (expiresAtLeeway > 0) {
                     logger.debug("allowing {} seconds leeway for 'exp' claim", expiresAtLeeway);
                     builder.withExpiresAt(expiresAtLeeway);
                 }
 
-                long notBeforeLeeway = parseLong(
-                        params.get(FCS_AUTHENTICATION_ACCEPT_NOTBEFORE_PARAM), -1);
+                long notBeforeLeeway = InitParameters.parseLong(params,
+                        FCS_AUTHENTICATION_ACCEPT_NOTBEFORE_PARAM, -1);
                 if (notBeforeLeeway > 0) {
                     logger.debug("allowing {} seconds leeway for 'nbf' claim", expiresAtLeeway);
                     builder.withNotBefore(notBeforeLeeway);
                 }
 
+                long tokenCacheSize = InitParameters.parseLong(params,
+                        FCS_AUTHENTICATION_TOKEN_CACHE_SIZE_PARAM, 1024);
+                if (tokenCacheSize > 0) {
+                    long tokenCacheLeeway = InitParameters.parseLong(params,
+                            FCS_AUTHENTICATION_TOKEN_CACHE_LEEWAY_PARAM, 30);
+                    long tokenCacheMaxTtl = InitParameters.parseLong(params,
+                            FCS_AUTHENTICATION_TOKEN_CACHE_MAX_TTL_PARAM, 3600);
+                    if ((tokenCacheSize > Integer.MAX_VALUE) ||
+                            (tokenCacheLeeway < 0) || (tokenCacheMaxTtl < 1)) {
+                        throw new SRUConfigException("invalid token cache configuration");
+                    }
+                    logger.debug("caching up to {} verified tokens", tokenCacheSize);
+                    builder.withTokenCache((int) tokenCacheSize,
+                            tokenCacheLeeway, tokenCacheMaxTtl);
+                }
+
+                long failureCacheSize = InitParameters.parseLong(params,
+                        FCS_AUTHENTICATION_FAILURE_CACHE_SIZE_PARAM, 1024);
+                if (failureCacheSize > 0) {
+                    long failureCacheTtl = InitParameters.parseLong(params,
+                            FCS_AUTHENTICATION_FAILURE_CACHE_TTL_PARAM, 60);
+                    if ((failureCacheSize > Integer.MAX_VALUE) ||
+                            (failureCacheTtl < 1)) {
+                        throw new SRUConfigException("invalid failure cache configuration");
+                    }
+                    logger.debug("remembering up to {} rejected tokens for {} seconds",
+                            failureCacheSize, failureCacheTtl);
+                    builder.withFailureCache((int) failureCacheSize,
+                            failureCacheTtl);
+                }
+
+                long throttleMaxFailures = InitParameters.parseLong(params,
+                        FCS_AUTHENTICATION_THROTTLE_MAX_FAILURES_PARAM, 0);
+                if (throttleMaxFailures > 0) {
+                    long throttleWindow = InitParameters.parseLong(params,
+                            FCS_AUTHENTICATION_THROTTLE_WINDOW_PARAM, 60);
+                    long throttleMaxClients = InitParameters.parseLong(params,
+                            FCS_AUTHENTICATION_THROTTLE_MAX_CLIENTS_PARAM, 10000);
+                    if ((throttleMaxFailures > Integer.MAX_VALUE) ||
+                            (throttleWindow < 1) || (throttleMaxClients < 1) ||
+                            (throttleMaxClients > Integer.MAX_VALUE)) {
+                        throw new SRUConfigException("invalid authentication throttle configuration");
+                    }
+                    logger.debug("throttling clients with more than {} failed authentications within {} seconds",
+                            throttleMaxFailures, throttleWindow);
+                    builder.withThrottle((int) throttleMaxFailures,
+                            throttleWindow, (int) throttleMaxClients);
+                }
+
                 // load keys
                 for (Entry<String, String> entry : params.entrySet()) {
                     if (entry.getKey().startsWith(FCS_AUTHENTICATION_PUBLIC_KEY_PARAM_PREFIX)) {
@@ -234,23 +379,57 @@ public abstract class SimpleEndpointSearchEngineBase extends
                         if (issuer != null) {
                             logger.debug("keyId = {} with issuer = {}", keyId, issuer);
                         }
-                        UrlJwkProvider provider = new UrlJwkProvider(keyUrl);
-                        try {
-                            Jwk jwk = provider.get(null); // assume only a single key at this JWKS endpoint
-                            PublicKey publicKey = jwk.getPublicKey();
-                            if (!(publicKey instanceof RSAPublicKey)) {
-                                throw new SRUConfigException("JWK is not a RSA public key!");
-                            }
-                            builder.withPublicKey(keyId, (RSAPublicKey) publicKey, issuer);
-                        } catch (JwkException e) {
-                            throw new SRUConfigException("Failed to load JWK from JWKS endpoint.", e);
-                        }
+                        // all keys of the set are loaded and refreshed in the background;
+                        // build() fails, if the set cannot be loaded initially
+                        builder.withJwks(keyId, keyUrl, issuer);
                     }
                 }
+
+                long jwksRefreshInterval = InitParameters.parseLong(params,
+                        FCS_AUTHENTICATION_JWKS_REFRESH_INTERVAL_PARAM,
+                        AuthenticationProvider.DEFAULT_JWKS_REFRESH_INTERVAL);
+                long jwksMinFetchInterval = InitParameters.parseLong(params,
+                        FCS_AUTHENTICATION_JWKS_MIN_FETCH_INTERVAL_PARAM,
+                        AuthenticationProvider.DEFAULT_JWKS_MIN_FETCH_INTERVAL);
+                if ((jwksRefreshInterval < 1) || (jwksMinFetchInterval < 0)) {
+                    throw new SRUConfigException("invalid JWKS refresh configuration");
+                }
+                builder.withJwksRefresh(jwksRefreshInterval, jwksMinFetchInterval);
+
+                // key files (but not resources) may be watched for changes
+                long keyWatchInterval = InitParameters.parseLong(params,
+                        FCS_AUTHENTICATION_KEY_WATCH_INTERVAL_PARAM, 0);
+                long keyWatchOverlap = InitParameters.parseLong(params,
+                        FCS_AUTHENTICATION_KEY_WATCH_OVERLAP_PARAM,
+                        AuthenticationProvider.DEFAULT_KEY_WATCH_OVERLAP);
+                if ((keyWatchInterval < 0) || (keyWatchOverlap < 0)) {
+                    throw new SRUConfigException("invalid key watch configuration");
+                }
+                if (keyWatchInterval > 0) {
+                    builder.withKeyFileWatch(keyWatchInterval, keyWatchOverlap);
+                }
+
+                final AuthenticationMetrics metrics =
+                        createAuthenticationMetrics(context, params);
+                builder.withMetrics(new AuthenticationMetrics() {
+                    @Override
+                    public void record(Outcome outcome, String keyId,
+                            long nanos) {
+                        // kept until the search, if the request is one
+                        if (slowQueryLog != null) {
+                            RequestTrace.recordAuthentication(nanos);
+                        }
+                        if (metrics != null) {
+                            metrics.record(outcome, keyId, nanos);
+                        }
+                    }
+                });
+
                 AuthenticationProvider authenticationProvider = builder.build();
-                if (authenticationProvider.getKeyCount() == 0) {
+                if (!authenticationProvider.isVerifyingSignatures()) {
                     logger.warn("No keys configured, all well-formed tokens will be accepted. Make sure, youn know what you are doing!");
                 }
+                this.authenticationProvider = authenticationProvider;
                 return authenticationProvider;
             } else {
                 logger.debug("explictly disable authentication");
@@ -260,6 +439,78 @@ public abstract class SimpleEndpointSearchEngineBase extends
     }
 
 
+    /**
+     * Create the metrics receiving the outcome and latency of each
+     * authentication. The default implementation uses the metrics of the
+     * search engine, if enabled, or otherwise keeps statistics in memory.
+     * Override to export them to a monitoring system instead.
+     *
+     * @param context
+     *            the {@link ServletContext} for the Servlet
+     * @param params
+     *            additional parameters gathered from the Servlet configuration
+     *            and Servlet context.
+     * @return the metrics or <code>null</code>, if authentications should not
+     *         be recorded
+     * @throws SRUConfigException
+     *             if an error occurred
+     */
+    protected AuthenticationMetrics createAuthenticationMetrics(
+            ServletContext context, Map<String, String> params)
+            throws SRUConfigException {
+        return (metrics != null) ? metrics : new AuthenticationStatistics();
+    }
+
+
+    /**
+     * Create the metrics receiving the timings of each phase of a request.
+     * The default implementation creates a {@link MetricsRegistry}, unless
+     * disabled by the {@link MetricsRegistry#FCS_METRICS_ENABLED_PARAM}
+     * init-parameter. A registry is published as servlet context attribute
+     * {@link MetricsRegistry#CONTEXT_ATTRIBUTE}, e.g. for the
+     * {@link PrometheusMetricsServlet}. Override to plug in a different
+     * implementation.
+     *
+     * @param context
+     *            the {@link ServletContext} for the Servlet
+     * @param config
+     *            the {@link SRUServerConfig} object for this search engine
+     * @param params
+     *            additional parameters gathered from the Servlet configuration
+     *            and Servlet context.
+     * @return the metrics or <code>null</code>, if metrics are disabled
+     * @throws SRUConfigException
+     *             if an error occurred
+     */
+    protected EndpointMetrics createMetrics(ServletContext context,
+            SRUServerConfig config, Map<String, String> params)
+            throws SRUConfigException {
+        return MetricsRegistry.fromParams(params);
+    }
+
+
+    /**
+     * Get the metrics of this search engine. Subclasses can register
+     * additional values during initialization.
+     *
+     * @return the metrics or <code>null</code>, if metrics are disabled
+     */
+    protected final EndpointMetrics getMetrics() {
+        return metrics;
+    }
+
+
+    /**
+     * Get the authentication provider.
+     *
+     * @return the authentication provider or <code>null</code>, if
+     *         authentication is not enabled
+     */
+    protected final AuthenticationProvider getAuthenticationProvider() {
+        return authenticationProvider;
+    }
+
+
     @Override
     public final SRUExplainResult explain(SRUServerConfig config,
             SRURequest request, SRUDiagnosticList diagnostics)
@@ -280,7 +531,18 @@ public abstract class SimpleEndpointSearchEngineBase extends
                 @Override
                 public void writeExtraResponseData(XMLStreamWriter writer)
                         throws XMLStreamException {
-                    writeEndpointDescription(writer);
+                    final long start = System.nanoTime();
+                    final FlightRecorderEvents.Span span =
+                            FlightRecorderEvents.beginExplain();
+                    try {
+                        writeEndpointDescription(writer);
+                    } finally {
+                        span.end();
+                        if (metrics != null) {
+                            metrics.recordPhase(Operation.EXPLAIN, null,
+                                    Phase.EXPLAIN, System.nanoTime() - start);
+                        }
+                    }
                 }
             };
         } else {
@@ -289,19 +551,123 @@ public abstract class SimpleEndpointSearchEngineBase extends
     }
 
 
+    /**
+     * Handle a <em>searchRetrieve</em> operation. This implementation creates
+     * the {@link SearchContext} of the request and passes it to
+     * {@link #doSearch(SRUServerConfig, SRURequest, SRUDiagnosticList, SearchContext)}.
+     * Implementations that override this method instead can obtain the
+     * context using {@link #createSearchContext(SRURequest)}.
+     * <p>
+     * If the request asks for no records (<code>maximumRecords=0</code>),
+     * {@link #doCount(SRUServerConfig, SRURequest, SRUDiagnosticList, SearchContext)}
+     * is tried first.
+     * </p>
+     * <p>
+     * If admission control is configured (see {@link AdmissionController}),
+     * the request must first acquire a permit, both globally and for each of
+     * the requested resources; requests without <code>x-fcs-context</code>
+     * count against all top-level resources. The permit is held until the
+     * search is performed, i.e. while the results are computed, but not
+     * while records are being rendered.
+     * </p>
+     * <p>
+     * If metrics are enabled (see {@link #getMetrics()}), the time spent
+     * waiting for admission, searching and rendering records is recorded
+     * and the result set is wrapped in a {@link TimedSearchResultSet}.
+     * Likewise, if the slow-query log is enabled by the
+     * {@link SlowQueryLog#FCS_SLOW_QUERY_LOG_THRESHOLD_PARAM} init-parameter,
+     * the timings are collected in a {@link RequestTrace} and passed to the
+     * {@link SlowQueryLog}, once the records have been rendered. If the
+     * {@link #FCS_METRICS_ALLOCATIONS_PARAM} init-parameter is set, the
+     * memory allocated while rendering records, i.e. by the data view
+     * writers, is counted and reported to both.
+     * </p>
+     *
+     * @see #doSearch(SRUServerConfig, SRURequest, SRUDiagnosticList,
+     *      SearchContext)
+     */
+    @Override
+    public SRUSearchResultSet search(SRUServerConfig config,
+            SRURequest request, SRUDiagnosticList diagnostics)
+            throws SRUException {
+        if (slowQueryLog == null) {
+            return admitSearch(config, request, diagnostics);
+        }
+        RequestTrace.begin(request.getQuery());
+        try {
+            return admitSearch(config, request, diagnostics);
+        } finally {
+            RequestTrace.detach();
+        }
+    }
+
+
+    private SRUSearchResultSet admitSearch(SRUServerConfig config,
+            SRURequest request, SRUDiagnosticList diagnostics)
+            throws SRUException {
+        final SearchContext context = createSearchContext(request);
+        if (admissionController == null) {
+            return performSearch(config, request, diagnostics, context);
+        }
+        final long start = System.nanoTime();
+        final AdmissionController.Permit permit;
+        try {
+            permit = admissionController.acquire(
+                    getRequestedResources(request),
+                    context.getRemainingMillis());
+        } catch (SRUException e) {
+            recordError(Operation.SEARCH_RETRIEVE, request.getQueryType(),
+                    Phase.ADMISSION);
+            throw e;
+        } finally {
+            recordPhase(Operation.SEARCH_RETRIEVE, request.getQueryType(),
+                    Phase.ADMISSION, start);
+        }
+        try {
+            return performSearch(config, request, diagnostics, context);
+        } finally {
+            permit.release();
+        }
+    }
+
+
     /**
      * Handle a <em>scan</em> operation. This implementation provides support to
-     * CLARIN FCS resource enumeration. If you want to provide custom scan
-     * behavior for a different index, override the
+     * CLARIN FCS resource enumeration. If the index of the scan clause is
+     * provided by {@link #getScanIndex(String)}, the terms are taken from the
+     * returned {@link ScanIndex}, honoring the <code>responsePosition</code>
+     * and <code>maximumTerms</code> parameters. Otherwise, the request is
+     * passed to the deprecated
      * {@link #doScan(SRUServerConfig, SRURequest, SRUDiagnosticList)} method.
      *
-     * @see #doScan(SRUServerConfig, SRURequest, SRUDiagnosticList)
+     * @see #getScanIndex(String)
      */
     @Override
     public final SRUScanResultSet scan(SRUServerConfig config,
             SRURequest request, SRUDiagnosticList diagnostics)
             throws SRUException {
-        return doScan(config, request, diagnostics);
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final SRUScanResultSet result;
+            final CQLNode scanClause = request.getScanClause();
+            final ScanIndex index = (scanClause instanceof CQLTermNode)
+                    ? getScanIndex(((CQLTermNode) scanClause).getIndex())
+                    : null;
+            if (index != null) {
+                result = scanIndex(config, request, diagnostics,
+                        (CQLTermNode) scanClause, index);
+            } else {
+                result = doScan(config, request, diagnostics);
+            }
+            success = true;
+            return result;
+        } finally {
+            recordPhase(Operation.SCAN, null, Phase.SCAN, start);
+            if (!success) {
+                recordError(Operation.SCAN, null, Phase.SCAN);
+            }
+        }
     }
 
 
@@ -343,8 +709,11 @@ public abstract class SimpleEndpointSearchEngineBase extends
 
 
     /**
-     * Handle a <em>scan</em> operation. The default implementation is a no-op.
-     * Override this method, if you want to provide a custom behavior.
+     * Handle a <em>scan</em> operation, if the index of the scan clause is
+     * not provided by {@link #getScanIndex(String)}. The default
+     * implementation reports the index as unsupported. If this method is
+     * overridden, the default <code>fcs.resource</code> index is disabled,
+     * so existing implementations keep handling resource enumeration.
      *
      * @param config
      *            the <code>SRUEndpointConfig</code> object that contains the
@@ -360,8 +729,7 @@ public abstract class SimpleEndpointSearchEngineBase extends
      * @throws SRUException
      *             if an fatal error occurred
      * @see SRUSearchEngine#scan(SRUServerConfig, SRURequest, SRUDiagnosticList)
-     * @deprecated override
-     *             {@link #scan(SRUServerConfig, SRURequest, SRUDiagnosticList)}
+     * @deprecated override {@link #getScanIndex(String)}
      */
     @Deprecated
     protected SRUScanResultSet doScan(SRUServerConfig config,
@@ -380,6 +748,319 @@ public abstract class SimpleEndpointSearchEngineBase extends
     }
 
 
+    /**
+     * Get the scan index for an index name of a scan clause. The default
+     * implementation provides the <code>fcs.resource</code> index, which
+     * lists the persistent identifiers of all resources of the endpoint
+     * with their titles as display terms; scanning from the term
+     * <code>root</code> starts at the beginning of the list. The index is
+     * not provided, if
+     * {@link #doScan(SRUServerConfig, SRURequest, SRUDiagnosticList)} is
+     * overridden. It is built on first use and rebuilt, if the endpoint
+     * description is replaced or {@link #invalidateScanIndexes()} is
+     * called. Override this method to provide additional indexes, e.g. the
+     * term lists of layers.
+     *
+     * @param index
+     *            the index name of the scan clause
+     * @return the scan index or <code>null</code>, if the index is not
+     *         supported
+     * @throws SRUException
+     *             if an error occurred
+     */
+    protected ScanIndex getScanIndex(String index) throws SRUException {
+        if (FCS_RESOURCE_INDEX.equals(index) && !customScan) {
+            final EndpointDescription description = endpointDescription;
+            ResourceScanIndex result = resourceScanIndex;
+            if ((result == null) || (result.description != description)) {
+                final List<ScanTerm> terms = new ArrayList<>();
+                collectResourceTerms(description.getResourceList(
+                        EndpointDescription.PID_ROOT), terms);
+                result = new ResourceScanIndex(description,
+                        SortedScanIndex.create(terms));
+                resourceScanIndex = result;
+            }
+            return result.index;
+        }
+        return null;
+    }
+
+
+    /**
+     * Discard the default scan indexes, e.g. after the resources of the
+     * endpoint description have changed. They are rebuilt on next use.
+     */
+    protected final void invalidateScanIndexes() {
+        resourceScanIndex = null;
+    }
+
+
+    /**
+     * Get the number of records of a resource reported by a scan of the
+     * <code>fcs.resource</code> index. The default implementation returns
+     * <code>-1</code>, i.e. the number is not reported.
+     *
+     * @param resource
+     *            the resource
+     * @return the number of records or <code>-1</code>, if unknown
+     */
+    protected int getResourceRecordCount(ResourceInfo resource) {
+        return -1;
+    }
+
+
+    /**
+     * Handle a <em>searchRetrieve</em> operation. Implementations should
+     * check {@link SearchContext#isExpired()} during long running operations
+     * and stop early, once the deadline of the request has passed. The
+     * default implementation reports the operation as unsupported.
+     *
+     * @param config
+     *            the <code>SRUEndpointConfig</code> object that contains the
+     *            endpoint configuration
+     * @param request
+     *            the <code>SRURequest</code> object that contains the request
+     *            made to the endpoint
+     * @param diagnostics
+     *            the <code>SRUDiagnosticList</code> object for storing
+     *            non-fatal diagnostics
+     * @param context
+     *            the <code>SearchContext</code> object of the request
+     * @return a <code>SRUSearchResultSet</code> object
+     * @throws SRUException
+     *             if an fatal error occurred
+     */
+    protected SRUSearchResultSet doSearch(SRUServerConfig config,
+            SRURequest request, SRUDiagnosticList diagnostics,
+            SearchContext context) throws SRUException {
+        throw new SRUException(SRUConstants.SRU_UNSUPPORTED_OPERATION,
+                "searchRetrieve operation is not supported");
+    }
+
+
+    /**
+     * Handle a <em>searchRetrieve</em> operation, that requests no records
+     * but only the number of hits. Implementations can override this method
+     * to compute the count more efficiently, e.g. from index statistics,
+     * without collecting hits or preparing data views. The default
+     * implementation returns <code>null</code>, in which case the request
+     * is handled by
+     * {@link #doSearch(SRUServerConfig, SRURequest, SRUDiagnosticList, SearchContext)}.
+     *
+     * @param config
+     *            the <code>SRUEndpointConfig</code> object that contains the
+     *            endpoint configuration
+     * @param request
+     *            the <code>SRURequest</code> object that contains the request
+     *            made to the endpoint
+     * @param diagnostics
+     *            the <code>SRUDiagnosticList</code> object for storing
+     *            non-fatal diagnostics
+     * @param context
+     *            the <code>SearchContext</code> object of the request
+     * @return a <code>SRUSearchResultSet</code> object without records, e.g.
+     *         a {@link CountResultSet}, or <code>null</code>, if counting is
+     *         not supported
+     * @throws SRUException
+     *             if an fatal error occurred
+     */
+    protected SRUSearchResultSet doCount(SRUServerConfig config,
+            SRURequest request, SRUDiagnosticList diagnostics,
+            SearchContext context) throws SRUException {
+        return null;
+    }
+
+
+    /**
+     * Create the search context of a request. The deadline of the request is
+     * configured using the {@link #FCS_SEARCH_TIMEOUT_PARAM} init-parameter.
+     * Clients may shorten, but not extend, the time limit using the
+     * <code>x-fcs-timeout</code> extra request parameter (in milliseconds).
+     *
+     * @param request
+     *            the <code>SRURequest</code> object that contains the request
+     *            made to the endpoint
+     * @return the search context
+     * @throws SRUException
+     *             if the <code>x-fcs-timeout</code> parameter is invalid
+     */
+    protected SearchContext createSearchContext(SRURequest request)
+            throws SRUException {
+        long timeout = searchTimeout;
+        final String value =
+                request.getExtraRequestData(Constants.X_FCS_TIMEOUT_KEY);
+        if (value != null) {
+            long requested;
+            try {
+                requested = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                requested = -1;
+            }
+            if (requested <= 0) {
+                throw new SRUException(
+                        SRUConstants.SRU_UNSUPPORTED_PARAMETER_VALUE,
+                        Constants.X_FCS_TIMEOUT_KEY,
+                        "Value of parameter '" + Constants.X_FCS_TIMEOUT_KEY +
+                                "' must be a positive number of " +
+                                "milliseconds.");
+            }
+            timeout = (timeout > 0) ? Math.min(timeout, requested) : requested;
+        }
+        return SearchContext.create(timeout);
+    }
+
+
+    /**
+     * Get the admission control of this search engine.
+     *
+     * @return the admission controller or <code>null</code>, if admission
+     *         control is disabled
+     */
+    protected final AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+
+    /**
+     * Resolve the resources a search request should be performed on. The
+     * resources are taken from the <code>x-fcs-context</code> extra request
+     * parameter. If the parameter is missing, all top-level resources of the
+     * endpoint description are returned. Unknown persistent identifiers are
+     * reported as non-fatal diagnostics and ignored.
+     *
+     * @param request
+     *            the <code>SRURequest</code> object that contains the request
+     *            made to the endpoint
+     * @param diagnostics
+     *            the <code>SRUDiagnosticList</code> object for storing
+     *            non-fatal diagnostics
+     * @return the list of resources to search, never <code>null</code> or
+     *         empty
+     * @throws SRUException
+     *             if none of the requested resources could be resolved
+     */
+    protected List<ResourceInfo> resolveContext(SRURequest request,
+            SRUDiagnosticList diagnostics) throws SRUException {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final List<ResourceInfo> result =
+                    doResolveContext(request, diagnostics);
+            final RequestTrace trace = RequestTrace.current();
+            if (trace != null) {
+                trace.setResources(result);
+            }
+            success = true;
+            return result;
+        } finally {
+            recordPhase(Operation.SEARCH_RETRIEVE, request.getQueryType(),
+                    Phase.CONTEXT_RESOLUTION, start);
+            if (!success) {
+                recordError(Operation.SEARCH_RETRIEVE,
+                        request.getQueryType(), Phase.CONTEXT_RESOLUTION);
+            }
+        }
+    }
+
+
+    private List<ResourceInfo> doResolveContext(SRURequest request,
+            SRUDiagnosticList diagnostics) throws SRUException {
+        final String context =
+                request.getExtraRequestData(Constants.X_FCS_CONTEXT_KEY);
+        if ((context == null) || context.trim().isEmpty()) {
+            return endpointDescription.getResourceList(
+                    EndpointDescription.PID_ROOT);
+        }
+
+        final List<ResourceInfo> resources = new ArrayList<>();
+        for (String pid : context.split(Constants.X_FCS_CONTEXT_SEPARATOR)) {
+            pid = pid.trim();
+            if (pid.isEmpty()) {
+                continue;
+            }
+            ResourceInfo resource = endpointDescription.getResource(pid);
+            if (resource != null) {
+                if (!resources.contains(resource)) {
+                    resources.add(resource);
+                }
+            } else {
+                diagnostics.addDiagnostic(
+                        Constants.FCS_DIAGNOSTIC_PERSISTENT_IDENTIFIER_INVALID,
+                        pid,
+                        "Resource PID '" + pid + "' is not valid.");
+            }
+        }
+        if (resources.isEmpty()) {
+            throw new SRUException(
+                    Constants.FCS_DIAGNOSTIC_PERSISTENT_IDENTIFIER_INVALID,
+                    context,
+                    "None of the requested resources is valid.");
+        }
+        return resources;
+    }
+
+
+    /**
+     * Resolve the data views that should be rendered for a search request.
+     * The result contains all data views with delivery policy
+     * <em>send-by-default</em> and all data views that were requested by the
+     * client using the <code>x-fcs-dataviews</code> extra request parameter.
+     * Requested data views that are not supported by the endpoint are
+     * reported as non-fatal diagnostics and ignored.
+     *
+     * @param request
+     *            the <code>SRURequest</code> object that contains the request
+     *            made to the endpoint
+     * @param diagnostics
+     *            the <code>SRUDiagnosticList</code> object for storing
+     *            non-fatal diagnostics
+     * @return the list of data views to be rendered
+     */
+    protected List<DataView> resolveDataViews(SRURequest request,
+            SRUDiagnosticList diagnostics) {
+        final List<DataView> supported =
+                endpointDescription.getSupportedDataViews();
+        final List<DataView> result = new ArrayList<>(supported.size());
+        for (DataView dataView : supported) {
+            if (dataView.getDeliveryPolicy() ==
+                    DataView.DeliveryPolicy.SEND_BY_DEFAULT) {
+                result.add(dataView);
+            }
+        }
+
+        final String dataViews =
+                request.getExtraRequestData(Constants.X_FCS_DATAVIEWS_KEY);
+        if ((dataViews != null) && !dataViews.trim().isEmpty()) {
+            for (String id : dataViews.split(Constants.X_FCS_DATAVIEWS_SEPARATOR)) {
+                id = id.trim();
+                if (id.isEmpty()) {
+                    continue;
+                }
+                DataView found = null;
+                for (DataView dataView : supported) {
+                    if (dataView.getIdentifier().equals(id)) {
+                        found = dataView;
+                        break;
+                    }
+                }
+                if (found == null) {
+                    diagnostics.addDiagnostic(
+                            Constants.FCS_DIAGNOSTIC_REQUESTED_DATA_VIEW_INVALID,
+                            id,
+                            "Data view '" + id + "' is not supported.");
+                } else if (!result.contains(found)) {
+                    result.add(found);
+                }
+            }
+        }
+        final RequestTrace trace = RequestTrace.current();
+        if (trace != null) {
+            trace.setDataViews(result);
+        }
+        return result;
+    }
+
+
     /**
      * Convince method for parsing a string to boolean. Values <code>1</code>,
      * <code>true</code>, <code>yes</code> yield a <em>true</em> boolean value
@@ -400,15 +1081,228 @@ public abstract class SimpleEndpointSearchEngineBase extends
     }
 
 
-    private long parseLong(String value, long defaultValue) throws SRUConfigException {
-        if (value != null) {
+    private SRUScanResultSet scanIndex(SRUServerConfig config,
+            SRURequest request, SRUDiagnosticList diagnostics,
+            CQLTermNode clause, ScanIndex index) throws SRUException {
+        final String relation = clause.getRelation().getBase();
+        if (!"=".equals(relation) && !"==".equals(relation) &&
+                !">=".equals(relation) && !"exact".equals(relation)) {
+            throw new SRUException(SRUConstants.SRU_UNSUPPORTED_RELATION,
+                    relation, "Relation '" + relation +
+                            "' is not supported for scan.");
+        }
+        String term = clause.getTerm();
+        if (FCS_RESOURCE_INDEX.equals(clause.getIndex()) &&
+                FCS_RESOURCE_ROOT.equals(term)) {
+            term = "";
+        }
+        int responsePosition = request.getResponsePosition();
+        if (responsePosition < 0) {
+            responsePosition = 1;
+        }
+        int maximumTerms = request.getMaximumTerms();
+        if (maximumTerms < 0) {
+            maximumTerms = config.getNumberOfTerms();
+        }
+        if ((config.getMaximumTerms() > 0) &&
+                (maximumTerms > config.getMaximumTerms())) {
+            maximumTerms = config.getMaximumTerms();
+        }
+        return new ScanIndexResultSet(diagnostics,
+                index.scan(term, responsePosition, maximumTerms));
+    }
+
+
+    private void collectResourceTerms(List<ResourceInfo> resources,
+            List<ScanTerm> terms) {
+        for (ResourceInfo resource : resources) {
+            String title = resource.getTitle("en");
+            if ((title == null) && !resource.getTitle().isEmpty()) {
+                title = resource.getTitle().values().iterator().next();
+            }
+            terms.add(new ScanTerm(resource.getPid(), title,
+                    getResourceRecordCount(resource), null));
+            if (resource.hasSubResources()) {
+                collectResourceTerms(resource.getSubResources(), terms);
+            }
+        }
+    }
+
+
+    private static boolean overridesDoScan(Class<?> clazz) {
+        for (Class<?> c = clazz; (c != null) &&
+                (c != SimpleEndpointSearchEngineBase.class);
+                c = c.getSuperclass()) {
             try {
-                return Long.parseLong(value);
-            } catch (NumberFormatException e) {
-                throw new SRUConfigException("invalid long value");
+                c.getDeclaredMethod("doScan", SRUServerConfig.class,
+                        SRURequest.class, SRUDiagnosticList.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                /* IGNORE, check super class */
+            }
+        }
+        return false;
+    }
+
+
+    private SRUSearchResultSet performSearch(SRUServerConfig config,
+            SRURequest request, SRUDiagnosticList diagnostics,
+            SearchContext context) throws SRUException {
+        final long start = System.nanoTime();
+        final FlightRecorderEvents.Span span =
+                FlightRecorderEvents.beginSearch(request.getQueryType());
+        SRUSearchResultSet result = null;
+        try {
+            if (request.getMaximumRecords() == 0) {
+                result = doCount(config, request, diagnostics, context);
+            }
+            if (result == null) {
+                result = doSearch(config, request, diagnostics, context);
+            }
+        } finally {
+            span.setResource(request.getExtraRequestData(
+                    Constants.X_FCS_CONTEXT_KEY));
+            if (result != null) {
+                span.setRecordCount(result.getRecordCount());
+                span.setHitCount(result.getTotalRecordCount());
+                span.setOutcome("ok");
+            } else {
+                span.setOutcome("error");
+            }
+            span.end();
+            recordPhase(Operation.SEARCH_RETRIEVE, request.getQueryType(),
+                    Phase.SEARCH, start);
+            if (result == null) {
+                recordError(Operation.SEARCH_RETRIEVE,
+                        request.getQueryType(), Phase.SEARCH);
+            }
+        }
+        final RequestTrace trace = RequestTrace.current();
+        if (result == null) {
+            if (trace != null) {
+                slowQueryLog.finish(trace, -1, null, 0, true);
+            }
+        } else if ((metrics != null) || (trace != null) ||
+                FlightRecorderEvents.isEnabled()) {
+            result = new TimedSearchResultSet(diagnostics, result, metrics,
+                    request.getQueryType(), trace, slowQueryLog,
+                    trackAllocations);
+        }
+        return result;
+    }
+
+
+    private void recordPhase(Operation operation, String queryType,
+            Phase phase, long start) {
+        final long nanos = System.nanoTime() - start;
+        if (metrics != null) {
+            metrics.recordPhase(operation, queryType, phase, nanos);
+        }
+        if (operation == Operation.SEARCH_RETRIEVE) {
+            final RequestTrace trace = RequestTrace.current();
+            if (trace != null) {
+                trace.addPhase(phase, nanos);
+            }
+        }
+    }
+
+
+    private void recordError(Operation operation, String queryType,
+            Phase phase) {
+        if (metrics != null) {
+            metrics.recordError(operation, queryType, phase);
+        }
+    }
+
+
+    private static void registerMetrics(
+            final AdmissionController admissionController,
+            EndpointMetrics metrics) {
+        metrics.registerGauge("admission_in_flight",
+                "Searches currently being processed.",
+                new EndpointMetrics.Value() {
+                    @Override
+                    public long get() {
+                        return admissionController.getInFlightCount();
+                    }
+                });
+        metrics.registerGauge("admission_queue_depth",
+                "Searches currently waiting for admission.",
+                new EndpointMetrics.Value() {
+                    @Override
+                    public long get() {
+                        return admissionController.getQueueDepth();
+                    }
+                });
+        metrics.registerCounter("admission_admitted_total",
+                "Admitted searches.",
+                new EndpointMetrics.Value() {
+                    @Override
+                    public long get() {
+                        return admissionController.getAdmittedCount();
+                    }
+                });
+        metrics.registerCounter("admission_rejected_total",
+                "Searches rejected, because the queue was full.",
+                new EndpointMetrics.Value() {
+                    @Override
+                    public long get() {
+                        return admissionController.getRejectedCount();
+                    }
+                });
+        metrics.registerCounter("admission_timed_out_total",
+                "Searches rejected, because they waited too long.",
+                new EndpointMetrics.Value() {
+                    @Override
+                    public long get() {
+                        return admissionController.getTimedOutCount();
+                    }
+                });
+    }
+
+
+    private static void registerMetrics(final SlowQueryLog slowQueryLog,
+            EndpointMetrics metrics) {
+        metrics.registerCounter("slow_queries_total",
+                "Searches, that took longer than the slow-query threshold.",
+                new EndpointMetrics.Value() {
+                    @Override
+                    public long get() {
+                        return slowQueryLog.getSlowCount();
+                    }
+                });
+        metrics.registerCounter("slow_queries_dropped_total",
+                "Slow queries not logged, because the buffer was full.",
+                new EndpointMetrics.Value() {
+                    @Override
+                    public long get() {
+                        return slowQueryLog.getDroppedCount();
+                    }
+                });
+    }
+
+
+    private Set<String> getRequestedResources(SRURequest request)
+            throws SRUException {
+        final Set<String> pids = new HashSet<>();
+        final String context =
+                request.getExtraRequestData(Constants.X_FCS_CONTEXT_KEY);
+        if ((context == null) || context.trim().isEmpty()) {
+            for (ResourceInfo resource : endpointDescription.getResourceList(
+                    EndpointDescription.PID_ROOT)) {
+                pids.add(resource.getPid());
+            }
+        } else {
+            for (String pid : context.split(Constants.X_FCS_CONTEXT_SEPARATOR)) {
+                pid = pid.trim();
+                // only known resources are limited
+                if (!pid.isEmpty() &&
+                        (endpointDescription.getResource(pid) != null)) {
+                    pids.add(pid);
+                }
             }
         }
-        return defaultValue;
+        return pids;
     }
 
 
@@ -676,4 +1570,21 @@ public abstract class SimpleEndpointSearchEngineBase extends
         }
     }
 
+
+    /**
+     * The <code>fcs.resource</code> index and the endpoint description it
+     * was built from.
+     */
+    private static final class ResourceScanIndex {
+        private final EndpointDescription description;
+        private final ScanIndex index;
+
+
+        private ResourceScanIndex(EndpointDescription description,
+                ScanIndex index) {
+            this.description = description;
+            this.index = index;
+        }
+    }
+
 } // class SimpleEndpointSearchEngineBase
@@ -0,0 +1,186 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.index;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * A cursor for reading values from a memory-mapped segment. The cursor only
+ * uses absolute accessors of the underlying buffer, so any number of cursors
+ * can safely share the same (read-only) buffer. A cursor itself is
+ * <em>not</em> thread-safe.
+ */
+final class DataCursor {
+    private final ByteBuffer buffer;
+    private int position;
+
+
+    DataCursor(ByteBuffer buffer, int position) {
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+
+    int position() {
+        return position;
+    }
+
+
+    void seek(int position) {
+        this.position = position;
+    }
+
+
+    byte readByte() {
+        return buffer.get(position++);
+    }
+
+
+    int readInt() {
+        final int value = buffer.getInt(position);
+        position += 4;
+        return value;
+    }
+
+
+    long readLong() {
+        final long value = buffer.getLong(position);
+        position += 8;
+        return value;
+    }
+
+
+    int readVInt() {
+        byte b = buffer.get(position++);
+        int value = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = buffer.get(position++);
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+
+    long readVLong() {
+        byte b = buffer.get(position++);
+        long value = b & 0x7FL;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = buffer.get(position++);
+            value |= (b & 0x7FL) << shift;
+        }
+        return value;
+    }
+
+
+    void skipVInts(int count) {
+        while (count > 0) {
+            if ((buffer.get(position++) & 0x80) == 0) {
+                count--;
+            }
+        }
+    }
+
+
+    void skip(int length) {
+        position += length;
+    }
+
+
+    /**
+     * Read a string that was written as length-prefixed UTF-8 bytes. A length
+     * prefix of <code>0</code> denotes a <code>null</code> value, all other
+     * values are the byte length plus one.
+     */
+    String readString() {
+        final int length = readVInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        return readUTF8(length);
+    }
+
+
+    String readUTF8(int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + i);
+        }
+        position += length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Decode UTF-8 bytes directly into a character buffer without creating
+     * intermediate objects. Malformed input is replaced by U+FFFD.
+     */
+    void appendUTF8(int length, StringBuilder out) {
+        final int end = position + length;
+        while (position < end) {
+            final int b = buffer.get(position++) & 0xFF;
+            if (b < 0x80) {
+                out.append((char) b);
+                continue;
+            }
+            int trailing;
+            int cp;
+            if ((b & 0xE0) == 0xC0) {
+                trailing = 1;
+                cp = b & 0x1F;
+            } else if ((b & 0xF0) == 0xE0) {
+                trailing = 2;
+                cp = b & 0x0F;
+            } else if ((b & 0xF8) == 0xF0) {
+                trailing = 3;
+                cp = b & 0x07;
+            } else {
+                out.append('\uFFFD');
+                continue;
+            }
+            if (position + trailing > end) {
+                position = end;
+                out.append('\uFFFD');
+                break;
+            }
+            for (int i = 0; i < trailing; i++) {
+                cp = (cp << 6) | (buffer.get(position++) & 0x3F);
+            }
+            out.appendCodePoint(Character.isValidCodePoint(cp) ? cp : 0xFFFD);
+        }
+    }
+
+
+    /**
+     * Compare the bytes at the current position with a given key using
+     * unsigned byte order. The cursor position is not modified.
+     */
+    int compareBytes(int length, byte[] key) {
+        final int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (buffer.get(position + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+} // class DataCursor
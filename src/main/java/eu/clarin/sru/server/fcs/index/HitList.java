@@ -0,0 +1,255 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.index;
+
+import java.util.Arrays;
+
+import eu.clarin.sru.server.SRUResultCountPrecision;
+
+
+/**
+ * A compact list of hits. Each hit is described by a (global) document id
+ * and the token range of the match. Hits are stored in primitive arrays to
+ * keep the memory footprint of large result sets low.
+ * <p>
+ * A hit list may be partial, i.e. only contain the leading hits of a result
+ * set, if the search stopped once enough hits for the requested page were
+ * found or because the deadline of the request has passed. In this case,
+ * the total number of hits is recorded separately and may be an estimate or
+ * a lower bound.
+ * </p>
+ * <p>
+ * This class is <em>not thread-safe</em> while hits are being added.
+ * </p>
+ */
+public final class HitList {
+    private static final int INITIAL_CAPACITY = 64;
+    private int[] docs;
+    private int[] starts;
+    private int[] ends;
+    private int size = 0;
+    private int totalCount = -1;
+    private SRUResultCountPrecision totalCountPrecision =
+            SRUResultCountPrecision.EXACT;
+
+
+    /**
+     * Constructor.
+     */
+    public HitList() {
+        this(INITIAL_CAPACITY);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *            the initial capacity
+     */
+    public HitList(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity < 0");
+        }
+        this.docs = new int[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+    }
+
+
+    /**
+     * Add a hit.
+     *
+     * @param doc
+     *            the document id
+     * @param start
+     *            the position of the first token of the match (inclusive)
+     * @param end
+     *            the position of the last token of the match (exclusive)
+     */
+    public void add(int doc, int start, int end) {
+        if (size == docs.length) {
+            final int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+            docs = Arrays.copyOf(docs, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        docs[size] = doc;
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+
+    /**
+     * Get the number of hits.
+     *
+     * @return the number of hits
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Get the document id of a hit.
+     *
+     * @param idx
+     *            the index of the hit
+     * @return the document id
+     */
+    public int getDocument(int idx) {
+        checkIndex(idx);
+        return docs[idx];
+    }
+
+
+    /**
+     * Get the start position of a hit.
+     *
+     * @param idx
+     *            the index of the hit
+     * @return the position of the first token of the match
+     */
+    public int getStart(int idx) {
+        checkIndex(idx);
+        return starts[idx];
+    }
+
+
+    /**
+     * Get the end position of a hit.
+     *
+     * @param idx
+     *            the index of the hit
+     * @return the position after the last token of the match
+     */
+    public int getEnd(int idx) {
+        checkIndex(idx);
+        return ends[idx];
+    }
+
+
+    /**
+     * Append all hits of another hit list.
+     *
+     * @param other
+     *            the other hit list
+     */
+    public void addAll(HitList other) {
+        if (other == null) {
+            throw new NullPointerException("other == null");
+        }
+        final int capacity = size + other.size;
+        if (capacity > docs.length) {
+            docs = Arrays.copyOf(docs, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        System.arraycopy(other.docs, 0, docs, size, other.size);
+        System.arraycopy(other.starts, 0, starts, size, other.size);
+        System.arraycopy(other.ends, 0, ends, size, other.size);
+        size = capacity;
+    }
+
+
+    /**
+     * Set the total number of hits of the result set, if this list does not
+     * contain all hits.
+     *
+     * @param totalCount
+     *            the total number of hits
+     * @param precision
+     *            the precision of the total number of hits
+     */
+    public void setTotalCount(int totalCount,
+            SRUResultCountPrecision precision) {
+        if (totalCount < 0) {
+            throw new IllegalArgumentException("totalCount < 0");
+        }
+        if (precision == null) {
+            throw new NullPointerException("precision == null");
+        }
+        this.totalCount = totalCount;
+        this.totalCountPrecision = precision;
+    }
+
+
+    /**
+     * Get the total number of hits of the result set.
+     *
+     * @return the total number of hits
+     */
+    public int getTotalCount() {
+        return (totalCount < 0) ? size : Math.max(size, totalCount);
+    }
+
+
+    /**
+     * Get the precision of the total number of hits.
+     *
+     * @return the precision of the total number of hits
+     */
+    public SRUResultCountPrecision getTotalCountPrecision() {
+        return totalCountPrecision;
+    }
+
+
+    /**
+     * Check, if this list contains all hits of the result set.
+     *
+     * @return <code>true</code> if this list is complete
+     */
+    public boolean isComplete() {
+        return (totalCountPrecision == SRUResultCountPrecision.EXACT) &&
+                (getTotalCount() == size);
+    }
+
+
+    /**
+     * Check, if this list contains the leading hits needed for a page.
+     *
+     * @param count
+     *            the number of leading hits needed
+     * @return <code>true</code> if enough hits are available
+     */
+    public boolean covers(long count) {
+        return isComplete() || (size >= count);
+    }
+
+
+    /**
+     * Release unused capacity.
+     */
+    public void trimToSize() {
+        if (size < docs.length) {
+            docs = Arrays.copyOf(docs, size);
+            starts = Arrays.copyOf(starts, size);
+            ends = Arrays.copyOf(ends, size);
+        }
+    }
+
+
+    private void checkIndex(int idx) {
+        if ((idx < 0) || (idx >= size)) {
+            throw new IndexOutOfBoundsException("idx = " + idx);
+        }
+    }
+
+} // class HitList
@@ -0,0 +1,133 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.index;
+
+
+/**
+ * Iterator over the delta-encoded positional postings of a single term. The
+ * iterator decodes the postings directly from the memory-mapped segment. It
+ * is <em>not thread-safe</em>.
+ */
+public final class PostingsIterator {
+    /**
+     * Document id returned, if the iterator is exhausted.
+     */
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+    private final DataCursor in;
+    private final int docFreq;
+    private int docsRead = 0;
+    private int doc = -1;
+    private int freq = 0;
+    private int positionsRead = 0;
+    private int position = 0;
+
+
+    PostingsIterator(DataCursor in, int docFreq) {
+        this.in = in;
+        this.docFreq = docFreq;
+    }
+
+
+    /**
+     * Get the number of documents in this postings list.
+     *
+     * @return the document frequency
+     */
+    public int getDocumentFrequency() {
+        return docFreq;
+    }
+
+
+    /**
+     * Advance to the next document.
+     *
+     * @return the id of the next document or {@link #NO_MORE_DOCS}
+     */
+    public int nextDoc() {
+        // skip unread positions of the current document
+        if (positionsRead < freq) {
+            in.skipVInts(freq - positionsRead);
+        }
+        if (docsRead == docFreq) {
+            doc = NO_MORE_DOCS;
+            freq = 0;
+            positionsRead = 0;
+            return doc;
+        }
+        docsRead++;
+        doc += in.readVInt();
+        freq = in.readVInt();
+        positionsRead = 0;
+        position = 0;
+        return doc;
+    }
+
+
+    /**
+     * Advance to the first document equal or greater than a target.
+     *
+     * @param target
+     *            the target document id
+     * @return the id of the document or {@link #NO_MORE_DOCS}
+     */
+    public int advance(int target) {
+        while (doc < target) {
+            nextDoc();
+        }
+        return doc;
+    }
+
+
+    /**
+     * Get the current document id.
+     *
+     * @return the current document id, <code>-1</code> if the iterator has
+     *         not been positioned yet, or {@link #NO_MORE_DOCS}
+     */
+    public int doc() {
+        return doc;
+    }
+
+
+    /**
+     * Get the number of occurrences of the term in the current document.
+     *
+     * @return the term frequency
+     */
+    public int freq() {
+        return freq;
+    }
+
+
+    /**
+     * Get the next position of the term in the current document. This method
+     * must not be called more than {@link #freq()} times per document.
+     *
+     * @return the next token position
+     */
+    public int nextPosition() {
+        if (positionsRead >= freq) {
+            throw new IllegalStateException("no more positions");
+        }
+        positionsRead++;
+        position += in.readVInt();
+        return position;
+    }
+
+} // class PostingsIterator
@@ -0,0 +1,331 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * An immutable, memory-mapped index segment. A segment contains a term
+ * dictionary and positional postings for each of its layers and a document
+ * store with a forward index used for rendering hits.
+ * <p>
+ * Opening a segment only maps the file and reads a few small tables; all
+ * other data is accessed directly in the mapped region, i.e. it is paged in
+ * on demand by the operating system and does not occupy the Java heap.
+ * </p>
+ * <p>
+ * Segments are created using {@link SegmentWriter}. This class is
+ * thread-safe.
+ * </p>
+ *
+ * @see SegmentWriter
+ */
+public final class Segment implements Closeable {
+    static final long MAGIC = 0x4643535345470001L; // "FCSSEG" + 0x0001
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    private static final int DOC_TABLE_ENTRY_SIZE = 12;
+    private final File file;
+    private final ByteBuffer buffer;
+    private final int documentCount;
+    private final long tokenCount;
+    private final Map<String, TermDictionary> layers;
+    private final Map<String, Integer> resources;
+    private final List<String> resourcePids;
+    private final int docTableOffset;
+
+
+    private Segment(File file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+
+        if (buffer.capacity() < HEADER_SIZE) {
+            throw new IOException("not a segment file: " + file);
+        }
+        final DataCursor in = new DataCursor(buffer, 0);
+        if (in.readLong() != MAGIC) {
+            throw new IOException("not a segment file: " + file);
+        }
+        final int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("unsupported segment format version " +
+                    version + ": " + file);
+        }
+        this.documentCount = in.readInt();
+        this.tokenCount = in.readLong();
+        final int layerCount = in.readInt();
+        final int resourceCount = in.readInt();
+        final int layerTableOffset = toOffset(in.readLong());
+        this.docTableOffset = toOffset(in.readLong());
+        final int resourceTableOffset = toOffset(in.readLong());
+
+        // layers
+        final Map<String, TermDictionary> layers = new LinkedHashMap<>();
+        in.seek(layerTableOffset);
+        for (int i = 0; i < layerCount; i++) {
+            final String name = in.readString();
+            final int termCount = in.readInt();
+            final int termTableOffset = toOffset(in.readLong());
+            layers.put(name, new TermDictionary(this, i, name, termCount,
+                    termTableOffset));
+        }
+        this.layers = Collections.unmodifiableMap(layers);
+
+        // resources, only the position of the document list is kept
+        final Map<String, Integer> resources = new HashMap<>();
+        final List<String> resourcePids = new ArrayList<>(resourceCount);
+        in.seek(resourceTableOffset);
+        for (int i = 0; i < resourceCount; i++) {
+            final String pid = in.readString();
+            resources.put(pid, in.position());
+            resourcePids.add(pid);
+            in.skipVInts(in.readVInt());
+        }
+        this.resources = resources;
+        this.resourcePids = Collections.unmodifiableList(resourcePids);
+    }
+
+
+    /**
+     * Open a segment by memory-mapping the given file.
+     *
+     * @param file
+     *            the segment file
+     * @return the segment
+     * @throws IOException
+     *             if the file could not be mapped or is not a valid segment
+     */
+    public static Segment open(File file) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file == null");
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("segment file too large: " + file);
+            }
+            final MappedByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            // the mapping stays valid after the channel has been closed
+            return new Segment(file, buffer);
+        }
+    }
+
+
+    /**
+     * Get the file this segment was opened from.
+     *
+     * @return the segment file
+     */
+    public File getFile() {
+        return file;
+    }
+
+
+    /**
+     * Get the number of documents in this segment.
+     *
+     * @return the number of documents
+     */
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+
+    /**
+     * Get the total number of tokens in this segment.
+     *
+     * @return the number of tokens
+     */
+    public long getTokenCount() {
+        return tokenCount;
+    }
+
+
+    /**
+     * Get the identifiers of the layers available in this segment.
+     *
+     * @return the set of layer identifiers
+     */
+    public Set<String> getLayers() {
+        return layers.keySet();
+    }
+
+
+    /**
+     * Check, if this segment contains a given layer.
+     *
+     * @param layer
+     *            the layer identifier
+     * @return <code>true</code> if the layer exists, <code>false</code>
+     *         otherwise
+     */
+    public boolean hasLayer(String layer) {
+        return layers.containsKey(layer);
+    }
+
+
+    /**
+     * Get the term dictionary of a layer.
+     *
+     * @param layer
+     *            the layer identifier
+     * @return the term dictionary or <code>null</code> if the segment does not
+     *         contain the layer
+     */
+    public TermDictionary getTermDictionary(String layer) {
+        return layers.get(layer);
+    }
+
+
+    /**
+     * Get the persistent identifiers of all resources that have documents in
+     * this segment.
+     *
+     * @return the list of resource persistent identifiers
+     */
+    public List<String> getResourcePids() {
+        return resourcePids;
+    }
+
+
+    /**
+     * Mark all documents belonging to a resource in a bit set.
+     *
+     * @param resourcePid
+     *            the persistent identifier of the resource
+     * @param documents
+     *            the bit set
+     * @return <code>true</code> if the segment contains documents of the
+     *         resource, <code>false</code> otherwise
+     */
+    public boolean collectDocuments(String resourcePid, BitSet documents) {
+        final Integer position = resources.get(resourcePid);
+        if (position == null) {
+            return false;
+        }
+        final DataCursor in = new DataCursor(buffer, position);
+        final int count = in.readVInt();
+        int doc = -1;
+        for (int i = 0; i < count; i++) {
+            doc += in.readVInt();
+            documents.set(doc);
+        }
+        return count > 0;
+    }
+
+
+    /**
+     * Get the length (number of tokens) of a document.
+     *
+     * @param doc
+     *            the document id
+     * @return the number of tokens in the document
+     */
+    public int getDocumentLength(int doc) {
+        checkDocument(doc);
+        return buffer.getInt(docTableOffset + doc * DOC_TABLE_ENTRY_SIZE + 8);
+    }
+
+
+    /**
+     * Load a document from the document store.
+     *
+     * @param doc
+     *            the document id
+     * @return the stored document
+     */
+    public StoredDocument getDocument(int doc) {
+        checkDocument(doc);
+        final int entry = docTableOffset + doc * DOC_TABLE_ENTRY_SIZE;
+        final int offset = (int) buffer.getLong(entry);
+        final int length = buffer.getInt(entry + 8);
+        final DataCursor in = new DataCursor(buffer, offset);
+        final String resourcePid = resourcePids.get(in.readVInt());
+        final String ref = in.readString();
+        final int sentenceCount = in.readVInt();
+        final int[] sentences = new int[sentenceCount + 1];
+        for (int i = 1; i <= sentenceCount; i++) {
+            sentences[i] = sentences[i - 1] + in.readVInt();
+        }
+        return new StoredDocument(this, doc, resourcePid, ref, length,
+                sentences, in.position());
+    }
+
+
+    /**
+     * Close this segment. The memory mapping is released, once the segment
+     * is no longer referenced.
+     */
+    @Override
+    public void close() {
+        // nothing to do; the mapping is released by the garbage collector
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getClass().getSimpleName());
+        sb.append("[");
+        sb.append("file=").append(file);
+        sb.append(", documents=").append(documentCount);
+        sb.append(", tokens=").append(tokenCount);
+        sb.append(", layers=").append(layers.keySet());
+        sb.append("]");
+        return sb.toString();
+    }
+
+
+    DataCursor cursor(int position) {
+        return new DataCursor(buffer, position);
+    }
+
+
+    private void checkDocument(int doc) {
+        if ((doc < 0) || (doc >= documentCount)) {
+            throw new IndexOutOfBoundsException("doc = " + doc);
+        }
+    }
+
+
+    private int toOffset(long offset) throws IOException {
+        if ((offset < HEADER_SIZE) || (offset > buffer.capacity())) {
+            throw new IOException("corrupt segment file: " + file);
+        }
+        return (int) offset;
+    }
+
+} // class Segment
@@ -0,0 +1,935 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.index;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.z3950.zing.cql.CQLAndNode;
+import org.z3950.zing.cql.CQLNode;
+import org.z3950.zing.cql.CQLNotNode;
+import org.z3950.zing.cql.CQLOrNode;
+import org.z3950.zing.cql.CQLTermNode;
+
+import eu.clarin.sru.fcs.qlparser.fcs.Expression;
+import eu.clarin.sru.fcs.qlparser.fcs.ExpressionAnd;
+import eu.clarin.sru.fcs.qlparser.fcs.ExpressionOr;
+import eu.clarin.sru.fcs.qlparser.fcs.Operator;
+import eu.clarin.sru.fcs.qlparser.fcs.QueryGroup;
+import eu.clarin.sru.fcs.qlparser.fcs.QueryNode;
+import eu.clarin.sru.fcs.qlparser.fcs.QuerySegment;
+import eu.clarin.sru.fcs.qlparser.fcs.QueryWithWithin;
+import eu.clarin.sru.fcs.qlparser.fcs.RegexFlag;
+import eu.clarin.sru.fcs.qlparser.fcs.SimpleWithin;
+import eu.clarin.sru.server.SRUConstants;
+import eu.clarin.sru.server.SRUException;
+import eu.clarin.sru.server.fcs.Constants;
+
+
+/**
+ * A query compiled for evaluation against {@link Segment}s. Queries are
+ * created from FCS-QL query nodes (Advanced Search) or CQL query nodes (Basic
+ * Search) and are immutable, i.e. a compiled query can be evaluated against
+ * several segments concurrently.
+ */
+public abstract class SegmentQuery {
+    /**
+     * The maximum number of terms a regular expression may expand to.
+     */
+    public static final int MAX_TERM_EXPANSIONS = 65536;
+    /**
+     * The number of repetitions used for an unbounded quantifier.
+     */
+    public static final int MAX_UNBOUNDED_REPETITIONS = 64;
+    private static final String CQL_SERVER_CHOICE = "cql.serverChoice";
+    private static final String REGEX_META_CHARACTERS = "\\.[]{}()*+?^$|";
+
+
+    SegmentQuery() {
+    }
+
+
+    /**
+     * Create the spans for evaluating this query against a segment.
+     *
+     * @param segment
+     *            the segment
+     * @param acceptDocs
+     *            the documents to consider or <code>null</code> to consider
+     *            all documents of the segment
+     * @return the spans
+     * @throws SRUException
+     *             if the query cannot be evaluated against the segment
+     */
+    public abstract Spans spans(Segment segment, BitSet acceptDocs)
+            throws SRUException;
+
+
+    /**
+     * Count the hits of this query in a segment using index statistics only,
+     * i.e. without evaluating spans. This is supported for single token
+     * queries that do not depend on positions.
+     *
+     * @param segment
+     *            the segment
+     * @param acceptDocs
+     *            the documents to consider or <code>null</code> to consider
+     *            all documents of the segment
+     * @return the number of hits or <code>-1</code>, if the hits cannot be
+     *         counted without evaluating the spans of this query
+     * @throws SRUException
+     *             if the query cannot be evaluated against the segment
+     */
+    public long count(Segment segment, BitSet acceptDocs)
+            throws SRUException {
+        return -1;
+    }
+
+
+    /**
+     * Get the identifiers of all layers referenced by this query.
+     *
+     * @return the set of layer identifiers
+     */
+    public final Set<String> getLayers() {
+        final Set<String> layers = new java.util.TreeSet<>();
+        collectLayers(layers);
+        return Collections.unmodifiableSet(layers);
+    }
+
+
+    abstract void collectLayers(Set<String> layers);
+
+
+    /**
+     * Check, if this query matches single tokens only.
+     */
+    boolean isTokenLevel() {
+        return false;
+    }
+
+
+    /**
+     * Compile a FCS-QL query.
+     *
+     * @param query
+     *            the parsed FCS-QL query
+     * @return the compiled query
+     * @throws SRUException
+     *             if the query uses unsupported features
+     */
+    public static SegmentQuery fromFCSQuery(QueryNode query)
+            throws SRUException {
+        if (query == null) {
+            throw new NullPointerException("query == null");
+        }
+        return compileQuery(query);
+    }
+
+
+    /**
+     * Compile a CQL query for Basic Search. Search terms are matched against
+     * the given layer. A search term consisting of several words is treated
+     * as a phrase and the CQL masking characters <code>*</code> and
+     * <code>?</code> are supported. The boolean operators <code>AND</code>
+     * and <code>NOT</code> are evaluated on document level.
+     *
+     * @param query
+     *            the parsed CQL query
+     * @param layer
+     *            the identifier of the layer to search
+     * @return the compiled query
+     * @throws SRUException
+     *             if the query uses unsupported features
+     */
+    public static SegmentQuery fromCQLQuery(CQLNode query, String layer)
+            throws SRUException {
+        if (query == null) {
+            throw new NullPointerException("query == null");
+        }
+        if (layer == null) {
+            throw new NullPointerException("layer == null");
+        }
+        if (query instanceof CQLTermNode) {
+            final CQLTermNode node = (CQLTermNode) query;
+            final String index = node.getIndex();
+            if (!CQL_SERVER_CHOICE.equalsIgnoreCase(index) &&
+                    !layer.equals(index)) {
+                throw new SRUException(SRUConstants.SRU_UNSUPPORTED_INDEX,
+                        index, "Index '" + index + "' is not supported.");
+            }
+            final String relation = node.getRelation().getBase();
+            if (!"=".equals(relation) && !"==".equals(relation) &&
+                    !"scr".equalsIgnoreCase(relation) &&
+                    !"adj".equalsIgnoreCase(relation)) {
+                throw new SRUException(SRUConstants.SRU_UNSUPPORTED_RELATION,
+                        relation,
+                        "Relation '" + relation + "' is not supported.");
+            }
+            final List<SegmentQuery> words = new ArrayList<>();
+            for (String word : node.getTerm().trim().split("\\s+")) {
+                if (!word.isEmpty()) {
+                    words.add(cqlWord(layer, word));
+                }
+            }
+            if (words.isEmpty()) {
+                throw new SRUException(SRUConstants.SRU_QUERY_SYNTAX_ERROR,
+                        "Empty search term.");
+            }
+            return (words.size() == 1)
+                    ? words.get(0) : new SequenceQuery(words);
+        } else if (query instanceof CQLOrNode) {
+            final CQLOrNode node = (CQLOrNode) query;
+            return new OrQuery(Arrays.asList(
+                    fromCQLQuery(node.getLeftOperand(), layer),
+                    fromCQLQuery(node.getRightOperand(), layer)));
+        } else if (query instanceof CQLAndNode) {
+            final CQLAndNode node = (CQLAndNode) query;
+            return new DocumentAndQuery(
+                    fromCQLQuery(node.getLeftOperand(), layer),
+                    fromCQLQuery(node.getRightOperand(), layer));
+        } else if (query instanceof CQLNotNode) {
+            final CQLNotNode node = (CQLNotNode) query;
+            return new DocumentNotQuery(
+                    fromCQLQuery(node.getLeftOperand(), layer),
+                    fromCQLQuery(node.getRightOperand(), layer));
+        } else {
+            throw new SRUException(SRUConstants.SRU_QUERY_FEATURE_UNSUPPORTED,
+                    "Query feature '" + query.getClass().getSimpleName() +
+                    "' is not supported.");
+        }
+    }
+
+
+    private static SegmentQuery cqlWord(String layer, String word)
+            throws SRUException {
+        final StringBuilder regex = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+        boolean masked = false;
+        for (int i = 0; i < word.length(); i++) {
+            final char c = word.charAt(i);
+            if ((c == '\\') && (i + 1 < word.length())) {
+                final char next = word.charAt(++i);
+                literal.append(next);
+                regex.append(Pattern.quote(String.valueOf(next)));
+            } else if (c == '*') {
+                masked = true;
+                regex.append(".*");
+            } else if (c == '?') {
+                masked = true;
+                regex.append('.');
+            } else {
+                literal.append(c);
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        if (masked) {
+            return new TermQuery(layer, regex.toString(), false, false);
+        } else {
+            return new TermQuery(layer, literal.toString(), true, false);
+        }
+    }
+
+
+    private static SegmentQuery compileQuery(QueryNode node)
+            throws SRUException {
+        switch (node.getNodeType()) {
+        case QUERY_SEGMENT: {
+            final QuerySegment segment = (QuerySegment) node;
+            return repeat(compileExpression(segment.getExpression()),
+                    segment.getMinOccurs(), segment.getMaxOccurs());
+        }
+        case QUERY_GROUP: {
+            final QueryGroup group = (QueryGroup) node;
+            return repeat(compileQuery(group.getContent()),
+                    group.getMinOccurs(), group.getMaxOccurs());
+        }
+        case QUERY_SEQUENCE: {
+            final List<SegmentQuery> elements = new ArrayList<>();
+            for (QueryNode child : node.getChildren()) {
+                elements.add(compileQuery(child));
+            }
+            boolean required = false;
+            for (SegmentQuery element : elements) {
+                if (!(element instanceof OptionalQuery)) {
+                    required = true;
+                    break;
+                }
+            }
+            if (!required) {
+                throw new SRUException(
+                        Constants.FCS_DIAGNOSTIC_GENERAL_QUERY_TOO_COMPLEX_CANNOT_PERFORM_QUERY,
+                        "A sequence must contain at least one " +
+                        "non-optional element.");
+            }
+            return new SequenceQuery(elements);
+        }
+        case QUERY_DISJUNCTION: {
+            final List<SegmentQuery> alternatives = new ArrayList<>();
+            for (QueryNode child : node.getChildren()) {
+                alternatives.add(required(compileQuery(child)));
+            }
+            return new OrQuery(alternatives);
+        }
+        case QUERY_WITH_WITHIN: {
+            final QueryWithWithin within = (QueryWithWithin) node;
+            final SegmentQuery query = required(compileQuery(within.getQuery()));
+            final QueryNode scope = within.getWithin();
+            if (!(scope instanceof SimpleWithin)) {
+                throw new SRUException(SRUConstants.SRU_QUERY_FEATURE_UNSUPPORTED,
+                        "Within clause is not supported.");
+            }
+            switch (((SimpleWithin) scope).getScope()) {
+            case SENTENCE:
+                return new WithinSentenceQuery(query);
+            case TEXT:
+            case SESSION:
+                // documents never cross text boundaries
+                return query;
+            default:
+                throw new SRUException(SRUConstants.SRU_QUERY_FEATURE_UNSUPPORTED,
+                        "Within scope '" +
+                        ((SimpleWithin) scope).getScope() +
+                        "' is not supported.");
+            }
+        }
+        default:
+            throw new SRUException(SRUConstants.SRU_QUERY_FEATURE_UNSUPPORTED,
+                    "Query node type '" + node.getNodeType() +
+                    "' is not supported.");
+        }
+    }
+
+
+    private static SegmentQuery compileExpression(QueryNode node)
+            throws SRUException {
+        switch (node.getNodeType()) {
+        case EXPRESSION: {
+            final Expression expression = (Expression) node;
+            String layer = expression.getLayerIdentifier();
+            if (expression.getLayerQualifier() != null) {
+                layer = expression.getLayerQualifier() + ":" + layer;
+            }
+            final Set<RegexFlag> flags = expression.getRegexFlags();
+            boolean literal = false;
+            boolean caseInsensitive = false;
+            if (flags != null) {
+                if (flags.contains(RegexFlag.IGNORE_DIACRITICS)) {
+                    throw new SRUException(
+                            SRUConstants.SRU_QUERY_FEATURE_UNSUPPORTED,
+                            "Regular expression flag 'ignore diacritics' " +
+                            "is not supported.");
+                }
+                literal = flags.contains(RegexFlag.LITERAL_MATCHING);
+                caseInsensitive = flags.contains(RegexFlag.CASE_INSENSITIVE) &&
+                        !flags.contains(RegexFlag.CASE_SENSITIVE);
+            }
+            final String value = expression.getRegexValue();
+            if (!literal && !caseInsensitive && isLiteral(value)) {
+                literal = true;
+            }
+            final SegmentQuery term =
+                    new TermQuery(layer, value, literal, caseInsensitive);
+            if (expression.getOperator() == Operator.NOT_EQUALS) {
+                return new NotQuery(term);
+            }
+            return term;
+        }
+        case EXPRESSION_WILDCARD:
+            return new AllTokensQuery();
+        case EXPRESSION_GROUP:
+            return compileExpression(node.getChild(0));
+        case EXPRESSION_OR: {
+            final List<SegmentQuery> operands = new ArrayList<>();
+            for (QueryNode operand : ((ExpressionOr) node).getOperands()) {
+                operands.add(compileExpression(operand));
+            }
+            return new OrQuery(operands);
+        }
+        case EXPRESSION_AND: {
+            final List<SegmentQuery> operands = new ArrayList<>();
+            for (QueryNode operand : ((ExpressionAnd) node).getOperands()) {
+                operands.add(compileExpression(operand));
+            }
+            return new AndQuery(operands);
+        }
+        case EXPRESSION_NOT:
+            return new NotQuery(compileExpression(node.getChild(0)));
+        default:
+            throw new SRUException(SRUConstants.SRU_QUERY_FEATURE_UNSUPPORTED,
+                    "Expression type '" + node.getNodeType() +
+                    "' is not supported.");
+        }
+    }
+
+
+    private static SegmentQuery repeat(SegmentQuery query, int min, int max) {
+        if ((min == 1) && (max == 1)) {
+            return query;
+        }
+        final boolean optional = min == 0;
+        if (max == QueryNode.OCCURS_UNBOUNDED) {
+            max = MAX_UNBOUNDED_REPETITIONS;
+        }
+        min = Math.max(1, min);
+        max = Math.max(min, max);
+        final SegmentQuery result = ((min == 1) && (max == 1))
+                ? query : new RepeatQuery(query, min, max);
+        return optional ? new OptionalQuery(result) : result;
+    }
+
+
+    private static SegmentQuery required(SegmentQuery query) {
+        if (query instanceof OptionalQuery) {
+            return ((OptionalQuery) query).query;
+        }
+        return query;
+    }
+
+
+    private static boolean isLiteral(String regex) {
+        for (int i = 0; i < regex.length(); i++) {
+            if (REGEX_META_CHARACTERS.indexOf(regex.charAt(i)) != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Get the literal prefix of a regular expression, i.e. the part every
+     * matching term must start with.
+     */
+    private static String literalPrefix(String regex) {
+        if (regex.indexOf('|') != -1) {
+            return "";
+        }
+        int i = 0;
+        while ((i < regex.length()) &&
+                (REGEX_META_CHARACTERS.indexOf(regex.charAt(i)) == -1)) {
+            i++;
+        }
+        if ((i < regex.length()) && (i > 0)) {
+            // a quantifier makes the preceding character optional
+            final char c = regex.charAt(i);
+            if ((c == '?') || (c == '*') || (c == '{')) {
+                i--;
+            }
+        }
+        return regex.substring(0, i);
+    }
+
+
+    private static List<Spans> spansOf(List<SegmentQuery> queries,
+            Segment segment, BitSet acceptDocs) throws SRUException {
+        final List<Spans> result = new ArrayList<>(queries.size());
+        for (SegmentQuery query : queries) {
+            result.add(query.spans(segment, acceptDocs));
+        }
+        return result;
+    }
+
+
+    /**
+     * A token matching a (literal or regular expression) term on a layer.
+     */
+    static final class TermQuery extends SegmentQuery {
+        private final String layer;
+        private final String value;
+        private final Pattern pattern;
+        private final byte[] prefix;
+
+
+        TermQuery(String layer, String value, boolean literal,
+                boolean caseInsensitive) throws SRUException {
+            this.layer = layer;
+            this.value = value;
+            if (literal && !caseInsensitive) {
+                this.pattern = null;
+                this.prefix = null;
+            } else {
+                int flags = 0;
+                if (literal) {
+                    flags |= Pattern.LITERAL;
+                }
+                if (caseInsensitive) {
+                    flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+                }
+                try {
+                    this.pattern = Pattern.compile(value, flags);
+                } catch (PatternSyntaxException e) {
+                    throw new SRUException(
+                            Constants.FCS_DIAGNOSTIC_GENERAL_QUERY_SYNTAX_ERROR,
+                            value,
+                            "Invalid regular expression: " + e.getDescription());
+                }
+                this.prefix = caseInsensitive ? new byte[0] :
+                        literalPrefix(value).getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
+
+        @Override
+        public Spans spans(Segment segment, BitSet acceptDocs)
+                throws SRUException {
+            final TermDictionary dictionary = segment.getTermDictionary(layer);
+            if (dictionary == null) {
+                return Spans.empty();
+            }
+            final int[] ords = expand(dictionary);
+            switch (ords.length) {
+            case 0:
+                return Spans.empty();
+            case 1:
+                return new Spans.TermSpans(dictionary.postings(ords[0]),
+                        acceptDocs);
+            default:
+                final List<Spans> terms = new ArrayList<>(ords.length);
+                for (int ord : ords) {
+                    terms.add(new Spans.TermSpans(dictionary.postings(ord),
+                            acceptDocs));
+                }
+                return new Spans.OrSpans(terms);
+            }
+        }
+
+
+        /**
+         * Count using the total term frequencies or, if only some documents
+         * are accepted, the per-document term frequencies of the postings.
+         */
+        @Override
+        public long count(Segment segment, BitSet acceptDocs)
+                throws SRUException {
+            final TermDictionary dictionary = segment.getTermDictionary(layer);
+            if (dictionary == null) {
+                return 0;
+            }
+            long count = 0;
+            for (int ord : expand(dictionary)) {
+                if (acceptDocs == null) {
+                    count += dictionary.getTotalFrequency(ord);
+                } else {
+                    final PostingsIterator postings = dictionary.postings(ord);
+                    int doc;
+                    while ((doc = postings.nextDoc()) !=
+                            PostingsIterator.NO_MORE_DOCS) {
+                        if (acceptDocs.get(doc)) {
+                            count += postings.freq();
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+
+
+        /**
+         * Get the ordinals of all terms matching this query.
+         */
+        private int[] expand(TermDictionary dictionary) throws SRUException {
+            if (pattern == null) {
+                final int ord = dictionary.seek(value);
+                return (ord < 0) ? new int[0] : new int[] { ord };
+            }
+
+            int ord = 0;
+            if (prefix.length > 0) {
+                ord = dictionary.seek(prefix);
+                if (ord < 0) {
+                    ord = -ord - 1;
+                }
+            }
+            int[] ords = new int[8];
+            int count = 0;
+            for (; ord < dictionary.size(); ord++) {
+                if ((prefix.length > 0) &&
+                        !dictionary.startsWith(ord, prefix)) {
+                    break;
+                }
+                if (pattern.matcher(dictionary.getTerm(ord)).matches()) {
+                    if (count == MAX_TERM_EXPANSIONS) {
+                        throw new SRUException(
+                                Constants.FCS_DIAGNOSTIC_GENERAL_QUERY_TOO_COMPLEX_CANNOT_PERFORM_QUERY,
+                                value,
+                                "Regular expression matches too many terms.");
+                    }
+                    if (count == ords.length) {
+                        ords = Arrays.copyOf(ords, count * 2);
+                    }
+                    ords[count++] = ord;
+                }
+            }
+            return Arrays.copyOf(ords, count);
+        }
+
+
+        @Override
+        void collectLayers(Set<String> layers) {
+            layers.add(layer);
+        }
+
+
+        @Override
+        boolean isTokenLevel() {
+            return true;
+        }
+    }
+
+
+    /**
+     * Any token (<code>[]</code>).
+     */
+    static final class AllTokensQuery extends SegmentQuery {
+        @Override
+        public Spans spans(Segment segment, BitSet acceptDocs) {
+            return new Spans.AllTokensSpans(segment, acceptDocs);
+        }
+
+
+        @Override
+        public long count(Segment segment, BitSet acceptDocs) {
+            if (acceptDocs == null) {
+                return segment.getTokenCount();
+            }
+            long count = 0;
+            for (int doc = acceptDocs.nextSetBit(0);
+                    (doc >= 0) && (doc < segment.getDocumentCount());
+                    doc = acceptDocs.nextSetBit(doc + 1)) {
+                count += segment.getDocumentLength(doc);
+            }
+            return count;
+        }
+
+
+        @Override
+        void collectLayers(Set<String> layers) {
+        }
+
+
+        @Override
+        boolean isTokenLevel() {
+            return true;
+        }
+    }
+
+
+    /**
+     * Tokens not matching a token-level query.
+     */
+    static final class NotQuery extends SegmentQuery {
+        private final SegmentQuery query;
+
+
+        NotQuery(SegmentQuery query) {
+            this.query = query;
+        }
+
+
+        @Override
+        public Spans spans(Segment segment, BitSet acceptDocs)
+                throws SRUException {
+            return new Spans.NotSpans(segment, acceptDocs,
+                    query.spans(segment, acceptDocs));
+        }
+
+
+        @Override
+        void collectLayers(Set<String> layers) {
+            query.collectLayers(layers);
+        }
+
+
+        @Override
+        boolean isTokenLevel() {
+            return true;
+        }
+    }
+
+
+    /**
+     * Tokens matching all of several token-level queries.
+     */
+    static final class AndQuery extends SegmentQuery {
+        private final List<SegmentQuery> operands;
+
+
+        AndQuery(List<SegmentQuery> operands) {
+            this.operands = operands;
+        }
+
+
+        @Override
+        public Spans spans(Segment segment, BitSet acceptDocs)
+                throws SRUException {
+            final List<Spans> spans = spansOf(operands, segment, acceptDocs);
+            return new Spans.AndSpans(spans.toArray(new Spans[spans.size()]));
+        }
+
+
+        @Override
+        void collectLayers(Set<String> layers) {
+            for (SegmentQuery operand : operands) {
+                operand.collectLayers(layers);
+            }
+        }
+
+
+        @Override
+        boolean isTokenLevel() {
+            return true;
+        }
+    }
+
+
+    /**
+     * Matches of any of several queries.
+     */
+    static final class OrQuery extends SegmentQuery {
+        private final List<SegmentQuery> operands;
+
+
+        OrQuery(List<SegmentQuery> operands) {
+            this.operands = operands;
+        }
+
+
+        @Override
+        public Spans spans(Segment segment, BitSet acceptDocs)
+                throws SRUException {
+            return new Spans.OrSpans(spansOf(operands, segment, acceptDocs));
+        }
+
+
+        @Override
+        void collectLayers(Set<String> layers) {
+            for (SegmentQuery operand : operands) {
+                operand.collectLayers(layers);
+            }
+        }
+
+
+        @Override
+        boolean isTokenLevel() {
+            for (SegmentQuery operand : operands) {
+                if (!operand.isTokenLevel()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * Marker for an optional element of a sequence.
+     */
+    static final class OptionalQuery extends SegmentQuery {
+        private final SegmentQuery query;
+
+
+        OptionalQuery(SegmentQuery query) {
+            this.query = query;
+        }
+
+
+        @Override
+        public Spans spans(Segment segment, BitSet acceptDocs)
+                throws SRUException {
+            // outside of a sequence an optional query is required
+            return query.spans(segment, acceptDocs);
+        }
+
+
+        @Override
+        void collectLayers(Set<String> layers) {
+            query.collectLayers(layers);
+        }
+    }
+
+
+    /**
+     * A sequence of adjacent matches.
+     */
+    static final class SequenceQuery extends SegmentQuery {
+        private final List<SegmentQuery> elements;
+
+
+        SequenceQuery(List<SegmentQuery> elements) {
+            this.elements = elements;
+        }
+
+
+        @Override
+        public Spans spans(Segment segment, BitSet acceptDocs)
+                throws SRUException {
+            final Spans[] spans = new Spans[elements.size()];
+            final boolean[] optional = new boolean[elements.size()];
+            final List<Spans> required = new ArrayList<>();
+            for (int i = 0; i < spans.length; i++) {
+                final SegmentQuery element = elements.get(i);
+                spans[i] = element.spans(segment, acceptDocs);
+                optional[i] = element instanceof OptionalQuery;
+                if (!optional[i]) {
+                    required.add(spans[i]);
+                }
+            }
+            return new Spans.SequenceSpans(
+                    required.toArray(new Spans[required.size()]),
+                    spans, optional);
+        }
+
+
+        @Override
+        void collectLayers(Set<String> layers) {
+            for (SegmentQuery element : elements) {
+                element.collectLayers(layers);
+            }
+        }
+    }
+
+
+    /**
+     * A repetition of adjacent matches.
+     */
+    static final class RepeatQuery extends SegmentQuery {
+        private final SegmentQuery query;
+        private final int min;
+        private final int max;
+
+
+        RepeatQuery(SegmentQuery query, int min, int max) {
+            this.query = query;
+            this.min = min;
+            this.max = max;
+        }
+
+
+        @Override
+        public Spans spans(Segment segment, BitSet acceptDocs)
+                throws SRUException {
+            return new Spans.RepeatSpans(query.spans(segment, acceptDocs),
+                    min, max);
+        }
+
+
+        @Override
+        void collectLayers(Set<String> layers) {
+            query.collectLayers(layers);
+        }
+    }
+
+
+    /**
+     * Matches that do not cross a sentence boundary.
+     */
+    static final class WithinSentenceQuery extends SegmentQuery {
+        private final SegmentQuery query;
+
+
+        WithinSentenceQuery(SegmentQuery query) {
+            this.query = query;
+        }
+
+
+        @Override
+        public Spans spans(Segment segment, BitSet acceptDocs)
+                throws SRUException {
+            return new Spans.WithinSentenceSpans(segment,
+                    query.spans(segment, acceptDocs));
+        }
+
+
+        @Override
+        void collectLayers(Set<String> layers) {
+            query.collectLayers(layers);
+        }
+    }
+
+
+    /**
+     * Matches of two queries in documents matching both queries.
+     */
+    static final class DocumentAndQuery extends SegmentQuery {
+        private final SegmentQuery left;
+        private final SegmentQuery right;
+
+
+        DocumentAndQuery(SegmentQuery left, SegmentQuery right) {
+            this.left = left;
+            this.right = right;
+        }
+
+
+        @Override
+        public Spans spans(Segment segment, BitSet acceptDocs)
+                throws SRUException {
+            return new Spans.DocumentAndSpans(new Spans[] {
+                    left.spans(segment, acceptDocs),
+                    right.spans(segment, acceptDocs) });
+        }
+
+
+        @Override
+        void collectLayers(Set<String> layers) {
+            left.collectLayers(layers);
+            right.collectLayers(layers);
+        }
+    }
+
+
+    /**
+     * Matches of a query in documents not matching another query.
+     */
+    static final class DocumentNotQuery extends SegmentQuery {
+        private final SegmentQuery query;
+        private final SegmentQuery excluded;
+
+
+        DocumentNotQuery(SegmentQuery query, SegmentQuery excluded) {
+            this.query = query;
+            this.excluded = excluded;
+        }
+
+
+        @Override
+        public Spans spans(Segment segment, BitSet acceptDocs)
+                throws SRUException {
+            return new Spans.DocumentNotSpans(
+                    query.spans(segment, acceptDocs),
+                    excluded.spans(segment, acceptDocs));
+        }
+
+
+        @Override
+        void collectLayers(Set<String> layers) {
+            query.collectLayers(layers);
+            excluded.collectLayers(layers);
+        }
+    }
+
+} // class SegmentQuery
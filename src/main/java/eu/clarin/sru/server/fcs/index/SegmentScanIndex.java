@@ -0,0 +1,188 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import eu.clarin.sru.server.SRUScanResultSet.WhereInList;
+import eu.clarin.sru.server.fcs.search.ScanIndex;
+import eu.clarin.sru.server.fcs.search.ScanTerm;
+
+
+/**
+ * A {@link ScanIndex} over the terms of a layer of several {@link Segment}s.
+ * Each term dictionary is positioned using binary search and the
+ * dictionaries are merged while stepping through the requested window only.
+ * The number of records of a term is its total frequency, which is computed
+ * when the segments are written.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class SegmentScanIndex implements ScanIndex {
+    private final TermDictionary[] dictionaries;
+
+
+    /**
+     * Constructor.
+     *
+     * @param segments
+     *            the segments
+     * @param layer
+     *            the layer identifier
+     */
+    public SegmentScanIndex(List<Segment> segments, String layer) {
+        if (segments == null) {
+            throw new NullPointerException("segments == null");
+        }
+        if (layer == null) {
+            throw new NullPointerException("layer == null");
+        }
+        final List<TermDictionary> result = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            final TermDictionary dictionary = segment.getTermDictionary(layer);
+            if ((dictionary != null) && (dictionary.size() > 0)) {
+                result.add(dictionary);
+            }
+        }
+        this.dictionaries = result.toArray(new TermDictionary[result.size()]);
+    }
+
+
+    @Override
+    public List<ScanTerm> scan(String term, int responsePosition,
+            int maximumTerms) {
+        if (term == null) {
+            throw new NullPointerException("term == null");
+        }
+        if ((maximumTerms <= 0) || (dictionaries.length == 0)) {
+            return Collections.emptyList();
+        }
+
+        // position each dictionary on the first term >= term
+        final int[] next = new int[dictionaries.length];
+        for (int i = 0; i < dictionaries.length; i++) {
+            final int ord = dictionaries[i].seek(term);
+            if (ord >= 0) {
+                next[i] = (responsePosition <= 0) ? ord + 1 : ord;
+            } else {
+                next[i] = -ord - 1;
+            }
+        }
+        final int[] previous = new int[dictionaries.length];
+        for (int i = 0; i < dictionaries.length; i++) {
+            previous[i] = next[i] - 1;
+        }
+
+        // collect the preceding terms backwards
+        final int before = (responsePosition <= 0)
+                ? 0 : Math.min(responsePosition - 1, maximumTerms);
+        final List<ScanTerm> preceding = new ArrayList<>(before);
+        final String[] current = new String[dictionaries.length];
+        while (preceding.size() < before) {
+            final ScanTerm t = step(previous, current, -1);
+            if (t == null) {
+                break;
+            }
+            preceding.add(t);
+        }
+        Collections.reverse(preceding);
+
+        // collect the following terms
+        final List<ScanTerm> window = new ArrayList<>(maximumTerms);
+        window.addAll(preceding);
+        while (window.size() < maximumTerms) {
+            final ScanTerm t = step(next, current, +1);
+            if (t == null) {
+                break;
+            }
+            window.add(t);
+        }
+        if (window.isEmpty()) {
+            return window;
+        }
+
+        final boolean hasBefore = hasTerm(previous);
+        final boolean hasAfter = hasTerm(next);
+        final List<ScanTerm> result = new ArrayList<>(window.size());
+        for (int i = 0; i < window.size(); i++) {
+            final boolean first = (i == 0) && !hasBefore;
+            final boolean last = (i == window.size() - 1) && !hasAfter;
+            WhereInList where = WhereInList.INNER;
+            if (first && last) {
+                where = WhereInList.ONLY;
+            } else if (first) {
+                where = WhereInList.FIRST;
+            } else if (last) {
+                where = WhereInList.LAST;
+            }
+            final ScanTerm t = window.get(i);
+            result.add(new ScanTerm(t.getValue(), null,
+                    t.getNumberOfRecords(), where));
+        }
+        return result;
+    }
+
+
+    /**
+     * Merge step: find the smallest (or largest, if stepping backwards) term
+     * at the positions of the dictionaries, sum its frequencies and move all
+     * dictionaries containing it.
+     */
+    private ScanTerm step(int[] positions, String[] current, int direction) {
+        String best = null;
+        for (int i = 0; i < dictionaries.length; i++) {
+            current[i] = null;
+            if ((positions[i] >= 0) &&
+                    (positions[i] < dictionaries[i].size())) {
+                current[i] = dictionaries[i].getTerm(positions[i]);
+                if ((best == null) ||
+                        (TERM_ORDER.compare(current[i], best) * direction < 0)) {
+                    best = current[i];
+                }
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        long frequency = 0;
+        for (int i = 0; i < dictionaries.length; i++) {
+            if (best.equals(current[i])) {
+                frequency += dictionaries[i].getTotalFrequency(positions[i]);
+                positions[i] += direction;
+            }
+        }
+        return new ScanTerm(best, null,
+                (int) Math.min(Integer.MAX_VALUE, frequency), null);
+    }
+
+
+    private boolean hasTerm(int[] positions) {
+        for (int i = 0; i < dictionaries.length; i++) {
+            if ((positions[i] >= 0) &&
+                    (positions[i] < dictionaries[i].size())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+} // class SegmentScanIndex
@@ -0,0 +1,1256 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.z3950.zing.cql.CQLNode;
+
+import eu.clarin.sru.fcs.qlparser.fcs.QueryNode;
+import eu.clarin.sru.server.SRUConfigException;
+import eu.clarin.sru.server.SRUConstants;
+import eu.clarin.sru.server.SRUDiagnosticList;
+import eu.clarin.sru.server.SRUException;
+import eu.clarin.sru.server.SRUQueryParserRegistry;
+import eu.clarin.sru.server.SRURequest;
+import eu.clarin.sru.server.SRUResultCountPrecision;
+import eu.clarin.sru.server.SRUSearchResultSet;
+import eu.clarin.sru.server.SRUServerConfig;
+import eu.clarin.sru.server.fcs.AdvancedDataViewWriter;
+import eu.clarin.sru.server.fcs.Constants;
+import eu.clarin.sru.server.fcs.DataView;
+import eu.clarin.sru.server.fcs.Layer;
+import eu.clarin.sru.server.fcs.ResourceInfo;
+import eu.clarin.sru.server.fcs.SearchContext;
+import eu.clarin.sru.server.fcs.SimpleEndpointSearchEngineBase;
+import eu.clarin.sru.server.fcs.XMLStreamWriterHelper;
+import eu.clarin.sru.server.fcs.metrics.EndpointMetrics;
+import eu.clarin.sru.server.fcs.search.CountResultSet;
+import eu.clarin.sru.server.fcs.search.FanOutExecutor;
+import eu.clarin.sru.server.fcs.search.PageCache;
+import eu.clarin.sru.server.fcs.search.PrefetchExecutor;
+import eu.clarin.sru.server.fcs.search.RecordCursor;
+import eu.clarin.sru.server.fcs.search.RecordPage;
+import eu.clarin.sru.server.fcs.search.RecordTape;
+import eu.clarin.sru.server.fcs.search.ResultSetCache;
+import eu.clarin.sru.server.fcs.search.ResultSetKey;
+import eu.clarin.sru.server.fcs.search.ScanIndex;
+import eu.clarin.sru.server.fcs.search.SingleFlight;
+import eu.clarin.sru.server.fcs.search.StreamingSearchResultSet;
+import eu.clarin.sru.server.fcs.utils.InitParameters;
+
+
+/**
+ * A base class for implementing a CLARIN-FCS endpoint that searches local,
+ * memory-mapped index {@link Segment}s. Basic Search (CQL) and Advanced
+ * Search (FCS-QL) are supported out of the box; hits are rendered using the
+ * Generic Hits and the Advanced Data Views.
+ * <p>
+ * The segments are opened in
+ * {@link #doInit(ServletContext, SRUServerConfig, eu.clarin.sru.server.SRUQueryParserRegistry.Builder, Map)}
+ * from the files listed in the {@value #FCS_INDEX_SEGMENTS_PARAM}
+ * init-parameter. Subclasses overriding <code>doInit()</code> or
+ * <code>doDestroy()</code> must call the super implementation.
+ * </p>
+ * <p>
+ * Segment layers are identified by the layer type (e.g. <code>text</code>
+ * or <code>lemma</code>), optionally prefixed by the layer qualifier and a
+ * colon (e.g. <code>ud:pos</code>), and are mapped to the layers of the
+ * endpoint description.
+ * </p>
+ * <p>
+ * Hit lists are kept in a {@link ResultSetCache}, so requests for further
+ * pages of a result set only render the requested records. The cache is
+ * configured using the init-parameters described there.
+ * </p>
+ * <p>
+ * The resources of the search context are searched concurrently using a
+ * {@link FanOutExecutor}; their hits are merged in the order of the
+ * resources in the search context.
+ * </p>
+ * <p>
+ * By default, all hits are counted to report an exact total. If the
+ * {@value #FCS_INDEX_COUNT_BUDGET_PARAM} init-parameter is set, counting
+ * stops once this many hits have been counted in a resource (and the hits
+ * for the requested page have been collected); the total is then
+ * extrapolated from the fraction of tokens scanned and reported as an
+ * estimate.
+ * </p>
+ * <p>
+ * The term lists of the segment layers and the resources (with their
+ * number of documents) can be browsed using the <em>scan</em> operation,
+ * see {@link SegmentScanIndex}.
+ * </p>
+ * <p>
+ * If prefetching is configured (see {@link PrefetchExecutor}), the hits for
+ * the next page of a partially collected result set are computed in the
+ * background after a page has been rendered, so the follow-up request is
+ * served from the cache. Prefetched hits, that are not claimed by a
+ * follow-up request within the time-to-live of the prefetch, are dropped.
+ * </p>
+ * <p>
+ * Identical searches issued concurrently, i.e. searches with the same
+ * {@link ResultSetKey} requesting the same number of hits, are coalesced
+ * using a {@link SingleFlight}: only one of them collects the hits, the
+ * others wait for and share its hit list.
+ * </p>
+ * <p>
+ * If a {@link PageCache} is configured, rendered pages are cached as well
+ * and repeated requests for a page are answered by replaying the cached
+ * records, without evaluating the query or rendering any data view. The
+ * cache is invalidated, if the endpoint description is replaced or the
+ * {@link #getIndexGeneration() index generation} changes.
+ * </p>
+ *
+ * @see SegmentWriter
+ */
+public abstract class SegmentSearchEngineBase extends
+        SimpleEndpointSearchEngineBase {
+    public static final String FCS_INDEX_SEGMENTS_PARAM =
+            "eu.clarin.sru.server.fcs.index.segments";
+    public static final String FCS_INDEX_CONTEXT_SIZE_PARAM =
+            "eu.clarin.sru.server.fcs.index.contextSize";
+    public static final String FCS_INDEX_COUNT_BUDGET_PARAM =
+            "eu.clarin.sru.server.fcs.index.countBudget";
+    private static final int DEFAULT_CONTEXT_SIZE = 10;
+    private static final int HIGHLIGHT_HIT = 1;
+    private static final FanOutExecutor.HitCounter<HitList> HIT_COUNTER =
+            new FanOutExecutor.HitCounter<HitList>() {
+                @Override
+                public long getCollectedCount(HitList hits) {
+                    return hits.size();
+                }
+
+
+                @Override
+                public long getTotalCount(HitList hits) {
+                    return hits.getTotalCount();
+                }
+
+
+                @Override
+                public boolean isTotalExact(HitList hits) {
+                    return hits.getTotalCountPrecision() ==
+                            SRUResultCountPrecision.EXACT;
+                }
+            };
+    private static final Logger logger =
+            LoggerFactory.getLogger(SegmentSearchEngineBase.class);
+    private List<Segment> segments = Collections.emptyList();
+    private int[] docBases = new int[0];
+    private int contextSize = DEFAULT_CONTEXT_SIZE;
+    private long countBudget = 0;
+    private ResultSetCache<HitList> resultSetCache;
+    private PageCache pageCache;
+    private FanOutExecutor fanOutExecutor;
+    private PrefetchExecutor prefetchExecutor;
+    private FanOutExecutor prefetchFanOutExecutor;
+    private SingleFlight<FlightKey, HitList> singleFlight;
+
+
+    @Override
+    protected void doInit(ServletContext context, SRUServerConfig config,
+            SRUQueryParserRegistry.Builder queryParsersBuilder,
+            Map<String, String> params) throws SRUConfigException {
+        final String size = params.get(FCS_INDEX_CONTEXT_SIZE_PARAM);
+        if (size != null) {
+            try {
+                contextSize = Integer.parseInt(size.trim());
+            } catch (NumberFormatException e) {
+                throw new SRUConfigException("init-parameter '" +
+                        FCS_INDEX_CONTEXT_SIZE_PARAM + "' is invalid: " + size);
+            }
+            if (contextSize < 0) {
+                throw new SRUConfigException("init-parameter '" +
+                        FCS_INDEX_CONTEXT_SIZE_PARAM +
+                        "' must not be negative: " + size);
+            }
+        }
+
+        countBudget = InitParameters.parseLong(params,
+                FCS_INDEX_COUNT_BUDGET_PARAM, 0);
+
+        final List<Segment> opened = openSegments(context, params);
+        if ((opened == null) || opened.isEmpty()) {
+            throw new SRUConfigException("no index segments configured");
+        }
+        final int[] bases = new int[opened.size()];
+        long base = 0;
+        for (int i = 0; i < bases.length; i++) {
+            bases[i] = (int) base;
+            base += opened.get(i).getDocumentCount();
+            if (base > Integer.MAX_VALUE) {
+                throw new SRUConfigException(
+                        "too many documents in index segments");
+            }
+        }
+        this.fanOutExecutor = FanOutExecutor.fromParams(params);
+        this.prefetchExecutor = PrefetchExecutor.fromParams(params);
+        if (prefetchExecutor != null) {
+            // prefetches search in their own low priority thread
+            this.prefetchFanOutExecutor = new FanOutExecutor(1);
+        }
+        this.singleFlight = SingleFlight.fromParams(params);
+        this.pageCache = PageCache.fromParams(params);
+        this.resultSetCache = ResultSetCache.fromParams(params,
+                new ResultSetCache.Weigher<HitList>() {
+                    @Override
+                    public long weigh(HitList hits) {
+                        return hits.size();
+                    }
+                },
+                new Comparator<HitList>() {
+                    @Override
+                    public int compare(HitList h1, HitList h2) {
+                        // hit lists for the same key share their leading
+                        // hits, so the longer one covers more pages
+                        if (h1.isComplete() != h2.isComplete()) {
+                            return h1.isComplete() ? 1 : -1;
+                        }
+                        return Integer.compare(h1.size(), h2.size());
+                    }
+                });
+        this.segments = Collections.unmodifiableList(opened);
+        this.docBases = bases;
+        logger.info("opened {} index segment(s) with {} document(s)",
+                opened.size(), base);
+        if (getMetrics() != null) {
+            registerMetrics(getMetrics());
+        }
+    }
+
+
+    @Override
+    protected void doDestroy() {
+        if (resultSetCache != null) {
+            resultSetCache.invalidateAll();
+        }
+        if (pageCache != null) {
+            pageCache.invalidateAll();
+        }
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdown();
+        }
+        if (fanOutExecutor != null) {
+            fanOutExecutor.shutdown();
+        }
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments = Collections.emptyList();
+        docBases = new int[0];
+    }
+
+
+    /**
+     * Open the index segments. The default implementation opens the files
+     * listed in the {@value #FCS_INDEX_SEGMENTS_PARAM} init-parameter
+     * (separated by commas). Override this method to provide the segments
+     * by other means.
+     *
+     * @param context
+     *            the {@link ServletContext} for the Servlet
+     * @param params
+     *            additional parameters gathered from the Servlet configuration
+     *            and Servlet context.
+     * @return the list of opened segments
+     * @throws SRUConfigException
+     *             if an error occurred
+     */
+    protected List<Segment> openSegments(ServletContext context,
+            Map<String, String> params) throws SRUConfigException {
+        final String files = params.get(FCS_INDEX_SEGMENTS_PARAM);
+        if ((files == null) || files.trim().isEmpty()) {
+            throw new SRUConfigException("init-parameter '" +
+                    FCS_INDEX_SEGMENTS_PARAM + "' is missing");
+        }
+        final List<Segment> result = new ArrayList<>();
+        try {
+            for (String file : files.split("\\s*,\\s*")) {
+                if (!file.trim().isEmpty()) {
+                    logger.debug("opening segment '{}'", file);
+                    result.add(Segment.open(new File(file.trim())));
+                }
+            }
+        } catch (IOException e) {
+            for (Segment segment : result) {
+                segment.close();
+            }
+            throw new SRUConfigException("error opening index segment", e);
+        }
+        return result;
+    }
+
+
+    /**
+     * Get the opened index segments.
+     *
+     * @return the list of segments
+     */
+    protected final List<Segment> getSegments() {
+        return segments;
+    }
+
+
+    /**
+     * Get the number of tokens that are rendered on each side of a hit.
+     *
+     * @return the context size in tokens
+     */
+    protected final int getContextSize() {
+        return contextSize;
+    }
+
+
+    @Override
+    protected SRUSearchResultSet doSearch(SRUServerConfig config,
+            SRURequest request, SRUDiagnosticList diagnostics,
+            final SearchContext context) throws SRUException {
+        final List<ResourceInfo> resources =
+                resolveContext(request, diagnostics);
+        final List<DataView> dataViews =
+                resolveDataViews(request, diagnostics);
+
+        int maximumRecords = request.getMaximumRecords();
+        if (maximumRecords < 0) {
+            maximumRecords = config.getNumberOfRecords();
+        }
+        final long needed =
+                Math.max(0, request.getStartRecord() - 1) + (long) maximumRecords;
+
+        ResultSetKey key = null;
+        if ((resultSetCache != null) || (singleFlight != null) ||
+                (pageCache != null)) {
+            key = ResultSetKey.create(request, resources, dataViews);
+            if (prefetchExecutor != null) {
+                prefetchExecutor.claim(key);
+            }
+        }
+        PageCache.Key pageKey = null;
+        if (pageCache != null) {
+            pageKey = PageCache.Key.create(key, request.getStartRecord(),
+                    maximumRecords, endpointDescription, getIndexGeneration());
+            final RecordPage page = pageCache.get(pageKey);
+            if (page != null) {
+                return page.createResultSet(diagnostics);
+            }
+        }
+
+        final SegmentQuery query = compileQuery(request);
+        HitList hits = null;
+        if (resultSetCache != null) {
+            hits = resultSetCache.get(key);
+            if ((hits != null) && !hits.covers(needed)) {
+                hits = null;
+            }
+        }
+        if (hits == null) {
+            hits = collectHits(query, resources, key, needed, context,
+                    fanOutExecutor);
+            if (context.isExpired()) {
+                context.reportExpired(diagnostics);
+            }
+        }
+
+        PrefetchExecutor.Task prefetch = null;
+        if ((prefetchExecutor != null) && (resultSetCache != null) &&
+                (maximumRecords > 0) && !context.isExpired() &&
+                !hits.covers(needed + maximumRecords)) {
+            prefetch = createPrefetch(query, resources, key,
+                    needed + maximumRecords);
+        }
+        return new SegmentSearchResultSet(diagnostics,
+                new HitListCursor(hits), request.getStartRecord(),
+                maximumRecords, dataViews, context, key, prefetch, pageKey);
+    }
+
+
+    /**
+     * Count the hits of a query without collecting them. Simple queries are
+     * counted using index statistics, all other queries by evaluating their
+     * spans. Data views are not resolved.
+     */
+    @Override
+    protected SRUSearchResultSet doCount(SRUServerConfig config,
+            SRURequest request, SRUDiagnosticList diagnostics,
+            SearchContext context) throws SRUException {
+        final SegmentQuery query = compileQuery(request);
+        final List<ResourceInfo> resources =
+                resolveContext(request, diagnostics);
+
+        final Set<String> pids = new HashSet<>();
+        collectPids(resources, pids);
+        final BitSet[] claimed = new BitSet[segments.size()];
+        for (int i = 0; i < claimed.length; i++) {
+            claimed[i] = new BitSet(segments.get(i).getDocumentCount());
+        }
+        final BitSet[] filters = createFilters(pids, claimed);
+
+        if (filters == null) {
+            return new CountResultSet(diagnostics, 0,
+                    SRUResultCountPrecision.EXACT);
+        }
+        long count = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            if ((filters[i] != null) && filters[i].isEmpty()) {
+                continue;
+            }
+            final long n = query.count(segments.get(i), filters[i]);
+            if (n < 0) {
+                count = -1;
+                break;
+            }
+            count += n;
+        }
+        if (count >= 0) {
+            return new CountResultSet(diagnostics,
+                    (int) Math.min(Integer.MAX_VALUE, count),
+                    SRUResultCountPrecision.EXACT);
+        }
+
+        // evaluate the spans
+        final HitList hits = collectHits(query, filters, 0, context);
+        if (context.isExpired()) {
+            context.reportExpired(diagnostics);
+        }
+        return new CountResultSet(diagnostics, hits.getTotalCount(),
+                hits.getTotalCountPrecision());
+    }
+
+
+    /**
+     * Get the generation of the index. Cached pages rendered from another
+     * generation are discarded. The default implementation returns
+     * <code>0</code>, as the segments are opened once when the search engine
+     * is initialized. Subclasses that change the content rendered into
+     * records at runtime, e.g. by adding data from an external source in
+     * {@link #writeHit(XMLStreamWriter, StoredDocument, int, int, List)},
+     * must return a new value after each change.
+     *
+     * @return the index generation
+     */
+    protected long getIndexGeneration() {
+        return 0;
+    }
+
+
+    /**
+     * Provide the term lists of the segment layers as scan indexes, in
+     * addition to the indexes of the super class. The index name is the
+     * layer identifier, e.g. <code>text</code> or <code>lemma</code>.
+     */
+    @Override
+    protected ScanIndex getScanIndex(String index) throws SRUException {
+        final ScanIndex result = super.getScanIndex(index);
+        if (result != null) {
+            return result;
+        }
+        for (Segment segment : segments) {
+            if (segment.hasLayer(index)) {
+                return new SegmentScanIndex(segments, index);
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Report the number of documents of a resource, including the documents
+     * of its sub-resources.
+     */
+    @Override
+    protected int getResourceRecordCount(ResourceInfo resource) {
+        final Set<String> pids = new HashSet<>();
+        collectPids(Collections.singletonList(resource), pids);
+        long count = 0;
+        for (Segment segment : segments) {
+            final BitSet docs = new BitSet(segment.getDocumentCount());
+            for (String pid : pids) {
+                segment.collectDocuments(pid, docs);
+            }
+            count += docs.cardinality();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, count);
+    }
+
+
+    /**
+     * Compile the query of a search request.
+     *
+     * @param request
+     *            the <code>SRURequest</code> object that contains the request
+     *            made to the endpoint
+     * @return the compiled query
+     * @throws SRUException
+     *             if the query is not supported
+     */
+    protected SegmentQuery compileQuery(SRURequest request)
+            throws SRUException {
+        final SegmentQuery query;
+        if (request.isQueryType(Constants.FCS_QUERY_TYPE_FCS)) {
+            query = SegmentQuery.fromFCSQuery(
+                    (QueryNode) request.getQuery().getParsedQuery());
+        } else if (request.isQueryType(Constants.FCS_QUERY_TYPE_CQL)) {
+            query = SegmentQuery.fromCQLQuery(
+                    (CQLNode) request.getQuery().getParsedQuery(),
+                    Constants.FCS_LAYER_TYPE_TEXT);
+        } else {
+            throw new SRUException(SRUConstants.SRU_CANNOT_PROCESS_QUERY_REASON_UNKNOWN,
+                    "Queries with queryType '" + request.getQueryType() +
+                    "' are not supported by this CLARIN-FCS Endpoint.");
+        }
+
+        // the text layer is always available for basic (CQL) searches
+        final boolean cql = request.isQueryType(Constants.FCS_QUERY_TYPE_CQL);
+        for (String layer : query.getLayers()) {
+            if (cql && Constants.FCS_LAYER_TYPE_TEXT.equals(layer)) {
+                continue;
+            }
+            if (getLayerResultId(layer) == null) {
+                throw new SRUException(SRUConstants.SRU_UNSUPPORTED_INDEX,
+                        layer, "Layer '" + layer + "' is not supported.");
+            }
+        }
+        return query;
+    }
+
+
+    /**
+     * Write a hit as a CLARIN-FCS record. The default implementation renders
+     * the hit and some context tokens using the Generic Hits Data View and,
+     * if requested, the Advanced Data View. If only the Generic Hits Data View
+     * is needed, the text is decoded directly into a single buffer and the
+     * hit markers are computed from character offsets.
+     *
+     * @param writer
+     *            the {@link XMLStreamWriter} to be used
+     * @param document
+     *            the document containing the hit
+     * @param start
+     *            the position of the first token of the hit (inclusive)
+     * @param end
+     *            the position of the last token of the hit (exclusive)
+     * @param dataViews
+     *            the data views to be rendered
+     * @throws XMLStreamException
+     *             if an error occurred
+     */
+    protected void writeHit(XMLStreamWriter writer, StoredDocument document,
+            int start, int end, List<DataView> dataViews)
+            throws XMLStreamException {
+        final int from = Math.max(0, start - contextSize);
+        final int to = Math.min(document.getLength(), end + contextSize);
+
+        boolean advanced = false;
+        for (DataView dataView : dataViews) {
+            if (Constants.MIMETYPE_ADV.equals(dataView.getMimeType())) {
+                advanced = true;
+                break;
+            }
+        }
+        final String pid = findResourcePid(document);
+        if (!advanced) {
+            writeHitsRecord(writer, pid, document, from, to, start, end);
+            return;
+        }
+
+        final Segment segment = document.getSegment();
+        final AdvancedDataViewWriter helper =
+                new AdvancedDataViewWriter(AdvancedDataViewWriter.Unit.ITEM);
+        URI textLayerId = null;
+        for (Layer layer : getSupportedLayers()) {
+            final String name = getLayerName(layer);
+            final boolean text = (textLayerId == null) &&
+                    Constants.FCS_LAYER_TYPE_TEXT.equals(name);
+            if (!segment.hasLayer(name)) {
+                continue;
+            }
+            if (text) {
+                textLayerId = layer.getResultId();
+            }
+            final String[] tokens = document.getTokens(name, from, to);
+            for (int i = 0; i < tokens.length; i++) {
+                final int position = from + i;
+                helper.addSpan(layer.getResultId(), i + 1, i + 1, tokens[i],
+                        ((position >= start) && (position < end))
+                                ? HIGHLIGHT_HIT
+                                : AdvancedDataViewWriter.NO_HIGHLIGHT);
+            }
+        }
+
+        XMLStreamWriterHelper.writeStartResource(writer, pid,
+                document.getRef());
+        if (textLayerId != null) {
+            helper.writeHitsDataView(writer, textLayerId);
+        }
+        helper.writeAdvancedDataView(writer);
+        XMLStreamWriterHelper.writeEndResource(writer);
+    }
+
+
+    private static void writeHitsRecord(XMLStreamWriter writer, String pid,
+            StoredDocument document, int from, int to, int start, int end)
+            throws XMLStreamException {
+        final int[] offsets = new int[2 * (to - from)];
+        final StringBuilder text = new StringBuilder(16 * (to - from));
+        if (document.appendText(Constants.FCS_LAYER_TYPE_TEXT, from, to, text,
+                offsets)) {
+            final int[] hits = {
+                    offsets[2 * (start - from)],
+                    offsets[2 * (end - 1 - from) + 1]
+            };
+            XMLStreamWriterHelper.writeResourceWithHitsDataView(writer, pid,
+                    document.getRef(), text.toString(), hits, false);
+        } else {
+            XMLStreamWriterHelper.writeStartResource(writer, pid,
+                    document.getRef());
+            XMLStreamWriterHelper.writeEndResource(writer);
+        }
+    }
+
+
+    /**
+     * Get the persistent identifier that is reported for a document. The
+     * default implementation returns the persistent identifier of the
+     * resource the document belongs to.
+     *
+     * @param document
+     *            the document
+     * @return the persistent identifier or <code>null</code>
+     */
+    protected String findResourcePid(StoredDocument document) {
+        return document.getResourcePid();
+    }
+
+
+    private List<Layer> getSupportedLayers() {
+        final List<Layer> layers = endpointDescription.getSupportedLayers();
+        return (layers != null) ? layers : Collections.<Layer>emptyList();
+    }
+
+
+    private URI getLayerResultId(String name) {
+        for (Layer layer : getSupportedLayers()) {
+            if (name.equals(getLayerName(layer))) {
+                return layer.getResultId();
+            }
+        }
+        return null;
+    }
+
+
+    private static String getLayerName(Layer layer) {
+        if (layer.getQualifier() != null) {
+            return layer.getQualifier() + ":" + layer.getType();
+        }
+        return layer.getType();
+    }
+
+
+    private static void collectPids(List<ResourceInfo> resources,
+            Set<String> pids) {
+        if (resources != null) {
+            for (ResourceInfo resource : resources) {
+                pids.add(resource.getPid());
+                collectPids(resource.getSubResources(), pids);
+            }
+        }
+    }
+
+
+    /**
+     * Collect the hits of a query. Each resource of the context is searched
+     * in a separate task, tasks are executed concurrently and their hits are
+     * merged in resource order. Documents of sub-resources are searched as
+     * part of their parent and documents are only searched once, even if
+     * several requested resources contain them. All resources are counted,
+     * unless a count budget is configured; then the search stops once the
+     * leading resources provided the needed hits and the total is
+     * extrapolated by the number of tokens of the resources searched. If the
+     * deadline of the request passes, the hits found so far are returned and
+     * the total is reported as a lower bound.
+     */
+    private HitList collectHits(final SegmentQuery query,
+            List<ResourceInfo> resources, final long needed,
+            final SearchContext context, FanOutExecutor executor)
+            throws SRUException {
+        final List<FanOutExecutor.Task<HitList>> tasks = new ArrayList<>();
+        final List<BitSet[]> taskFilters = new ArrayList<>();
+        final BitSet[] claimed = new BitSet[segments.size()];
+        for (int i = 0; i < claimed.length; i++) {
+            claimed[i] = new BitSet(segments.get(i).getDocumentCount());
+        }
+        for (ResourceInfo resource : resources) {
+            final Set<String> pids = new HashSet<>();
+            collectPids(Collections.singletonList(resource), pids);
+            final BitSet[] filters = createFilters(pids, claimed);
+            if (filters != null) {
+                taskFilters.add(filters);
+                tasks.add(new FanOutExecutor.Task<HitList>() {
+                    @Override
+                    public HitList execute() throws SRUException {
+                        return collectHits(query, filters, needed, context);
+                    }
+                });
+            }
+        }
+
+        long[] weights = null;
+        if (countBudget > 0) {
+            weights = new long[taskFilters.size()];
+            for (int i = 0; i < weights.length; i++) {
+                final BitSet[] filters = taskFilters.get(i);
+                for (int j = 0; j < filters.length; j++) {
+                    weights[i] += countTokens(j, filters[j], Integer.MAX_VALUE);
+                }
+            }
+        }
+        final FanOutExecutor.Result<HitList> result =
+                executor.execute(tasks, weights, HIT_COUNTER, needed);
+        final HitList hits = new HitList(0);
+        for (HitList part : result.getResults()) {
+            hits.addAll(part);
+        }
+        hits.trimToSize();
+        if (context.isExpired()) {
+            hits.setTotalCount((int) Math.min(Integer.MAX_VALUE,
+                    result.getMinimumTotalCount()),
+                    SRUResultCountPrecision.MINIMUM);
+        } else {
+            hits.setTotalCount((int) Math.min(Integer.MAX_VALUE,
+                    result.getTotalCount()), result.isExact()
+                            ? SRUResultCountPrecision.EXACT
+                            : SRUResultCountPrecision.ESTIMATE);
+        }
+        return hits;
+    }
+
+
+    /**
+     * Collect the hits of a query in a set of documents. Hits are counted
+     * beyond the ones needed for the requested page; if a count budget is
+     * configured, counting stops once the budget is exhausted and the total
+     * is extrapolated from the fraction of tokens scanned.
+     */
+    private HitList collectHits(SegmentQuery query, BitSet[] filters,
+            long needed, SearchContext context) throws SRUException {
+        final HitList hits = new HitList();
+        long count = 0;
+        int stoppedSegment = -1;
+        int stoppedDoc = -1;
+        segments:
+        for (int i = 0; i < segments.size(); i++) {
+            if ((filters[i] != null) && filters[i].isEmpty()) {
+                continue;
+            }
+            final Spans spans = query.spans(segments.get(i), filters[i]);
+            while (spans.nextDoc() != Spans.NO_MORE_DOCS) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new SRUException(
+                            SRUConstants.SRU_GENERAL_SYSTEM_ERROR,
+                            "Search was cancelled.");
+                }
+                if (context.isExpired()) {
+                    break segments;
+                }
+                for (int j = 0; j < spans.count(); j++) {
+                    if (hits.size() < needed) {
+                        hits.add(docBases[i] + spans.doc(),
+                                spans.start(j), spans.end(j));
+                    }
+                }
+                count += spans.count();
+                if ((countBudget > 0) && (count >= countBudget) &&
+                        (hits.size() >= needed)) {
+                    stoppedSegment = i;
+                    stoppedDoc = spans.doc();
+                    break segments;
+                }
+            }
+        }
+        hits.trimToSize();
+
+        if (context.isExpired()) {
+            hits.setTotalCount((int) Math.min(Integer.MAX_VALUE, count),
+                    SRUResultCountPrecision.MINIMUM);
+        } else if (stoppedSegment >= 0) {
+            final double fraction =
+                    getScannedFraction(filters, stoppedSegment, stoppedDoc);
+            if (fraction < 1.0) {
+                final long estimate =
+                        Math.max(count, Math.round(count / fraction));
+                if (logger.isDebugEnabled()) {
+                    logger.debug("estimated {} hits from {} hits in {}% " +
+                            "of the tokens (relative error ~{}%)",
+                            estimate, count,
+                            Math.round(fraction * 1000.0) / 10.0,
+                            Math.round(1000.0 / Math.sqrt(count)) / 10.0);
+                }
+                hits.setTotalCount((int) Math.min(Integer.MAX_VALUE,
+                        estimate), SRUResultCountPrecision.ESTIMATE);
+            } else {
+                hits.setTotalCount((int) Math.min(Integer.MAX_VALUE, count),
+                        SRUResultCountPrecision.EXACT);
+            }
+        } else {
+            hits.setTotalCount((int) Math.min(Integer.MAX_VALUE, count),
+                    SRUResultCountPrecision.EXACT);
+        }
+        return hits;
+    }
+
+
+    /**
+     * Get the fraction of tokens of a set of documents scanned, if the scan
+     * stopped after a document of a segment.
+     */
+    private double getScannedFraction(BitSet[] filters, int segment,
+            int doc) {
+        long scanned = 0;
+        long total = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            final long tokens = countTokens(i, filters[i], Integer.MAX_VALUE);
+            total += tokens;
+            if (i < segment) {
+                scanned += tokens;
+            } else if (i == segment) {
+                scanned += countTokens(i, filters[i], doc);
+            }
+        }
+        return (total > 0) ? ((double) scanned / total) : 1.0;
+    }
+
+
+    private long countTokens(int segment, BitSet filter, int lastDoc) {
+        final Segment s = segments.get(segment);
+        final int end = Math.min(lastDoc, s.getDocumentCount() - 1);
+        if ((filter == null) && (end == s.getDocumentCount() - 1)) {
+            return s.getTokenCount();
+        }
+        long tokens = 0;
+        if (filter == null) {
+            for (int doc = 0; doc <= end; doc++) {
+                tokens += s.getDocumentLength(doc);
+            }
+        } else {
+            for (int doc = filter.nextSetBit(0); (doc >= 0) && (doc <= end);
+                    doc = filter.nextSetBit(doc + 1)) {
+                tokens += s.getDocumentLength(doc);
+            }
+        }
+        return tokens;
+    }
+
+
+    /**
+     * Create a task that collects the hits for the next page of a result set
+     * and caches them. The resources are searched one after the other in the
+     * prefetch thread; if the prefetch is not claimed, the cached hits are
+     * dropped.
+     */
+    private PrefetchExecutor.Task createPrefetch(final SegmentQuery query,
+            final List<ResourceInfo> resources, final ResultSetKey key,
+            final long needed) {
+        return new PrefetchExecutor.Task() {
+            private volatile HitList hits;
+
+
+            @Override
+            public void prefetch(SearchContext context) throws SRUException {
+                final HitList cached = resultSetCache.get(key);
+                if ((cached != null) && cached.covers(needed)) {
+                    return;
+                }
+                hits = collectHits(query, resources, key, needed, context,
+                        prefetchFanOutExecutor);
+            }
+
+
+            @Override
+            public void discard() {
+                final HitList prefetched = hits;
+                if (prefetched != null) {
+                    resultSetCache.invalidate(key, prefetched);
+                }
+            }
+        };
+    }
+
+
+    /**
+     * Collect the hits of a query in a set of resources and cache them,
+     * unless the search was stopped early. If coalescing is enabled, an
+     * identical collection already in flight is joined instead.
+     *
+     * @return the hits; empty, if the deadline of the request passed while
+     *         waiting for an identical collection
+     */
+    private HitList collectHits(final SegmentQuery query,
+            final List<ResourceInfo> resources, final ResultSetKey key,
+            final long needed, final SearchContext context,
+            final FanOutExecutor executor) throws SRUException {
+        final SingleFlight.Call<HitList> call =
+                new SingleFlight.Call<HitList>() {
+                    @Override
+                    public HitList call() throws SRUException {
+                        final HitList hits = collectHits(query, resources,
+                                needed, context, executor);
+                        if ((resultSetCache != null) && !context.isExpired()) {
+                            resultSetCache.put(key, hits);
+                        }
+                        return hits;
+                    }
+                };
+        if (singleFlight == null) {
+            return call.call();
+        }
+        HitList hits = singleFlight.execute(new FlightKey(key, needed),
+                context, call);
+        if (hits == null) {
+            hits = new HitList(0);
+            hits.setTotalCount(0, SRUResultCountPrecision.MINIMUM);
+        }
+        return hits;
+    }
+
+
+    /**
+     * Create per-segment document filters for a set of resources, excluding
+     * documents already claimed by another resource.
+     *
+     * @return the filters or <code>null</code>, if no documents remain
+     */
+    private BitSet[] createFilters(Set<String> pids, BitSet[] claimed) {
+        final BitSet[] filters = new BitSet[segments.size()];
+        boolean empty = true;
+        for (int i = 0; i < filters.length; i++) {
+            final Segment segment = segments.get(i);
+            final BitSet filter = new BitSet(segment.getDocumentCount());
+            for (String pid : segment.getResourcePids()) {
+                if (pids.contains(pid)) {
+                    segment.collectDocuments(pid, filter);
+                }
+            }
+            filter.andNot(claimed[i]);
+            claimed[i].or(filter);
+            if (!filter.isEmpty()) {
+                empty = false;
+            }
+            filters[i] = (filter.cardinality() == segment.getDocumentCount())
+                    ? null : filter;
+        }
+        return empty ? null : filters;
+    }
+
+
+    private void registerMetrics(EndpointMetrics metrics) {
+        final SingleFlight<FlightKey, HitList> flights = singleFlight;
+        if (flights != null) {
+            metrics.registerGauge("coalesce_in_flight",
+                    "Hit collections currently in flight.",
+                    new EndpointMetrics.Value() {
+                        @Override
+                        public long get() {
+                            return flights.getInFlightCount();
+                        }
+                    });
+            metrics.registerCounter("coalesce_executed_total",
+                    "Hit collections performed.",
+                    new EndpointMetrics.Value() {
+                        @Override
+                        public long get() {
+                            return flights.getExecutedCount();
+                        }
+                    });
+            metrics.registerCounter("coalesce_coalesced_total",
+                    "Hit collections shared with an identical search.",
+                    new EndpointMetrics.Value() {
+                        @Override
+                        public long get() {
+                            return flights.getCoalescedCount();
+                        }
+                    });
+        }
+        final PageCache pages = pageCache;
+        if (pages != null) {
+            metrics.registerGauge("page_cache_entries",
+                    "Record pages in the page cache.",
+                    new EndpointMetrics.Value() {
+                        @Override
+                        public long get() {
+                            return pages.size();
+                        }
+                    });
+            metrics.registerGauge("page_cache_bytes",
+                    "Size of the record pages in the page cache.",
+                    new EndpointMetrics.Value() {
+                        @Override
+                        public long get() {
+                            return pages.getSizeInBytes();
+                        }
+                    });
+            metrics.registerCounter("page_cache_hits_total",
+                    "Requests served from the page cache.",
+                    new EndpointMetrics.Value() {
+                        @Override
+                        public long get() {
+                            return pages.getHitCount();
+                        }
+                    });
+            metrics.registerCounter("page_cache_misses_total",
+                    "Requests not found in the page cache.",
+                    new EndpointMetrics.Value() {
+                        @Override
+                        public long get() {
+                            return pages.getMissCount();
+                        }
+                    });
+        }
+        final ResultSetCache<HitList> results = resultSetCache;
+        if (results != null) {
+            metrics.registerGauge("result_set_cache_entries",
+                    "Hit lists in the result set cache.",
+                    new EndpointMetrics.Value() {
+                        @Override
+                        public long get() {
+                            return results.size();
+                        }
+                    });
+            metrics.registerGauge("result_set_cache_weight",
+                    "Number of hits in the result set cache.",
+                    new EndpointMetrics.Value() {
+                        @Override
+                        public long get() {
+                            return results.getWeight();
+                        }
+                    });
+        }
+        final PrefetchExecutor prefetch = prefetchExecutor;
+        if (prefetch != null) {
+            metrics.registerGauge("prefetch_active",
+                    "Prefetches currently running.",
+                    new EndpointMetrics.Value() {
+                        @Override
+                        public long get() {
+                            return prefetch.getActiveCount();
+                        }
+                    });
+        }
+    }
+
+
+    private StoredDocument loadDocument(int doc) {
+        int idx = Arrays.binarySearch(docBases, doc);
+        if (idx < 0) {
+            idx = -idx - 2;
+        } else {
+            // skip empty segments sharing the same base
+            while ((idx + 1 < docBases.length) && (docBases[idx + 1] == doc)) {
+                idx++;
+            }
+        }
+        return segments.get(idx).getDocument(doc - docBases[idx]);
+    }
+
+
+    private final class SegmentSearchResultSet extends
+            StreamingSearchResultSet<StoredDocument> {
+        private final HitListCursor cursor;
+        private final List<DataView> dataViews;
+        private final SearchContext context;
+        private final ResultSetKey key;
+        private final PageCache.Key pageKey;
+        private PrefetchExecutor.Task prefetch;
+        private List<RecordTape> records;
+
+
+        private SegmentSearchResultSet(SRUDiagnosticList diagnostics,
+                HitListCursor cursor, int startRecord, int maximumRecords,
+                List<DataView> dataViews, SearchContext context,
+                ResultSetKey key, PrefetchExecutor.Task prefetch,
+                PageCache.Key pageKey) {
+            super(diagnostics, cursor, cursor.hits.getTotalCount(),
+                    startRecord, maximumRecords, context);
+            this.cursor = cursor;
+            this.dataViews = dataViews;
+            this.context = context;
+            this.key = key;
+            this.prefetch = prefetch;
+            this.pageKey = pageKey;
+            if (pageKey != null) {
+                this.records = new ArrayList<>();
+            }
+        }
+
+
+        /**
+         * Cache the page, if it was rendered completely, and start
+         * prefetching the next page.
+         */
+        @Override
+        public void close() {
+            super.close();
+            if ((records != null) && (records.size() == getRecordCount()) &&
+                    !context.isExpired()) {
+                pageCache.put(pageKey, new RecordPage(records,
+                        getTotalRecordCount(), getResultCountPrecision()));
+            }
+            records = null;
+            if (prefetch != null) {
+                prefetchExecutor.submit(key, prefetch);
+                prefetch = null;
+            }
+        }
+
+
+        @Override
+        public SRUResultCountPrecision getResultCountPrecision() {
+            return cursor.hits.getTotalCountPrecision();
+        }
+
+
+        @Override
+        protected void writeRecord(XMLStreamWriter writer,
+                StoredDocument document) throws XMLStreamException {
+            if (records == null) {
+                writeHit(writer, document, cursor.getStart(),
+                        cursor.getEnd(), dataViews);
+                return;
+            }
+            final RecordTape.Recorder recorder =
+                    new RecordTape.Recorder(writer);
+            writeHit(recorder, document, cursor.getStart(), cursor.getEnd(),
+                    dataViews);
+            final RecordTape record = recorder.toTape();
+            if (record != null) {
+                records.add(record);
+            } else {
+                records = null;
+            }
+        }
+    }
+
+
+    /**
+     * Cursor over a hit list that loads the document of each hit on demand.
+     */
+    private final class HitListCursor implements RecordCursor<StoredDocument> {
+        private final HitList hits;
+        private int idx = -1;
+
+
+        private HitListCursor(HitList hits) {
+            this.hits = hits;
+        }
+
+
+        @Override
+        public StoredDocument next() {
+            if (idx + 1 >= hits.size()) {
+                idx = hits.size();
+                return null;
+            }
+            idx++;
+            return loadDocument(hits.getDocument(idx));
+        }
+
+
+        @Override
+        public int skip(int count) {
+            final int skipped = Math.max(0,
+                    Math.min(count, hits.size() - (idx + 1)));
+            idx += skipped;
+            return skipped;
+        }
+
+
+        @Override
+        public void close() {
+        }
+
+
+        private int getStart() {
+            return hits.getStart(idx);
+        }
+
+
+        private int getEnd() {
+            return hits.getEnd(idx);
+        }
+    }
+
+
+    /**
+     * The key of a hit collection in flight, i.e. the result set and the
+     * number of hits to collect.
+     */
+    private static final class FlightKey {
+        private final ResultSetKey key;
+        private final long needed;
+
+
+        private FlightKey(ResultSetKey key, long needed) {
+            this.key = key;
+            this.needed = needed;
+        }
+
+
+        @Override
+        public int hashCode() {
+            return 31 * key.hashCode() + Long.hashCode(needed);
+        }
+
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof FlightKey)) {
+                return false;
+            }
+            final FlightKey other = (FlightKey) obj;
+            return (needed == other.needed) && key.equals(other.key);
+        }
+
+
+        @Override
+        public String toString() {
+            return key + "[needed=" + needed + "]";
+        }
+    }
+
+} // class SegmentSearchEngineBase
@@ -0,0 +1,579 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.index;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Builder for immutable index segments. Documents are added one after another
+ * as a sequence of tokens, where each token carries one value for every
+ * layer of the segment. After all documents have been added, the segment is
+ * written to disk with {@link #write(File)} and can afterwards be opened with
+ * {@link Segment#open(File)}.
+ * <p>
+ * The writer keeps the whole segment in memory until it is written, so it is
+ * intended for offline indexing. It is <em>not thread-safe</em>.
+ * </p>
+ *
+ * <pre>
+ * SegmentWriter writer = new SegmentWriter("text", "lemma", "pos");
+ * writer.startDocument("my-corpus", "http://example.org/doc/1");
+ * writer.addToken("The", "the", "DET");
+ * writer.addToken("cats", "cat", "NOUN");
+ * writer.endSentence();
+ * writer.endDocument();
+ * writer.write(new File("corpus.seg"));
+ * </pre>
+ *
+ * @see Segment
+ */
+public class SegmentWriter {
+    private static final Comparator<byte[]> UNSIGNED_BYTES =
+            new Comparator<byte[]>() {
+                @Override
+                public int compare(byte[] a, byte[] b) {
+                    final int n = Math.min(a.length, b.length);
+                    for (int i = 0; i < n; i++) {
+                        int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+                        if (cmp != 0) {
+                            return cmp;
+                        }
+                    }
+                    return a.length - b.length;
+                }
+            };
+    private final String[] layers;
+    private final List<Map<String, TermBuilder>> terms;
+    private final List<List<TermBuilder>> termsById;
+    private final Map<String, IntList> resources = new LinkedHashMap<>();
+    private final List<DocumentBuilder> documents = new ArrayList<>();
+    private long tokenCount = 0;
+    private DocumentBuilder current;
+    private List<List<TermBuilder>> touched;
+
+
+    /**
+     * Constructor.
+     *
+     * @param layers
+     *            the identifiers of the layers of this segment, e.g.
+     *            <code>text</code>, <code>lemma</code> or <code>pos</code>.
+     *            Identifiers of qualified layers are written as
+     *            <code>qualifier:identifier</code>.
+     */
+    public SegmentWriter(String... layers) {
+        if (layers == null) {
+            throw new NullPointerException("layers == null");
+        }
+        if (layers.length == 0) {
+            throw new IllegalArgumentException("layers are empty");
+        }
+        for (int i = 0; i < layers.length; i++) {
+            if (layers[i] == null) {
+                throw new IllegalArgumentException(
+                        "layers must not contain a 'null' item");
+            }
+            for (int j = 0; j < i; j++) {
+                if (layers[i].equals(layers[j])) {
+                    throw new IllegalArgumentException(
+                            "duplicate layer: " + layers[i]);
+                }
+            }
+        }
+        this.layers = layers.clone();
+        this.terms = new ArrayList<>(layers.length);
+        this.termsById = new ArrayList<>(layers.length);
+        this.touched = new ArrayList<>(layers.length);
+        for (int i = 0; i < layers.length; i++) {
+            terms.add(new HashMap<String, TermBuilder>());
+            termsById.add(new ArrayList<TermBuilder>());
+            touched.add(new ArrayList<TermBuilder>());
+        }
+    }
+
+
+    /**
+     * Start a new document.
+     *
+     * @param resourcePid
+     *            the persistent identifier of the resource the document
+     *            belongs to
+     * @param ref
+     *            a reference (e.g. an URI) for the document or
+     *            <code>null</code> if not applicable
+     * @return the segment-local id of the document
+     */
+    public int startDocument(String resourcePid, String ref) {
+        if (resourcePid == null) {
+            throw new NullPointerException("resourcePid == null");
+        }
+        if (current != null) {
+            throw new IllegalStateException("previous document not ended");
+        }
+        final int docId = documents.size();
+        IntList docs = resources.get(resourcePid);
+        if (docs == null) {
+            docs = new IntList();
+            resources.put(resourcePid, docs);
+        }
+        docs.add(docId);
+        current = new DocumentBuilder(docId, resourcePid, ref, layers.length);
+        return docId;
+    }
+
+
+    /**
+     * Add a token to the current document.
+     *
+     * @param values
+     *            the values of the token, one for each layer in the order the
+     *            layers have been passed to the constructor
+     */
+    public void addToken(String... values) {
+        if (current == null) {
+            throw new IllegalStateException("no document started");
+        }
+        if (values == null) {
+            throw new NullPointerException("values == null");
+        }
+        if (values.length != layers.length) {
+            throw new IllegalArgumentException("expected " + layers.length +
+                    " values, got " + values.length);
+        }
+        final int position = current.length;
+        for (int i = 0; i < layers.length; i++) {
+            final String value = values[i];
+            if (value == null) {
+                throw new IllegalArgumentException(
+                        "values must not contain a 'null' item");
+            }
+            final Map<String, TermBuilder> layerTerms = terms.get(i);
+            TermBuilder term = layerTerms.get(value);
+            if (term == null) {
+                final List<TermBuilder> ids = termsById.get(i);
+                term = new TermBuilder(ids.size(), value);
+                ids.add(term);
+                layerTerms.put(value, term);
+            }
+            if (term.lastDoc != current.id) {
+                term.lastDoc = current.id;
+                term.docFreq++;
+                touched.get(i).add(term);
+            }
+            term.totalFreq++;
+            term.positions.add(position);
+            current.tokens[i].add(term.id);
+        }
+        current.length++;
+    }
+
+
+    /**
+     * Mark the end of a sentence in the current document. The next token
+     * added will start a new sentence. Sentence boundaries are used for
+     * evaluating <code>within s</code> in FCS-QL queries.
+     */
+    public void endSentence() {
+        if (current == null) {
+            throw new IllegalStateException("no document started");
+        }
+        final IntList sentences = current.sentences;
+        final int last = (sentences.size() > 0)
+                ? sentences.get(sentences.size() - 1) : 0;
+        if (current.length > last) {
+            sentences.add(current.length);
+        }
+    }
+
+
+    /**
+     * End the current document.
+     */
+    public void endDocument() {
+        if (current == null) {
+            throw new IllegalStateException("no document started");
+        }
+        for (int i = 0; i < layers.length; i++) {
+            for (TermBuilder term : touched.get(i)) {
+                term.flush(current.id);
+            }
+            touched.get(i).clear();
+        }
+        // drop trailing sentence boundary
+        final IntList sentences = current.sentences;
+        if ((sentences.size() > 0) &&
+                (sentences.get(sentences.size() - 1) >= current.length)) {
+            sentences.size--;
+        }
+        tokenCount += current.length;
+        documents.add(current);
+        current = null;
+    }
+
+
+    /**
+     * Get the number of documents added so far.
+     *
+     * @return the number of documents
+     */
+    public int getDocumentCount() {
+        return documents.size();
+    }
+
+
+    /**
+     * Write the segment to a file.
+     *
+     * @param file
+     *            the file to write to
+     * @throws IOException
+     *             if an I/O error occurred or the segment is too large
+     */
+    public void write(File file) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file == null");
+        }
+        if (current != null) {
+            throw new IllegalStateException("document not ended");
+        }
+
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            final SegmentOutput out = new SegmentOutput(
+                    new BufferedOutputStream(stream, 64 * 1024));
+            out.write(new byte[Segment.HEADER_SIZE]);
+
+            // term dictionaries and postings
+            final int[][] ordinals = new int[layers.length][];
+            final long[] termTableOffsets = new long[layers.length];
+            for (int i = 0; i < layers.length; i++) {
+                final List<TermBuilder> ids = termsById.get(i);
+                final TermBuilder[] sorted =
+                        ids.toArray(new TermBuilder[ids.size()]);
+                Arrays.sort(sorted, new Comparator<TermBuilder>() {
+                    @Override
+                    public int compare(TermBuilder a, TermBuilder b) {
+                        return UNSIGNED_BYTES.compare(a.bytes, b.bytes);
+                    }
+                });
+                final int[] ordinal = new int[sorted.length];
+                final long[] postingsOffsets = new long[sorted.length];
+                for (int ord = 0; ord < sorted.length; ord++) {
+                    ordinal[sorted[ord].id] = ord;
+                    postingsOffsets[ord] = out.position();
+                    sorted[ord].postings.writeTo(out);
+                }
+                final long[] recordOffsets = new long[sorted.length];
+                for (int ord = 0; ord < sorted.length; ord++) {
+                    final TermBuilder term = sorted[ord];
+                    recordOffsets[ord] = out.position();
+                    out.writeLong(postingsOffsets[ord]);
+                    out.writeVInt(term.docFreq);
+                    out.writeVLong(term.totalFreq);
+                    out.writeVInt(term.bytes.length);
+                    out.write(term.bytes);
+                }
+                termTableOffsets[i] = out.position();
+                for (long offset : recordOffsets) {
+                    out.writeLong(offset);
+                }
+                ordinals[i] = ordinal;
+            }
+
+            // layer table
+            final long layerTableOffset = out.position();
+            for (int i = 0; i < layers.length; i++) {
+                out.writeString(layers[i]);
+                out.writeInt(termsById.get(i).size());
+                out.writeLong(termTableOffsets[i]);
+            }
+
+            // document store
+            final Map<String, Integer> resourceOrdinals = new HashMap<>();
+            for (String pid : resources.keySet()) {
+                resourceOrdinals.put(pid, resourceOrdinals.size());
+            }
+            final long[] docOffsets = new long[documents.size()];
+            final ByteList block = new ByteList();
+            for (DocumentBuilder doc : documents) {
+                docOffsets[doc.id] = out.position();
+                out.writeVInt(resourceOrdinals.get(doc.resourcePid));
+                out.writeString(doc.ref);
+                out.writeVInt(doc.sentences.size());
+                int last = 0;
+                for (int i = 0; i < doc.sentences.size(); i++) {
+                    out.writeVInt(doc.sentences.get(i) - last);
+                    last = doc.sentences.get(i);
+                }
+                for (int i = 0; i < layers.length; i++) {
+                    block.clear();
+                    final IntList tokens = doc.tokens[i];
+                    for (int j = 0; j < tokens.size(); j++) {
+                        block.writeVInt(ordinals[i][tokens.get(j)]);
+                    }
+                    out.writeVInt(block.size());
+                    block.writeTo(out);
+                }
+            }
+            final long docTableOffset = out.position();
+            for (DocumentBuilder doc : documents) {
+                out.writeLong(docOffsets[doc.id]);
+                out.writeInt(doc.length);
+            }
+
+            // resource table
+            final long resourceTableOffset = out.position();
+            for (Map.Entry<String, IntList> resource : resources.entrySet()) {
+                out.writeString(resource.getKey());
+                final IntList docs = resource.getValue();
+                out.writeVInt(docs.size());
+                int last = -1;
+                for (int i = 0; i < docs.size(); i++) {
+                    out.writeVInt(docs.get(i) - last);
+                    last = docs.get(i);
+                }
+            }
+            out.flush();
+            if (out.position() > Integer.MAX_VALUE) {
+                throw new IOException("segment exceeds " + Integer.MAX_VALUE +
+                        " bytes; split the documents into several segments");
+            }
+
+            // finally, write header
+            final ByteBuffer header = ByteBuffer.allocate(Segment.HEADER_SIZE);
+            header.putLong(Segment.MAGIC);
+            header.putInt(Segment.FORMAT_VERSION);
+            header.putInt(documents.size());
+            header.putLong(tokenCount);
+            header.putInt(layers.length);
+            header.putInt(resources.size());
+            header.putLong(layerTableOffset);
+            header.putLong(docTableOffset);
+            header.putLong(resourceTableOffset);
+            header.flip();
+            final FileChannel channel = stream.getChannel();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+    }
+
+
+    private static final class TermBuilder {
+        private final int id;
+        private final byte[] bytes;
+        private final IntList positions = new IntList();
+        private final ByteList postings = new ByteList();
+        private int docFreq = 0;
+        private long totalFreq = 0;
+        private int lastDoc = -1;
+        private int lastFlushedDoc = -1;
+
+
+        private TermBuilder(int id, String term) {
+            this.id = id;
+            this.bytes = term.getBytes(StandardCharsets.UTF_8);
+        }
+
+
+        private void flush(int doc) {
+            postings.writeVInt(doc - lastFlushedDoc);
+            postings.writeVInt(positions.size());
+            int last = 0;
+            for (int i = 0; i < positions.size(); i++) {
+                postings.writeVInt(positions.get(i) - last);
+                last = positions.get(i);
+            }
+            positions.clear();
+            lastFlushedDoc = doc;
+        }
+    }
+
+
+    private static final class DocumentBuilder {
+        private final int id;
+        private final String resourcePid;
+        private final String ref;
+        private final IntList[] tokens;
+        private final IntList sentences = new IntList();
+        private int length = 0;
+
+
+        private DocumentBuilder(int id, String resourcePid, String ref,
+                int layerCount) {
+            this.id = id;
+            this.resourcePid = resourcePid;
+            this.ref = ref;
+            this.tokens = new IntList[layerCount];
+            for (int i = 0; i < layerCount; i++) {
+                tokens[i] = new IntList();
+            }
+        }
+    }
+
+
+    private static final class IntList {
+        private int[] values = new int[8];
+        private int size = 0;
+
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+
+        private int get(int index) {
+            return values[index];
+        }
+
+
+        private int size() {
+            return size;
+        }
+
+
+        private void clear() {
+            size = 0;
+        }
+    }
+
+
+    private static final class ByteList {
+        private byte[] values = new byte[16];
+        private int size = 0;
+
+
+        private void writeVInt(int value) {
+            if (size + 5 > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + 5, size * 2));
+            }
+            while ((value & ~0x7F) != 0) {
+                values[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            values[size++] = (byte) value;
+        }
+
+
+        private int size() {
+            return size;
+        }
+
+
+        private void clear() {
+            size = 0;
+        }
+
+
+        private void writeTo(OutputStream out) throws IOException {
+            out.write(values, 0, size);
+        }
+    }
+
+
+    private static final class SegmentOutput extends FilterOutputStream {
+        private long position = 0;
+
+
+        private SegmentOutput(OutputStream out) {
+            super(out);
+        }
+
+
+        private long position() {
+            return position;
+        }
+
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+
+
+        private void writeInt(int value) throws IOException {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+
+        private void writeLong(long value) throws IOException {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+
+        private void writeVInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+
+        private void writeVLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVInt(0);
+            } else {
+                final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeVInt(bytes.length + 1);
+                write(bytes);
+            }
+        }
+    }
+
+} // class SegmentWriter
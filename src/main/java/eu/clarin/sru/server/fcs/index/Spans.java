@@ -0,0 +1,720 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.index;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ * Iterator over the matches of a query in a {@link Segment}. Documents are
+ * visited in ascending order and for each document all matches are available
+ * as an array of spans, i.e. token ranges with an inclusive start and an
+ * exclusive end position, sorted by start and end position.
+ * <p>
+ * Implementations are <em>not thread-safe</em>.
+ * </p>
+ */
+public abstract class Spans {
+    /**
+     * Document id returned, if the iterator is exhausted.
+     */
+    public static final int NO_MORE_DOCS = PostingsIterator.NO_MORE_DOCS;
+    protected int doc = -1;
+    protected int[] starts = new int[8];
+    protected int[] ends = new int[8];
+    protected int count = 0;
+
+
+    /**
+     * Get the current document id.
+     *
+     * @return the current document id, <code>-1</code> if the iterator has
+     *         not been positioned yet, or {@link #NO_MORE_DOCS}
+     */
+    public final int doc() {
+        return doc;
+    }
+
+
+    /**
+     * Get the number of spans in the current document.
+     *
+     * @return the number of spans
+     */
+    public final int count() {
+        return count;
+    }
+
+
+    /**
+     * Get the start position of a span in the current document.
+     *
+     * @param idx
+     *            the index of the span
+     * @return the start position (inclusive)
+     */
+    public final int start(int idx) {
+        return starts[idx];
+    }
+
+
+    /**
+     * Get the end position of a span in the current document.
+     *
+     * @param idx
+     *            the index of the span
+     * @return the end position (exclusive)
+     */
+    public final int end(int idx) {
+        return ends[idx];
+    }
+
+
+    /**
+     * Advance to the next document with at least one span.
+     *
+     * @return the id of the next document or {@link #NO_MORE_DOCS}
+     */
+    public abstract int nextDoc();
+
+
+    /**
+     * Advance to the first document equal or greater than a target with at
+     * least one span.
+     *
+     * @param target
+     *            the target document id
+     * @return the id of the document or {@link #NO_MORE_DOCS}
+     */
+    public int advance(int target) {
+        while (doc < target) {
+            nextDoc();
+        }
+        return doc;
+    }
+
+
+    protected final void clear() {
+        count = 0;
+    }
+
+
+    protected final void add(int start, int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+
+    /**
+     * Sort the spans of the current document and remove duplicates.
+     */
+    protected final void normalize() {
+        if (count < 2) {
+            return;
+        }
+        boolean sorted = true;
+        for (int i = 1; i < count; i++) {
+            if (compare(i - 1, i) >= 0) {
+                sorted = false;
+                break;
+            }
+        }
+        if (sorted) {
+            return;
+        }
+        final long[] packed = new long[count];
+        for (int i = 0; i < count; i++) {
+            packed[i] = ((long) starts[i] << 32) | (ends[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(packed);
+        int n = 0;
+        for (int i = 0; i < packed.length; i++) {
+            if ((i > 0) && (packed[i] == packed[i - 1])) {
+                continue;
+            }
+            starts[n] = (int) (packed[i] >>> 32);
+            ends[n] = (int) packed[i];
+            n++;
+        }
+        count = n;
+    }
+
+
+    private int compare(int i, int j) {
+        if (starts[i] != starts[j]) {
+            return (starts[i] < starts[j]) ? -1 : 1;
+        }
+        return Integer.compare(ends[i], ends[j]);
+    }
+
+
+    static Spans empty() {
+        return new Spans() {
+            @Override
+            public int nextDoc() {
+                doc = NO_MORE_DOCS;
+                return doc;
+            }
+        };
+    }
+
+
+    /**
+     * Spans of a single term, one token wide.
+     */
+    static final class TermSpans extends Spans {
+        private final PostingsIterator postings;
+        private final BitSet acceptDocs;
+
+
+        TermSpans(PostingsIterator postings, BitSet acceptDocs) {
+            this.postings = postings;
+            this.acceptDocs = acceptDocs;
+        }
+
+
+        @Override
+        public int nextDoc() {
+            int d = postings.nextDoc();
+            while ((d != NO_MORE_DOCS) &&
+                    (acceptDocs != null) && !acceptDocs.get(d)) {
+                d = postings.nextDoc();
+            }
+            doc = d;
+            clear();
+            if (d != NO_MORE_DOCS) {
+                final int freq = postings.freq();
+                for (int i = 0; i < freq; i++) {
+                    final int position = postings.nextPosition();
+                    add(position, position + 1);
+                }
+            }
+            return doc;
+        }
+    }
+
+
+    /**
+     * Spans for every token of every (accepted) document.
+     */
+    static final class AllTokensSpans extends Spans {
+        private final Segment segment;
+        private final BitSet acceptDocs;
+
+
+        AllTokensSpans(Segment segment, BitSet acceptDocs) {
+            this.segment = segment;
+            this.acceptDocs = acceptDocs;
+        }
+
+
+        @Override
+        public int nextDoc() {
+            final int max = segment.getDocumentCount();
+            int d = doc + 1;
+            while (d < max) {
+                if (((acceptDocs == null) || acceptDocs.get(d)) &&
+                        (segment.getDocumentLength(d) > 0)) {
+                    break;
+                }
+                d++;
+            }
+            clear();
+            if (d >= max) {
+                doc = NO_MORE_DOCS;
+            } else {
+                doc = d;
+                final int length = segment.getDocumentLength(d);
+                for (int i = 0; i < length; i++) {
+                    add(i, i + 1);
+                }
+            }
+            return doc;
+        }
+    }
+
+
+    /**
+     * Union of the spans of several sub-spans.
+     */
+    static final class OrSpans extends Spans {
+        private final PriorityQueue<Spans> queue;
+        private final Spans[] subs;
+        private boolean initialized = false;
+
+
+        OrSpans(List<Spans> subs) {
+            this.subs = subs.toArray(new Spans[subs.size()]);
+            this.queue = new PriorityQueue<>(Math.max(1, subs.size()),
+                    (a, b) -> Integer.compare(a.doc, b.doc));
+        }
+
+
+        @Override
+        public int nextDoc() {
+            if (!initialized) {
+                initialized = true;
+                for (Spans sub : subs) {
+                    if (sub.nextDoc() != NO_MORE_DOCS) {
+                        queue.add(sub);
+                    }
+                }
+            } else {
+                // advance all sub-spans positioned on the current document
+                while (!queue.isEmpty() && (queue.peek().doc == doc)) {
+                    final Spans sub = queue.poll();
+                    if (sub.nextDoc() != NO_MORE_DOCS) {
+                        queue.add(sub);
+                    }
+                }
+            }
+            clear();
+            if (queue.isEmpty()) {
+                doc = NO_MORE_DOCS;
+                return doc;
+            }
+            doc = queue.peek().doc;
+            for (Spans sub : queue) {
+                if (sub.doc == doc) {
+                    for (int i = 0; i < sub.count; i++) {
+                        add(sub.starts[i], sub.ends[i]);
+                    }
+                }
+            }
+            normalize();
+            return doc;
+        }
+    }
+
+
+    /**
+     * Base class for spans that require all sub-spans to match in a document.
+     */
+    abstract static class ConjunctionSpans extends Spans {
+        protected final Spans[] required;
+
+
+        ConjunctionSpans(Spans[] required) {
+            this.required = required;
+        }
+
+
+        @Override
+        public int nextDoc() {
+            int target = required[0].nextDoc();
+            for (;;) {
+                target = align(target);
+                if (target == NO_MORE_DOCS) {
+                    doc = NO_MORE_DOCS;
+                    clear();
+                    return doc;
+                }
+                doc = target;
+                clear();
+                computeSpans();
+                if (count > 0) {
+                    return doc;
+                }
+                target = required[0].nextDoc();
+            }
+        }
+
+
+        private int align(int target) {
+            int i = 1;
+            while ((target != NO_MORE_DOCS) && (i < required.length)) {
+                final int d = required[i].advance(target);
+                if (d > target) {
+                    target = required[0].advance(d);
+                    i = 1;
+                } else {
+                    i++;
+                }
+            }
+            return target;
+        }
+
+
+        /**
+         * Compute the spans of the current document. All required sub-spans
+         * are positioned on the current document.
+         */
+        protected abstract void computeSpans();
+    }
+
+
+    /**
+     * Intersection of several token-level sub-spans (boolean AND).
+     */
+    static final class AndSpans extends ConjunctionSpans {
+        AndSpans(Spans[] subs) {
+            super(subs);
+        }
+
+
+        @Override
+        protected void computeSpans() {
+            final Spans first = required[0];
+            for (int i = 0; i < first.count; i++) {
+                final int start = first.starts[i];
+                final int end = first.ends[i];
+                boolean match = true;
+                for (int j = 1; (j < required.length) && match; j++) {
+                    match = contains(required[j], start, end);
+                }
+                if (match) {
+                    add(start, end);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Complement of token-level sub-spans (boolean NOT).
+     */
+    static final class NotSpans extends Spans {
+        private final Spans all;
+        private final Spans excluded;
+
+
+        NotSpans(Segment segment, BitSet acceptDocs, Spans excluded) {
+            this.all = new AllTokensSpans(segment, acceptDocs);
+            this.excluded = excluded;
+        }
+
+
+        @Override
+        public int nextDoc() {
+            for (;;) {
+                final int d = all.nextDoc();
+                doc = d;
+                clear();
+                if (d == NO_MORE_DOCS) {
+                    return doc;
+                }
+                if (excluded.doc < d) {
+                    excluded.advance(d);
+                }
+                if (excluded.doc == d) {
+                    for (int i = 0; i < all.count; i++) {
+                        if (!contains(excluded, all.starts[i], all.ends[i])) {
+                            add(all.starts[i], all.ends[i]);
+                        }
+                    }
+                } else {
+                    for (int i = 0; i < all.count; i++) {
+                        add(all.starts[i], all.ends[i]);
+                    }
+                }
+                if (count > 0) {
+                    return doc;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Sequence of adjacent sub-spans. Optional elements may match or be
+     * skipped.
+     */
+    static final class SequenceSpans extends ConjunctionSpans {
+        private final Spans[] elements;
+        private final boolean[] optional;
+        private int[] bufStarts = new int[8];
+        private int[] bufEnds = new int[8];
+
+
+        SequenceSpans(Spans[] required, Spans[] elements, boolean[] optional) {
+            super(required);
+            this.elements = elements;
+            this.optional = optional;
+        }
+
+
+        @Override
+        protected void computeSpans() {
+            boolean epsilon = true;
+            for (int e = 0; e < elements.length; e++) {
+                final Spans element = elements[e];
+                if (optional[e] && (element.doc < doc)) {
+                    element.advance(doc);
+                }
+                final boolean present = element.doc == doc;
+
+                // keep the current spans, if the element is optional
+                int n = 0;
+                if (optional[e]) {
+                    for (int i = 0; i < count; i++) {
+                        n = buffer(n, starts[i], ends[i]);
+                    }
+                }
+                if (present) {
+                    if (epsilon) {
+                        for (int i = 0; i < element.count; i++) {
+                            n = buffer(n, element.starts[i], element.ends[i]);
+                        }
+                    }
+                    for (int i = 0; i < count; i++) {
+                        final int end = ends[i];
+                        for (int j = firstStart(element, end);
+                                (j < element.count) &&
+                                        (element.starts[j] == end);
+                                j++) {
+                            n = buffer(n, starts[i], element.ends[j]);
+                        }
+                    }
+                }
+                if (!optional[e]) {
+                    epsilon = false;
+                }
+                clear();
+                for (int i = 0; i < n; i++) {
+                    add(bufStarts[i], bufEnds[i]);
+                }
+                normalize();
+            }
+        }
+
+
+        private int buffer(int n, int start, int end) {
+            if (n == bufStarts.length) {
+                bufStarts = Arrays.copyOf(bufStarts, n * 2);
+                bufEnds = Arrays.copyOf(bufEnds, n * 2);
+            }
+            bufStarts[n] = start;
+            bufEnds[n] = end;
+            return n + 1;
+        }
+    }
+
+
+    /**
+     * Repetition of sub-spans, i.e. a sequence of <em>min</em> to
+     * <em>max</em> adjacent matches.
+     */
+    static final class RepeatSpans extends ConjunctionSpans {
+        private final int min;
+        private final int max;
+        private int[] levelStarts = new int[8];
+        private int[] levelEnds = new int[8];
+        private int[] nextStarts = new int[8];
+        private int[] nextEnds = new int[8];
+
+
+        RepeatSpans(Spans sub, int min, int max) {
+            super(new Spans[] { sub });
+            this.min = min;
+            this.max = max;
+        }
+
+
+        @Override
+        protected void computeSpans() {
+            final Spans sub = required[0];
+            int levelCount = sub.count;
+            levelStarts = ensure(levelStarts, levelCount);
+            levelEnds = ensure(levelEnds, levelCount);
+            System.arraycopy(sub.starts, 0, levelStarts, 0, levelCount);
+            System.arraycopy(sub.ends, 0, levelEnds, 0, levelCount);
+            int level = 1;
+            for (;;) {
+                if (level >= min) {
+                    for (int i = 0; i < levelCount; i++) {
+                        add(levelStarts[i], levelEnds[i]);
+                    }
+                }
+                if ((levelCount == 0) || ((max >= 0) && (level >= max))) {
+                    break;
+                }
+                // extend every span of the current level by one more match
+                int n = 0;
+                for (int i = 0; i < levelCount; i++) {
+                    final int end = levelEnds[i];
+                    for (int j = firstStart(sub, end);
+                            (j < sub.count) && (sub.starts[j] == end); j++) {
+                        nextStarts = ensure(nextStarts, n + 1);
+                        nextEnds = ensure(nextEnds, n + 1);
+                        nextStarts[n] = levelStarts[i];
+                        nextEnds[n] = sub.ends[j];
+                        n++;
+                    }
+                }
+                int[] tmp = levelStarts;
+                levelStarts = nextStarts;
+                nextStarts = tmp;
+                tmp = levelEnds;
+                levelEnds = nextEnds;
+                nextEnds = tmp;
+                levelCount = n;
+                level++;
+            }
+            normalize();
+        }
+
+
+        private static int[] ensure(int[] array, int size) {
+            if (array.length < size) {
+                return Arrays.copyOf(array, Math.max(size, array.length * 2));
+            }
+            return array;
+        }
+    }
+
+
+    /**
+     * Union of sub-spans in documents matched by all sub-spans (document
+     * level boolean AND).
+     */
+    static final class DocumentAndSpans extends ConjunctionSpans {
+        DocumentAndSpans(Spans[] subs) {
+            super(subs);
+        }
+
+
+        @Override
+        protected void computeSpans() {
+            for (Spans sub : required) {
+                for (int i = 0; i < sub.count; i++) {
+                    add(sub.starts[i], sub.ends[i]);
+                }
+            }
+            normalize();
+        }
+    }
+
+
+    /**
+     * Sub-spans in documents not matched by excluded spans (document level
+     * boolean NOT).
+     */
+    static final class DocumentNotSpans extends Spans {
+        private final Spans sub;
+        private final Spans excluded;
+
+
+        DocumentNotSpans(Spans sub, Spans excluded) {
+            this.sub = sub;
+            this.excluded = excluded;
+        }
+
+
+        @Override
+        public int nextDoc() {
+            for (;;) {
+                final int d = sub.nextDoc();
+                doc = d;
+                clear();
+                if (d == NO_MORE_DOCS) {
+                    return doc;
+                }
+                if (excluded.doc < d) {
+                    excluded.advance(d);
+                }
+                if (excluded.doc != d) {
+                    for (int i = 0; i < sub.count; i++) {
+                        add(sub.starts[i], sub.ends[i]);
+                    }
+                    return doc;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Restrict sub-spans to spans that do not cross a sentence boundary.
+     */
+    static final class WithinSentenceSpans extends Spans {
+        private final Segment segment;
+        private final Spans sub;
+
+
+        WithinSentenceSpans(Segment segment, Spans sub) {
+            this.segment = segment;
+            this.sub = sub;
+        }
+
+
+        @Override
+        public int nextDoc() {
+            for (;;) {
+                final int d = sub.nextDoc();
+                doc = d;
+                clear();
+                if (d == NO_MORE_DOCS) {
+                    return doc;
+                }
+                final StoredDocument document = segment.getDocument(d);
+                for (int i = 0; i < sub.count; i++) {
+                    if (document.getSentence(sub.starts[i]) ==
+                            document.getSentence(sub.ends[i] - 1)) {
+                        add(sub.starts[i], sub.ends[i]);
+                    }
+                }
+                if (count > 0) {
+                    return doc;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Check, if the current document of some spans contains a given span.
+     */
+    private static boolean contains(Spans spans, int start, int end) {
+        for (int i = firstStart(spans, start);
+                (i < spans.count) && (spans.starts[i] == start); i++) {
+            if (spans.ends[i] == end) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Find the index of the first span with a start position equal or greater
+     * than a given position.
+     */
+    private static int firstStart(Spans spans, int position) {
+        int low = 0;
+        int high = spans.count;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (spans.starts[mid] < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+} // class Spans
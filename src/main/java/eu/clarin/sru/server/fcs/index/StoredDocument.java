@@ -0,0 +1,207 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.index;
+
+import java.util.Arrays;
+
+
+/**
+ * A document loaded from the document store of a {@link Segment}. Token
+ * values are decoded lazily from the forward index on request.
+ */
+public final class StoredDocument {
+    private final Segment segment;
+    private final int id;
+    private final String resourcePid;
+    private final String ref;
+    private final int length;
+    private final int[] sentences;
+    private final int layersOffset;
+
+
+    StoredDocument(Segment segment, int id, String resourcePid, String ref,
+            int length, int[] sentences, int layersOffset) {
+        this.segment = segment;
+        this.id = id;
+        this.resourcePid = resourcePid;
+        this.ref = ref;
+        this.length = length;
+        this.sentences = sentences;
+        this.layersOffset = layersOffset;
+    }
+
+
+    Segment getSegment() {
+        return segment;
+    }
+
+
+    /**
+     * Get the segment-local id of this document.
+     *
+     * @return the document id
+     */
+    public int getId() {
+        return id;
+    }
+
+
+    /**
+     * Get the persistent identifier of the resource this document belongs
+     * to.
+     *
+     * @return the resource persistent identifier
+     */
+    public String getResourcePid() {
+        return resourcePid;
+    }
+
+
+    /**
+     * Get the reference of this document.
+     *
+     * @return the reference or <code>null</code> if none
+     */
+    public String getRef() {
+        return ref;
+    }
+
+
+    /**
+     * Get the number of tokens in this document.
+     *
+     * @return the number of tokens
+     */
+    public int getLength() {
+        return length;
+    }
+
+
+    /**
+     * Get the index of the sentence that contains a token.
+     *
+     * @param position
+     *            the token position
+     * @return the sentence index
+     */
+    public int getSentence(int position) {
+        int idx = Arrays.binarySearch(sentences, position);
+        return (idx >= 0) ? idx : (-idx - 2);
+    }
+
+
+    /**
+     * Get the token values of a layer for a range of tokens.
+     *
+     * @param layer
+     *            the layer identifier
+     * @param from
+     *            the position of the first token (inclusive)
+     * @param to
+     *            the position of the last token (exclusive)
+     * @return the token values or <code>null</code>, if the segment does not
+     *         contain the layer
+     */
+    public String[] getTokens(String layer, int from, int to) {
+        checkRange(from, to);
+        final TermDictionary dictionary = segment.getTermDictionary(layer);
+        if (dictionary == null) {
+            return null;
+        }
+
+        final DataCursor in = forwardIndex(dictionary, from);
+        final String[] tokens = new String[to - from];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = dictionary.getTerm(in.readVInt());
+        }
+        return tokens;
+    }
+
+
+    /**
+     * Append the token values of a layer for a range of tokens to a buffer.
+     * Tokens are separated by a single space. Optionally, the character
+     * offsets of each token within the buffer are recorded, which allows
+     * hit markers to be computed without creating a string per token.
+     *
+     * @param layer
+     *            the layer identifier
+     * @param from
+     *            the position of the first token (inclusive)
+     * @param to
+     *            the position of the last token (exclusive)
+     * @param buffer
+     *            the buffer to append to
+     * @param offsets
+     *            an array of at least <code>2 * (to - from)</code> elements
+     *            receiving the start and end offset of each token or
+     *            <code>null</code>
+     * @return <code>true</code> if the tokens were appended,
+     *         <code>false</code> if the segment does not contain the layer
+     */
+    public boolean appendText(String layer, int from, int to,
+            StringBuilder buffer, int[] offsets) {
+        checkRange(from, to);
+        if (buffer == null) {
+            throw new NullPointerException("buffer == null");
+        }
+        if ((offsets != null) && (offsets.length < 2 * (to - from))) {
+            throw new IllegalArgumentException("offsets array too small");
+        }
+        final TermDictionary dictionary = segment.getTermDictionary(layer);
+        if (dictionary == null) {
+            return false;
+        }
+
+        final DataCursor in = forwardIndex(dictionary, from);
+        for (int i = 0; i < to - from; i++) {
+            if (i > 0) {
+                buffer.append(' ');
+            }
+            if (offsets != null) {
+                offsets[2 * i] = buffer.length();
+            }
+            dictionary.appendTerm(in.readVInt(), buffer);
+            if (offsets != null) {
+                offsets[2 * i + 1] = buffer.length();
+            }
+        }
+        return true;
+    }
+
+
+    private DataCursor forwardIndex(TermDictionary dictionary, int from) {
+        final DataCursor in = segment.cursor(layersOffset);
+        for (int i = 0; i < dictionary.getLayerIndex(); i++) {
+            in.skip(in.readVInt());
+        }
+        in.readVInt(); // block length
+        in.skipVInts(from);
+        return in;
+    }
+
+
+    private void checkRange(int from, int to) {
+        if ((from < 0) || (to > length) || (from > to)) {
+            throw new IndexOutOfBoundsException(
+                    "from = " + from + ", to = " + to);
+        }
+    }
+
+} // class StoredDocument
@@ -0,0 +1,224 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.index;
+
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * The sorted term dictionary of a single layer of a {@link Segment}. Terms
+ * are addressed by their ordinal, i.e. their position in the dictionary, and
+ * sorted by their UTF-8 representation. Document and total term frequencies
+ * are computed when the segment is written.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class TermDictionary {
+    private final Segment segment;
+    private final int layerIndex;
+    private final String layer;
+    private final int size;
+    private final int termTableOffset;
+
+
+    TermDictionary(Segment segment, int layerIndex, String layer, int size,
+            int termTableOffset) {
+        this.segment = segment;
+        this.layerIndex = layerIndex;
+        this.layer = layer;
+        this.size = size;
+        this.termTableOffset = termTableOffset;
+    }
+
+
+    /**
+     * Get the identifier of the layer of this dictionary.
+     *
+     * @return the layer identifier
+     */
+    public String getLayer() {
+        return layer;
+    }
+
+
+    /**
+     * Get the number of distinct terms in this dictionary.
+     *
+     * @return the number of terms
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Get the term with the given ordinal.
+     *
+     * @param ord
+     *            the term ordinal
+     * @return the term
+     */
+    public String getTerm(int ord) {
+        final DataCursor in = record(ord);
+        in.readLong();      // postings offset
+        in.readVInt();      // document frequency
+        in.readVLong();     // total frequency
+        return in.readUTF8(in.readVInt());
+    }
+
+
+    /**
+     * Append the term with the given ordinal to a buffer. Unlike
+     * {@link #getTerm(int)}, this method does not allocate a string.
+     *
+     * @param ord
+     *            the term ordinal
+     * @param buffer
+     *            the buffer to append to
+     */
+    public void appendTerm(int ord, StringBuilder buffer) {
+        final DataCursor in = record(ord);
+        in.readLong();      // postings offset
+        in.readVInt();      // document frequency
+        in.readVLong();     // total frequency
+        in.appendUTF8(in.readVInt(), buffer);
+    }
+
+
+    /**
+     * Get the number of documents containing the term with the given ordinal.
+     *
+     * @param ord
+     *            the term ordinal
+     * @return the document frequency
+     */
+    public int getDocumentFrequency(int ord) {
+        final DataCursor in = record(ord);
+        in.readLong();      // postings offset
+        return in.readVInt();
+    }
+
+
+    /**
+     * Get the number of occurrences of the term with the given ordinal.
+     *
+     * @param ord
+     *            the term ordinal
+     * @return the total term frequency
+     */
+    public long getTotalFrequency(int ord) {
+        final DataCursor in = record(ord);
+        in.readLong();      // postings offset
+        in.readVInt();      // document frequency
+        return in.readVLong();
+    }
+
+
+    /**
+     * Seek to a term using binary search.
+     *
+     * @param term
+     *            the term
+     * @return the ordinal of the term, if it is contained in the dictionary;
+     *         otherwise, <code>(-(insertion point) - 1)</code>
+     * @see java.util.Arrays#binarySearch(int[], int)
+     */
+    public int seek(String term) {
+        if (term == null) {
+            throw new NullPointerException("term == null");
+        }
+        return seek(term.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Check, if the term with the given ordinal starts with a prefix.
+     *
+     * @param ord
+     *            the term ordinal
+     * @param prefix
+     *            the prefix as UTF-8 bytes
+     * @return <code>true</code> if the term starts with the prefix
+     */
+    boolean startsWith(int ord, byte[] prefix) {
+        final DataCursor in = record(ord);
+        in.readLong();      // postings offset
+        in.readVInt();      // document frequency
+        in.readVLong();     // total frequency
+        final int length = in.readVInt();
+        if (length < prefix.length) {
+            return false;
+        }
+        return in.compareBytes(prefix.length, prefix) == 0;
+    }
+
+
+    int seek(byte[] key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final DataCursor in = record(mid);
+            in.readLong();  // postings offset
+            in.readVInt();  // document frequency
+            in.readVLong(); // total frequency
+            final int cmp = in.compareBytes(in.readVInt(), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+
+    /**
+     * Get the positional postings for the term with the given ordinal.
+     *
+     * @param ord
+     *            the term ordinal
+     * @return a new postings iterator
+     */
+    public PostingsIterator postings(int ord) {
+        final DataCursor in = record(ord);
+        final int postingsOffset = (int) in.readLong();
+        final int docFreq = in.readVInt();
+        return new PostingsIterator(segment.cursor(postingsOffset), docFreq);
+    }
+
+
+    int getLayerIndex() {
+        return layerIndex;
+    }
+
+
+    private DataCursor record(int ord) {
+        if ((ord < 0) || (ord >= size)) {
+            throw new IndexOutOfBoundsException("ord = " + ord);
+        }
+        final DataCursor in = segment.cursor(termTableOffset + ord * 8);
+        in.seek((int) in.readLong());
+        return in;
+    }
+
+} // class TermDictionary
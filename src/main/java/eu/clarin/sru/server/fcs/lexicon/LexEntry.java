@@ -0,0 +1,197 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.lexicon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * An immutable lexical entry. An entry consists of a number of fields, each
+ * identified by a lexical field type (see
+ * {@link eu.clarin.sru.server.fcs.Constants#LEX_FIELD_TYPES}) and holding one
+ * or more values.
+ *
+ * @see LexIndex
+ */
+public final class LexEntry {
+    private final String resourcePid;
+    private final String ref;
+    private final String xmlLang;
+    private final String langUri;
+    private final Map<String, List<String>> fields;
+
+
+    private LexEntry(Builder builder) {
+        this.resourcePid = builder.resourcePid;
+        this.ref = builder.ref;
+        this.xmlLang = builder.xmlLang;
+        this.langUri = builder.langUri;
+        final Map<String, List<String>> fields =
+                new LinkedHashMap<>(builder.fields.size());
+        for (Map.Entry<String, List<String>> field :
+                builder.fields.entrySet()) {
+            fields.put(field.getKey(), Collections.unmodifiableList(
+                    new ArrayList<>(field.getValue())));
+        }
+        this.fields = Collections.unmodifiableMap(fields);
+    }
+
+
+    /**
+     * Get the persistent identifier of the resource this entry belongs to.
+     *
+     * @return the resource persistent identifier or <code>null</code>
+     */
+    public String getResourcePid() {
+        return resourcePid;
+    }
+
+
+    /**
+     * Get the reference (e.g. a landing page) of this entry.
+     *
+     * @return the reference or <code>null</code>
+     */
+    public String getRef() {
+        return ref;
+    }
+
+
+    /**
+     * Get the language of this entry.
+     *
+     * @return the ISO language code or <code>null</code>
+     */
+    public String getLanguage() {
+        return xmlLang;
+    }
+
+
+    /**
+     * Get the language URI of this entry.
+     *
+     * @return the language URI or <code>null</code>
+     */
+    public String getLanguageURI() {
+        return langUri;
+    }
+
+
+    /**
+     * Get all fields of this entry.
+     *
+     * @return the field values keyed by field type
+     */
+    public Map<String, List<String>> getFields() {
+        return fields;
+    }
+
+
+    /**
+     * Get the values of a field.
+     *
+     * @param fieldType
+     *            the field type
+     * @return the values of the field, never <code>null</code>
+     */
+    public List<String> getValues(String fieldType) {
+        final List<String> values = fields.get(fieldType);
+        return (values != null) ? values : Collections.<String>emptyList();
+    }
+
+
+    /**
+     * Get the first value of a field.
+     *
+     * @param fieldType
+     *            the field type
+     * @return the first value of the field or <code>null</code>
+     */
+    public String getValue(String fieldType) {
+        final List<String> values = fields.get(fieldType);
+        return ((values != null) && !values.isEmpty()) ? values.get(0) : null;
+    }
+
+
+    /**
+     * Builder for lexical entries.
+     */
+    public static final class Builder {
+        private final Map<String, List<String>> fields = new LinkedHashMap<>();
+        private String resourcePid;
+        private String ref;
+        private String xmlLang;
+        private String langUri;
+
+
+        private Builder() {
+        }
+
+
+        public Builder withResourcePid(String resourcePid) {
+            this.resourcePid = resourcePid;
+            return this;
+        }
+
+
+        public Builder withRef(String ref) {
+            this.ref = ref;
+            return this;
+        }
+
+
+        public Builder withLanguage(String xmlLang, String langUri) {
+            this.xmlLang = xmlLang;
+            this.langUri = langUri;
+            return this;
+        }
+
+
+        public Builder withValue(String fieldType, String value) {
+            if (fieldType == null) {
+                throw new NullPointerException("fieldType == null");
+            }
+            if (value == null) {
+                throw new NullPointerException("value == null");
+            }
+            List<String> values = fields.get(fieldType);
+            if (values == null) {
+                values = new ArrayList<>();
+                fields.put(fieldType, values);
+            }
+            values.add(value);
+            return this;
+        }
+
+
+        public LexEntry build() {
+            return new LexEntry(this);
+        }
+
+
+        public static Builder create() {
+            return new Builder();
+        }
+    }
+
+} // class LexEntry
@@ -0,0 +1,512 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.lexicon;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.z3950.zing.cql.CQLAndNode;
+import org.z3950.zing.cql.CQLNode;
+import org.z3950.zing.cql.CQLNotNode;
+import org.z3950.zing.cql.CQLOrNode;
+import org.z3950.zing.cql.CQLRelation;
+import org.z3950.zing.cql.CQLTermNode;
+import org.z3950.zing.cql.Modifier;
+
+import eu.clarin.sru.server.SRUConstants;
+import eu.clarin.sru.server.SRUException;
+import eu.clarin.sru.server.fcs.Constants;
+import eu.clarin.sru.server.fcs.SearchContext;
+
+
+/**
+ * An in-memory index over lexical entries for evaluating LexCQL queries.
+ * The values of each field type are indexed in a compressed trie, so exact,
+ * prefix and masked (wildcard) searches only touch the matching branches.
+ * Case and accent insensitive variants of a field index are built on first
+ * use.
+ * <p>
+ * Supported relations are <code>=</code>, <code>==</code>,
+ * <code>exact</code> and <code>is</code>; supported relation modifiers are
+ * <code>masked</code> (default), <code>unmasked</code>, <code>regexp</code>,
+ * <code>ignoreCase</code>, <code>respectCase</code> (default),
+ * <code>ignoreAccents</code> and <code>respectAccents</code> (default). The
+ * <code>==</code> relation implies <code>unmasked</code>. Searches without an
+ * index, or on <code>cql.serverChoice</code>, are performed on the
+ * <code>lemma</code> field; the virtual field <code>lang</code> matches the
+ * entry language. Regular expressions are matched as written;
+ * <code>ignoreCase</code> makes them case insensitive, and with
+ * <code>ignoreAccents</code> they are matched against the terms with their
+ * accents removed.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class LexIndex {
+    private static final String CQL_SERVER_CHOICE = "cql.serverChoice";
+    private static final String MODIFIER_MASKED = "masked";
+    private static final String MODIFIER_UNMASKED = "unmasked";
+    private static final String MODIFIER_REGEXP = "regexp";
+    private static final String MODIFIER_IGNORE_CASE = "ignoreCase";
+    private static final String MODIFIER_RESPECT_CASE = "respectCase";
+    private static final String MODIFIER_IGNORE_ACCENTS = "ignoreAccents";
+    private static final String MODIFIER_RESPECT_ACCENTS = "respectAccents";
+    private static final int FOLD_CASE = 0x01;
+    private static final int FOLD_ACCENTS = 0x02;
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final String REGEX_META_CHARACTERS = "\\.[]{}()*+?^$|";
+    private final List<LexEntry> entries;
+    private final Map<String, LexTrie> fields;
+    private final Map<String, BitSet> resources;
+    private final ConcurrentMap<String, LexTrie> foldedFields =
+            new ConcurrentHashMap<>();
+
+
+    private LexIndex(List<LexEntry> entries, Map<String, LexTrie> fields,
+            Map<String, BitSet> resources) {
+        this.entries = entries;
+        this.fields = fields;
+        this.resources = resources;
+    }
+
+
+    /**
+     * Get the number of entries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * Get an entry.
+     *
+     * @param id
+     *            the entry id
+     * @return the entry
+     */
+    public LexEntry getEntry(int id) {
+        return entries.get(id);
+    }
+
+
+    /**
+     * Get the field types contained in this index.
+     *
+     * @return the set of field types
+     */
+    public Set<String> getFieldTypes() {
+        return fields.keySet();
+    }
+
+
+    /**
+     * Collect the ids of all entries that belong to a resource.
+     *
+     * @param resourcePid
+     *            the resource persistent identifier
+     * @param result
+     *            the set to add the entry ids to
+     */
+    public void collectEntries(String resourcePid, BitSet result) {
+        final BitSet ids = resources.get(resourcePid);
+        if (ids != null) {
+            result.or(ids);
+        }
+    }
+
+
+    /**
+     * Evaluate a LexCQL query.
+     *
+     * @param query
+     *            the query
+     * @return the ids of all matching entries
+     * @throws SRUException
+     *             if the query uses unsupported features
+     */
+    public BitSet search(CQLNode query) throws SRUException {
+        return search(query, SearchContext.create(0));
+    }
+
+
+    /**
+     * Evaluate a LexCQL query. Masked and regular expression searches stop,
+     * once the deadline of the context has passed; the result is incomplete
+     * in this case.
+     *
+     * @param query
+     *            the query
+     * @param context
+     *            the search context
+     * @return the ids of all matching entries
+     * @throws SRUException
+     *             if the query uses unsupported features
+     */
+    public BitSet search(CQLNode query, SearchContext context)
+            throws SRUException {
+        if (query == null) {
+            throw new NullPointerException("query == null");
+        }
+        if (context == null) {
+            throw new NullPointerException("context == null");
+        }
+        if (query instanceof CQLTermNode) {
+            return searchTerm((CQLTermNode) query, context);
+        } else if (query instanceof CQLAndNode) {
+            final CQLAndNode node = (CQLAndNode) query;
+            final BitSet result = search(node.getLeftOperand(), context);
+            if (!result.isEmpty()) {
+                result.and(search(node.getRightOperand(), context));
+            }
+            return result;
+        } else if (query instanceof CQLOrNode) {
+            final CQLOrNode node = (CQLOrNode) query;
+            final BitSet result = search(node.getLeftOperand(), context);
+            result.or(search(node.getRightOperand(), context));
+            return result;
+        } else if (query instanceof CQLNotNode) {
+            final CQLNotNode node = (CQLNotNode) query;
+            final BitSet result = search(node.getLeftOperand(), context);
+            if (!result.isEmpty()) {
+                result.andNot(search(node.getRightOperand(), context));
+            }
+            return result;
+        } else {
+            throw new SRUException(SRUConstants.SRU_QUERY_FEATURE_UNSUPPORTED,
+                    "Query feature '" + query.getClass().getSimpleName() +
+                    "' is not supported.");
+        }
+    }
+
+
+    private BitSet searchTerm(CQLTermNode node, SearchContext context)
+            throws SRUException {
+        String index = node.getIndex();
+        if ((index == null) || index.isEmpty() ||
+                CQL_SERVER_CHOICE.equalsIgnoreCase(index)) {
+            index = Constants.LEX_FIELD_TYPE_LEMMA;
+        }
+        if (!fields.containsKey(index) &&
+                !Arrays.asList(Constants.LEX_FIELD_TYPES).contains(index)) {
+            throw new SRUException(SRUConstants.SRU_UNSUPPORTED_INDEX, index,
+                    "Index '" + index + "' is not supported.");
+        }
+
+        final CQLRelation relation = node.getRelation();
+        final String base = relation.getBase();
+        boolean masked = true;
+        if ("==".equals(base)) {
+            masked = false;
+        } else if (!"=".equals(base) && !"exact".equalsIgnoreCase(base) &&
+                !"is".equalsIgnoreCase(base)) {
+            throw new SRUException(SRUConstants.SRU_UNSUPPORTED_RELATION, base,
+                    "Relation '" + base + "' is not supported.");
+        }
+        boolean regexp = false;
+        int folding = 0;
+        final List<Modifier> modifiers = relation.getModifiers();
+        if (modifiers != null) {
+            for (Modifier modifier : modifiers) {
+                final String type = modifier.getType();
+                if (MODIFIER_MASKED.equalsIgnoreCase(type)) {
+                    masked = true;
+                    regexp = false;
+                } else if (MODIFIER_UNMASKED.equalsIgnoreCase(type)) {
+                    masked = false;
+                    regexp = false;
+                } else if (MODIFIER_REGEXP.equalsIgnoreCase(type)) {
+                    regexp = true;
+                } else if (MODIFIER_IGNORE_CASE.equalsIgnoreCase(type)) {
+                    folding |= FOLD_CASE;
+                } else if (MODIFIER_RESPECT_CASE.equalsIgnoreCase(type)) {
+                    folding &= ~FOLD_CASE;
+                } else if (MODIFIER_IGNORE_ACCENTS.equalsIgnoreCase(type)) {
+                    folding |= FOLD_ACCENTS;
+                } else if (MODIFIER_RESPECT_ACCENTS.equalsIgnoreCase(type)) {
+                    folding &= ~FOLD_ACCENTS;
+                } else {
+                    throw new SRUException(
+                            SRUConstants.SRU_UNSUPPORTED_RELATION_MODIFIER,
+                            type,
+                            "Relation modifier '" + type +
+                            "' is not supported.");
+                }
+            }
+        }
+
+        final BitSet result = new BitSet(entries.size());
+        if (regexp) {
+            // the pattern is not folded, case is ignored by the matcher
+            final LexTrie trie = getField(index, folding & FOLD_ACCENTS);
+            if (trie == null) {
+                return result;
+            }
+            final String regex = node.getTerm();
+            final Pattern pattern;
+            try {
+                pattern = Pattern.compile(regex, ((folding & FOLD_CASE) != 0)
+                        ? (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)
+                        : 0);
+            } catch (PatternSyntaxException e) {
+                throw new SRUException(
+                        Constants.FCS_DIAGNOSTIC_GENERAL_QUERY_SYNTAX_ERROR,
+                        regex,
+                        "Invalid regular expression: " + e.getDescription());
+            }
+            final String prefix = ((folding & FOLD_CASE) != 0)
+                    ? "" : fold(literalPrefix(regex), folding);
+            trie.regex(pattern, prefix, result, context);
+            return result;
+        }
+
+        final LexTrie trie = getField(index, folding);
+        if (trie == null) {
+            return result;
+        }
+        final String term = fold(node.getTerm(), folding);
+        if (masked && isMasked(term)) {
+            final int star = term.indexOf('*');
+            if ((star == term.length() - 1) &&
+                    (term.indexOf('?') == -1) && (term.indexOf('\\') == -1)) {
+                // prefix search
+                trie.prefix(term.substring(0, star), result);
+            } else {
+                trie.masked(term, result, context);
+            }
+        } else {
+            trie.exact(masked ? unescape(term) : term, result);
+        }
+        return result;
+    }
+
+
+    private LexTrie getField(String fieldType, int folding) {
+        final LexTrie trie = fields.get(fieldType);
+        if ((trie == null) || (folding == 0)) {
+            return trie;
+        }
+        final String key = fieldType + '\u0000' + folding;
+        LexTrie folded = foldedFields.get(key);
+        if (folded == null) {
+            final TreeMap<String, BitSet> terms = new TreeMap<>();
+            trie.forEach(new LexTrie.TermVisitor() {
+                @Override
+                public void visit(String term, int[] ids, int offset,
+                        int length) {
+                    final String foldedTerm = fold(term, folding);
+                    BitSet set = terms.get(foldedTerm);
+                    if (set == null) {
+                        set = new BitSet();
+                        terms.put(foldedTerm, set);
+                    }
+                    for (int i = offset; i < offset + length; i++) {
+                        set.set(ids[i]);
+                    }
+                }
+            });
+            final TreeMap<String, int[]> sorted = new TreeMap<>();
+            for (Map.Entry<String, BitSet> term : terms.entrySet()) {
+                sorted.put(term.getKey(), term.getValue().stream().toArray());
+            }
+            folded = LexTrie.build(sorted);
+            final LexTrie existing = foldedFields.putIfAbsent(key, folded);
+            if (existing != null) {
+                folded = existing;
+            }
+        }
+        return folded;
+    }
+
+
+    private static String fold(String term, int folding) {
+        if ((folding & FOLD_ACCENTS) != 0) {
+            term = COMBINING_MARKS.matcher(
+                    Normalizer.normalize(term, Normalizer.Form.NFD))
+                    .replaceAll("");
+        }
+        if ((folding & FOLD_CASE) != 0) {
+            term = term.toLowerCase(Locale.ROOT);
+        }
+        return term;
+    }
+
+
+    private static boolean isMasked(String term) {
+        for (int i = 0; i < term.length(); i++) {
+            final char c = term.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if ((c == '*') || (c == '?')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static String unescape(String term) {
+        if (term.indexOf('\\') == -1) {
+            return term;
+        }
+        final StringBuilder result = new StringBuilder(term.length());
+        for (int i = 0; i < term.length(); i++) {
+            final char c = term.charAt(i);
+            if ((c == '\\') && (i + 1 < term.length())) {
+                result.append(term.charAt(++i));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+
+    private static String literalPrefix(String regex) {
+        if (regex.indexOf('|') != -1) {
+            return "";
+        }
+        int i = 0;
+        while ((i < regex.length()) &&
+                (REGEX_META_CHARACTERS.indexOf(regex.charAt(i)) == -1)) {
+            i++;
+        }
+        if ((i < regex.length()) && (i > 0)) {
+            // a quantifier makes the preceding character optional
+            final char c = regex.charAt(i);
+            if ((c == '?') || (c == '*') || (c == '{')) {
+                i--;
+            }
+        }
+        return regex.substring(0, i);
+    }
+
+
+    /**
+     * Builder for lexicon indexes.
+     */
+    public static final class Builder {
+        private final List<LexEntry> entries = new ArrayList<>();
+
+
+        private Builder() {
+        }
+
+
+        public Builder withEntry(LexEntry entry) {
+            if (entry == null) {
+                throw new NullPointerException("entry == null");
+            }
+            entries.add(entry);
+            return this;
+        }
+
+
+        public Builder withEntries(List<LexEntry> entries) {
+            if (entries == null) {
+                throw new NullPointerException("entries == null");
+            }
+            for (LexEntry entry : entries) {
+                withEntry(entry);
+            }
+            return this;
+        }
+
+
+        public LexIndex build() {
+            final Map<String, TreeMap<String, BitSet>> terms = new HashMap<>();
+            final Map<String, BitSet> resources = new HashMap<>();
+            for (int id = 0; id < entries.size(); id++) {
+                final LexEntry entry = entries.get(id);
+                for (Map.Entry<String, List<String>> field :
+                        entry.getFields().entrySet()) {
+                    for (String value : field.getValue()) {
+                        addTerm(terms, field.getKey(), value, id);
+                    }
+                }
+                if (entry.getLanguage() != null) {
+                    addTerm(terms, Constants.LEX_VIRTUAL_FIELD_TYPE_LANGUAGE,
+                            entry.getLanguage(), id);
+                }
+                if (entry.getResourcePid() != null) {
+                    BitSet ids = resources.get(entry.getResourcePid());
+                    if (ids == null) {
+                        ids = new BitSet();
+                        resources.put(entry.getResourcePid(), ids);
+                    }
+                    ids.set(id);
+                }
+            }
+
+            final Map<String, LexTrie> fields = new HashMap<>();
+            for (Map.Entry<String, TreeMap<String, BitSet>> field :
+                    terms.entrySet()) {
+                final TreeMap<String, int[]> sorted = new TreeMap<>();
+                for (Map.Entry<String, BitSet> term :
+                        field.getValue().entrySet()) {
+                    sorted.put(term.getKey(),
+                            term.getValue().stream().toArray());
+                }
+                fields.put(field.getKey(), LexTrie.build(sorted));
+            }
+            return new LexIndex(
+                    Collections.unmodifiableList(new ArrayList<>(entries)),
+                    Collections.unmodifiableMap(fields),
+                    Collections.unmodifiableMap(resources));
+        }
+
+
+        private static void addTerm(Map<String, TreeMap<String, BitSet>> terms,
+                String fieldType, String value, int id) {
+            TreeMap<String, BitSet> field = terms.get(fieldType);
+            if (field == null) {
+                field = new TreeMap<>();
+                terms.put(fieldType, field);
+            }
+            BitSet ids = field.get(value);
+            if (ids == null) {
+                ids = new BitSet();
+                field.put(value, ids);
+            }
+            ids.set(id);
+        }
+
+
+        public static Builder create() {
+            return new Builder();
+        }
+    }
+
+} // class LexIndex
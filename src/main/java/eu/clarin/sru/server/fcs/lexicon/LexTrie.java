@@ -0,0 +1,485 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.lexicon;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.regex.Pattern;
+
+import eu.clarin.sru.server.fcs.SearchContext;
+
+
+/**
+ * An immutable compressed (radix) trie mapping terms to sorted lists of entry
+ * ids. The trie is flattened into a few primitive arrays; the children of a
+ * node are stored contiguously and sorted by the first character of their
+ * label, so a child lookup is a binary search.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+final class LexTrie {
+    private static final int ROOT = 0;
+    private static final char MASK_ANY = '?';
+    private static final char MASK_MANY = '*';
+    private static final char MASK_ESCAPE = '\\';
+    private final char[] labels;
+    private final int[] labelStart;
+    private final int[] labelLength;
+    private final int[] childStart;
+    private final int[] childCount;
+    private final int[] valueStart;
+    private final int[] valueCount;
+    private final int[] values;
+    private final int termCount;
+
+
+    private LexTrie(Builder builder) {
+        this.labels = Arrays.copyOf(builder.labels, builder.labelsSize);
+        this.labelStart = Arrays.copyOf(builder.labelStart, builder.nodeCount);
+        this.labelLength = Arrays.copyOf(builder.labelLength, builder.nodeCount);
+        this.childStart = Arrays.copyOf(builder.childStart, builder.nodeCount);
+        this.childCount = Arrays.copyOf(builder.childCount, builder.nodeCount);
+        this.valueStart = Arrays.copyOf(builder.valueStart, builder.nodeCount);
+        this.valueCount = Arrays.copyOf(builder.valueCount, builder.nodeCount);
+        this.values = Arrays.copyOf(builder.values, builder.valuesSize);
+        this.termCount = builder.termCount;
+    }
+
+
+    /**
+     * Get the number of distinct terms.
+     */
+    int size() {
+        return termCount;
+    }
+
+
+    /**
+     * Collect the entries of a term.
+     */
+    void exact(String term, BitSet result) {
+        final int node = find(term, false);
+        if (node != -1) {
+            collectValues(node, result);
+        }
+    }
+
+
+    /**
+     * Collect the entries of all terms starting with a prefix.
+     */
+    void prefix(String prefix, BitSet result) {
+        final int node = find(prefix, true);
+        if (node != -1) {
+            collectSubtree(node, result);
+        }
+    }
+
+
+    /**
+     * Collect the entries of all terms matching a CQL masked term, i.e.
+     * <code>*</code> matches any number of characters, <code>?</code> a
+     * single character and <code>\</code> escapes a masking character. Only
+     * the branches of the trie that can still match are visited. The
+     * search stops, once the deadline of the context has passed.
+     */
+    void masked(String pattern, BitSet result, SearchContext context) {
+        final StringBuilder literals = new StringBuilder(pattern.length());
+        final StringBuilder types = new StringBuilder(pattern.length());
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if ((c == MASK_ESCAPE) && (i + 1 < pattern.length())) {
+                literals.append(pattern.charAt(++i));
+                types.append('l');
+            } else if ((c == MASK_MANY) || (c == MASK_ANY)) {
+                // collapse runs of '*'
+                if ((c == MASK_MANY) && (types.length() > 0) &&
+                        (types.charAt(types.length() - 1) == MASK_MANY)) {
+                    continue;
+                }
+                literals.append(c);
+                types.append(c);
+            } else {
+                literals.append(c);
+                types.append('l');
+            }
+        }
+
+        final Glob glob = new Glob(literals.toString(), types.toString());
+        final BitSet start = new BitSet();
+        start.set(0);
+        glob.closure(start);
+        matchMasked(ROOT, glob, start, result, context);
+    }
+
+
+    /**
+     * Collect the entries of all terms matching a regular expression.
+     * Only terms starting with the literal prefix are tested. The search
+     * stops, once the deadline of the context has passed.
+     */
+    void regex(Pattern pattern, String literalPrefix, BitSet result,
+            SearchContext context) {
+        final int[] consumed = new int[1];
+        final int node = find(literalPrefix, true, consumed);
+        if (node == -1) {
+            return;
+        }
+        // the node's label may extend past the literal prefix
+        final StringBuilder term = new StringBuilder(literalPrefix);
+        term.append(labels, labelStart[node] + consumed[0],
+                labelLength[node] - consumed[0]);
+        matchRegex(node, pattern, term, result, context);
+    }
+
+
+    private void matchMasked(int node, Glob glob, BitSet states,
+            BitSet result, SearchContext context) {
+        if (context.isExpired()) {
+            return;
+        }
+        BitSet current = states;
+        for (int i = 0; i < labelLength[node]; i++) {
+            current = glob.step(current, labels[labelStart[node] + i]);
+            if (current.isEmpty()) {
+                return;
+            }
+        }
+        if ((valueCount[node] > 0) && glob.accepts(current)) {
+            collectValues(node, result);
+        }
+        for (int c = 0; c < childCount[node]; c++) {
+            matchMasked(childStart[node] + c, glob, current, result,
+                    context);
+        }
+    }
+
+
+    private void matchRegex(int node, Pattern pattern, StringBuilder term,
+            BitSet result, SearchContext context) {
+        if (context.isExpired()) {
+            return;
+        }
+        if ((valueCount[node] > 0) && pattern.matcher(term).matches()) {
+            collectValues(node, result);
+        }
+        for (int c = 0; c < childCount[node]; c++) {
+            final int child = childStart[node] + c;
+            final int length = term.length();
+            term.append(labels, labelStart[child], labelLength[child]);
+            matchRegex(child, pattern, term, result, context);
+            term.setLength(length);
+        }
+    }
+
+
+    /**
+     * Find the node for a key.
+     *
+     * @param partial
+     *            if <code>true</code>, the key may end within the label of
+     *            the returned node
+     * @return the node or <code>-1</code>, if not found
+     */
+    private int find(String key, boolean partial) {
+        return find(key, partial, null);
+    }
+
+
+    private int find(String key, boolean partial, int[] consumed) {
+        int node = ROOT;
+        int i = 0;
+        if (consumed != null) {
+            consumed[0] = 0;
+        }
+        while (i < key.length()) {
+            node = findChild(node, key.charAt(i));
+            if (node == -1) {
+                return -1;
+            }
+            for (int j = 0; j < labelLength[node]; j++, i++) {
+                if (i == key.length()) {
+                    if (partial && (consumed != null)) {
+                        consumed[0] = j;
+                    }
+                    return partial ? node : -1;
+                }
+                if (key.charAt(i) != labels[labelStart[node] + j]) {
+                    return -1;
+                }
+            }
+            if (consumed != null) {
+                consumed[0] = labelLength[node];
+            }
+        }
+        return node;
+    }
+
+
+    private int findChild(int node, char c) {
+        int low = childStart[node];
+        int high = low + childCount[node] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char first = labels[labelStart[mid]];
+            if (first < c) {
+                low = mid + 1;
+            } else if (first > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+
+    private void collectValues(int node, BitSet result) {
+        final int start = valueStart[node];
+        for (int i = 0; i < valueCount[node]; i++) {
+            result.set(values[start + i]);
+        }
+    }
+
+
+    private void collectSubtree(int node, BitSet result) {
+        collectValues(node, result);
+        for (int c = 0; c < childCount[node]; c++) {
+            collectSubtree(childStart[node] + c, result);
+        }
+    }
+
+
+    /**
+     * Visit all terms and their entries in sorted order.
+     */
+    void forEach(TermVisitor visitor) {
+        forEach(ROOT, new StringBuilder(), visitor);
+    }
+
+
+    private void forEach(int node, StringBuilder term, TermVisitor visitor) {
+        if (valueCount[node] > 0) {
+            visitor.visit(term.toString(), values, valueStart[node],
+                    valueCount[node]);
+        }
+        for (int c = 0; c < childCount[node]; c++) {
+            final int child = childStart[node] + c;
+            final int length = term.length();
+            term.append(labels, labelStart[child], labelLength[child]);
+            forEach(child, term, visitor);
+            term.setLength(length);
+        }
+    }
+
+
+    interface TermVisitor {
+        void visit(String term, int[] ids, int offset, int length);
+    }
+
+
+    /**
+     * Build a trie.
+     *
+     * @param terms
+     *            the terms mapped to their sorted entry ids
+     */
+    static LexTrie build(SortedMap<String, int[]> terms) {
+        final String[] keys = terms.keySet().toArray(new String[terms.size()]);
+        final int[][] ids = new int[keys.length][];
+        int i = 0;
+        for (Map.Entry<String, int[]> entry : terms.entrySet()) {
+            ids[i++] = entry.getValue();
+        }
+        final Builder builder = new Builder(keys, ids);
+        builder.allocate(ROOT);
+        builder.build(ROOT, 0, keys.length, 0);
+        return new LexTrie(builder);
+    }
+
+
+    private static final class Builder {
+        private final String[] keys;
+        private final int[][] ids;
+        private char[] labels = new char[64];
+        private int labelsSize = 0;
+        private int[] labelStart = new int[16];
+        private int[] labelLength = new int[16];
+        private int[] childStart = new int[16];
+        private int[] childCount = new int[16];
+        private int[] valueStart = new int[16];
+        private int[] valueCount = new int[16];
+        private int nodeCount = 0;
+        private int[] values = new int[64];
+        private int valuesSize = 0;
+        private int termCount = 0;
+
+
+        private Builder(String[] keys, int[][] ids) {
+            this.keys = keys;
+            this.ids = ids;
+        }
+
+
+        private void build(int node, int lo, int hi, int depth) {
+            if ((lo < hi) && (keys[lo].length() == depth)) {
+                final int[] v = ids[lo++];
+                ensureValues(v.length);
+                valueStart[node] = valuesSize;
+                valueCount[node] = v.length;
+                System.arraycopy(v, 0, values, valuesSize, v.length);
+                valuesSize += v.length;
+                termCount++;
+            }
+
+            // count groups of keys sharing the next character
+            int groups = 0;
+            for (int i = lo; i < hi; ) {
+                final char c = keys[i].charAt(depth);
+                while ((i < hi) && (keys[i].charAt(depth) == c)) {
+                    i++;
+                }
+                groups++;
+            }
+
+            // allocate children contiguously, then recurse
+            final int first = nodeCount;
+            childStart[node] = first;
+            childCount[node] = groups;
+            int child = first;
+            final int[] bounds = new int[groups * 2];
+            for (int i = lo, g = 0; i < hi; g++) {
+                final int a = i;
+                final char c = keys[i].charAt(depth);
+                while ((i < hi) && (keys[i].charAt(depth) == c)) {
+                    i++;
+                }
+                bounds[g * 2] = a;
+                bounds[g * 2 + 1] = i;
+                final int length =
+                        commonPrefix(keys[a], keys[i - 1]) - depth;
+                allocate(child++);
+                labelStart[child - 1] = appendLabel(keys[a], depth, length);
+                labelLength[child - 1] = length;
+            }
+            for (int g = 0; g < groups; g++) {
+                final int a = bounds[g * 2];
+                build(first + g, a, bounds[g * 2 + 1],
+                        depth + labelLength[first + g]);
+            }
+        }
+
+
+        private void allocate(int node) {
+            if (node == labelStart.length) {
+                final int capacity = node * 2;
+                labelStart = Arrays.copyOf(labelStart, capacity);
+                labelLength = Arrays.copyOf(labelLength, capacity);
+                childStart = Arrays.copyOf(childStart, capacity);
+                childCount = Arrays.copyOf(childCount, capacity);
+                valueStart = Arrays.copyOf(valueStart, capacity);
+                valueCount = Arrays.copyOf(valueCount, capacity);
+            }
+            nodeCount = node + 1;
+        }
+
+
+        private int appendLabel(String key, int from, int length) {
+            if (labelsSize + length > labels.length) {
+                labels = Arrays.copyOf(labels,
+                        Math.max(labels.length * 2, labelsSize + length));
+            }
+            key.getChars(from, from + length, labels, labelsSize);
+            final int start = labelsSize;
+            labelsSize += length;
+            return start;
+        }
+
+
+        private void ensureValues(int count) {
+            if (valuesSize + count > values.length) {
+                values = Arrays.copyOf(values,
+                        Math.max(values.length * 2, valuesSize + count));
+            }
+        }
+
+
+        private static int commonPrefix(String a, String b) {
+            final int max = Math.min(a.length(), b.length());
+            int i = 0;
+            while ((i < max) && (a.charAt(i) == b.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+    }
+
+
+    /**
+     * A compiled masked term, evaluated as a non-deterministic automaton
+     * whose states are positions in the pattern.
+     */
+    private static final class Glob {
+        private final String literals;
+        private final String types;
+
+
+        private Glob(String literals, String types) {
+            this.literals = literals;
+            this.types = types;
+        }
+
+
+        private BitSet step(BitSet states, char c) {
+            final BitSet next = new BitSet(types.length() + 1);
+            for (int p = states.nextSetBit(0);
+                    (p >= 0) && (p < types.length());
+                    p = states.nextSetBit(p + 1)) {
+                final char type = types.charAt(p);
+                if (type == MASK_MANY) {
+                    next.set(p);
+                } else if ((type == MASK_ANY) || (literals.charAt(p) == c)) {
+                    next.set(p + 1);
+                }
+            }
+            closure(next);
+            return next;
+        }
+
+
+        private void closure(BitSet states) {
+            for (int p = states.nextSetBit(0);
+                    (p >= 0) && (p < types.length());
+                    p = states.nextSetBit(p + 1)) {
+                if (types.charAt(p) == MASK_MANY) {
+                    states.set(p + 1);
+                }
+            }
+        }
+
+
+        private boolean accepts(BitSet states) {
+            return states.get(types.length());
+        }
+    }
+
+} // class LexTrie
@@ -0,0 +1,327 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.lexicon;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.z3950.zing.cql.CQLNode;
+import org.z3950.zing.cql.CQLParseException;
+import org.z3950.zing.cql.CQLParser;
+
+import eu.clarin.sru.server.SRUConfigException;
+import eu.clarin.sru.server.SRUConstants;
+import eu.clarin.sru.server.SRUDiagnosticList;
+import eu.clarin.sru.server.SRUException;
+import eu.clarin.sru.server.SRUQueryParserRegistry;
+import eu.clarin.sru.server.SRURequest;
+import eu.clarin.sru.server.SRUResultCountPrecision;
+import eu.clarin.sru.server.SRUSearchResultSet;
+import eu.clarin.sru.server.SRUServerConfig;
+import eu.clarin.sru.server.fcs.Constants;
+import eu.clarin.sru.server.fcs.DataView;
+import eu.clarin.sru.server.fcs.LexDataViewWriter;
+import eu.clarin.sru.server.fcs.ResourceInfo;
+import eu.clarin.sru.server.fcs.SearchContext;
+import eu.clarin.sru.server.fcs.SimpleEndpointSearchEngineBase;
+import eu.clarin.sru.server.fcs.XMLStreamWriterHelper;
+import eu.clarin.sru.server.fcs.search.CountResultSet;
+import eu.clarin.sru.server.fcs.search.RecordCursor;
+import eu.clarin.sru.server.fcs.search.StreamingSearchResultSet;
+
+
+/**
+ * A base class for implementing a CLARIN-FCS endpoint for lexical resources.
+ * Entries are held in a {@link LexIndex}, LexCQL queries (and CQL queries,
+ * which are treated the same way) are evaluated against the index and the
+ * matching entries are rendered using the Generic Hits and the Lex Data
+ * Views.
+ * <p>
+ * Subclasses provide the entries by implementing
+ * {@link #createLexIndex(ServletContext, SRUServerConfig, Map)}. Subclasses
+ * overriding <code>doInit()</code> must call the super implementation.
+ * </p>
+ */
+public abstract class LexiconSearchEngineBase extends
+        SimpleEndpointSearchEngineBase {
+    private static final Logger logger =
+            LoggerFactory.getLogger(LexiconSearchEngineBase.class);
+    private LexIndex index;
+
+
+    @Override
+    protected void doInit(ServletContext context, SRUServerConfig config,
+            SRUQueryParserRegistry.Builder queryParsersBuilder,
+            Map<String, String> params) throws SRUConfigException {
+        index = createLexIndex(context, config, params);
+        if (index == null) {
+            throw new SRUConfigException(
+                    "createLexIndex() returned no valid lexicon index");
+        }
+        logger.info("lexicon index contains {} entries with fields {}",
+                index.size(), index.getFieldTypes());
+    }
+
+
+    /**
+     * Create the lexicon index, e.g. by loading the entries of a dictionary
+     * and adding them to a {@link LexIndex.Builder}.
+     *
+     * @param context
+     *            the {@link ServletContext} for the Servlet
+     * @param config
+     *            the {@link SRUServerConfig} object for this search engine
+     * @param params
+     *            additional parameters gathered from the Servlet configuration
+     *            and Servlet context.
+     * @return the lexicon index
+     * @throws SRUConfigException
+     *             if an error occurred
+     */
+    protected abstract LexIndex createLexIndex(ServletContext context,
+            SRUServerConfig config, Map<String, String> params)
+            throws SRUConfigException;
+
+
+    /**
+     * Get the lexicon index.
+     *
+     * @return the lexicon index
+     */
+    protected final LexIndex getLexIndex() {
+        return index;
+    }
+
+
+    @Override
+    protected SRUSearchResultSet doSearch(SRUServerConfig config,
+            SRURequest request, SRUDiagnosticList diagnostics,
+            SearchContext context) throws SRUException {
+        final BitSet matches = findEntries(request, diagnostics, context);
+        final List<DataView> dataViews =
+                resolveDataViews(request, diagnostics);
+
+        int maximumRecords = request.getMaximumRecords();
+        if (maximumRecords < 0) {
+            maximumRecords = config.getNumberOfRecords();
+        }
+        return new LexSearchResultSet(diagnostics, matches,
+                request.getStartRecord(), maximumRecords, dataViews, context);
+    }
+
+
+    @Override
+    protected SRUSearchResultSet doCount(SRUServerConfig config,
+            SRURequest request, SRUDiagnosticList diagnostics,
+            SearchContext context) throws SRUException {
+        final BitSet matches = findEntries(request, diagnostics, context);
+        return new CountResultSet(diagnostics, matches.cardinality(),
+                context.isExpired()
+                        ? SRUResultCountPrecision.ESTIMATE
+                        : SRUResultCountPrecision.EXACT);
+    }
+
+
+    /**
+     * Parse the query of a search request. LexCQL queries are re-parsed as
+     * CQL, as LexCQL is a profile of CQL.
+     *
+     * @param request
+     *            the <code>SRURequest</code> object that contains the request
+     *            made to the endpoint
+     * @return the query
+     * @throws SRUException
+     *             if the query is not supported
+     */
+    protected CQLNode parseQuery(SRURequest request) throws SRUException {
+        if (request.isQueryType(Constants.FCS_QUERY_TYPE_LEX)) {
+            try {
+                return new CQLParser().parse(
+                        request.getQuery().getRawQuery());
+            } catch (CQLParseException | IOException e) {
+                throw new SRUException(
+                        Constants.FCS_DIAGNOSTIC_GENERAL_QUERY_SYNTAX_ERROR,
+                        e.getMessage());
+            }
+        } else if (request.isQueryType(Constants.FCS_QUERY_TYPE_CQL)) {
+            return (CQLNode) request.getQuery().getParsedQuery();
+        } else {
+            throw new SRUException(SRUConstants.SRU_CANNOT_PROCESS_QUERY_REASON_UNKNOWN,
+                    "Queries with queryType '" + request.getQueryType() +
+                    "' are not supported by this CLARIN-FCS Endpoint.");
+        }
+    }
+
+
+    /**
+     * Write an entry as a CLARIN-FCS record. The default implementation
+     * renders the lemma using the Generic Hits Data View and, if requested,
+     * all fields using the Lex Data View.
+     *
+     * @param writer
+     *            the {@link XMLStreamWriter} to be used
+     * @param entry
+     *            the entry
+     * @param dataViews
+     *            the data views to be rendered
+     * @throws XMLStreamException
+     *             if an error occurred
+     */
+    protected void writeEntry(XMLStreamWriter writer, LexEntry entry,
+            List<DataView> dataViews) throws XMLStreamException {
+        XMLStreamWriterHelper.writeStartResource(writer,
+                entry.getResourcePid(), entry.getRef());
+
+        final String lemma = entry.getValue(Constants.LEX_FIELD_TYPE_LEMMA);
+        if ((lemma != null) && !lemma.isEmpty()) {
+            XMLStreamWriterHelper.writeHitsDataView(writer, lemma,
+                    new int[] { 0, lemma.length() }, false);
+        }
+
+        for (DataView dataView : dataViews) {
+            if (Constants.MIMETYPE_LEX.equals(dataView.getMimeType())) {
+                final LexDataViewWriter helper = new LexDataViewWriter(
+                        entry.getLanguage(), entry.getLanguageURI());
+                for (Map.Entry<String, List<String>> field :
+                        entry.getFields().entrySet()) {
+                    helper.addValues(field.getKey(), field.getValue(), null);
+                }
+                helper.writeLexDataView(writer);
+                break;
+            }
+        }
+        XMLStreamWriterHelper.writeEndResource(writer);
+    }
+
+
+    private static void collectPids(List<ResourceInfo> resources,
+            Set<String> pids) {
+        if (resources != null) {
+            for (ResourceInfo resource : resources) {
+                pids.add(resource.getPid());
+                collectPids(resource.getSubResources(), pids);
+            }
+        }
+    }
+
+
+    private BitSet findEntries(SRURequest request,
+            SRUDiagnosticList diagnostics, SearchContext context)
+            throws SRUException {
+        final CQLNode query = parseQuery(request);
+        final List<ResourceInfo> resources =
+                resolveContext(request, diagnostics);
+
+        final BitSet matches = index.search(query, context);
+        if (context.isExpired()) {
+            context.reportExpired(diagnostics);
+        }
+        final String requestedContext =
+                request.getExtraRequestData(Constants.X_FCS_CONTEXT_KEY);
+        if ((requestedContext != null) &&
+                !requestedContext.trim().isEmpty()) {
+            final BitSet filter = new BitSet(index.size());
+            final Set<String> pids = new HashSet<>();
+            collectPids(resources, pids);
+            for (String pid : pids) {
+                index.collectEntries(pid, filter);
+            }
+            matches.and(filter);
+        }
+        return matches;
+    }
+
+
+    private final class LexSearchResultSet extends
+            StreamingSearchResultSet<LexEntry> {
+        private final List<DataView> dataViews;
+        private final boolean complete;
+
+
+        private LexSearchResultSet(SRUDiagnosticList diagnostics,
+                BitSet matches, int startRecord, int maximumRecords,
+                List<DataView> dataViews, SearchContext context) {
+            super(diagnostics, new EntryCursor(matches),
+                    matches.cardinality(), startRecord, maximumRecords,
+                    context);
+            this.dataViews = dataViews;
+            this.complete = !context.isExpired();
+        }
+
+
+        @Override
+        public SRUResultCountPrecision getResultCountPrecision() {
+            return complete
+                    ? SRUResultCountPrecision.EXACT
+                    : SRUResultCountPrecision.ESTIMATE;
+        }
+
+
+        @Override
+        protected void writeRecord(XMLStreamWriter writer, LexEntry entry)
+                throws XMLStreamException {
+            writeEntry(writer, entry, dataViews);
+        }
+    }
+
+
+    /**
+     * Cursor over the entries of a set of entry ids.
+     */
+    private final class EntryCursor implements RecordCursor<LexEntry> {
+        private final BitSet ids;
+        private int id = -1;
+
+
+        private EntryCursor(BitSet ids) {
+            this.ids = ids;
+        }
+
+
+        @Override
+        public LexEntry next() {
+            if (id == -2) {
+                return null;
+            }
+            id = ids.nextSetBit(id + 1);
+            if (id < 0) {
+                id = -2;
+                return null;
+            }
+            return index.getEntry(id);
+        }
+
+
+        @Override
+        public void close() {
+            id = -2;
+        }
+    }
+
+} // class LexiconSearchEngineBase
@@ -0,0 +1,230 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.metrics;
+
+import eu.clarin.sru.server.fcs.utils.AuthenticationMetrics;
+
+
+/**
+ * Receives timings and other metrics of an endpoint. The
+ * <code>SimpleEndpointSearchEngineBase</code> reports the time spent in each
+ * phase of a request, by operation and query type; authentications are
+ * reported through the inherited {@link AuthenticationMetrics} interface.
+ * Components can additionally register values, that are read when the
+ * metrics are exported.
+ * <p>
+ * Implementations are called on the request path and must be thread-safe
+ * and cheap. {@link MetricsRegistry} is a default implementation without
+ * external dependencies, which can be exported in the Prometheus text
+ * format.
+ * </p>
+ */
+public interface EndpointMetrics extends AuthenticationMetrics {
+
+    /**
+     * The SRU operation of a request.
+     */
+    public enum Operation {
+        /**
+         * The <em>explain</em> operation.
+         */
+        EXPLAIN("explain"),
+        /**
+         * The <em>scan</em> operation.
+         */
+        SCAN("scan"),
+        /**
+         * The <em>searchRetrieve</em> operation.
+         */
+        SEARCH_RETRIEVE("searchRetrieve");
+
+        private final String name;
+
+
+        private Operation(String name) {
+            this.name = name;
+        }
+
+
+        /**
+         * Get the name of the operation as used in SRU requests.
+         *
+         * @return the name of the operation
+         */
+        public String getName() {
+            return name;
+        }
+    }
+
+
+    /**
+     * A phase of processing a request.
+     */
+    public enum Phase {
+        /**
+         * Verifying the authentication of the request.
+         */
+        AUTHENTICATION("authentication"),
+        /**
+         * Parsing the query.
+         */
+        QUERY_PARSE("query_parse"),
+        /**
+         * Waiting for admission.
+         */
+        ADMISSION("admission"),
+        /**
+         * Resolving the resources to be searched.
+         */
+        CONTEXT_RESOLUTION("context_resolution"),
+        /**
+         * Performing the search, up to the point when the result set is
+         * returned.
+         */
+        SEARCH("search"),
+        /**
+         * Fetching and writing the records of the result set.
+         */
+        RECORD_SERIALIZATION("record_serialization"),
+        /**
+         * Writing the endpoint description of an explain request.
+         */
+        EXPLAIN("explain"),
+        /**
+         * Handling a scan request, up to the point when the terms are
+         * returned.
+         */
+        SCAN("scan");
+
+        private final String name;
+
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+
+        /**
+         * Get the name of the phase as used in exported metrics.
+         *
+         * @return the name of the phase
+         */
+        public String getName() {
+            return name;
+        }
+    }
+
+
+    /**
+     * A value, that is read when metrics are exported.
+     */
+    public interface Value {
+        /**
+         * Get the current value.
+         *
+         * @return the value
+         */
+        public long get();
+    }
+
+
+    /**
+     * Record the time spent in a phase of a request.
+     *
+     * @param operation
+     *            the operation of the request or <code>null</code>, if
+     *            unknown
+     * @param queryType
+     *            the query type of the request or <code>null</code>, if
+     *            unknown or not applicable
+     * @param phase
+     *            the phase
+     * @param nanos
+     *            the time spent in nanoseconds
+     */
+    public void recordPhase(Operation operation, String queryType,
+            Phase phase, long nanos);
+
+
+    /**
+     * Record a request, that failed in a phase.
+     *
+     * @param operation
+     *            the operation of the request or <code>null</code>, if
+     *            unknown
+     * @param queryType
+     *            the query type of the request or <code>null</code>, if
+     *            unknown or not applicable
+     * @param phase
+     *            the phase, in which the request failed
+     */
+    public void recordError(Operation operation, String queryType,
+            Phase phase);
+
+
+    /**
+     * Record the memory allocated in a phase of a request, e.g. while
+     * rendering its records. Only called, if allocation tracking is
+     * enabled.
+     *
+     * @param operation
+     *            the operation of the request or <code>null</code>, if
+     *            unknown
+     * @param queryType
+     *            the query type of the request or <code>null</code>, if
+     *            unknown or not applicable
+     * @param phase
+     *            the phase
+     * @param records
+     *            the number of records processed in the phase
+     * @param bytes
+     *            the number of bytes allocated
+     */
+    public void recordAllocation(Operation operation, String queryType,
+            Phase phase, int records, long bytes);
+
+
+    /**
+     * Register a value, that may go up and down, e.g. the size of a cache.
+     * A value registered under the same name before is replaced.
+     *
+     * @param name
+     *            the name of the metric
+     * @param help
+     *            a description of the metric
+     * @param value
+     *            the value
+     */
+    public void registerGauge(String name, String help, Value value);
+
+
+    /**
+     * Register a value, that only goes up, e.g. the number of cache hits. A
+     * value registered under the same name before is replaced.
+     *
+     * @param name
+     *            the name of the metric
+     * @param help
+     *            a description of the metric
+     * @param value
+     *            the value
+     */
+    public void registerCounter(String name, String help, Value value);
+
+} // interface EndpointMetrics
@@ -0,0 +1,449 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.clarin.sru.server.fcs.utils.AuthenticationStatistics;
+import eu.clarin.sru.server.fcs.utils.LatencyHistogram;
+
+
+/**
+ * The default implementation of {@link EndpointMetrics}. Phase timings are
+ * kept in a {@link LatencyHistogram} and errors in a {@link LongAdder} per
+ * combination of operation, query type and phase; authentications are
+ * additionally kept in an {@link AuthenticationStatistics}. Allocations
+ * are summed up per combination together with the number of records and
+ * requests, so averages per record and per request can be derived from
+ * them. Recording does not take any locks. The number of combinations is
+ * bounded, further combinations are not recorded.
+ * <p>
+ * The metrics can be exported in the Prometheus text format using
+ * {@link PrometheusWriter} or the {@link PrometheusMetricsServlet}.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class MetricsRegistry implements EndpointMetrics {
+    public static final String FCS_METRICS_ENABLED_PARAM =
+            "eu.clarin.sru.server.fcs.metrics.enabled";
+    /**
+     * The name of the servlet context attribute, under which the
+     * <code>SimpleEndpointSearchEngineBase</code> publishes its metrics.
+     */
+    public static final String CONTEXT_ATTRIBUTE =
+            MetricsRegistry.class.getName();
+    private static final int MAX_SERIES = 1024;
+    private static final Pattern NAME_PATTERN =
+            Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+    private static final Logger logger =
+            LoggerFactory.getLogger(MetricsRegistry.class);
+    private final ConcurrentHashMap<Series, LatencyHistogram> timings =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Series, LongAdder> errors =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Series, Allocation> allocations =
+            new ConcurrentHashMap<>();
+    private final AuthenticationStatistics authentication =
+            new AuthenticationStatistics();
+    private final ConcurrentSkipListMap<String, Registration> values =
+            new ConcurrentSkipListMap<>();
+
+
+    @Override
+    public void record(Outcome outcome, String keyId, long nanos) {
+        authentication.record(outcome, keyId, nanos);
+        recordPhase(null, null, Phase.AUTHENTICATION, nanos);
+    }
+
+
+    @Override
+    public void recordPhase(Operation operation, String queryType,
+            Phase phase, long nanos) {
+        if (phase == null) {
+            throw new NullPointerException("phase == null");
+        }
+        final Series series = new Series(operation, queryType, phase);
+        LatencyHistogram histogram = timings.get(series);
+        if (histogram == null) {
+            if (timings.size() >= MAX_SERIES) {
+                return;
+            }
+            histogram = new LatencyHistogram();
+            final LatencyHistogram existing =
+                    timings.putIfAbsent(series, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        histogram.record(nanos);
+    }
+
+
+    @Override
+    public void recordError(Operation operation, String queryType,
+            Phase phase) {
+        if (phase == null) {
+            throw new NullPointerException("phase == null");
+        }
+        final Series series = new Series(operation, queryType, phase);
+        LongAdder counter = errors.get(series);
+        if (counter == null) {
+            if (errors.size() >= MAX_SERIES) {
+                return;
+            }
+            counter = new LongAdder();
+            final LongAdder existing = errors.putIfAbsent(series, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        counter.increment();
+    }
+
+
+    @Override
+    public void recordAllocation(Operation operation, String queryType,
+            Phase phase, int records, long bytes) {
+        if (phase == null) {
+            throw new NullPointerException("phase == null");
+        }
+        final Series series = new Series(operation, queryType, phase);
+        Allocation allocation = allocations.get(series);
+        if (allocation == null) {
+            if (allocations.size() >= MAX_SERIES) {
+                return;
+            }
+            allocation = new Allocation();
+            final Allocation existing =
+                    allocations.putIfAbsent(series, allocation);
+            if (existing != null) {
+                allocation = existing;
+            }
+        }
+        allocation.requests.increment();
+        allocation.records.add(records);
+        allocation.bytes.add(bytes);
+    }
+
+
+    @Override
+    public void registerGauge(String name, String help, Value value) {
+        register(name, help, value, false);
+    }
+
+
+    @Override
+    public void registerCounter(String name, String help, Value value) {
+        register(name, help, value, true);
+    }
+
+
+    /**
+     * Get the time spent in a phase.
+     *
+     * @param operation
+     *            the operation or <code>null</code>
+     * @param queryType
+     *            the query type or <code>null</code>
+     * @param phase
+     *            the phase
+     * @return the latency histogram or <code>null</code>, if nothing has been
+     *         recorded
+     */
+    public LatencyHistogram getTimings(Operation operation, String queryType,
+            Phase phase) {
+        if (phase == null) {
+            throw new NullPointerException("phase == null");
+        }
+        return timings.get(new Series(operation, queryType, phase));
+    }
+
+
+    /**
+     * Get the number of requests, that failed in a phase.
+     *
+     * @param operation
+     *            the operation or <code>null</code>
+     * @param queryType
+     *            the query type or <code>null</code>
+     * @param phase
+     *            the phase
+     * @return the number of failed requests
+     */
+    public long getErrorCount(Operation operation, String queryType,
+            Phase phase) {
+        if (phase == null) {
+            throw new NullPointerException("phase == null");
+        }
+        final LongAdder counter =
+                errors.get(new Series(operation, queryType, phase));
+        return (counter != null) ? counter.sum() : 0;
+    }
+
+
+    /**
+     * Get the number of bytes allocated in a phase.
+     *
+     * @param operation
+     *            the operation or <code>null</code>
+     * @param queryType
+     *            the query type or <code>null</code>
+     * @param phase
+     *            the phase
+     * @return the number of bytes allocated by all requests
+     */
+    public long getAllocatedBytes(Operation operation, String queryType,
+            Phase phase) {
+        final Allocation allocation = getAllocation(operation, queryType,
+                phase);
+        return (allocation != null) ? allocation.bytes.sum() : 0;
+    }
+
+
+    /**
+     * Get the number of records processed in a phase, while allocations
+     * were tracked.
+     *
+     * @param operation
+     *            the operation or <code>null</code>
+     * @param queryType
+     *            the query type or <code>null</code>
+     * @param phase
+     *            the phase
+     * @return the number of records
+     */
+    public long getAllocatedRecords(Operation operation, String queryType,
+            Phase phase) {
+        final Allocation allocation = getAllocation(operation, queryType,
+                phase);
+        return (allocation != null) ? allocation.records.sum() : 0;
+    }
+
+
+    /**
+     * Get the number of requests, for which allocations were tracked in a
+     * phase.
+     *
+     * @param operation
+     *            the operation or <code>null</code>
+     * @param queryType
+     *            the query type or <code>null</code>
+     * @param phase
+     *            the phase
+     * @return the number of requests
+     */
+    public long getAllocatedRequests(Operation operation, String queryType,
+            Phase phase) {
+        final Allocation allocation = getAllocation(operation, queryType,
+                phase);
+        return (allocation != null) ? allocation.requests.sum() : 0;
+    }
+
+
+    /**
+     * Get the authentication statistics.
+     *
+     * @return the authentication statistics
+     */
+    public AuthenticationStatistics getAuthenticationStatistics() {
+        return authentication;
+    }
+
+
+    /**
+     * Create a metrics registry from init-parameters. Metrics are enabled by
+     * default and can be disabled by setting the
+     * {@link #FCS_METRICS_ENABLED_PARAM} init-parameter to
+     * <code>false</code>.
+     *
+     * @param params
+     *            the init-parameters
+     * @return the metrics registry or <code>null</code>, if metrics are
+     *         disabled
+     */
+    public static MetricsRegistry fromParams(Map<String, String> params) {
+        final String value = params.get(FCS_METRICS_ENABLED_PARAM);
+        if ((value != null) && !(value.trim().equals("1") ||
+                Boolean.parseBoolean(value.trim()))) {
+            logger.debug("metrics are disabled");
+            return null;
+        }
+        return new MetricsRegistry();
+    }
+
+
+    List<Series> getTimingSeries() {
+        return sorted(timings.keySet());
+    }
+
+
+    List<Series> getErrorSeries() {
+        return sorted(errors.keySet());
+    }
+
+
+    List<Series> getAllocationSeries() {
+        return sorted(allocations.keySet());
+    }
+
+
+    Map<String, Registration> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+
+    private Allocation getAllocation(Operation operation, String queryType,
+            Phase phase) {
+        if (phase == null) {
+            throw new NullPointerException("phase == null");
+        }
+        return allocations.get(new Series(operation, queryType, phase));
+    }
+
+
+    private void register(String name, String help, Value value,
+            boolean counter) {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        if (!NAME_PATTERN.matcher(name).matches()) {
+            throw new IllegalArgumentException("invalid name: " + name);
+        }
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+        values.put(name, new Registration(help, value, counter));
+    }
+
+
+    private static List<Series> sorted(Iterable<Series> series) {
+        final List<Series> result = new ArrayList<>();
+        for (Series s : series) {
+            result.add(s);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+
+    /**
+     * A combination of operation, query type and phase.
+     */
+    static final class Series implements Comparable<Series> {
+        final Operation operation;
+        final String queryType;
+        final Phase phase;
+
+
+        private Series(Operation operation, String queryType, Phase phase) {
+            this.operation = operation;
+            this.queryType = queryType;
+            this.phase = phase;
+        }
+
+
+        @Override
+        public int hashCode() {
+            int result = phase.hashCode();
+            result = 31 * result +
+                    ((operation != null) ? operation.hashCode() : 0);
+            result = 31 * result +
+                    ((queryType != null) ? queryType.hashCode() : 0);
+            return result;
+        }
+
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Series)) {
+                return false;
+            }
+            final Series other = (Series) obj;
+            return (phase == other.phase) &&
+                    (operation == other.operation) &&
+                    ((queryType != null)
+                            ? queryType.equals(other.queryType)
+                            : (other.queryType == null));
+        }
+
+
+        @Override
+        public int compareTo(Series other) {
+            int result = phase.compareTo(other.phase);
+            if (result == 0) {
+                result = compare(operation, other.operation);
+            }
+            if (result == 0) {
+                result = compare(queryType, other.queryType);
+            }
+            return result;
+        }
+
+
+        private static <T extends Comparable<T>> int compare(T a, T b) {
+            if (a == null) {
+                return (b == null) ? 0 : -1;
+            }
+            return (b == null) ? 1 : a.compareTo(b);
+        }
+    }
+
+
+    /**
+     * The allocations of a combination.
+     */
+    private static final class Allocation {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder records = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+    }
+
+
+    /**
+     * A registered value.
+     */
+    static final class Registration {
+        final String help;
+        final Value value;
+        final boolean counter;
+
+
+        private Registration(String help, Value value, boolean counter) {
+            this.help = help;
+            this.value = value;
+            this.counter = counter;
+        }
+    }
+
+} // class MetricsRegistry
@@ -0,0 +1,73 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.metrics;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+/**
+ * A servlet exposing the metrics of the endpoint in the Prometheus text
+ * format. The metrics are taken from the {@link MetricsRegistry}, that the
+ * <code>SimpleEndpointSearchEngineBase</code> publishes as servlet context
+ * attribute {@link MetricsRegistry#CONTEXT_ATTRIBUTE}, so the servlet must
+ * be deployed in the same web application as the endpoint, e.g.
+ *
+ * <pre>
+ * &lt;servlet&gt;
+ *   &lt;servlet-name&gt;metrics&lt;/servlet-name&gt;
+ *   &lt;servlet-class&gt;eu.clarin.sru.server.fcs.metrics.PrometheusMetricsServlet&lt;/servlet-class&gt;
+ * &lt;/servlet&gt;
+ * &lt;servlet-mapping&gt;
+ *   &lt;servlet-name&gt;metrics&lt;/servlet-name&gt;
+ *   &lt;url-pattern&gt;/metrics&lt;/url-pattern&gt;
+ * &lt;/servlet-mapping&gt;
+ * </pre>
+ *
+ * If the endpoint has not been initialized yet or metrics are disabled, the
+ * servlet responds with <em>404 Not Found</em>. The metrics may reveal
+ * details about the usage of the endpoint, so access to the servlet should
+ * be restricted.
+ */
+public class PrometheusMetricsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+
+    @Override
+    protected void doGet(HttpServletRequest request,
+            HttpServletResponse response)
+            throws ServletException, IOException {
+        final Object registry = getServletContext().getAttribute(
+                MetricsRegistry.CONTEXT_ATTRIBUTE);
+        if (!(registry instanceof MetricsRegistry)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    "metrics are not available");
+            return;
+        }
+        response.setContentType(PrometheusWriter.CONTENT_TYPE);
+        response.setHeader("Cache-Control", "no-cache");
+        PrometheusWriter.write((MetricsRegistry) registry,
+                response.getWriter());
+    }
+
+} // class PrometheusMetricsServlet
@@ -0,0 +1,279 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import eu.clarin.sru.server.fcs.utils.AuthenticationMetrics.Outcome;
+import eu.clarin.sru.server.fcs.utils.AuthenticationStatistics;
+import eu.clarin.sru.server.fcs.utils.LatencyHistogram;
+
+
+/**
+ * Writes the metrics of a {@link MetricsRegistry} in the Prometheus text
+ * exposition format (version 0.0.4). Latency histograms are exported with a
+ * fixed set of buckets between 100 microseconds and 30 seconds.
+ */
+public final class PrometheusWriter {
+    /**
+     * The content type of the Prometheus text format.
+     */
+    public static final String CONTENT_TYPE =
+            "text/plain; version=0.0.4; charset=utf-8";
+    private static final String PREFIX = "fcs_";
+    private static final String[] BUCKETS = {
+        "0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005", "0.01",
+        "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10", "30"
+    };
+
+
+    private PrometheusWriter() {
+        /* hide constructor */
+    }
+
+
+    /**
+     * Write the metrics of a registry.
+     *
+     * @param registry
+     *            the registry
+     * @param writer
+     *            the writer
+     * @throws IOException
+     *             if an I/O error occurred
+     */
+    public static void write(MetricsRegistry registry, Writer writer)
+            throws IOException {
+        if (registry == null) {
+            throw new NullPointerException("registry == null");
+        }
+        if (writer == null) {
+            throw new NullPointerException("writer == null");
+        }
+        final StringBuilder out = new StringBuilder(4096);
+
+        // request phases
+        final List<MetricsRegistry.Series> timings =
+                registry.getTimingSeries();
+        if (!timings.isEmpty()) {
+            final String name = PREFIX + "phase_seconds";
+            header(out, name, "Time spent in each phase of a request.",
+                    "histogram");
+            for (MetricsRegistry.Series series : timings) {
+                histogram(out, name, labels(series),
+                        registry.getTimings(series.operation,
+                                series.queryType, series.phase));
+            }
+        }
+        final List<MetricsRegistry.Series> errors =
+                registry.getErrorSeries();
+        if (!errors.isEmpty()) {
+            final String name = PREFIX + "phase_errors_total";
+            header(out, name, "Requests, that failed in a phase.", "counter");
+            for (MetricsRegistry.Series series : errors) {
+                sample(out, name, labels(series),
+                        registry.getErrorCount(series.operation,
+                                series.queryType, series.phase));
+            }
+        }
+
+        final List<MetricsRegistry.Series> allocations =
+                registry.getAllocationSeries();
+        if (!allocations.isEmpty()) {
+            String name = PREFIX + "phase_allocated_bytes_total";
+            header(out, name, "Bytes allocated in a phase.", "counter");
+            for (MetricsRegistry.Series series : allocations) {
+                sample(out, name, labels(series),
+                        registry.getAllocatedBytes(series.operation,
+                                series.queryType, series.phase));
+            }
+            name = PREFIX + "phase_allocated_records_total";
+            header(out, name, "Records processed in a phase, while " +
+                    "allocations were tracked.", "counter");
+            for (MetricsRegistry.Series series : allocations) {
+                sample(out, name, labels(series),
+                        registry.getAllocatedRecords(series.operation,
+                                series.queryType, series.phase));
+            }
+            name = PREFIX + "phase_allocated_requests_total";
+            header(out, name, "Requests, for which allocations were " +
+                    "tracked in a phase.", "counter");
+            for (MetricsRegistry.Series series : allocations) {
+                sample(out, name, labels(series),
+                        registry.getAllocatedRequests(series.operation,
+                                series.queryType, series.phase));
+            }
+        }
+
+        // authentication
+        final AuthenticationStatistics authentication =
+                registry.getAuthenticationStatistics();
+        if (authentication.getCount() > 0) {
+            String name = PREFIX + "authentications_total";
+            header(out, name, "Authentications by outcome.", "counter");
+            for (Map.Entry<Outcome, Long> count :
+                    authentication.getCounts().entrySet()) {
+                sample(out, name, label("outcome",
+                        count.getKey().name().toLowerCase(Locale.ROOT)),
+                        count.getValue());
+            }
+            name = PREFIX + "authentication_key_seconds";
+            header(out, name, "Time spent authenticating by key id.",
+                    "histogram");
+            for (String keyId : authentication.getKeyIds()) {
+                histogram(out, name, label("key_id", keyId),
+                        authentication.getLatencies(keyId));
+            }
+            name = PREFIX + "authentication_token_cache_hit_ratio";
+            header(out, name, "Ratio of tokens found in the cache of " +
+                    "verified tokens.", "gauge");
+            sample(out, name, null, authentication.getTokenCacheHitRatio());
+            name = PREFIX + "authentication_failure_cache_hit_ratio";
+            header(out, name, "Ratio of tokens found in the cache of " +
+                    "rejected tokens.", "gauge");
+            sample(out, name, null,
+                    authentication.getFailureCacheHitRatio());
+        }
+
+        // registered values
+        for (Map.Entry<String, MetricsRegistry.Registration> entry :
+                registry.getValues().entrySet()) {
+            final MetricsRegistry.Registration registration =
+                    entry.getValue();
+            final String name = PREFIX + entry.getKey();
+            header(out, name, registration.help,
+                    registration.counter ? "counter" : "gauge");
+            sample(out, name, null, registration.value.get());
+        }
+
+        writer.write(out.toString());
+        writer.flush();
+    }
+
+
+    private static void header(StringBuilder out, String name, String help,
+            String type) {
+        if (help != null) {
+            out.append("# HELP ").append(name).append(' ');
+            escape(out, help, false);
+            out.append('\n');
+        }
+        out.append("# TYPE ").append(name).append(' ').append(type)
+            .append('\n');
+    }
+
+
+    private static void histogram(StringBuilder out, String name,
+            String labels, LatencyHistogram histogram) {
+        if (histogram == null) {
+            return;
+        }
+        final long[] counts = histogram.getBucketCounts();
+        int index = 0;
+        long cumulative = 0;
+        for (String bucket : BUCKETS) {
+            final long bound =
+                    (long) (Double.parseDouble(bucket) * 1000000000.0);
+            while ((index < counts.length) &&
+                    (LatencyHistogram.getBucketUpperBound(index) <= bound)) {
+                cumulative += counts[index++];
+            }
+            sample(out, name + "_bucket", join(labels,
+                    label("le", bucket)), cumulative);
+        }
+        while (index < counts.length) {
+            cumulative += counts[index++];
+        }
+        sample(out, name + "_bucket", join(labels, label("le", "+Inf")),
+                cumulative);
+        sample(out, name + "_sum", labels,
+                histogram.getSum(TimeUnit.NANOSECONDS) / 1000000000.0);
+        sample(out, name + "_count", labels, cumulative);
+    }
+
+
+    private static void sample(StringBuilder out, String name,
+            String labels, long value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+
+    private static void sample(StringBuilder out, String name,
+            String labels, double value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+
+    private static String labels(MetricsRegistry.Series series) {
+        String result = label("phase", series.phase.getName());
+        if (series.operation != null) {
+            result = join(result,
+                    label("operation", series.operation.getName()));
+        }
+        if (series.queryType != null) {
+            result = join(result, label("query_type", series.queryType));
+        }
+        return result;
+    }
+
+
+    private static String label(String name, String value) {
+        final StringBuilder result = new StringBuilder();
+        result.append(name).append("=\"");
+        escape(result, value, true);
+        result.append('"');
+        return result.toString();
+    }
+
+
+    private static String join(String labels, String label) {
+        return (labels != null) ? (labels + "," + label) : label;
+    }
+
+
+    private static void escape(StringBuilder out, String value,
+            boolean quotes) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\') {
+                out.append("\\\\");
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else if (quotes && (c == '"')) {
+                out.append("\\\"");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+} // class PrometheusWriter
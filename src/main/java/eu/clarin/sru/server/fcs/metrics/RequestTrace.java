@@ -0,0 +1,270 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+
+import eu.clarin.sru.server.SRUQuery;
+import eu.clarin.sru.server.fcs.DataView;
+import eu.clarin.sru.server.fcs.ResourceInfo;
+import eu.clarin.sru.server.fcs.metrics.EndpointMetrics.Phase;
+
+
+/**
+ * Collects the timings and resolved parameters of a single
+ * <em>searchRetrieve</em> request for the {@link SlowQueryLog}. The phases
+ * preceding the search, i.e. authentication and query parsing, are
+ * performed by the SRU server on the request thread for any kind of
+ * request, so their timings are only kept as pending timings of the current
+ * thread. A trace is started, once the search is performed, and takes over
+ * the pending timings; it is kept in a thread-local variable until the
+ * search returns and is then detached from the thread and passed along with
+ * the result set.
+ * <p>
+ * Pending timings are overwritten by the next request processed by the
+ * thread. They are held only in instances of JDK classes, so a thread does
+ * not keep the class loader of a web application alive.
+ * </p>
+ * <p>
+ * This class is not thread-safe, a trace is used by one request at a time.
+ * </p>
+ */
+public final class RequestTrace {
+    private static final ThreadLocal<RequestTrace> CURRENT =
+            new ThreadLocal<>();
+    private static final ThreadLocal<long[]> PENDING = new ThreadLocal<>();
+    private static final ThreadLocal<WeakReference<SRUQuery<?>>>
+            PENDING_QUERY = new ThreadLocal<>();
+    private final long startTime;
+    private final long[] phases;
+    private final SRUQuery<?> query;
+    private List<ResourceInfo> resources;
+    private List<DataView> dataViews;
+    private long allocatedBytes = -1;
+
+
+    private RequestTrace(SRUQuery<?> query, long[] phases) {
+        long pending = 0;
+        for (long nanos : phases) {
+            pending += nanos;
+        }
+        // the trace covers the pending phases, too
+        this.startTime = System.nanoTime() - pending;
+        this.phases = phases;
+        this.query = query;
+    }
+
+
+    /**
+     * Record the time spent authenticating the request processed by the
+     * current thread. Authentication is the first phase of a request, so any
+     * pending timings of a previous request are discarded.
+     *
+     * @param nanos
+     *            the time spent in nanoseconds
+     */
+    public static void recordAuthentication(long nanos) {
+        final long[] pending = new long[Phase.values().length];
+        pending[Phase.AUTHENTICATION.ordinal()] = nanos;
+        PENDING.set(pending);
+        PENDING_QUERY.remove();
+    }
+
+
+    /**
+     * Record the time spent parsing the query of the request processed by
+     * the current thread. The time is only taken over by a trace started for
+     * the same query.
+     *
+     * @param query
+     *            the parsed query
+     * @param nanos
+     *            the time spent in nanoseconds
+     */
+    public static void recordQueryParse(SRUQuery<?> query, long nanos) {
+        if (query == null) {
+            throw new NullPointerException("query == null");
+        }
+        long[] pending = PENDING.get();
+        if (pending == null) {
+            pending = new long[Phase.values().length];
+            PENDING.set(pending);
+        }
+        pending[Phase.QUERY_PARSE.ordinal()] = nanos;
+        PENDING_QUERY.set(new WeakReference<SRUQuery<?>>(query));
+    }
+
+
+    /**
+     * Start a new trace for the request processed by the current thread,
+     * replacing any previous trace. The pending timings of the thread are
+     * taken over by the trace and cleared.
+     *
+     * @param query
+     *            the query of the request
+     * @return the trace
+     */
+    public static RequestTrace begin(SRUQuery<?> query) {
+        long[] phases = PENDING.get();
+        if (phases == null) {
+            phases = new long[Phase.values().length];
+        } else {
+            final WeakReference<SRUQuery<?>> ref = PENDING_QUERY.get();
+            if ((ref == null) || (ref.get() != query)) {
+                // parsed for a different request
+                phases[Phase.QUERY_PARSE.ordinal()] = 0;
+            }
+            PENDING.remove();
+            PENDING_QUERY.remove();
+        }
+        final RequestTrace trace = new RequestTrace(query, phases);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+
+    /**
+     * Get the trace for the request processed by the current thread.
+     *
+     * @return the trace or <code>null</code>, if none
+     */
+    public static RequestTrace current() {
+        return CURRENT.get();
+    }
+
+
+    /**
+     * Detach the trace from the current thread.
+     */
+    public static void detach() {
+        CURRENT.remove();
+    }
+
+
+    /**
+     * Add the time spent in a phase.
+     *
+     * @param phase
+     *            the phase
+     * @param nanos
+     *            the time spent in nanoseconds
+     */
+    public void addPhase(Phase phase, long nanos) {
+        phases[phase.ordinal()] += nanos;
+    }
+
+
+    /**
+     * Get the time spent in a phase.
+     *
+     * @param phase
+     *            the phase
+     * @return the time spent in nanoseconds
+     */
+    public long getPhase(Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+
+    /**
+     * Get the time elapsed since the trace was started.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    public long getElapsed() {
+        return System.nanoTime() - startTime;
+    }
+
+
+    /**
+     * Get the query of the request.
+     *
+     * @return the query or <code>null</code>, if unknown
+     */
+    public SRUQuery<?> getQuery() {
+        return query;
+    }
+
+
+    /**
+     * Get the resolved resources of the request.
+     *
+     * @return the resources or <code>null</code>, if not resolved
+     */
+    public List<ResourceInfo> getResources() {
+        return resources;
+    }
+
+
+    /**
+     * Set the resolved resources of the request.
+     *
+     * @param resources
+     *            the resources
+     */
+    public void setResources(List<ResourceInfo> resources) {
+        this.resources = resources;
+    }
+
+
+    /**
+     * Get the resolved data views of the request.
+     *
+     * @return the data views or <code>null</code>, if not resolved
+     */
+    public List<DataView> getDataViews() {
+        return dataViews;
+    }
+
+
+    /**
+     * Set the resolved data views of the request.
+     *
+     * @param dataViews
+     *            the data views
+     */
+    public void setDataViews(List<DataView> dataViews) {
+        this.dataViews = dataViews;
+    }
+
+
+    /**
+     * Get the number of bytes allocated while rendering the records of the
+     * request.
+     *
+     * @return the number of bytes or <code>-1</code>, if not tracked
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+
+    /**
+     * Set the number of bytes allocated while rendering the records of the
+     * request.
+     *
+     * @param allocatedBytes
+     *            the number of bytes
+     */
+    public void setAllocatedBytes(long allocatedBytes) {
+        this.allocatedBytes = allocatedBytes;
+    }
+
+} // class RequestTrace
@@ -0,0 +1,341 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.z3950.zing.cql.CQLNode;
+
+import eu.clarin.sru.server.SRUConfigException;
+import eu.clarin.sru.server.SRUQuery;
+import eu.clarin.sru.server.SRUResultCountPrecision;
+import eu.clarin.sru.server.fcs.DataView;
+import eu.clarin.sru.server.fcs.ResourceInfo;
+import eu.clarin.sru.server.fcs.metrics.EndpointMetrics.Phase;
+import eu.clarin.sru.server.fcs.utils.InitParameters;
+import eu.clarin.sru.server.fcs.utils.Threads;
+
+
+/**
+ * Logs <em>searchRetrieve</em> requests, that took longer than a threshold,
+ * together with their raw and canonical query, query type, resolved
+ * resources and data views, hit count, the time spent in each phase and,
+ * if tracked, the memory allocated while rendering records.
+ * <p>
+ * Slow requests are handed to a background thread through a bounded
+ * buffer, which formats and writes them to the logger of this class at
+ * level <code>WARN</code>. The request thread never waits for the log: if
+ * the buffer is full, the entry is dropped and counted.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class SlowQueryLog {
+    public static final String FCS_SLOW_QUERY_LOG_THRESHOLD_PARAM =
+            "eu.clarin.sru.server.fcs.slowQueryLog.threshold";
+    public static final String FCS_SLOW_QUERY_LOG_BUFFER_SIZE_PARAM =
+            "eu.clarin.sru.server.fcs.slowQueryLog.bufferSize";
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+    private static final Logger logger =
+            LoggerFactory.getLogger(SlowQueryLog.class);
+    private final long threshold;
+    private final BlockingQueue<Entry> buffer;
+    private final LongAdder logged = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+
+
+    /**
+     * Constructor.
+     *
+     * @param threshold
+     *            the time after which a request is considered slow
+     * @param unit
+     *            the time unit of the threshold
+     * @param bufferSize
+     *            the maximum number of entries waiting to be written
+     */
+    public SlowQueryLog(long threshold, TimeUnit unit, int bufferSize) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("threshold < 1");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit == null");
+        }
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize < 1");
+        }
+        this.threshold = unit.toNanos(threshold);
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.writer = Threads.newThreadFactory("fcs-slowlog").newThread(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                });
+        this.writer.start();
+    }
+
+
+    /**
+     * Finish the trace of a request and log it, if the request was slow.
+     *
+     * @param trace
+     *            the trace of the request
+     * @param hitCount
+     *            the total number of hits or <code>-1</code>, if unknown
+     * @param precision
+     *            the precision of the hit count or <code>null</code>
+     * @param recordCount
+     *            the number of records returned
+     * @param failed
+     *            <code>true</code>, if the request failed
+     * @return <code>true</code> if the request was slow
+     */
+    public boolean finish(RequestTrace trace, int hitCount,
+            SRUResultCountPrecision precision, int recordCount,
+            boolean failed) {
+        if (trace == null) {
+            throw new NullPointerException("trace == null");
+        }
+        final long elapsed = trace.getElapsed();
+        if (elapsed < threshold) {
+            return false;
+        }
+        logged.increment();
+        if (!buffer.offer(new Entry(trace, elapsed, hitCount, precision,
+                recordCount, failed))) {
+            dropped.increment();
+        }
+        return true;
+    }
+
+
+    /**
+     * Get the number of slow requests.
+     *
+     * @return the number of slow requests
+     */
+    public long getSlowCount() {
+        return logged.sum();
+    }
+
+
+    /**
+     * Get the number of slow requests, that were not written, because the
+     * buffer was full.
+     *
+     * @return the number of dropped entries
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+
+    /**
+     * Stop the background thread. Entries still waiting in the buffer are
+     * written first.
+     */
+    public void shutdown() {
+        writer.interrupt();
+    }
+
+
+    /**
+     * Create a slow-query log configured by init-parameters. The log is
+     * disabled, unless a threshold in milliseconds is set using the
+     * {@link #FCS_SLOW_QUERY_LOG_THRESHOLD_PARAM} init-parameter.
+     *
+     * @param params
+     *            the init-parameters
+     * @return the slow-query log or <code>null</code>, if disabled
+     * @throws SRUConfigException
+     *             if the configuration is invalid
+     */
+    public static SlowQueryLog fromParams(Map<String, String> params)
+            throws SRUConfigException {
+        final long threshold = InitParameters.parseLong(params,
+                FCS_SLOW_QUERY_LOG_THRESHOLD_PARAM, 0);
+        if (threshold == 0) {
+            logger.debug("slow-query log is disabled");
+            return null;
+        }
+        final long bufferSize = InitParameters.parseLong(params,
+                FCS_SLOW_QUERY_LOG_BUFFER_SIZE_PARAM, DEFAULT_BUFFER_SIZE);
+        if ((bufferSize < 1) || (bufferSize > Integer.MAX_VALUE)) {
+            throw new SRUConfigException("init-parameter '" +
+                    FCS_SLOW_QUERY_LOG_BUFFER_SIZE_PARAM +
+                    "' is invalid: " + bufferSize);
+        }
+        logger.debug("slow-query log: threshold = {} ms, bufferSize = {}",
+                threshold, bufferSize);
+        return new SlowQueryLog(threshold, TimeUnit.MILLISECONDS,
+                (int) bufferSize);
+    }
+
+
+    private void drain() {
+        try {
+            for (;;) {
+                write(buffer.take());
+            }
+        } catch (InterruptedException e) {
+            // shutdown, write what is left
+            final List<Entry> remaining = new ArrayList<>();
+            buffer.drainTo(remaining);
+            for (Entry entry : remaining) {
+                write(entry);
+            }
+        }
+    }
+
+
+    private static void write(Entry entry) {
+        try {
+            logger.warn(entry.format());
+        } catch (RuntimeException e) {
+            logger.debug("failed to write slow-query log entry", e);
+        }
+    }
+
+
+
+    /**
+     * A slow request. The values are captured on the request thread, the
+     * entry is formatted on the background thread.
+     */
+    private static final class Entry {
+        private final long elapsed;
+        private final long[] phases;
+        private final SRUQuery<?> query;
+        private final List<ResourceInfo> resources;
+        private final List<DataView> dataViews;
+        private final int hitCount;
+        private final SRUResultCountPrecision precision;
+        private final int recordCount;
+        private final long allocatedBytes;
+        private final boolean failed;
+
+
+        private Entry(RequestTrace trace, long elapsed, int hitCount,
+                SRUResultCountPrecision precision, int recordCount,
+                boolean failed) {
+            this.elapsed = elapsed;
+            final Phase[] values = Phase.values();
+            this.phases = new long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                this.phases[i] = trace.getPhase(values[i]);
+            }
+            this.query = trace.getQuery();
+            this.resources = trace.getResources();
+            this.dataViews = trace.getDataViews();
+            this.hitCount = hitCount;
+            this.precision = precision;
+            this.recordCount = recordCount;
+            this.allocatedBytes = trace.getAllocatedBytes();
+            this.failed = failed;
+        }
+
+
+        private String format() {
+            final StringBuilder sb = new StringBuilder(256);
+            sb.append("slow query: ").append(millis(elapsed)).append(" ms");
+            if (failed) {
+                sb.append(" (failed)");
+            }
+            if (query != null) {
+                sb.append(", queryType=").append(query.getQueryType());
+                sb.append(", query=\"").append(query.getRawQuery())
+                    .append('"');
+                final Object parsed = query.getParsedQuery();
+                if (parsed instanceof CQLNode) {
+                    sb.append(", canonical=\"")
+                        .append(((CQLNode) parsed).toCQL()).append('"');
+                } else if (parsed != null) {
+                    sb.append(", canonical=\"").append(parsed).append('"');
+                }
+            }
+            if (resources != null) {
+                sb.append(", context=[");
+                for (int i = 0; i < resources.size(); i++) {
+                    if (i > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(resources.get(i).getPid());
+                }
+                sb.append(']');
+            }
+            if (dataViews != null) {
+                sb.append(", dataViews=[");
+                for (int i = 0; i < dataViews.size(); i++) {
+                    if (i > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(dataViews.get(i).getIdentifier());
+                }
+                sb.append(']');
+            }
+            if (!failed) {
+                sb.append(", hits=").append(hitCount);
+                if (precision != null) {
+                    sb.append(" (").append(precision).append(')');
+                }
+                sb.append(", records=").append(recordCount);
+            }
+            if (allocatedBytes >= 0) {
+                sb.append(", allocated=").append(allocatedBytes)
+                    .append(" bytes");
+                if (recordCount > 0) {
+                    sb.append(" (").append(allocatedBytes / recordCount)
+                        .append(" per record)");
+                }
+            }
+            sb.append(", phases: ");
+            boolean first = true;
+            final Phase[] values = Phase.values();
+            for (int i = 0; i < values.length; i++) {
+                if (phases[i] > 0) {
+                    if (!first) {
+                        sb.append(", ");
+                    }
+                    sb.append(values[i].getName()).append('=')
+                        .append(millis(phases[i])).append(" ms");
+                    first = false;
+                }
+            }
+            return sb.toString();
+        }
+
+
+        private static String millis(long nanos) {
+            return String.format("%.1f", nanos / 1000000.0);
+        }
+    }
+
+} // class SlowQueryLog
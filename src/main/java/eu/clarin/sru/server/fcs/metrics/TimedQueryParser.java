@@ -0,0 +1,183 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+import eu.clarin.sru.server.SRUDiagnosticList;
+import eu.clarin.sru.server.SRUQuery;
+import eu.clarin.sru.server.SRUQueryParser;
+import eu.clarin.sru.server.SRUVersion;
+import eu.clarin.sru.server.fcs.metrics.EndpointMetrics.Operation;
+import eu.clarin.sru.server.fcs.metrics.EndpointMetrics.Phase;
+import eu.clarin.sru.server.fcs.utils.FlightRecorderEvents;
+
+
+/**
+ * A query parser, that measures the time spent parsing queries with another
+ * query parser and records it as {@link Phase#QUERY_PARSE}. A query, that
+ * could not be parsed, is recorded as an error. If tracing is enabled, the
+ * time is also recorded for the {@link RequestTrace} of the query. Each parse
+ * is reported as a Flight Recorder event, if available (see
+ * {@link FlightRecorderEvents}).
+ *
+ * @param <T>
+ *            the type of the parsed queries
+ */
+public final class TimedQueryParser<T> implements SRUQueryParser<T> {
+    private final SRUQueryParser<T> delegate;
+    private final EndpointMetrics metrics;
+    private final boolean tracing;
+
+
+    /**
+     * Constructor.
+     *
+     * @param delegate
+     *            the query parser to be wrapped
+     * @param metrics
+     *            the metrics
+     */
+    public TimedQueryParser(SRUQueryParser<T> delegate,
+            EndpointMetrics metrics) {
+        this(delegate, metrics, false);
+        if (metrics == null) {
+            throw new NullPointerException("metrics == null");
+        }
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param delegate
+     *            the query parser to be wrapped
+     * @param metrics
+     *            the metrics or <code>null</code>
+     * @param tracing
+     *            <code>true</code> to add the time to the request trace
+     */
+    public TimedQueryParser(SRUQueryParser<T> delegate,
+            EndpointMetrics metrics, boolean tracing) {
+        if (delegate == null) {
+            throw new NullPointerException("delegate == null");
+        }
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.tracing = tracing;
+    }
+
+
+    @Override
+    public String getQueryType() {
+        return delegate.getQueryType();
+    }
+
+
+    @Override
+    public boolean supportsVersion(SRUVersion version) {
+        return delegate.supportsVersion(version);
+    }
+
+
+    @Override
+    public String getQueryTypeDefintion() {
+        return delegate.getQueryTypeDefintion();
+    }
+
+
+    @Override
+    public List<String> getQueryParameterNames() {
+        return delegate.getQueryParameterNames();
+    }
+
+
+    @Override
+    public SRUQuery<T> parseQuery(SRUVersion version,
+            Map<String, String> parameters, SRUDiagnosticList diagnostics) {
+        final long start = System.nanoTime();
+        final FlightRecorderEvents.Span span =
+                FlightRecorderEvents.beginQueryParse(delegate.getQueryType());
+        SRUQuery<T> result = null;
+        try {
+            result = delegate.parseQuery(version, parameters, diagnostics);
+            return result;
+        } finally {
+            final long nanos = System.nanoTime() - start;
+            span.setOutcome((result != null) ? "ok" : "error");
+            span.end();
+            if (metrics != null) {
+                final String queryType = delegate.getQueryType();
+                metrics.recordPhase(Operation.SEARCH_RETRIEVE, queryType,
+                        Phase.QUERY_PARSE, nanos);
+                if (result == null) {
+                    metrics.recordError(Operation.SEARCH_RETRIEVE, queryType,
+                            Phase.QUERY_PARSE);
+                }
+            }
+            if (tracing && (result != null)) {
+                RequestTrace.recordQueryParse(result, nanos);
+            }
+        }
+    }
+
+
+    /**
+     * Wrap a query parser, if metrics or Flight Recorder events are
+     * enabled.
+     *
+     * @param parser
+     *            the query parser
+     * @param metrics
+     *            the metrics or <code>null</code>
+     * @param <T>
+     *            the type of the parsed queries
+     * @return the wrapped query parser or the query parser itself, if
+     *         neither is enabled
+     */
+    public static <T> SRUQueryParser<T> wrap(SRUQueryParser<T> parser,
+            EndpointMetrics metrics) {
+        return wrap(parser, metrics, false);
+    }
+
+
+    /**
+     * Wrap a query parser, if metrics, tracing or Flight Recorder events
+     * are enabled.
+     *
+     * @param parser
+     *            the query parser
+     * @param metrics
+     *            the metrics or <code>null</code>
+     * @param tracing
+     *            <code>true</code> to add the time to the request trace
+     * @param <T>
+     *            the type of the parsed queries
+     * @return the wrapped query parser or the query parser itself, if
+     *         neither is enabled
+     */
+    public static <T> SRUQueryParser<T> wrap(SRUQueryParser<T> parser,
+            EndpointMetrics metrics, boolean tracing) {
+        return ((metrics != null) || tracing ||
+                FlightRecorderEvents.isAvailable())
+                ? new TimedQueryParser<>(parser, metrics, tracing) : parser;
+    }
+
+} // class TimedQueryParser
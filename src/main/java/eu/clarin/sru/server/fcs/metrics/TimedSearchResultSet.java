@@ -0,0 +1,288 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.metrics;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import eu.clarin.sru.server.SRUDiagnostic;
+import eu.clarin.sru.server.SRUDiagnosticList;
+import eu.clarin.sru.server.SRUException;
+import eu.clarin.sru.server.SRUResultCountPrecision;
+import eu.clarin.sru.server.SRUSearchResultSet;
+import eu.clarin.sru.server.fcs.metrics.EndpointMetrics.Operation;
+import eu.clarin.sru.server.fcs.metrics.EndpointMetrics.Phase;
+import eu.clarin.sru.server.fcs.utils.AllocationCounter;
+import eu.clarin.sru.server.fcs.utils.FlightRecorderEvents;
+
+
+/**
+ * A search result set, that measures the time spent fetching and writing
+ * the records of another result set. All calls are passed to the wrapped
+ * result set; the accumulated time is recorded as
+ * {@link Phase#RECORD_SERIALIZATION} once the result set is closed. If a
+ * {@link RequestTrace} is given, the time is also added to the trace, which
+ * is then passed to the {@link SlowQueryLog}. Writing each record is
+ * reported as a Flight Recorder event, if available (see
+ * {@link FlightRecorderEvents}). Optionally, the memory allocated while
+ * writing records is counted using {@link AllocationCounter} and recorded
+ * along with the number of records written.
+ */
+public final class TimedSearchResultSet extends SRUSearchResultSet {
+    private final SRUSearchResultSet delegate;
+    private final EndpointMetrics metrics;
+    private final String queryType;
+    private final RequestTrace trace;
+    private final SlowQueryLog slowQueryLog;
+    private final boolean trackAllocations;
+    private long nanos = 0;
+    private long allocatedBytes;
+    private int position = 0;
+    private boolean failed = false;
+    private boolean closed = false;
+
+
+    /**
+     * Constructor.
+     *
+     * @param diagnostics
+     *            an instance of a SRUDiagnosticList
+     * @param delegate
+     *            the result set to be wrapped
+     * @param metrics
+     *            the metrics
+     * @param queryType
+     *            the query type of the request
+     */
+    public TimedSearchResultSet(SRUDiagnosticList diagnostics,
+            SRUSearchResultSet delegate, EndpointMetrics metrics,
+            String queryType) {
+        this(diagnostics, delegate, metrics, queryType, null, null, false);
+        if (metrics == null) {
+            throw new NullPointerException("metrics == null");
+        }
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param diagnostics
+     *            an instance of a SRUDiagnosticList
+     * @param delegate
+     *            the result set to be wrapped
+     * @param metrics
+     *            the metrics or <code>null</code>
+     * @param queryType
+     *            the query type of the request
+     * @param trace
+     *            the trace of the request or <code>null</code>
+     * @param slowQueryLog
+     *            the slow-query log to pass the trace to or
+     *            <code>null</code>
+     * @param trackAllocations
+     *            <code>true</code> to count the memory allocated while
+     *            writing records
+     */
+    public TimedSearchResultSet(SRUDiagnosticList diagnostics,
+            SRUSearchResultSet delegate, EndpointMetrics metrics,
+            String queryType, RequestTrace trace, SlowQueryLog slowQueryLog,
+            boolean trackAllocations) {
+        super(diagnostics);
+        if (delegate == null) {
+            throw new NullPointerException("delegate == null");
+        }
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.queryType = queryType;
+        this.trace = trace;
+        this.slowQueryLog = slowQueryLog;
+        this.trackAllocations = trackAllocations;
+        this.allocatedBytes = trackAllocations ? 0 : -1;
+    }
+
+
+    @Override
+    public String getResultSetId() {
+        return delegate.getResultSetId();
+    }
+
+
+    @Override
+    public int getResultSetTTL() {
+        return delegate.getResultSetTTL();
+    }
+
+
+    @Override
+    public int getTotalRecordCount() {
+        return delegate.getTotalRecordCount();
+    }
+
+
+    @Override
+    public SRUResultCountPrecision getResultCountPrecision() {
+        return delegate.getResultCountPrecision();
+    }
+
+
+    @Override
+    public int getRecordCount() {
+        return delegate.getRecordCount();
+    }
+
+
+    @Override
+    public String getRecordSchemaIdentifier() {
+        return delegate.getRecordSchemaIdentifier();
+    }
+
+
+    @Override
+    public boolean nextRecord() throws SRUException {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final boolean result = delegate.nextRecord();
+            success = true;
+            return result;
+        } finally {
+            nanos += System.nanoTime() - start;
+            failed |= !success;
+        }
+    }
+
+
+    @Override
+    public String getRecordIdentifier() {
+        return delegate.getRecordIdentifier();
+    }
+
+
+    @Override
+    public SRUDiagnostic getSurrogateDiagnostic() {
+        return delegate.getSurrogateDiagnostic();
+    }
+
+
+    @Override
+    public void writeRecord(XMLStreamWriter writer)
+            throws XMLStreamException {
+        final long start = System.nanoTime();
+        final long allocated = trackAllocations
+                ? AllocationCounter.getAllocatedBytes() : -1;
+        final FlightRecorderEvents.Span span =
+                FlightRecorderEvents.beginRecordWrite(queryType, ++position);
+        boolean success = false;
+        try {
+            delegate.writeRecord(writer);
+            success = true;
+        } finally {
+            span.end();
+            nanos += System.nanoTime() - start;
+            failed |= !success;
+            countAllocations(allocated);
+        }
+    }
+
+
+    @Override
+    public boolean hasExtraRecordData() {
+        return delegate.hasExtraRecordData();
+    }
+
+
+    @Override
+    public void writeExtraRecordData(XMLStreamWriter writer)
+            throws XMLStreamException {
+        final long start = System.nanoTime();
+        final long allocated = trackAllocations
+                ? AllocationCounter.getAllocatedBytes() : -1;
+        try {
+            delegate.writeExtraRecordData(writer);
+        } finally {
+            nanos += System.nanoTime() - start;
+            countAllocations(allocated);
+        }
+    }
+
+
+    @Override
+    public boolean hasExtraResponseData() {
+        return delegate.hasExtraResponseData();
+    }
+
+
+    @Override
+    public void writeExtraResponseData(XMLStreamWriter writer)
+            throws XMLStreamException {
+        delegate.writeExtraResponseData(writer);
+    }
+
+
+    @Override
+    public void close() {
+        try {
+            delegate.close();
+        } finally {
+            if (!closed) {
+                closed = true;
+                if (metrics != null) {
+                    metrics.recordPhase(Operation.SEARCH_RETRIEVE, queryType,
+                            Phase.RECORD_SERIALIZATION, nanos);
+                    if (allocatedBytes >= 0) {
+                        metrics.recordAllocation(Operation.SEARCH_RETRIEVE,
+                                queryType, Phase.RECORD_SERIALIZATION,
+                                position, allocatedBytes);
+                    }
+                    if (failed) {
+                        metrics.recordError(Operation.SEARCH_RETRIEVE,
+                                queryType, Phase.RECORD_SERIALIZATION);
+                    }
+                }
+                if (trace != null) {
+                    trace.addPhase(Phase.RECORD_SERIALIZATION, nanos);
+                    if (allocatedBytes >= 0) {
+                        trace.setAllocatedBytes(allocatedBytes);
+                    }
+                    if (slowQueryLog != null) {
+                        slowQueryLog.finish(trace,
+                                delegate.getTotalRecordCount(),
+                                delegate.getResultCountPrecision(),
+                                delegate.getRecordCount(), failed);
+                    }
+                }
+            }
+        }
+    }
+
+
+    private void countAllocations(long start) {
+        if (allocatedBytes >= 0) {
+            final long end = AllocationCounter.getAllocatedBytes();
+            if ((start >= 0) && (end >= start)) {
+                allocatedBytes += end - start;
+            } else {
+                // counter not available for this thread
+                allocatedBytes = -1;
+            }
+        }
+    }
+
+} // class TimedSearchResultSet
@@ -0,0 +1,388 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.clarin.sru.server.SRUConfigException;
+import eu.clarin.sru.server.SRUConstants;
+import eu.clarin.sru.server.SRUException;
+import eu.clarin.sru.server.fcs.utils.InitParameters;
+
+
+/**
+ * Limits the number of searches that are processed concurrently, both in
+ * total and per resource. Requests exceeding a limit wait in a bounded
+ * queue for a limited time. If the queue is full or the wait times out, the
+ * request is rejected with a <em>system temporarily unavailable</em>
+ * diagnostic, so clients can retry later instead of slowing down all other
+ * requests.
+ * <p>
+ * The queue depth, wait times and rejections are available as metrics.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class AdmissionController {
+    public static final String FCS_ADMISSION_MAX_CONCURRENT_PARAM =
+            "eu.clarin.sru.server.fcs.admission.maxConcurrent";
+    public static final String FCS_ADMISSION_MAX_CONCURRENT_PER_RESOURCE_PARAM =
+            "eu.clarin.sru.server.fcs.admission.maxConcurrentPerResource";
+    public static final String FCS_ADMISSION_QUEUE_SIZE_PARAM =
+            "eu.clarin.sru.server.fcs.admission.queueSize";
+    public static final String FCS_ADMISSION_QUEUE_TIMEOUT_PARAM =
+            "eu.clarin.sru.server.fcs.admission.queueTimeout";
+    public static final long DEFAULT_QUEUE_TIMEOUT = 1000;
+    private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    };
+    private static final Logger logger =
+            LoggerFactory.getLogger(AdmissionController.class);
+    private final int maxConcurrent;
+    private final int maxConcurrentPerResource;
+    private final int queueSize;
+    private final long queueTimeout;
+    private final Semaphore global;
+    private final ConcurrentMap<String, Semaphore> perResource =
+            new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder waitTime = new LongAdder();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+
+    /**
+     * A permit to process a request. The permit must be released once the
+     * request is processed.
+     */
+    public final class Permit {
+        private final Set<String> resources;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+
+        private Permit(Set<String> resources) {
+            this.resources = resources;
+        }
+
+
+        /**
+         * Release this permit. Releasing a permit more than once has no
+         * effect.
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                for (String resource : resources) {
+                    perResource.get(resource).release();
+                }
+                global.release();
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param maxConcurrent
+     *            the maximum number of concurrently processed requests
+     * @param maxConcurrentPerResource
+     *            the maximum number of concurrently processed requests per
+     *            resource or <code>0</code> for no limit
+     * @param queueSize
+     *            the maximum number of waiting requests
+     * @param queueTimeout
+     *            the maximum time a request waits for admission
+     * @param unit
+     *            the time unit of the timeout
+     */
+    public AdmissionController(int maxConcurrent,
+            int maxConcurrentPerResource, int queueSize, long queueTimeout,
+            TimeUnit unit) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent < 1");
+        }
+        if (maxConcurrentPerResource < 0) {
+            throw new IllegalArgumentException("maxConcurrentPerResource < 0");
+        }
+        if (queueSize < 0) {
+            throw new IllegalArgumentException("queueSize < 0");
+        }
+        if (queueTimeout < 0) {
+            throw new IllegalArgumentException("queueTimeout < 0");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit == null");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxConcurrentPerResource = maxConcurrentPerResource;
+        this.queueSize = queueSize;
+        this.queueTimeout = unit.toNanos(queueTimeout);
+        this.global = new Semaphore(maxConcurrent, true);
+    }
+
+
+    /**
+     * Acquire a permit for processing a request.
+     *
+     * @param resources
+     *            the persistent identifiers of the resources the request
+     *            will search. The caller must make sure, that only valid
+     *            identifiers are supplied.
+     * @param timeout
+     *            the maximum time to wait in milliseconds; the configured
+     *            queue timeout is used, if it is shorter
+     * @return the permit
+     * @throws SRUException
+     *             if the request was rejected or interrupted
+     */
+    public Permit acquire(Collection<String> resources, long timeout)
+            throws SRUException {
+        if (resources == null) {
+            throw new NullPointerException("resources == null");
+        }
+        final long started = System.nanoTime();
+        final long deadline = started + Math.min(queueTimeout,
+                TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeout)));
+
+        // acquire per-resource permits in a consistent order to avoid
+        // deadlocks, and before the global permit, so a request waiting for
+        // a busy resource does not block requests for other resources
+        final Set<String> keys = new TreeSet<>();
+        if (maxConcurrentPerResource > 0) {
+            keys.addAll(resources);
+        }
+        final Set<String> acquired = new TreeSet<>();
+        try {
+            for (String key : keys) {
+                Semaphore semaphore = perResource.get(key);
+                if (semaphore == null) {
+                    semaphore = new Semaphore(maxConcurrentPerResource, true);
+                    final Semaphore existing =
+                            perResource.putIfAbsent(key, semaphore);
+                    if (existing != null) {
+                        semaphore = existing;
+                    }
+                }
+                acquire(semaphore, deadline);
+                acquired.add(key);
+            }
+            acquire(global, deadline);
+        } catch (SRUException e) {
+            for (String key : acquired) {
+                perResource.get(key).release();
+            }
+            throw e;
+        }
+
+        final long waited = System.nanoTime() - started;
+        waitTime.add(waited);
+        maxWaitTime.accumulateAndGet(waited, MAX);
+        admitted.increment();
+        inFlight.incrementAndGet();
+        return new Permit(acquired);
+    }
+
+
+    /**
+     * Get the maximum number of concurrently processed requests.
+     *
+     * @return the maximum number of concurrently processed requests
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+
+    /**
+     * Get the number of requests currently being processed.
+     *
+     * @return the number of requests in flight
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+
+    /**
+     * Get the number of requests currently waiting for admission.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return waiting.get();
+    }
+
+
+    /**
+     * Get the number of admitted requests.
+     *
+     * @return the number of admitted requests
+     */
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+
+    /**
+     * Get the number of requests rejected, because the queue was full.
+     *
+     * @return the number of rejected requests
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+
+    /**
+     * Get the number of requests rejected, because they waited too long.
+     *
+     * @return the number of timed out requests
+     */
+    public long getTimedOutCount() {
+        return timedOut.sum();
+    }
+
+
+    /**
+     * Get the total time admitted requests waited for admission.
+     *
+     * @param unit
+     *            the time unit of the result
+     * @return the total wait time
+     */
+    public long getTotalWaitTime(TimeUnit unit) {
+        return unit.convert(waitTime.sum(), TimeUnit.NANOSECONDS);
+    }
+
+
+    /**
+     * Get the longest time a request waited for admission.
+     *
+     * @param unit
+     *            the time unit of the result
+     * @return the maximum wait time
+     */
+    public long getMaxWaitTime(TimeUnit unit) {
+        return unit.convert(maxWaitTime.get(), TimeUnit.NANOSECONDS);
+    }
+
+
+    private void acquire(Semaphore semaphore, long deadline)
+            throws SRUException {
+        if (semaphore.tryAcquire()) {
+            return;
+        }
+        if (waiting.incrementAndGet() > queueSize) {
+            waiting.decrementAndGet();
+            rejected.increment();
+            logger.debug("rejecting request, admission queue is full");
+            throw new SRUException(
+                    SRUConstants.SRU_SYSTEM_TEMPORARILY_UNAVAILABLE,
+                    "Too many concurrent requests, please try again later.");
+        }
+        try {
+            if (!semaphore.tryAcquire(deadline - System.nanoTime(),
+                    TimeUnit.NANOSECONDS)) {
+                timedOut.increment();
+                logger.debug("rejecting request, admission timed out");
+                throw new SRUException(
+                        SRUConstants.SRU_SYSTEM_TEMPORARILY_UNAVAILABLE,
+                        "Too many concurrent requests, please try again " +
+                        "later.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SRUException(SRUConstants.SRU_GENERAL_SYSTEM_ERROR,
+                    "Interrupted while waiting for admission.");
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+
+    /**
+     * Create an admission controller configured by init-parameters.
+     * Admission control is enabled by setting the
+     * {@value #FCS_ADMISSION_MAX_CONCURRENT_PARAM} init-parameter. The queue
+     * size defaults to the maximum number of concurrent requests and the
+     * queue timeout to {@value #DEFAULT_QUEUE_TIMEOUT} milliseconds.
+     *
+     * @param params
+     *            the init-parameters
+     * @return the admission controller or <code>null</code>, if admission
+     *         control is disabled
+     * @throws SRUConfigException
+     *             if a parameter is invalid
+     */
+    public static AdmissionController fromParams(Map<String, String> params)
+            throws SRUConfigException {
+        final long maxConcurrent = InitParameters.parseLong(params,
+                FCS_ADMISSION_MAX_CONCURRENT_PARAM, 0);
+        if (maxConcurrent == 0) {
+            logger.debug("admission control is disabled");
+            return null;
+        }
+        final long maxConcurrentPerResource = InitParameters.parseLong(params,
+                FCS_ADMISSION_MAX_CONCURRENT_PER_RESOURCE_PARAM, 0);
+        final long queueSize = InitParameters.parseLong(params,
+                FCS_ADMISSION_QUEUE_SIZE_PARAM, maxConcurrent);
+        final long queueTimeout = InitParameters.parseLong(params,
+                FCS_ADMISSION_QUEUE_TIMEOUT_PARAM, DEFAULT_QUEUE_TIMEOUT);
+        if ((maxConcurrent > Integer.MAX_VALUE) ||
+                (maxConcurrentPerResource > Integer.MAX_VALUE) ||
+                (queueSize > Integer.MAX_VALUE)) {
+            throw new SRUConfigException("invalid admission control " +
+                    "configuration: maxConcurrent = " + maxConcurrent +
+                    ", maxConcurrentPerResource = " +
+                    maxConcurrentPerResource + ", queueSize = " + queueSize);
+        }
+        logger.debug("admission control: maxConcurrent = {}, " +
+                "maxConcurrentPerResource = {}, queueSize = {}, " +
+                "queueTimeout = {} ms", maxConcurrent,
+                maxConcurrentPerResource, queueSize, queueTimeout);
+        return new AdmissionController((int) maxConcurrent,
+                (int) maxConcurrentPerResource, (int) queueSize,
+                queueTimeout, TimeUnit.MILLISECONDS);
+    }
+
+
+} // class AdmissionController
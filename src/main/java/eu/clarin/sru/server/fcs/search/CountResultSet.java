@@ -0,0 +1,104 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import eu.clarin.sru.server.SRUDiagnosticList;
+import eu.clarin.sru.server.SRUResultCountPrecision;
+import eu.clarin.sru.server.SRUSearchResultSet;
+import eu.clarin.sru.server.fcs.Constants;
+
+
+/**
+ * A search result set that only reports the number of hits and contains no
+ * records. It is used for requests with <code>maximumRecords=0</code>,
+ * which are typically sent by aggregators to obtain hit counts.
+ */
+public final class CountResultSet extends SRUSearchResultSet {
+    private final int totalRecordCount;
+    private final SRUResultCountPrecision precision;
+
+
+    /**
+     * Constructor.
+     *
+     * @param diagnostics
+     *            an instance of a SRUDiagnosticList
+     * @param totalRecordCount
+     *            the total number of records in the result set
+     * @param precision
+     *            the precision of the total number of records or
+     *            <code>null</code>, if not reported
+     */
+    public CountResultSet(SRUDiagnosticList diagnostics,
+            int totalRecordCount, SRUResultCountPrecision precision) {
+        super(diagnostics);
+        if (totalRecordCount < 0) {
+            throw new IllegalArgumentException("totalRecordCount < 0");
+        }
+        this.totalRecordCount = totalRecordCount;
+        this.precision = precision;
+    }
+
+
+    @Override
+    public int getTotalRecordCount() {
+        return totalRecordCount;
+    }
+
+
+    @Override
+    public SRUResultCountPrecision getResultCountPrecision() {
+        return precision;
+    }
+
+
+    @Override
+    public int getRecordCount() {
+        return 0;
+    }
+
+
+    @Override
+    public String getRecordSchemaIdentifier() {
+        return Constants.CLARIN_FCS_RECORD_SCHEMA;
+    }
+
+
+    @Override
+    public boolean nextRecord() {
+        return false;
+    }
+
+
+    @Override
+    public String getRecordIdentifier() {
+        return null;
+    }
+
+
+    @Override
+    public void writeRecord(XMLStreamWriter writer)
+            throws XMLStreamException {
+        throw new IllegalStateException("result set contains no records");
+    }
+
+} // class CountResultSet
@@ -0,0 +1,449 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.clarin.sru.server.SRUConfigException;
+import eu.clarin.sru.server.SRUConstants;
+import eu.clarin.sru.server.SRUException;
+import eu.clarin.sru.server.fcs.utils.Threads;
+
+
+/**
+ * Executes the searches on several resources (or other partitions of the
+ * data) concurrently using a bounded thread pool. Results are merged in the
+ * order of the tasks, independent of the order in which they complete. By
+ * default, all tasks are run to completion, so the total hit count is exact,
+ * if all tasks counted exactly. If weights are given, the execution is
+ * short-circuited as soon as the leading tasks have produced enough hits for
+ * the requested page and the total is extrapolated from the completed tasks
+ * according to their weights.
+ * <p>
+ * Tasks run on virtual threads, if supported by the Java runtime (see
+ * {@link Threads}).
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class FanOutExecutor {
+    public static final String FCS_FANOUT_THREADS_PARAM =
+            "eu.clarin.sru.server.fcs.fanout.threads";
+    private static final int QUEUE_SIZE_PER_THREAD = 16;
+    private static final Logger logger =
+            LoggerFactory.getLogger(FanOutExecutor.class);
+    private final ExecutorService executor;
+
+
+    /**
+     * A search task on a single partition.
+     *
+     * @param <R>
+     *            the type of the task result
+     */
+    public interface Task<R> {
+        /**
+         * Perform the search.
+         *
+         * @return the result
+         * @throws SRUException
+         *             if an error occurred
+         */
+        public R execute() throws SRUException;
+    }
+
+
+    /**
+     * Counts the hits of a task result.
+     *
+     * @param <R>
+     *            the type of the task result
+     */
+    public interface HitCounter<R> {
+        /**
+         * Get the number of hits collected in a result, i.e. the hits
+         * available for rendering.
+         *
+         * @param result
+         *            the result
+         * @return the number of collected hits
+         */
+        public long getCollectedCount(R result);
+
+
+        /**
+         * Get the total number of hits of a result.
+         *
+         * @param result
+         *            the result
+         * @return the total number of hits
+         */
+        public long getTotalCount(R result);
+
+
+        /**
+         * Check, if the total number of hits of a result is exact.
+         *
+         * @param result
+         *            the result
+         * @return <code>true</code> if the total number of hits is exact,
+         *         <code>false</code> if it is an estimate
+         */
+        public boolean isTotalExact(R result);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param threads
+     *            the maximum number of concurrently executed tasks; if
+     *            <code>1</code>, all tasks are executed by the calling thread
+     */
+    public FanOutExecutor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads < 1");
+        }
+        if (threads > 1) {
+            this.executor = Threads.newBoundedExecutor("fcs-fanout", threads,
+                    threads * QUEUE_SIZE_PER_THREAD);
+        } else {
+            this.executor = null;
+        }
+    }
+
+
+    /**
+     * Execute tasks. All tasks run to completion, so the total hit count is
+     * exact, if each task counted its hits exactly; hits are only taken
+     * from the leading tasks, until the needed number of hits is reached.
+     *
+     * @param tasks
+     *            the tasks in result order
+     * @param counter
+     *            the hit counter for task results
+     * @param needed
+     *            the number of hits needed, i.e. <code>startRecord - 1 +
+     *            maximumRecords</code>
+     * @return the result
+     * @throws SRUException
+     *             if a task failed
+     */
+    public <R> Result<R> execute(List<? extends Task<R>> tasks,
+            HitCounter<R> counter, long needed) throws SRUException {
+        return execute(tasks, null, counter, needed);
+    }
+
+
+    /**
+     * Execute tasks and short-circuit the execution, once the leading tasks
+     * have collected the needed number of hits. The remaining tasks are
+     * cancelled and the total hit count is extrapolated from the completed
+     * tasks, weighted by the size of the data each task searches, e.g. its
+     * number of tokens.
+     *
+     * @param tasks
+     *            the tasks in result order
+     * @param weights
+     *            the weight of each task or <code>null</code> to run all
+     *            tasks to completion
+     * @param counter
+     *            the hit counter for task results
+     * @param needed
+     *            the number of hits needed, i.e. <code>startRecord - 1 +
+     *            maximumRecords</code>
+     * @return the result
+     * @throws SRUException
+     *             if a task failed
+     */
+    public <R> Result<R> execute(List<? extends Task<R>> tasks,
+            long[] weights, HitCounter<R> counter, long needed)
+            throws SRUException {
+        if (tasks == null) {
+            throw new NullPointerException("tasks == null");
+        }
+        if ((weights != null) && (weights.length != tasks.size())) {
+            throw new IllegalArgumentException(
+                    "weights.length != tasks.size()");
+        }
+        if (counter == null) {
+            throw new NullPointerException("counter == null");
+        }
+        final Result<R> result = new Result<>(tasks.size(), weights);
+        if ((executor == null) || (tasks.size() < 2)) {
+            executeSequentially(tasks, counter, needed, result);
+            return result;
+        }
+
+        final List<Future<R>> futures = new ArrayList<>(tasks.size());
+        for (final Task<R> task : tasks) {
+            futures.add(executor.submit(new Callable<R>() {
+                @Override
+                public R call() throws Exception {
+                    return task.execute();
+                }
+            }));
+        }
+
+        long collected = 0;
+        int i = 0;
+        try {
+            for (; i < futures.size(); i++) {
+                final R value = await(futures.get(i));
+                result.complete(i, value, counter, collected < needed);
+                collected += counter.getCollectedCount(value);
+                if ((weights != null) && (collected >= needed)) {
+                    i++;
+                    break;
+                }
+            }
+        } catch (SRUException e) {
+            cancel(futures, i + 1);
+            throw e;
+        }
+
+        // count hits of trailing tasks that already completed
+        for (int j = i; j < futures.size(); j++) {
+            final Future<R> future = futures.get(j);
+            if (future.isDone() && !future.isCancelled()) {
+                try {
+                    result.complete(j, future.get(), counter, false);
+                } catch (ExecutionException | InterruptedException e) {
+                    /* IGNORE, the task is not needed */
+                }
+            } else {
+                future.cancel(true);
+            }
+        }
+        if (!result.isComplete()) {
+            logger.debug("short-circuited fan-out after {} of {} tasks",
+                    result.completedCount, tasks.size());
+        }
+        return result;
+    }
+
+
+    /**
+     * Shutdown the executor. Running tasks are interrupted.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+
+    private <R> void executeSequentially(List<? extends Task<R>> tasks,
+            HitCounter<R> counter, long needed, Result<R> result)
+            throws SRUException {
+        long collected = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            final R value = tasks.get(i).execute();
+            result.complete(i, value, counter, collected < needed);
+            collected += counter.getCollectedCount(value);
+            if ((result.weights != null) && (collected >= needed)) {
+                break;
+            }
+        }
+    }
+
+
+    private static <R> R await(Future<R> future) throws SRUException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SRUException(SRUConstants.SRU_GENERAL_SYSTEM_ERROR,
+                    "Search was interrupted.");
+        } catch (CancellationException e) {
+            throw new SRUException(SRUConstants.SRU_GENERAL_SYSTEM_ERROR,
+                    "Search was cancelled.");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof SRUException) {
+                throw (SRUException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SRUException(SRUConstants.SRU_GENERAL_SYSTEM_ERROR,
+                    "Search failed.", cause);
+        }
+    }
+
+
+    private static void cancel(List<? extends Future<?>> futures, int from) {
+        for (int i = from; i < futures.size(); i++) {
+            futures.get(i).cancel(true);
+        }
+    }
+
+
+    /**
+     * Create a fan-out executor configured by init-parameters. The number of
+     * threads defaults to the number of available processors.
+     *
+     * @param params
+     *            the init-parameters
+     * @return the executor
+     * @throws SRUConfigException
+     *             if a parameter is invalid
+     */
+    public static FanOutExecutor fromParams(Map<String, String> params)
+            throws SRUConfigException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        final String value = params.get(FCS_FANOUT_THREADS_PARAM);
+        if (value != null) {
+            try {
+                threads = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new SRUConfigException("init-parameter '" +
+                        FCS_FANOUT_THREADS_PARAM + "' is invalid: " + value);
+            }
+            if (threads < 1) {
+                throw new SRUConfigException("init-parameter '" +
+                        FCS_FANOUT_THREADS_PARAM + "' must be positive: " +
+                        value);
+            }
+        }
+        logger.debug("fan-out search uses {} {} thread(s)", threads,
+                Threads.isVirtual() ? "virtual" : "platform");
+        return new FanOutExecutor(threads);
+    }
+
+
+    /**
+     * The result of a fan-out execution.
+     *
+     * @param <R>
+     *            the type of the task results
+     */
+    public static final class Result<R> {
+        private final List<R> results = new ArrayList<>();
+        private final int taskCount;
+        private final long[] weights;
+        private int completedCount = 0;
+        private long completedWeight = 0;
+        private long totalCount = 0;
+        private boolean exact = true;
+
+
+        private Result(int taskCount, long[] weights) {
+            this.taskCount = taskCount;
+            this.weights = weights;
+        }
+
+
+        /**
+         * Get the results of the leading tasks in task order, i.e. the
+         * tasks, that provided the needed hits. The results of the
+         * following tasks are only counted and not included.
+         *
+         * @return the list of results
+         */
+        public List<R> getResults() {
+            return Collections.unmodifiableList(results);
+        }
+
+
+        /**
+         * Check, if all tasks have completed.
+         *
+         * @return <code>true</code> if all tasks have completed
+         */
+        public boolean isComplete() {
+            return completedCount == taskCount;
+        }
+
+
+        /**
+         * Check, if the total count is exact, i.e. all tasks have completed
+         * and each counted its hits exactly.
+         *
+         * @return <code>true</code> if the total count is exact
+         */
+        public boolean isExact() {
+            return isComplete() && exact;
+        }
+
+
+        /**
+         * Get the number of hits counted by the completed tasks, i.e. a lower
+         * bound of the total number of hits.
+         *
+         * @return the number of counted hits
+         */
+        public long getMinimumTotalCount() {
+            return totalCount;
+        }
+
+
+        /**
+         * Get the total number of hits. If not all tasks have completed, the
+         * count is extrapolated from the completed tasks, weighted by the
+         * task weights.
+         *
+         * @return the total number of hits
+         */
+        public long getTotalCount() {
+            if (isComplete() || (completedCount == 0)) {
+                return totalCount;
+            }
+            long totalWeight = 0;
+            for (long weight : weights) {
+                totalWeight += weight;
+            }
+            if (completedWeight <= 0) {
+                return totalCount;
+            }
+            return Math.max(totalCount, Math.round(
+                    (double) totalCount * totalWeight / completedWeight));
+        }
+
+
+        private void complete(int task, R value, HitCounter<R> counter,
+                boolean leading) {
+            if (leading) {
+                results.add(value);
+            }
+            totalCount += counter.getTotalCount(value);
+            exact &= counter.isTotalExact(value);
+            completedCount++;
+            if (weights != null) {
+                completedWeight += weights[task];
+            }
+        }
+    }
+
+} // class FanOutExecutor
@@ -0,0 +1,403 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.clarin.sru.server.SRUConfigException;
+import eu.clarin.sru.server.fcs.EndpointDescription;
+import eu.clarin.sru.server.fcs.utils.InitParameters;
+
+
+/**
+ * A cache for fully rendered pages of search result sets. Unlike the
+ * {@link ResultSetCache}, which keeps the hits of a result set, this cache
+ * keeps the serialized records of a page (see {@link RecordPage}), so a
+ * repeated request for the same page is answered without evaluating the
+ * query or rendering any record.
+ * <p>
+ * The cache is bounded by the total size of the cached pages in bytes and
+ * by the number of pages; when a bound is exceeded, the least recently used
+ * pages are evicted. Pages larger than an eighth of the size bound are not
+ * cached at all, so a single large page cannot flush the cache. Entries
+ * expire after a fixed time-to-live.
+ * </p>
+ * <p>
+ * Each key carries a snapshot of the {@link EndpointDescription} and of the
+ * generation of the backend index the page was rendered from. Once a key
+ * with a different snapshot is looked up, all cached pages are discarded;
+ * pages rendered from an outdated snapshot are not added.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class PageCache {
+    public static final String FCS_PAGE_CACHE_MAX_BYTES_PARAM =
+            "eu.clarin.sru.server.fcs.pageCache.maxBytes";
+    public static final String FCS_PAGE_CACHE_SIZE_PARAM =
+            "eu.clarin.sru.server.fcs.pageCache.size";
+    public static final String FCS_PAGE_CACHE_TTL_PARAM =
+            "eu.clarin.sru.server.fcs.pageCache.ttl";
+    public static final int DEFAULT_SIZE = 1024;
+    public static final long DEFAULT_TTL = 300;
+    private static final int MAX_PAGE_FRACTION = 8;
+    private static final Logger logger =
+            LoggerFactory.getLogger(PageCache.class);
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final LinkedHashMap<Key, Entry> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private EndpointDescription description;
+    private long generation;
+    private long bytes = 0;
+
+
+    /**
+     * The key of a cached page.
+     * <p>
+     * This class is immutable.
+     * </p>
+     */
+    public static final class Key {
+        private final ResultSetKey key;
+        private final int startRecord;
+        private final int maximumRecords;
+        private final EndpointDescription description;
+        private final long generation;
+
+
+        private Key(ResultSetKey key, int startRecord, int maximumRecords,
+                EndpointDescription description, long generation) {
+            this.key = key;
+            this.startRecord = startRecord;
+            this.maximumRecords = maximumRecords;
+            this.description = description;
+            this.generation = generation;
+        }
+
+
+        @Override
+        public int hashCode() {
+            int h = key.hashCode();
+            h = 31 * h + startRecord;
+            h = 31 * h + maximumRecords;
+            return h;
+        }
+
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return (startRecord == other.startRecord) &&
+                    (maximumRecords == other.maximumRecords) &&
+                    key.equals(other.key);
+        }
+
+
+        @Override
+        public String toString() {
+            return key + "[startRecord=" + startRecord +
+                    ", maximumRecords=" + maximumRecords + "]";
+        }
+
+
+        /**
+         * Create the key for a page.
+         *
+         * @param key
+         *            the key of the result set
+         * @param startRecord
+         *            the position of the first record of the page
+         * @param maximumRecords
+         *            the maximum number of records of the page
+         * @param description
+         *            the endpoint description used for rendering the page
+         * @param generation
+         *            the generation of the backend index used for rendering
+         *            the page
+         * @return the key
+         */
+        public static Key create(ResultSetKey key, int startRecord,
+                int maximumRecords, EndpointDescription description,
+                long generation) {
+            if (key == null) {
+                throw new NullPointerException("key == null");
+            }
+            if (description == null) {
+                throw new NullPointerException("description == null");
+            }
+            return new Key(key, startRecord, maximumRecords, description,
+                    generation);
+        }
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries
+     *            the maximum number of pages
+     * @param maxBytes
+     *            the maximum total size of all pages in bytes
+     * @param ttl
+     *            the time-to-live of a page
+     * @param unit
+     *            the time unit of the time-to-live
+     */
+    public PageCache(int maxEntries, long maxBytes, long ttl, TimeUnit unit) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries < 1");
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes < 1");
+        }
+        if (ttl < 1) {
+            throw new IllegalArgumentException("ttl < 1");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit == null");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+
+    /**
+     * Get a cached page. If the snapshot of the key differs from the one of
+     * the cached pages, the cache is cleared.
+     *
+     * @param key
+     *            the key
+     * @return the cached page or <code>null</code>, if there is no
+     *         (unexpired) page for the key
+     */
+    public RecordPage get(Key key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        synchronized (entries) {
+            if ((key.description != description) ||
+                    (key.generation != generation)) {
+                if (!entries.isEmpty()) {
+                    logger.debug("endpoint description or index changed, " +
+                            "discarding {} cached page(s)", entries.size());
+                }
+                entries.clear();
+                bytes = 0;
+                description = key.description;
+                generation = key.generation;
+            }
+            final Entry entry = entries.get(key);
+            if ((entry != null) && entry.isExpired(System.nanoTime())) {
+                remove(key, entry);
+            } else if (entry != null) {
+                hits.increment();
+                return entry.page;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+
+    /**
+     * Add a page to the cache. Pages rendered from an outdated snapshot and
+     * pages that are too large are not cached.
+     *
+     * @param key
+     *            the key
+     * @param page
+     *            the page
+     */
+    public void put(Key key, RecordPage page) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        if (page == null) {
+            throw new NullPointerException("page == null");
+        }
+        final long size = page.getSizeInBytes();
+        if (size > maxBytes / MAX_PAGE_FRACTION) {
+            logger.debug("not caching page {} ({} bytes)", key, size);
+            return;
+        }
+        final long now = System.nanoTime();
+        synchronized (entries) {
+            if ((key.description != description) ||
+                    (key.generation != generation)) {
+                return;
+            }
+            final Entry old = entries.put(key,
+                    new Entry(page, now + ttlNanos));
+            if (old != null) {
+                bytes -= old.page.getSizeInBytes();
+            }
+            bytes += size;
+            evict(now);
+        }
+    }
+
+
+    /**
+     * Remove all pages from the cache.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+
+    /**
+     * Get the number of cached pages.
+     *
+     * @return the number of cached pages
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+
+    /**
+     * Get the total size of all cached pages.
+     *
+     * @return the size in bytes
+     */
+    public long getSizeInBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+
+    /**
+     * Get the number of lookups that found a page.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+
+    /**
+     * Get the number of lookups that found no page.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+
+    private void evict(long now) {
+        final Iterator<Map.Entry<Key, Entry>> i =
+                entries.entrySet().iterator();
+        while (i.hasNext()) {
+            final Entry entry = i.next().getValue();
+            // iteration order is least recently used first
+            if (!entry.isExpired(now) && (entries.size() <= maxEntries) &&
+                    (bytes <= maxBytes)) {
+                break;
+            }
+            bytes -= entry.page.getSizeInBytes();
+            i.remove();
+        }
+    }
+
+
+    private void remove(Key key, Entry entry) {
+        entries.remove(key);
+        bytes -= entry.page.getSizeInBytes();
+    }
+
+
+    /**
+     * Create a page cache configured by init-parameters. The cache is
+     * enabled by setting the {@value #FCS_PAGE_CACHE_MAX_BYTES_PARAM}
+     * init-parameter.
+     *
+     * @param params
+     *            the init-parameters
+     * @return the cache or <code>null</code>, if caching is disabled
+     * @throws SRUConfigException
+     *             if a parameter is invalid
+     */
+    public static PageCache fromParams(Map<String, String> params)
+            throws SRUConfigException {
+        final long maxBytes = InitParameters.parseLong(params,
+                FCS_PAGE_CACHE_MAX_BYTES_PARAM, 0);
+        if (maxBytes == 0) {
+            logger.debug("page cache is disabled");
+            return null;
+        }
+        final long size = InitParameters.parseLong(params,
+                FCS_PAGE_CACHE_SIZE_PARAM, DEFAULT_SIZE);
+        final long ttl = InitParameters.parseLong(params,
+                FCS_PAGE_CACHE_TTL_PARAM, DEFAULT_TTL);
+        if ((size < 1) || (size > Integer.MAX_VALUE) || (ttl < 1)) {
+            throw new SRUConfigException("invalid page cache " +
+                    "configuration: maxBytes = " + maxBytes + ", size = " +
+                    size + ", ttl = " + ttl);
+        }
+        logger.debug("page cache: maxBytes = {}, size = {}, " +
+                "ttl = {} seconds", maxBytes, size, ttl);
+        return new PageCache((int) size, maxBytes, ttl, TimeUnit.SECONDS);
+    }
+
+
+
+    private static final class Entry {
+        private final RecordPage page;
+        private final long expires;
+
+
+        private Entry(RecordPage page, long expires) {
+            this.page = page;
+            this.expires = expires;
+        }
+
+
+        private boolean isExpired(long now) {
+            return (now - expires) >= 0;
+        }
+    }
+
+} // class PageCache
@@ -0,0 +1,322 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.clarin.sru.server.SRUConfigException;
+import eu.clarin.sru.server.SRUException;
+import eu.clarin.sru.server.fcs.SearchContext;
+import eu.clarin.sru.server.fcs.utils.InitParameters;
+import eu.clarin.sru.server.fcs.utils.Threads;
+
+
+/**
+ * Executes speculative background work, e.g. computing the next page of a
+ * result set before the client asks for it. Prefetch tasks are best-effort:
+ * if the global budget of concurrent prefetches is exhausted, new tasks are
+ * dropped instead of queued.
+ * <p>
+ * Each prefetch is submitted for a key, that identifies the follow-up
+ * request it anticipates. The follow-up request claims the prefetch using
+ * {@link #claim(Object)}. If a prefetch is not claimed within the
+ * configured time-to-live, it is cancelled using its {@link SearchContext}
+ * and asked to discard what it has prefetched.
+ * </p>
+ * <p>
+ * Prefetch tasks run on a dedicated pool of platform threads with minimum
+ * priority, even if virtual threads are used for other work (see
+ * {@link Threads}), so they yield to searches. Tasks should therefore do
+ * their work in the calling thread instead of handing it to a shared
+ * executor.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class PrefetchExecutor {
+    public static final String FCS_PREFETCH_MAX_CONCURRENT_PARAM =
+            "eu.clarin.sru.server.fcs.prefetch.maxConcurrent";
+    public static final String FCS_PREFETCH_TTL_PARAM =
+            "eu.clarin.sru.server.fcs.prefetch.ttl";
+    public static final long DEFAULT_TTL = 10000;
+    private static final Logger logger =
+            LoggerFactory.getLogger(PrefetchExecutor.class);
+    private final Semaphore budget;
+    private final long ttl;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor reaper;
+    private final ConcurrentMap<Object, Prefetch> pending =
+            new ConcurrentHashMap<>();
+
+
+    /**
+     * A prefetch task.
+     */
+    public interface Task {
+        /**
+         * Perform the prefetch. The task should stop, once the context has
+         * expired.
+         *
+         * @param context
+         *            the search context of the task; it expires, if the
+         *            prefetch is cancelled
+         * @throws SRUException
+         *             if an error occurred
+         */
+        public void prefetch(SearchContext context) throws SRUException;
+
+
+        /**
+         * Discard the prefetched data. This method is called after the task
+         * has stopped, if the prefetch was not claimed within the
+         * time-to-live.
+         */
+        public void discard();
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param maxConcurrent
+     *            the maximum number of concurrent prefetch tasks
+     * @param ttl
+     *            the time a prefetch waits to be claimed
+     * @param unit
+     *            the time unit of the time-to-live
+     */
+    public PrefetchExecutor(int maxConcurrent, long ttl, TimeUnit unit) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent < 1");
+        }
+        if (ttl < 1) {
+            throw new IllegalArgumentException("ttl < 1");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit == null");
+        }
+        this.budget = new Semaphore(maxConcurrent);
+        this.ttl = unit.toMillis(ttl);
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                Threads.newPlatformThreadFactory("fcs-prefetch",
+                        Thread.MIN_PRIORITY));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.reaper = new ScheduledThreadPoolExecutor(1,
+                Threads.newPlatformThreadFactory("fcs-prefetch-reaper",
+                        Thread.NORM_PRIORITY));
+        this.reaper.setRemoveOnCancelPolicy(true);
+    }
+
+
+    /**
+     * Submit a prefetch task. The task is dropped, if the prefetch budget is
+     * exhausted or a prefetch for the same key is pending.
+     *
+     * @param key
+     *            the key identifying the follow-up request
+     * @param task
+     *            the task
+     * @return <code>true</code> if the task was accepted,
+     *         <code>false</code> if it was dropped
+     */
+    public boolean submit(final Object key, Task task) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        if (task == null) {
+            throw new NullPointerException("task == null");
+        }
+        if (!budget.tryAcquire()) {
+            logger.trace("prefetch budget exhausted, dropping task");
+            return false;
+        }
+        final Prefetch prefetch = new Prefetch(task);
+        if (pending.putIfAbsent(key, prefetch) != null) {
+            budget.release();
+            return false;
+        }
+        try {
+            executor.execute(prefetch);
+        } catch (RejectedExecutionException e) {
+            pending.remove(key, prefetch);
+            budget.release();
+            return false;
+        }
+        try {
+            prefetch.expiry = reaper.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (pending.remove(key, prefetch)) {
+                        logger.trace("prefetch for {} was not claimed", key);
+                        prefetch.cancel();
+                    }
+                }
+            }, ttl, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            /* IGNORE, shutting down */
+        }
+        return true;
+    }
+
+
+    /**
+     * Claim a prefetch, i.e. keep it running and keep what it prefetched.
+     *
+     * @param key
+     *            the key identifying the follow-up request
+     * @return <code>true</code> if a prefetch was pending for the key,
+     *         <code>false</code> otherwise
+     */
+    public boolean claim(Object key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        final Prefetch prefetch = pending.remove(key);
+        if (prefetch == null) {
+            return false;
+        }
+        final ScheduledFuture<?> expiry = prefetch.expiry;
+        if (expiry != null) {
+            expiry.cancel(false);
+        }
+        return true;
+    }
+
+
+    /**
+     * Get the number of prefetch tasks currently running.
+     *
+     * @return the number of running prefetch tasks
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+
+    /**
+     * Shutdown the executor. Pending prefetches are cancelled and running
+     * tasks are interrupted.
+     */
+    public void shutdown() {
+        reaper.shutdownNow();
+        for (Prefetch prefetch : pending.values()) {
+            prefetch.context.cancel();
+        }
+        pending.clear();
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Create a prefetch executor configured by init-parameters. Prefetching
+     * is enabled by setting the {@value #FCS_PREFETCH_MAX_CONCURRENT_PARAM}
+     * init-parameter; the time-to-live (in milliseconds) defaults to
+     * {@value #DEFAULT_TTL}.
+     *
+     * @param params
+     *            the init-parameters
+     * @return the executor or <code>null</code>, if prefetching is disabled
+     * @throws SRUConfigException
+     *             if a parameter is invalid
+     */
+    public static PrefetchExecutor fromParams(Map<String, String> params)
+            throws SRUConfigException {
+        final long maxConcurrent = InitParameters.parseLong(params,
+                FCS_PREFETCH_MAX_CONCURRENT_PARAM, 0);
+        if (maxConcurrent == 0) {
+            logger.debug("prefetching is disabled");
+            return null;
+        }
+        final long ttl = InitParameters.parseLong(params,
+                FCS_PREFETCH_TTL_PARAM, DEFAULT_TTL);
+        if ((maxConcurrent > Integer.MAX_VALUE) || (ttl < 1)) {
+            throw new SRUConfigException("invalid prefetch configuration: " +
+                    "maxConcurrent = " + maxConcurrent + ", ttl = " + ttl);
+        }
+        logger.debug("prefetch: maxConcurrent = {}, ttl = {} ms",
+                maxConcurrent, ttl);
+        return new PrefetchExecutor((int) maxConcurrent, ttl,
+                TimeUnit.MILLISECONDS);
+    }
+
+
+
+    private final class Prefetch implements Runnable {
+        private final Task task;
+        private final SearchContext context = SearchContext.create(0);
+        private volatile ScheduledFuture<?> expiry;
+        private boolean running = true;
+        private boolean cancelled = false;
+
+
+        private Prefetch(Task task) {
+            this.task = task;
+        }
+
+
+        @Override
+        public void run() {
+            try {
+                if (!context.isExpired()) {
+                    task.prefetch(context);
+                }
+            } catch (SRUException | RuntimeException e) {
+                logger.debug("prefetch failed", e);
+            } finally {
+                budget.release();
+                final boolean discard;
+                synchronized (this) {
+                    running = false;
+                    discard = cancelled;
+                }
+                if (discard) {
+                    task.discard();
+                }
+            }
+        }
+
+
+        private void cancel() {
+            context.cancel();
+            final boolean discard;
+            synchronized (this) {
+                cancelled = true;
+                discard = !running;
+            }
+            if (discard) {
+                task.discard();
+            }
+        }
+    } // class Prefetch
+
+} // class PrefetchExecutor
@@ -0,0 +1,72 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import java.io.Closeable;
+
+import eu.clarin.sru.server.SRUException;
+
+
+/**
+ * A cursor that pulls records from a search backend one at a time.
+ *
+ * @param <T>
+ *            the type of the records
+ * @see StreamingSearchResultSet
+ */
+public interface RecordCursor<T> extends Closeable {
+
+    /**
+     * Get the next record.
+     *
+     * @return the next record or <code>null</code>, if the cursor is
+     *         exhausted
+     * @throws SRUException
+     *             if an error occurred
+     */
+    public T next() throws SRUException;
+
+
+    /**
+     * Skip records. The default implementation calls {@link #next()}
+     * repeatedly; implementations that can seek should override it.
+     *
+     * @param count
+     *            the number of records to skip
+     * @return the number of records actually skipped
+     * @throws SRUException
+     *             if an error occurred
+     */
+    public default int skip(int count) throws SRUException {
+        int skipped = 0;
+        while ((skipped < count) && (next() != null)) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+
+    /**
+     * Release all backend resources held by this cursor. This method must
+     * be idempotent.
+     */
+    @Override
+    public void close();
+
+} // interface RecordCursor
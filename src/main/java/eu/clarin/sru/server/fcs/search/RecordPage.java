@@ -0,0 +1,195 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import eu.clarin.sru.server.SRUDiagnosticList;
+import eu.clarin.sru.server.SRUException;
+import eu.clarin.sru.server.SRUResultCountPrecision;
+import eu.clarin.sru.server.SRUSearchResultSet;
+import eu.clarin.sru.server.fcs.Constants;
+
+
+/**
+ * A fully rendered page of a search result set. Each record of the page is
+ * kept as a {@link RecordTape}, so the page can be sent again without
+ * loading and rendering the records.
+ * <p>
+ * This class is immutable.
+ * </p>
+ *
+ * @see PageCache
+ */
+public final class RecordPage {
+    private final List<RecordTape> records;
+    private final int totalRecordCount;
+    private final SRUResultCountPrecision precision;
+    private final long sizeInBytes;
+
+
+    /**
+     * Constructor.
+     *
+     * @param records
+     *            the rendered records of the page
+     * @param totalRecordCount
+     *            the total number of records in the result set
+     * @param precision
+     *            the precision of the total number of records or
+     *            <code>null</code>, if not reported
+     */
+    public RecordPage(List<RecordTape> records, int totalRecordCount,
+            SRUResultCountPrecision precision) {
+        if (records == null) {
+            throw new NullPointerException("records == null");
+        }
+        long size = 0;
+        for (RecordTape record : records) {
+            if (record == null) {
+                throw new NullPointerException("record == null");
+            }
+            size += record.getSizeInBytes();
+        }
+        this.records =
+                Collections.unmodifiableList(new ArrayList<>(records));
+        this.totalRecordCount = totalRecordCount;
+        this.precision = precision;
+        this.sizeInBytes = size;
+    }
+
+
+    /**
+     * Get the rendered records of this page.
+     *
+     * @return the records
+     */
+    public List<RecordTape> getRecords() {
+        return records;
+    }
+
+
+    /**
+     * Get the total number of records in the result set.
+     *
+     * @return the total number of records
+     */
+    public int getTotalRecordCount() {
+        return totalRecordCount;
+    }
+
+
+    /**
+     * Get the precision of the total number of records.
+     *
+     * @return the precision or <code>null</code>, if not reported
+     */
+    public SRUResultCountPrecision getResultCountPrecision() {
+        return precision;
+    }
+
+
+    /**
+     * Get the total size of the rendered records.
+     *
+     * @return the size in bytes
+     */
+    public long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+
+    /**
+     * Create a search result set that replays the records of this page.
+     *
+     * @param diagnostics
+     *            an instance of a SRUDiagnosticList
+     * @return the result set
+     */
+    public SRUSearchResultSet createResultSet(SRUDiagnosticList diagnostics) {
+        return new ReplayResultSet(diagnostics);
+    }
+
+
+    private final class ReplayResultSet extends SRUSearchResultSet {
+        private int idx = -1;
+
+
+        private ReplayResultSet(SRUDiagnosticList diagnostics) {
+            super(diagnostics);
+        }
+
+
+        @Override
+        public int getTotalRecordCount() {
+            return totalRecordCount;
+        }
+
+
+        @Override
+        public SRUResultCountPrecision getResultCountPrecision() {
+            return precision;
+        }
+
+
+        @Override
+        public int getRecordCount() {
+            return records.size();
+        }
+
+
+        @Override
+        public String getRecordSchemaIdentifier() {
+            return Constants.CLARIN_FCS_RECORD_SCHEMA;
+        }
+
+
+        @Override
+        public boolean nextRecord() throws SRUException {
+            if (idx + 1 < records.size()) {
+                idx++;
+                return true;
+            }
+            idx = records.size();
+            return false;
+        }
+
+
+        @Override
+        public String getRecordIdentifier() {
+            return null;
+        }
+
+
+        @Override
+        public void writeRecord(XMLStreamWriter writer)
+                throws XMLStreamException {
+            if ((idx < 0) || (idx >= records.size())) {
+                throw new IllegalStateException("no current record");
+            }
+            records.get(idx).replay(writer);
+        }
+    }
+
+} // class RecordPage
@@ -0,0 +1,486 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+
+/**
+ * A serialized sequence of {@link XMLStreamWriter} calls, e.g. the rendering
+ * of a single record. A tape is created by rendering to a {@link Recorder}
+ * and can be replayed to any writer afterwards, which produces the same
+ * output as the original rendering, provided the writer is in the same
+ * state (i.e. at the same position of the response).
+ * <p>
+ * This class is immutable.
+ * </p>
+ */
+public final class RecordTape {
+    private static final byte OP_START_ELEMENT = 1;
+    private static final byte OP_START_ELEMENT_NS = 2;
+    private static final byte OP_START_ELEMENT_PREFIX = 3;
+    private static final byte OP_EMPTY_ELEMENT = 4;
+    private static final byte OP_EMPTY_ELEMENT_NS = 5;
+    private static final byte OP_EMPTY_ELEMENT_PREFIX = 6;
+    private static final byte OP_END_ELEMENT = 7;
+    private static final byte OP_ATTRIBUTE = 8;
+    private static final byte OP_ATTRIBUTE_NS = 9;
+    private static final byte OP_ATTRIBUTE_PREFIX = 10;
+    private static final byte OP_NAMESPACE = 11;
+    private static final byte OP_DEFAULT_NAMESPACE = 12;
+    private static final byte OP_CHARACTERS = 13;
+    private static final byte OP_CDATA = 14;
+    private static final byte OP_COMMENT = 15;
+    private static final byte OP_PROCESSING_INSTRUCTION = 16;
+    private static final byte OP_PROCESSING_INSTRUCTION_DATA = 17;
+    private static final byte OP_ENTITY_REF = 18;
+    private static final byte OP_SET_PREFIX = 19;
+    private static final byte OP_SET_DEFAULT_NAMESPACE = 20;
+    private final byte[] data;
+
+
+    private RecordTape(byte[] data) {
+        this.data = data;
+    }
+
+
+    /**
+     * Get the size of this tape.
+     *
+     * @return the size in bytes
+     */
+    public int getSizeInBytes() {
+        return data.length;
+    }
+
+
+    /**
+     * Replay this tape to a writer.
+     *
+     * @param writer
+     *            the {@link XMLStreamWriter} to be used
+     * @throws XMLStreamException
+     *             if an error occurred
+     */
+    public void replay(XMLStreamWriter writer) throws XMLStreamException {
+        if (writer == null) {
+            throw new NullPointerException("writer == null");
+        }
+        final ByteBuffer in = ByteBuffer.wrap(data);
+        while (in.hasRemaining()) {
+            final byte op = in.get();
+            switch (op) {
+            case OP_START_ELEMENT:
+                writer.writeStartElement(readString(in));
+                break;
+            case OP_START_ELEMENT_NS:
+                writer.writeStartElement(readString(in), readString(in));
+                break;
+            case OP_START_ELEMENT_PREFIX:
+                writer.writeStartElement(readString(in), readString(in),
+                        readString(in));
+                break;
+            case OP_EMPTY_ELEMENT:
+                writer.writeEmptyElement(readString(in));
+                break;
+            case OP_EMPTY_ELEMENT_NS:
+                writer.writeEmptyElement(readString(in), readString(in));
+                break;
+            case OP_EMPTY_ELEMENT_PREFIX:
+                writer.writeEmptyElement(readString(in), readString(in),
+                        readString(in));
+                break;
+            case OP_END_ELEMENT:
+                writer.writeEndElement();
+                break;
+            case OP_ATTRIBUTE:
+                writer.writeAttribute(readString(in), readString(in));
+                break;
+            case OP_ATTRIBUTE_NS:
+                writer.writeAttribute(readString(in), readString(in),
+                        readString(in));
+                break;
+            case OP_ATTRIBUTE_PREFIX:
+                writer.writeAttribute(readString(in), readString(in),
+                        readString(in), readString(in));
+                break;
+            case OP_NAMESPACE:
+                writer.writeNamespace(readString(in), readString(in));
+                break;
+            case OP_DEFAULT_NAMESPACE:
+                writer.writeDefaultNamespace(readString(in));
+                break;
+            case OP_CHARACTERS:
+                writer.writeCharacters(readString(in));
+                break;
+            case OP_CDATA:
+                writer.writeCData(readString(in));
+                break;
+            case OP_COMMENT:
+                writer.writeComment(readString(in));
+                break;
+            case OP_PROCESSING_INSTRUCTION:
+                writer.writeProcessingInstruction(readString(in));
+                break;
+            case OP_PROCESSING_INSTRUCTION_DATA:
+                writer.writeProcessingInstruction(readString(in),
+                        readString(in));
+                break;
+            case OP_ENTITY_REF:
+                writer.writeEntityRef(readString(in));
+                break;
+            case OP_SET_PREFIX:
+                writer.setPrefix(readString(in), readString(in));
+                break;
+            case OP_SET_DEFAULT_NAMESPACE:
+                writer.setDefaultNamespace(readString(in));
+                break;
+            default:
+                throw new XMLStreamException("invalid tape operation: " + op);
+            }
+        }
+    }
+
+
+    private static String readString(ByteBuffer in) {
+        final int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final String s = new String(in.array(), in.position(), length,
+                StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+
+    /**
+     * An {@link XMLStreamWriter} that passes all calls to another writer and
+     * records them on a tape. Calls that cannot be replayed (i.e. setting a
+     * namespace context, writing a document prolog or epilog) are passed on,
+     * but make the recording unusable.
+     * <p>
+     * This class is <em>not thread-safe</em>.
+     * </p>
+     */
+    public static final class Recorder implements XMLStreamWriter {
+        private final XMLStreamWriter writer;
+        private final ByteArrayOutputStream buffer =
+                new ByteArrayOutputStream(1024);
+        private final DataOutputStream out = new DataOutputStream(buffer);
+        private boolean replayable = true;
+
+
+        /**
+         * Constructor.
+         *
+         * @param writer
+         *            the {@link XMLStreamWriter} to pass all calls to
+         */
+        public Recorder(XMLStreamWriter writer) {
+            if (writer == null) {
+                throw new NullPointerException("writer == null");
+            }
+            this.writer = writer;
+        }
+
+
+        /**
+         * Get the tape of the calls recorded so far.
+         *
+         * @return the tape or <code>null</code>, if a call that cannot be
+         *         replayed was recorded
+         */
+        public RecordTape toTape() {
+            return replayable ? new RecordTape(buffer.toByteArray()) : null;
+        }
+
+
+        @Override
+        public void writeStartElement(String localName)
+                throws XMLStreamException {
+            writer.writeStartElement(localName);
+            record(OP_START_ELEMENT, localName);
+        }
+
+
+        @Override
+        public void writeStartElement(String namespaceURI, String localName)
+                throws XMLStreamException {
+            writer.writeStartElement(namespaceURI, localName);
+            record(OP_START_ELEMENT_NS, namespaceURI, localName);
+        }
+
+
+        @Override
+        public void writeStartElement(String prefix, String localName,
+                String namespaceURI) throws XMLStreamException {
+            writer.writeStartElement(prefix, localName, namespaceURI);
+            record(OP_START_ELEMENT_PREFIX, prefix, localName, namespaceURI);
+        }
+
+
+        @Override
+        public void writeEmptyElement(String namespaceURI, String localName)
+                throws XMLStreamException {
+            writer.writeEmptyElement(namespaceURI, localName);
+            record(OP_EMPTY_ELEMENT_NS, namespaceURI, localName);
+        }
+
+
+        @Override
+        public void writeEmptyElement(String prefix, String localName,
+                String namespaceURI) throws XMLStreamException {
+            writer.writeEmptyElement(prefix, localName, namespaceURI);
+            record(OP_EMPTY_ELEMENT_PREFIX, prefix, localName, namespaceURI);
+        }
+
+
+        @Override
+        public void writeEmptyElement(String localName)
+                throws XMLStreamException {
+            writer.writeEmptyElement(localName);
+            record(OP_EMPTY_ELEMENT, localName);
+        }
+
+
+        @Override
+        public void writeEndElement() throws XMLStreamException {
+            writer.writeEndElement();
+            record(OP_END_ELEMENT);
+        }
+
+
+        @Override
+        public void writeEndDocument() throws XMLStreamException {
+            writer.writeEndDocument();
+            replayable = false;
+        }
+
+
+        @Override
+        public void close() throws XMLStreamException {
+            writer.close();
+        }
+
+
+        @Override
+        public void flush() throws XMLStreamException {
+            writer.flush();
+        }
+
+
+        @Override
+        public void writeAttribute(String localName, String value)
+                throws XMLStreamException {
+            writer.writeAttribute(localName, value);
+            record(OP_ATTRIBUTE, localName, value);
+        }
+
+
+        @Override
+        public void writeAttribute(String prefix, String namespaceURI,
+                String localName, String value) throws XMLStreamException {
+            writer.writeAttribute(prefix, namespaceURI, localName, value);
+            record(OP_ATTRIBUTE_PREFIX, prefix, namespaceURI, localName,
+                    value);
+        }
+
+
+        @Override
+        public void writeAttribute(String namespaceURI, String localName,
+                String value) throws XMLStreamException {
+            writer.writeAttribute(namespaceURI, localName, value);
+            record(OP_ATTRIBUTE_NS, namespaceURI, localName, value);
+        }
+
+
+        @Override
+        public void writeNamespace(String prefix, String namespaceURI)
+                throws XMLStreamException {
+            writer.writeNamespace(prefix, namespaceURI);
+            record(OP_NAMESPACE, prefix, namespaceURI);
+        }
+
+
+        @Override
+        public void writeDefaultNamespace(String namespaceURI)
+                throws XMLStreamException {
+            writer.writeDefaultNamespace(namespaceURI);
+            record(OP_DEFAULT_NAMESPACE, namespaceURI);
+        }
+
+
+        @Override
+        public void writeComment(String data) throws XMLStreamException {
+            writer.writeComment(data);
+            record(OP_COMMENT, data);
+        }
+
+
+        @Override
+        public void writeProcessingInstruction(String target)
+                throws XMLStreamException {
+            writer.writeProcessingInstruction(target);
+            record(OP_PROCESSING_INSTRUCTION, target);
+        }
+
+
+        @Override
+        public void writeProcessingInstruction(String target, String data)
+                throws XMLStreamException {
+            writer.writeProcessingInstruction(target, data);
+            record(OP_PROCESSING_INSTRUCTION_DATA, target, data);
+        }
+
+
+        @Override
+        public void writeCData(String data) throws XMLStreamException {
+            writer.writeCData(data);
+            record(OP_CDATA, data);
+        }
+
+
+        @Override
+        public void writeDTD(String dtd) throws XMLStreamException {
+            writer.writeDTD(dtd);
+            replayable = false;
+        }
+
+
+        @Override
+        public void writeEntityRef(String name) throws XMLStreamException {
+            writer.writeEntityRef(name);
+            record(OP_ENTITY_REF, name);
+        }
+
+
+        @Override
+        public void writeStartDocument() throws XMLStreamException {
+            writer.writeStartDocument();
+            replayable = false;
+        }
+
+
+        @Override
+        public void writeStartDocument(String version)
+                throws XMLStreamException {
+            writer.writeStartDocument(version);
+            replayable = false;
+        }
+
+
+        @Override
+        public void writeStartDocument(String encoding, String version)
+                throws XMLStreamException {
+            writer.writeStartDocument(encoding, version);
+            replayable = false;
+        }
+
+
+        @Override
+        public void writeCharacters(String text) throws XMLStreamException {
+            writer.writeCharacters(text);
+            record(OP_CHARACTERS, text);
+        }
+
+
+        @Override
+        public void writeCharacters(char[] text, int start, int len)
+                throws XMLStreamException {
+            writer.writeCharacters(text, start, len);
+            record(OP_CHARACTERS, new String(text, start, len));
+        }
+
+
+        @Override
+        public String getPrefix(String uri) throws XMLStreamException {
+            return writer.getPrefix(uri);
+        }
+
+
+        @Override
+        public void setPrefix(String prefix, String uri)
+                throws XMLStreamException {
+            writer.setPrefix(prefix, uri);
+            record(OP_SET_PREFIX, prefix, uri);
+        }
+
+
+        @Override
+        public void setDefaultNamespace(String uri)
+                throws XMLStreamException {
+            writer.setDefaultNamespace(uri);
+            record(OP_SET_DEFAULT_NAMESPACE, uri);
+        }
+
+
+        @Override
+        public void setNamespaceContext(NamespaceContext context)
+                throws XMLStreamException {
+            writer.setNamespaceContext(context);
+            replayable = false;
+        }
+
+
+        @Override
+        public NamespaceContext getNamespaceContext() {
+            return writer.getNamespaceContext();
+        }
+
+
+        @Override
+        public Object getProperty(String name)
+                throws IllegalArgumentException {
+            return writer.getProperty(name);
+        }
+
+
+        private void record(byte op, String... args) {
+            if (!replayable) {
+                return;
+            }
+            try {
+                out.writeByte(op);
+                for (String arg : args) {
+                    if (arg == null) {
+                        out.writeInt(-1);
+                    } else {
+                        final byte[] bytes =
+                                arg.getBytes(StandardCharsets.UTF_8);
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                    }
+                }
+            } catch (IOException e) {
+                /* IGNORE, cannot happen with a byte array */
+                replayable = false;
+            }
+        }
+    }
+
+} // class RecordTape
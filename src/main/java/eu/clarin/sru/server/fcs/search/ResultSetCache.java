@@ -0,0 +1,346 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.clarin.sru.server.SRUConfigException;
+import eu.clarin.sru.server.fcs.utils.InitParameters;
+
+
+/**
+ * A cache for search results that allows paging through a result set without
+ * re-executing the search. Entries expire after a fixed time-to-live and the
+ * cache is bounded by the number of entries and by a total weight (e.g. the
+ * number of hits held by all entries); when a bound is exceeded, the least
+ * recently used entries are evicted.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @param <V>
+ *            the type of the cached values
+ * @see ResultSetKey
+ */
+public final class ResultSetCache<V> {
+    public static final String FCS_RESULT_SET_CACHE_SIZE_PARAM =
+            "eu.clarin.sru.server.fcs.resultSetCache.size";
+    public static final String FCS_RESULT_SET_CACHE_MAX_WEIGHT_PARAM =
+            "eu.clarin.sru.server.fcs.resultSetCache.maxWeight";
+    public static final String FCS_RESULT_SET_CACHE_TTL_PARAM =
+            "eu.clarin.sru.server.fcs.resultSetCache.ttl";
+    public static final int DEFAULT_SIZE = 128;
+    public static final long DEFAULT_MAX_WEIGHT = 10000000L;
+    public static final long DEFAULT_TTL = 300;
+    private static final Logger logger =
+            LoggerFactory.getLogger(ResultSetCache.class);
+    private final int maxEntries;
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final Weigher<V> weigher;
+    private final Comparator<? super V> comparator;
+    private final LinkedHashMap<ResultSetKey, Entry<V>> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long weight = 0;
+
+
+    /**
+     * Computes the weight of a cached value.
+     *
+     * @param <V>
+     *            the type of the cached values
+     */
+    public interface Weigher<V> {
+        /**
+         * Get the weight of a value.
+         *
+         * @param value
+         *            the value
+         * @return the weight, must not be negative
+         */
+        public long weigh(V value);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries
+     *            the maximum number of entries
+     * @param maxWeight
+     *            the maximum total weight of all entries
+     * @param ttl
+     *            the time-to-live of an entry
+     * @param unit
+     *            the time unit of the time-to-live
+     * @param weigher
+     *            the weigher for values or <code>null</code>, if each entry
+     *            has the weight <code>1</code>
+     * @param comparator
+     *            the comparator, that orders values for the same key by how
+     *            useful they are, or <code>null</code>, if a value always
+     *            replaces the cached one
+     */
+    public ResultSetCache(int maxEntries, long maxWeight, long ttl,
+            TimeUnit unit, Weigher<V> weigher,
+            Comparator<? super V> comparator) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries < 1");
+        }
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight < 1");
+        }
+        if (ttl < 1) {
+            throw new IllegalArgumentException("ttl < 1");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit == null");
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.weigher = weigher;
+        this.comparator = comparator;
+    }
+
+
+    /**
+     * Get a cached value.
+     *
+     * @param key
+     *            the key
+     * @return the cached value or <code>null</code>, if there is no
+     *         (unexpired) value for the key
+     */
+    public V get(ResultSetKey key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        synchronized (entries) {
+            final Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired(System.nanoTime())) {
+                remove(key, entry);
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+
+    /**
+     * Add a value to the cache. Values heavier than the maximum weight are
+     * not cached. If a comparator is configured, an unexpired value that
+     * compares greater than the new value is kept instead.
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     */
+    public void put(ResultSetKey key, V value) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+        final long w = (weigher != null) ? weigher.weigh(value) : 1;
+        if (w > maxWeight) {
+            logger.debug("not caching result set {} (weight {})", key, w);
+            return;
+        }
+        final long now = System.nanoTime();
+        synchronized (entries) {
+            final Entry<V> old = entries.get(key);
+            if ((old != null) && (comparator != null) &&
+                    !old.isExpired(now) &&
+                    (comparator.compare(old.value, value) > 0)) {
+                logger.debug("keeping cached result set {}", key);
+                return;
+            }
+            entries.put(key, new Entry<>(value, w, now + ttlNanos));
+            if (old != null) {
+                weight -= old.weight;
+            }
+            weight += w;
+            evict(now);
+        }
+    }
+
+
+    /**
+     * Remove a value from the cache.
+     *
+     * @param key
+     *            the key
+     */
+    public void invalidate(ResultSetKey key) {
+        synchronized (entries) {
+            final Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                remove(key, entry);
+            }
+        }
+    }
+
+
+    /**
+     * Remove a value from the cache, if the key is still mapped to it.
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     */
+    public void invalidate(ResultSetKey key, V value) {
+        synchronized (entries) {
+            final Entry<V> entry = entries.get(key);
+            if ((entry != null) && (entry.value == value)) {
+                remove(key, entry);
+            }
+        }
+    }
+
+
+    /**
+     * Remove all values from the cache.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            weight = 0;
+        }
+    }
+
+
+    /**
+     * Get the number of cached values.
+     *
+     * @return the number of cached values
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+
+    /**
+     * Get the total weight of all cached values.
+     *
+     * @return the total weight
+     */
+    public long getWeight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+
+    private void evict(long now) {
+        final Iterator<Map.Entry<ResultSetKey, Entry<V>>> i =
+                entries.entrySet().iterator();
+        while (i.hasNext()) {
+            final Entry<V> entry = i.next().getValue();
+            // iteration order is least recently used first
+            if (!entry.isExpired(now) && (entries.size() <= maxEntries) &&
+                    (weight <= maxWeight)) {
+                break;
+            }
+            weight -= entry.weight;
+            i.remove();
+        }
+    }
+
+
+    private void remove(ResultSetKey key, Entry<V> entry) {
+        entries.remove(key);
+        weight -= entry.weight;
+    }
+
+
+    /**
+     * Create a result set cache configured by init-parameters. The cache is
+     * disabled, if the size is configured as <code>0</code>.
+     *
+     * @param params
+     *            the init-parameters
+     * @param weigher
+     *            the weigher for values or <code>null</code>
+     * @param comparator
+     *            the comparator for values or <code>null</code>
+     * @return the cache or <code>null</code>, if caching is disabled
+     * @throws SRUConfigException
+     *             if a parameter is invalid
+     */
+    public static <V> ResultSetCache<V> fromParams(Map<String, String> params,
+            Weigher<V> weigher, Comparator<? super V> comparator)
+            throws SRUConfigException {
+        final long size = InitParameters.parseLong(params,
+                FCS_RESULT_SET_CACHE_SIZE_PARAM, DEFAULT_SIZE);
+        if (size == 0) {
+            logger.debug("result set cache is disabled");
+            return null;
+        }
+        final long maxWeight = InitParameters.parseLong(params,
+                FCS_RESULT_SET_CACHE_MAX_WEIGHT_PARAM, DEFAULT_MAX_WEIGHT);
+        final long ttl = InitParameters.parseLong(params,
+                FCS_RESULT_SET_CACHE_TTL_PARAM, DEFAULT_TTL);
+        if ((size > Integer.MAX_VALUE) || (maxWeight < 1) || (ttl < 1)) {
+            throw new SRUConfigException("invalid result set cache " +
+                    "configuration: size = " + size + ", maxWeight = " +
+                    maxWeight + ", ttl = " + ttl);
+        }
+        logger.debug("result set cache: size = {}, maxWeight = {}, " +
+                "ttl = {} seconds", size, maxWeight, ttl);
+        return new ResultSetCache<>((int) size, maxWeight, ttl,
+                TimeUnit.SECONDS, weigher, comparator);
+    }
+
+
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long weight;
+        private final long expires;
+
+
+        private Entry(V value, long weight, long expires) {
+            this.value = value;
+            this.weight = weight;
+            this.expires = expires;
+        }
+
+
+        private boolean isExpired(long now) {
+            return (now - expires) >= 0;
+        }
+    }
+
+} // class ResultSetCache
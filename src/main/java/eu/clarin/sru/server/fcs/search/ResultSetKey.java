@@ -0,0 +1,216 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.z3950.zing.cql.CQLNode;
+
+import eu.clarin.sru.server.SRUQuery;
+import eu.clarin.sru.server.SRURequest;
+import eu.clarin.sru.server.fcs.DataView;
+import eu.clarin.sru.server.fcs.ResourceInfo;
+
+
+/**
+ * The key of a cached result set. Two search requests share a key, if they
+ * use the same query (in canonical form), are performed on the same
+ * resources in the same order, request the same data views and are issued by
+ * the same authenticated subject. Paging parameters (<code>startRecord</code>,
+ * <code>maximumRecords</code>) are not part of the key.
+ * <p>
+ * This class is immutable.
+ * </p>
+ */
+public final class ResultSetKey {
+    private final String queryType;
+    private final String query;
+    private final List<String> context;
+    private final List<String> dataViews;
+    private final String subject;
+    private final int hashCode;
+
+
+    private ResultSetKey(String queryType, String query, List<String> context,
+            List<String> dataViews, String subject) {
+        this.queryType = queryType;
+        this.query = query;
+        this.context = context;
+        this.dataViews = dataViews;
+        this.subject = subject;
+        int h = queryType.hashCode();
+        h = 31 * h + query.hashCode();
+        h = 31 * h + context.hashCode();
+        h = 31 * h + dataViews.hashCode();
+        h = 31 * h + ((subject != null) ? subject.hashCode() : 0);
+        this.hashCode = h;
+    }
+
+
+    /**
+     * Get the query type.
+     *
+     * @return the query type
+     */
+    public String getQueryType() {
+        return queryType;
+    }
+
+
+    /**
+     * Get the query in canonical form.
+     *
+     * @return the canonical query
+     */
+    public String getQuery() {
+        return query;
+    }
+
+
+    /**
+     * Get the persistent identifiers of the searched resources in the order
+     * they were resolved from the request. The order is significant, because
+     * hits are collected and merged in this order.
+     *
+     * @return the resource persistent identifiers
+     */
+    public List<String> getContext() {
+        return context;
+    }
+
+
+    /**
+     * Get the sorted identifiers of the requested data views.
+     *
+     * @return the data view identifiers
+     */
+    public List<String> getDataViews() {
+        return dataViews;
+    }
+
+
+    /**
+     * Get the authenticated subject.
+     *
+     * @return the subject or <code>null</code> for anonymous requests
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ResultSetKey)) {
+            return false;
+        }
+        final ResultSetKey other = (ResultSetKey) obj;
+        return (hashCode == other.hashCode) &&
+                queryType.equals(other.queryType) &&
+                query.equals(other.query) &&
+                context.equals(other.context) &&
+                dataViews.equals(other.dataViews) &&
+                ((subject != null)
+                        ? subject.equals(other.subject)
+                        : (other.subject == null));
+    }
+
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(getClass().getSimpleName())
+            .append("[queryType=").append(queryType)
+            .append(", query=").append(query)
+            .append(", context=").append(context)
+            .append(", dataViews=").append(dataViews);
+        if (subject != null) {
+            sb.append(", subject=").append(subject);
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+
+
+    /**
+     * Create the key for a search request.
+     *
+     * @param request
+     *            the <code>SRURequest</code> object that contains the request
+     *            made to the endpoint
+     * @param resources
+     *            the resolved resources the search is performed on
+     * @param dataViews
+     *            the resolved data views
+     * @return the key
+     */
+    public static ResultSetKey create(SRURequest request,
+            List<ResourceInfo> resources, List<DataView> dataViews) {
+        if (request == null) {
+            throw new NullPointerException("request == null");
+        }
+        final SRUQuery<?> query = request.getQuery();
+        final String queryType = (query != null)
+                ? query.getQueryType() : request.getQueryType();
+
+        String canonicalQuery = null;
+        if (query != null) {
+            final Object parsed = query.getParsedQuery();
+            if (parsed instanceof CQLNode) {
+                canonicalQuery = ((CQLNode) parsed).toCQL();
+            } else if (parsed != null) {
+                canonicalQuery = parsed.toString();
+            }
+            if (canonicalQuery == null) {
+                canonicalQuery = query.getRawQuery().trim();
+            }
+        }
+
+        final List<String> context = new ArrayList<>();
+        if (resources != null) {
+            for (ResourceInfo resource : resources) {
+                context.add(resource.getPid());
+            }
+        }
+        final List<String> views = new ArrayList<>();
+        if (dataViews != null) {
+            for (DataView dataView : dataViews) {
+                views.add(dataView.getIdentifier());
+            }
+            Collections.sort(views);
+        }
+        return new ResultSetKey((queryType != null) ? queryType : "",
+                (canonicalQuery != null) ? canonicalQuery : "",
+                Collections.unmodifiableList(context),
+                Collections.unmodifiableList(views),
+                request.getAuthenticationSubject());
+    }
+
+} // class ResultSetKey
@@ -0,0 +1,75 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * A sorted list of terms that can be browsed using the SRU <em>scan</em>
+ * operation. Implementations position on the start term by seeking (e.g.
+ * using binary search) and only visit the terms of the requested window.
+ * <p>
+ * Terms are sorted by {@link #TERM_ORDER}, i.e. by Unicode code point,
+ * which is the same order as the order of their UTF-8 representations.
+ * </p>
+ */
+public interface ScanIndex {
+    /**
+     * The order of the terms of a scan index.
+     */
+    public static final Comparator<String> TERM_ORDER =
+            new Comparator<String>() {
+                @Override
+                public int compare(String s1, String s2) {
+                    int i1 = 0;
+                    int i2 = 0;
+                    while ((i1 < s1.length()) && (i2 < s2.length())) {
+                        final int c1 = s1.codePointAt(i1);
+                        final int c2 = s2.codePointAt(i2);
+                        if (c1 != c2) {
+                            return (c1 < c2) ? -1 : 1;
+                        }
+                        i1 += Character.charCount(c1);
+                        i2 += Character.charCount(c2);
+                    }
+                    return (s1.length() - i1) - (s2.length() - i2);
+                }
+            };
+
+
+    /**
+     * Get a window of terms.
+     *
+     * @param term
+     *            the term to position on
+     * @param responsePosition
+     *            the position of the term in the window (1-based). If
+     *            <code>0</code>, the window starts with the first term
+     *            following the term. If there are fewer terms preceding the
+     *            term, the window is filled with the following terms.
+     * @param maximumTerms
+     *            the maximum number of terms in the window
+     * @return the terms of the window
+     */
+    public List<ScanTerm> scan(String term, int responsePosition,
+            int maximumTerms);
+
+} // interface ScanIndex
@@ -0,0 +1,92 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import java.util.Iterator;
+import java.util.List;
+
+import eu.clarin.sru.server.SRUDiagnosticList;
+import eu.clarin.sru.server.SRUScanResultSet;
+
+
+/**
+ * A scan result set for a window of terms of a {@link ScanIndex}.
+ */
+public final class ScanIndexResultSet extends SRUScanResultSet {
+    private final Iterator<ScanTerm> terms;
+    private ScanTerm current;
+
+
+    /**
+     * Constructor.
+     *
+     * @param diagnostics
+     *            an instance of a SRUDiagnosticList
+     * @param terms
+     *            the terms
+     */
+    public ScanIndexResultSet(SRUDiagnosticList diagnostics,
+            List<ScanTerm> terms) {
+        super(diagnostics);
+        if (terms == null) {
+            throw new NullPointerException("terms == null");
+        }
+        this.terms = terms.iterator();
+    }
+
+
+    @Override
+    public boolean nextTerm() {
+        current = terms.hasNext() ? terms.next() : null;
+        return current != null;
+    }
+
+
+    @Override
+    public String getValue() {
+        return current().getValue();
+    }
+
+
+    @Override
+    public int getNumberOfRecords() {
+        return current().getNumberOfRecords();
+    }
+
+
+    @Override
+    public String getDisplayTerm() {
+        return current().getDisplayTerm();
+    }
+
+
+    @Override
+    public WhereInList getWhereInList() {
+        return current().getWhereInList();
+    }
+
+
+    private ScanTerm current() {
+        if (current == null) {
+            throw new IllegalStateException("no current term");
+        }
+        return current;
+    }
+
+} // class ScanIndexResultSet
@@ -0,0 +1,99 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import eu.clarin.sru.server.SRUScanResultSet.WhereInList;
+
+
+/**
+ * A term of a {@link ScanIndex}.
+ */
+public final class ScanTerm {
+    private final String value;
+    private final String displayTerm;
+    private final int numberOfRecords;
+    private final WhereInList whereInList;
+
+
+    /**
+     * Constructor.
+     *
+     * @param value
+     *            the term value
+     * @param displayTerm
+     *            the display term or <code>null</code>
+     * @param numberOfRecords
+     *            the number of records for the term or <code>-1</code>, if
+     *            unknown
+     * @param whereInList
+     *            the position of the term in the complete term list or
+     *            <code>null</code>
+     */
+    public ScanTerm(String value, String displayTerm, int numberOfRecords,
+            WhereInList whereInList) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+        this.value = value;
+        this.displayTerm = displayTerm;
+        this.numberOfRecords = numberOfRecords;
+        this.whereInList = whereInList;
+    }
+
+
+    /**
+     * Get the term value.
+     *
+     * @return the term value
+     */
+    public String getValue() {
+        return value;
+    }
+
+
+    /**
+     * Get the display term.
+     *
+     * @return the display term or <code>null</code>
+     */
+    public String getDisplayTerm() {
+        return displayTerm;
+    }
+
+
+    /**
+     * Get the number of records for the term.
+     *
+     * @return the number of records or <code>-1</code>, if unknown
+     */
+    public int getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+
+    /**
+     * Get the position of the term in the complete term list.
+     *
+     * @return the position or <code>null</code>
+     */
+    public WhereInList getWhereInList() {
+        return whereInList;
+    }
+
+} // class ScanTerm
@@ -0,0 +1,228 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.clarin.sru.server.SRUConstants;
+import eu.clarin.sru.server.SRUException;
+import eu.clarin.sru.server.fcs.SearchContext;
+
+
+/**
+ * Coalesces concurrent identical computations. The first caller for a key
+ * (the <em>leader</em>) performs the computation, while callers arriving for
+ * the same key in the meantime wait for it to finish and share its result.
+ * No lock is held while the computation runs; callers only wait on the
+ * completion of the flight they joined.
+ * <p>
+ * A result is only shared, if the leader completed normally and its search
+ * context has not expired, i.e. the result is not truncated by the
+ * deadline of the leading request. Otherwise, waiting callers retry and one
+ * of them becomes the new leader. Waiting is bounded by the deadline of the
+ * waiting caller.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @param <K>
+ *            the type of the keys
+ * @param <V>
+ *            the type of the results
+ */
+public final class SingleFlight<K, V> {
+    public static final String FCS_COALESCE_ENABLED_PARAM =
+            "eu.clarin.sru.server.fcs.coalesce.enabled";
+    private static final Logger logger =
+            LoggerFactory.getLogger(SingleFlight.class);
+    private final ConcurrentMap<K, Flight<V>> flights =
+            new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+
+    /**
+     * A computation.
+     *
+     * @param <V>
+     *            the type of the result
+     */
+    public interface Call<V> {
+        /**
+         * Perform the computation.
+         *
+         * @return the result
+         * @throws SRUException
+         *             if an error occurred
+         */
+        public V call() throws SRUException;
+    }
+
+
+    /**
+     * Perform a computation or join an identical computation already in
+     * flight.
+     *
+     * @param key
+     *            the key identifying the computation
+     * @param context
+     *            the search context of the calling request
+     * @param call
+     *            the computation
+     * @return the result or <code>null</code>, if the deadline of the
+     *         calling request passed while waiting for another caller
+     * @throws SRUException
+     *             if the computation failed or waiting was interrupted
+     */
+    public V execute(K key, SearchContext context, Call<V> call)
+            throws SRUException {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        if (context == null) {
+            throw new NullPointerException("context == null");
+        }
+        if (call == null) {
+            throw new NullPointerException("call == null");
+        }
+
+        for (;;) {
+            final Flight<V> flight = new Flight<>();
+            final Flight<V> existing = flights.putIfAbsent(key, flight);
+            if (existing == null) {
+                executed.increment();
+                V result = null;
+                try {
+                    result = call.call();
+                    return result;
+                } finally {
+                    flights.remove(key, flight);
+                    flight.complete(context.isExpired() ? null : result);
+                }
+            }
+
+            if (!existing.await(context)) {
+                return null;
+            }
+            final V result = existing.result;
+            if (result != null) {
+                coalesced.increment();
+                logger.trace("joined computation in flight for {}", key);
+                return result;
+            }
+            // the leader failed or was stopped early, try again
+        }
+    }
+
+
+    /**
+     * Get the number of computations currently in flight.
+     *
+     * @return the number of computations in flight
+     */
+    public int getInFlightCount() {
+        return flights.size();
+    }
+
+
+    /**
+     * Get the number of computations performed.
+     *
+     * @return the number of computations performed
+     */
+    public long getExecutedCount() {
+        return executed.sum();
+    }
+
+
+    /**
+     * Get the number of callers that shared the result of another caller
+     * instead of performing the computation themselves.
+     *
+     * @return the number of coalesced calls
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+
+    /**
+     * Create a single-flight instance configured by init-parameters.
+     * Coalescing is enabled by default and can be disabled by setting the
+     * {@value #FCS_COALESCE_ENABLED_PARAM} init-parameter to
+     * <code>false</code>.
+     *
+     * @param <K>
+     *            the type of the keys
+     * @param <V>
+     *            the type of the results
+     * @param params
+     *            the init-parameters
+     * @return the single-flight instance or <code>null</code>, if
+     *         coalescing is disabled
+     */
+    public static <K, V> SingleFlight<K, V> fromParams(
+            Map<String, String> params) {
+        final String value = params.get(FCS_COALESCE_ENABLED_PARAM);
+        if ((value != null) && !(value.trim().equals("1") ||
+                Boolean.parseBoolean(value.trim()))) {
+            logger.debug("coalescing of identical requests is disabled");
+            return null;
+        }
+        return new SingleFlight<>();
+    }
+
+
+    private static final class Flight<V> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile V result;
+
+
+        private void complete(V result) {
+            this.result = result;
+            done.countDown();
+        }
+
+
+        private boolean await(SearchContext context) throws SRUException {
+            try {
+                if (!context.hasDeadline()) {
+                    done.await();
+                    return true;
+                }
+                return done.await(context.getRemainingMillis(),
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SRUException(SRUConstants.SRU_GENERAL_SYSTEM_ERROR,
+                        "Interrupted while waiting for an identical search.");
+            }
+        }
+    }
+
+} // class SingleFlight
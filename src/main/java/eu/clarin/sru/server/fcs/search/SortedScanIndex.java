@@ -0,0 +1,140 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import eu.clarin.sru.server.SRUScanResultSet.WhereInList;
+
+
+/**
+ * A {@link ScanIndex} backed by a sorted array of terms, e.g. for the
+ * resources of an endpoint.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class SortedScanIndex implements ScanIndex {
+    private final String[] values;
+    private final String[] displayTerms;
+    private final int[] numberOfRecords;
+
+
+    private SortedScanIndex(List<ScanTerm> terms) {
+        this.values = new String[terms.size()];
+        this.displayTerms = new String[terms.size()];
+        this.numberOfRecords = new int[terms.size()];
+        for (int i = 0; i < values.length; i++) {
+            final ScanTerm term = terms.get(i);
+            values[i] = term.getValue();
+            displayTerms[i] = term.getDisplayTerm();
+            numberOfRecords[i] = term.getNumberOfRecords();
+        }
+    }
+
+
+    /**
+     * Get the number of terms.
+     *
+     * @return the number of terms
+     */
+    public int size() {
+        return values.length;
+    }
+
+
+    @Override
+    public List<ScanTerm> scan(String term, int responsePosition,
+            int maximumTerms) {
+        if (term == null) {
+            throw new NullPointerException("term == null");
+        }
+        if ((maximumTerms <= 0) || (values.length == 0)) {
+            return Collections.emptyList();
+        }
+
+        final int ord = Arrays.binarySearch(values, term, TERM_ORDER);
+        int first;
+        if (responsePosition <= 0) {
+            first = (ord >= 0) ? ord + 1 : -ord - 1;
+        } else {
+            first = ((ord >= 0) ? ord : -ord - 1) -
+                    Math.min(responsePosition - 1, maximumTerms);
+        }
+        first = Math.max(0, first);
+        final int end = (int) Math.min(values.length,
+                (long) first + maximumTerms);
+
+        final List<ScanTerm> result = new ArrayList<>(Math.max(0, end - first));
+        for (int i = first; i < end; i++) {
+            result.add(new ScanTerm(values[i], displayTerms[i],
+                    numberOfRecords[i], getWhereInList(i)));
+        }
+        return result;
+    }
+
+
+    private WhereInList getWhereInList(int i) {
+        if (values.length == 1) {
+            return WhereInList.ONLY;
+        } else if (i == 0) {
+            return WhereInList.FIRST;
+        } else if (i == values.length - 1) {
+            return WhereInList.LAST;
+        } else {
+            return WhereInList.INNER;
+        }
+    }
+
+
+    /**
+     * Create a scan index. Terms with the same value are merged; the first
+     * term is kept.
+     *
+     * @param terms
+     *            the terms in any order; their position in list is ignored
+     * @return the scan index
+     */
+    public static SortedScanIndex create(Collection<ScanTerm> terms) {
+        if (terms == null) {
+            throw new NullPointerException("terms == null");
+        }
+        final List<ScanTerm> sorted = new ArrayList<>(terms);
+        Collections.sort(sorted, new Comparator<ScanTerm>() {
+            @Override
+            public int compare(ScanTerm t1, ScanTerm t2) {
+                return TERM_ORDER.compare(t1.getValue(), t2.getValue());
+            }
+        });
+        final List<ScanTerm> unique = new ArrayList<>(sorted.size());
+        for (ScanTerm term : sorted) {
+            if (unique.isEmpty() || !unique.get(unique.size() - 1)
+                    .getValue().equals(term.getValue())) {
+                unique.add(term);
+            }
+        }
+        return new SortedScanIndex(unique);
+    }
+
+} // class SortedScanIndex
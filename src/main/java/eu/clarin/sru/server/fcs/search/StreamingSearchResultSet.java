@@ -0,0 +1,220 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.search;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import eu.clarin.sru.server.SRUDiagnosticList;
+import eu.clarin.sru.server.SRUException;
+import eu.clarin.sru.server.SRUSearchResultSet;
+import eu.clarin.sru.server.fcs.Constants;
+import eu.clarin.sru.server.fcs.SearchContext;
+
+
+/**
+ * A base class for search result sets that pull their records lazily from a
+ * {@link RecordCursor}. Records are fetched when {@link #nextRecord()} is
+ * called and rendered directly to the response, so only a single record is
+ * held in memory at a time. The cursor is closed as soon as it is exhausted,
+ * the page is complete or the result set is closed.
+ * <p>
+ * If a {@link SearchContext} is supplied, rendering stops early once the
+ * deadline of the request has passed.
+ * </p>
+ *
+ * @param <T>
+ *            the type of the records
+ */
+public abstract class StreamingSearchResultSet<T> extends SRUSearchResultSet {
+    private final SRUDiagnosticList diagnostics;
+    private final RecordCursor<T> cursor;
+    private final SearchContext context;
+    private final int totalRecordCount;
+    private final int offset;
+    private final int maximumRecords;
+    private boolean positioned = false;
+    private boolean closed = false;
+    private int produced = 0;
+    private T current;
+
+
+    /**
+     * Constructor.
+     *
+     * @param diagnostics
+     *            an instance of a SRUDiagnosticList
+     * @param cursor
+     *            the cursor providing the records of the result set,
+     *            starting with the first record
+     * @param totalRecordCount
+     *            the total number of records in the result set or
+     *            <code>-1</code>, if unknown
+     * @param startRecord
+     *            the position of the first record to return (1-based)
+     * @param maximumRecords
+     *            the maximum number of records to return
+     */
+    protected StreamingSearchResultSet(SRUDiagnosticList diagnostics,
+            RecordCursor<T> cursor, int totalRecordCount, int startRecord,
+            int maximumRecords) {
+        this(diagnostics, cursor, totalRecordCount, startRecord,
+                maximumRecords, null);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param diagnostics
+     *            an instance of a SRUDiagnosticList
+     * @param cursor
+     *            the cursor providing the records of the result set,
+     *            starting with the first record
+     * @param totalRecordCount
+     *            the total number of records in the result set or
+     *            <code>-1</code>, if unknown
+     * @param startRecord
+     *            the position of the first record to return (1-based)
+     * @param maximumRecords
+     *            the maximum number of records to return
+     * @param context
+     *            the search context of the request or <code>null</code>
+     */
+    protected StreamingSearchResultSet(SRUDiagnosticList diagnostics,
+            RecordCursor<T> cursor, int totalRecordCount, int startRecord,
+            int maximumRecords, SearchContext context) {
+        super(diagnostics);
+        if (cursor == null) {
+            throw new NullPointerException("cursor == null");
+        }
+        this.diagnostics = diagnostics;
+        this.cursor = cursor;
+        this.context = context;
+        this.totalRecordCount = totalRecordCount;
+        this.offset = Math.max(0, startRecord - 1);
+        this.maximumRecords = Math.max(0, maximumRecords);
+    }
+
+
+    @Override
+    public int getTotalRecordCount() {
+        return totalRecordCount;
+    }
+
+
+    /**
+     * Get the number of records in this page. If the total number of records
+     * is unknown, the number of records returned so far is reported.
+     */
+    @Override
+    public int getRecordCount() {
+        if (totalRecordCount >= 0) {
+            return (offset >= totalRecordCount)
+                    ? 0 : Math.min(totalRecordCount - offset, maximumRecords);
+        }
+        return produced;
+    }
+
+
+    @Override
+    public String getRecordSchemaIdentifier() {
+        return Constants.CLARIN_FCS_RECORD_SCHEMA;
+    }
+
+
+    @Override
+    public boolean nextRecord() throws SRUException {
+        current = null;
+        if (closed) {
+            return false;
+        }
+        if (produced >= maximumRecords) {
+            release();
+            return false;
+        }
+        if ((context != null) && context.isExpired()) {
+            context.reportExpired(diagnostics);
+            release();
+            return false;
+        }
+        if (!positioned) {
+            positioned = true;
+            if ((offset > 0) && (cursor.skip(offset) < offset)) {
+                release();
+                return false;
+            }
+        }
+        current = cursor.next();
+        if (current == null) {
+            release();
+            return false;
+        }
+        produced++;
+        return true;
+    }
+
+
+    @Override
+    public String getRecordIdentifier() {
+        return null;
+    }
+
+
+    @Override
+    public final void writeRecord(XMLStreamWriter writer)
+            throws XMLStreamException {
+        if (current == null) {
+            throw new IllegalStateException("no current record");
+        }
+        writeRecord(writer, current);
+    }
+
+
+    /**
+     * Write a record. Render the data views of the record directly to the
+     * writer.
+     *
+     * @param writer
+     *            the {@link XMLStreamWriter} to be used
+     * @param record
+     *            the record
+     * @throws XMLStreamException
+     *             if an error occurred
+     */
+    protected abstract void writeRecord(XMLStreamWriter writer, T record)
+            throws XMLStreamException;
+
+
+    @Override
+    public void close() {
+        current = null;
+        release();
+        super.close();
+    }
+
+
+    private void release() {
+        if (!closed) {
+            closed = true;
+            cursor.close();
+        }
+    }
+
+} // class StreamingSearchResultSet
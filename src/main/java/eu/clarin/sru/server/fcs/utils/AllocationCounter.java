@@ -0,0 +1,99 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Reads the number of bytes allocated by the current thread, so the memory
+ * allocated by a piece of code can be determined as the difference of two
+ * readings. The counter is provided by the
+ * <code>com.sun.management.ThreadMXBean</code> extension, which is available
+ * on HotSpot and most other JVMs; on JVMs without it, allocations are not
+ * counted.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class AllocationCounter {
+    private static final Logger logger =
+            LoggerFactory.getLogger(AllocationCounter.class);
+    private static final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    private static final boolean supported = init();
+
+
+    private AllocationCounter() {
+        /* hide constructor */
+    }
+
+
+    /**
+     * Check, if allocations can be counted on this JVM.
+     *
+     * @return <code>true</code> if allocations can be counted
+     */
+    public static boolean isSupported() {
+        return supported;
+    }
+
+
+    /**
+     * Get the number of bytes allocated by the current thread so far.
+     *
+     * @return the number of bytes or <code>-1</code>, if allocations cannot
+     *         be counted, e.g. for virtual threads
+     */
+    public static long getAllocatedBytes() {
+        if (!supported) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+
+    private static boolean init() {
+        try {
+            if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+                logger.debug("thread allocation counters are not available");
+                return false;
+            }
+            final com.sun.management.ThreadMXBean threads =
+                    (com.sun.management.ThreadMXBean) bean;
+            if (!threads.isThreadAllocatedMemorySupported()) {
+                logger.debug("thread allocation counters are not supported");
+                return false;
+            }
+            if (!threads.isThreadAllocatedMemoryEnabled()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+            }
+            return true;
+        } catch (LinkageError | UnsupportedOperationException |
+                SecurityException e) {
+            logger.debug("thread allocation counters are not available", e);
+            return false;
+        }
+    }
+
+} // class AllocationCounter
@@ -0,0 +1,87 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.utils;
+
+
+/**
+ * Receives the outcome and latency of each authentication performed by the
+ * {@link AuthenticationProvider}. Implementations are called on the request
+ * path and must be thread-safe and cheap; {@link AuthenticationStatistics}
+ * is a default implementation, which keeps counters and latency
+ * histograms in memory.
+ */
+public interface AuthenticationMetrics {
+
+    /**
+     * The outcome of an authentication.
+     */
+    public enum Outcome {
+        /**
+         * The token was verified.
+         */
+        OK,
+        /**
+         * The token was found in the cache of verified tokens.
+         */
+        CACHED,
+        /**
+         * The token has expired.
+         */
+        EXPIRED,
+        /**
+         * A claim of the token, e.g. the audience, was invalid.
+         */
+        INVALID_CLAIM,
+        /**
+         * The signature of the token could not be verified with any key.
+         */
+        BAD_SIGNATURE,
+        /**
+         * The token could not be decoded.
+         */
+        DECODE_ERROR,
+        /**
+         * The token was found in the cache of rejected tokens.
+         */
+        CACHED_FAILURE,
+        /**
+         * The client was throttled because of too many failed attempts.
+         */
+        THROTTLED,
+        /**
+         * The request did not contain a bearer token.
+         */
+        NO_TOKEN
+    }
+
+
+    /**
+     * Record an authentication.
+     *
+     * @param outcome
+     *            the outcome
+     * @param keyId
+     *            the id of the key, which verified the token or which the
+     *            token referred to, or <code>null</code> if unknown
+     * @param nanos
+     *            the time spent in nanoseconds
+     */
+    public void record(Outcome outcome, String keyId, long nanos);
+
+} // interface AuthenticationMetrics
@@ -22,6 +22,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
@@ -29,7 +31,12 @@ import java.security.interfaces.RSAPublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -38,6 +45,7 @@ import org.bouncycastle.util.io.pem.PemReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.auth0.jwk.UrlJwkProvider;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.AlgorithmMismatchException;
@@ -54,24 +62,86 @@ import eu.clarin.sru.server.SRUAuthenticationInfoProvider;
 import eu.clarin.sru.server.SRUConfigException;
 import eu.clarin.sru.server.SRUConstants;
 import eu.clarin.sru.server.SRUException;
+import eu.clarin.sru.server.fcs.utils.AuthenticationMetrics.Outcome;
 
 
 public class AuthenticationProvider implements SRUAuthenticationInfoProvider {
+    public static final long DEFAULT_JWKS_REFRESH_INTERVAL = 3600;
+    public static final long DEFAULT_JWKS_MIN_FETCH_INTERVAL = 60;
+    public static final long DEFAULT_JWKS_FETCH_TIMEOUT = 10;
+    public static final long DEFAULT_KEY_WATCH_OVERLAP = 300;
     private static final Logger logger =
             LoggerFactory.getLogger(AuthenticationProvider.class);
-    private final List<Verifier> verifiers;
+    private final List<Verifier> staticVerifiers;
+    private final List<JwksKeyManager> keyManagers;
+    private final KeyFileWatcher keyFileWatcher;
+    private final VerifierFactory verifierFactory;
+    private final TokenCache<AuthenticationInfo> tokenCache;
+    private final TokenCache<String> failureCache;
+    private final AuthenticationThrottle throttle;
+    private final AuthenticationMetrics metrics;
+    private volatile VerifierSet verifierSet;
+
+
+    private AuthenticationProvider(List<Verifier> staticVerifiers,
+            List<JwksKeyManager> keyManagers, KeyFileWatcher keyFileWatcher,
+            VerifierFactory verifierFactory,
+            TokenCache<AuthenticationInfo> tokenCache,
+            TokenCache<String> failureCache, AuthenticationThrottle throttle,
+            AuthenticationMetrics metrics) {
+        this.staticVerifiers = staticVerifiers;
+        this.keyManagers = keyManagers;
+        this.keyFileWatcher = keyFileWatcher;
+        this.verifierFactory = verifierFactory;
+        this.tokenCache = tokenCache;
+        this.failureCache = failureCache;
+        this.throttle = throttle;
+        this.metrics = metrics;
+        this.verifierSet = new VerifierSet(staticVerifiers);
+    }
 
 
-    private AuthenticationProvider(List<Verifier> verifiers) {
-        this.verifiers = verifiers;
+    /**
+     * Get the number of keys currently available for verifying tokens.
+     *
+     * @return the number of keys
+     */
+    public int getKeyCount() {
+        return verifierSet.verifiers.size();
     }
 
 
-    public int getKeyCount() {
-        if (verifiers != null) {
-            return verifiers.size();
-        } else {
-            return 0;
+    /**
+     * Check, if token signatures are verified. If no keys and no key sets
+     * are configured, all well-formed tokens are accepted.
+     *
+     * @return <code>true</code> if token signatures are verified
+     */
+    public boolean isVerifyingSignatures() {
+        return !staticVerifiers.isEmpty() || !keyManagers.isEmpty() ||
+                (keyFileWatcher != null);
+    }
+
+
+    /**
+     * Get the metrics receiving the outcome and latency of authentications.
+     *
+     * @return the metrics or <code>null</code>, if none
+     */
+    public AuthenticationMetrics getMetrics() {
+        return metrics;
+    }
+
+
+    /**
+     * Stop refreshing key sets and watching key files in the background.
+     */
+    public void shutdown() {
+        for (JwksKeyManager keyManager : keyManagers) {
+            keyManager.shutdown();
+        }
+        if (keyFileWatcher != null) {
+            keyFileWatcher.shutdown();
         }
     }
 
@@ -79,67 +149,376 @@ public class AuthenticationProvider implements SRUAuthenticationInfoProvider {
     @Override
     public SRUAuthenticationInfo getAuthenticationInfo(
             HttpServletRequest request) throws SRUException {
+        final long startTime = System.nanoTime();
         String value = request.getHeader("Authentication");
         if (value != null) {
             if (value.regionMatches(true, 0, "Bearer", 0, 6)) {
                 String rawToken = value.substring(6).trim();
                 if (!rawToken.isEmpty()) {
-                    return checkToken(rawToken);
+                    return checkToken(rawToken, request.getRemoteAddr(),
+                            startTime);
                 }
             }
         }
+        record(Outcome.NO_TOKEN, null, startTime);
         return null;
     }
 
 
-    private AuthenticationInfo checkToken(String rawToken) throws SRUException {
-        try {
-            DecodedJWT token = JWT.decode(rawToken);
-            logger.debug("token: jti={}, iss={}, aud={}, sub={}, iat={}, exp={}, nbt={}",
-                    token.getId(),
-                    token.getIssuer(), token.getAudience(),
-                    token.getSubject(), token.getIssuedAt(),
-                    token.getExpiresAt(), token.getNotBefore());
-            if (verifiers != null) {
-                for (Verifier verifier : verifiers) {
-                    try {
-                        logger.debug("trying to verify token with key '{}'",
-                                verifier.keyId);
-                        if (verifier.verify(token)) {
-                            return new AuthenticationInfo(token.getSubject());
-                        }
-                    } catch (InvalidClaimException e) {
-                        throw new SRUException(SRUConstants.SRU_AUTHENTICATION_ERROR,
-                                "error processing request authentication",
-                                e.getMessage(), e);
-                    } catch (TokenExpiredException e) {
-                        throw new SRUException(SRUConstants.SRU_AUTHENTICATION_ERROR,
-                                "error processing request authentication",
-                                "token expired", e);
-                    }
+    private void start(long jwksFetchTimeout) throws SRUConfigException {
+        if (keyFileWatcher != null) {
+            keyFileWatcher.setListener(new KeyFileWatcher.Listener() {
+                @Override
+                public void keysChanged(KeyFileWatcher watcher) {
+                    updateVerifiers();
                 }
-                throw new SRUException(SRUConstants.SRU_AUTHENTICATION_ERROR,
-                        "error processing request authentication",
-                        "Could not verify JSON Web token signature.");
-            } else {
-                logger.debug("");
-                return new AuthenticationInfo(token.getSubject());
+            });
+            keyFileWatcher.start();
+            updateVerifiers();
+        }
+        for (JwksKeyManager keyManager : keyManagers) {
+            keyManager.setListener(new JwksKeyManager.Listener() {
+                @Override
+                public void keysChanged(JwksKeyManager manager) {
+                    updateVerifiers();
+                }
+            });
+            if (!keyManager.start(jwksFetchTimeout, TimeUnit.SECONDS)) {
+                shutdown();
+                throw new SRUConfigException("failed to load JWKS '" +
+                        keyManager.getName() + "'");
             }
-        } catch (JWTDecodeException e) {
+        }
+    }
+
+
+    /**
+     * Rebuild the verifiers from the configured keys, the current keys of
+     * all watched key files and key sets and swap them in. This is called
+     * by the background threads, requests only ever read the current
+     * verifiers.
+     */
+    private synchronized void updateVerifiers() {
+        List<Verifier> verifiers = new ArrayList<>(staticVerifiers);
+        if (keyFileWatcher != null) {
+            for (KeyFileWatcher.Key key : keyFileWatcher.getKeys()) {
+                verifiers.add(verifierFactory.create(key.getKeyId(),
+                        key.getPublicKey(), key.getIssuer()));
+            }
+        }
+        for (JwksKeyManager keyManager : keyManagers) {
+            for (Map.Entry<String, RSAPublicKey> key :
+                    keyManager.getKeys().entrySet()) {
+                verifiers.add(verifierFactory.create(key.getKey(),
+                        key.getValue(), keyManager.getIssuer()));
+            }
+        }
+        verifierSet = new VerifierSet(verifiers);
+        if (tokenCache != null) {
+            // keys may have been revoked
+            tokenCache.invalidateAll();
+        }
+        if (failureCache != null) {
+            // ... or tokens may now be signed with a known key
+            failureCache.invalidateAll();
+        }
+        logger.debug("now using {} key(s) for verifying tokens", verifiers.size());
+    }
+
+
+    private AuthenticationInfo checkToken(String rawToken,
+            String remoteAddress, long startTime) throws SRUException {
+        if (tokenCache != null) {
+            AuthenticationInfo info = tokenCache.get(rawToken);
+            if (info != null) {
+                logger.debug("token verified before, subject = {}", info.getSubject());
+                record(Outcome.CACHED, info.keyId, startTime);
+                return info;
+            }
+        }
+        if ((throttle != null) && throttle.isThrottled(remoteAddress)) {
+            logger.debug("too many failed authentication attempts from {}",
+                    remoteAddress);
+            record(Outcome.THROTTLED, null, startTime);
             throw new SRUException(SRUConstants.SRU_AUTHENTICATION_ERROR,
                     "error processing request authentication",
+                    "Too many failed authentication attempts.");
+        }
+        if (failureCache != null) {
+            String message = failureCache.get(rawToken);
+            if (message != null) {
+                logger.debug("token failed verification before: {}", message);
+                if (throttle != null) {
+                    throttle.recordFailure(remoteAddress);
+                }
+                record(Outcome.CACHED_FAILURE, null, startTime);
+                throw new SRUException(SRUConstants.SRU_AUTHENTICATION_ERROR,
+                        "error processing request authentication", message);
+            }
+        }
+        final FlightRecorderEvents.Span span =
+                FlightRecorderEvents.beginTokenVerification();
+        try {
+            AuthenticationInfo info = verifyToken(rawToken);
+            span.setKeyId(info.keyId);
+            span.setOutcome(Outcome.OK.name());
+            span.end();
+            record(Outcome.OK, info.keyId, startTime);
+            return info;
+        } catch (VerificationException e) {
+            span.setKeyId(e.keyId);
+            span.setOutcome(e.outcome.name());
+            span.end();
+            if ((failureCache != null) && !e.notYetValid) {
+                failureCache.put(rawToken, null, e.getMessage());
+            }
+            if (throttle != null) {
+                throttle.recordFailure(remoteAddress);
+            }
+            record(e.outcome, e.keyId, startTime);
+            throw e;
+        }
+    }
+
+
+    private AuthenticationInfo verifyToken(String rawToken)
+            throws VerificationException {
+        final DecodedJWT token;
+        try {
+            token = JWT.decode(rawToken);
+        } catch (JWTDecodeException e) {
+            throw new VerificationException(Outcome.DECODE_ERROR, null,
                     "could not decode JSON Web token", e);
         }
+        logger.debug("token: jti={}, iss={}, aud={}, sub={}, iat={}, exp={}, nbt={}",
+                token.getId(),
+                token.getIssuer(), token.getAudience(),
+                token.getSubject(), token.getIssuedAt(),
+                token.getExpiresAt(), token.getNotBefore());
+        if (isVerifyingSignatures()) {
+            VerifierSet verifiers = verifierSet;
+            Verifier verifier = verify(token, verifiers.select(token));
+            if ((verifier == null) && (token.getKeyId() != null) &&
+                    !verifiers.byKeyId.containsKey(token.getKeyId()) &&
+                    fetchUnknownKey(token.getKeyId())) {
+                verifier = verify(token, verifierSet.select(token));
+            }
+            if (verifier != null) {
+                AuthenticationInfo info = new AuthenticationInfo(
+                        token.getSubject(), verifier.keyId);
+                if (tokenCache != null) {
+                    tokenCache.put(rawToken, token.getExpiresAt(), info);
+                }
+                return info;
+            }
+            throw new VerificationException(Outcome.BAD_SIGNATURE,
+                    token.getKeyId(),
+                    "Could not verify JSON Web token signature.", null);
+        } else {
+            logger.debug("");
+            return new AuthenticationInfo(token.getSubject(), null);
+        }
+    }
+
+
+    private Verifier verify(DecodedJWT token, List<Verifier> verifiers)
+            throws VerificationException {
+        for (Verifier verifier : verifiers) {
+            try {
+                logger.debug("trying to verify token with key '{}'",
+                        verifier.keyId);
+                if (verifier.verify(token)) {
+                    return verifier;
+                }
+            } catch (InvalidClaimException e) {
+                throw new VerificationException(Outcome.INVALID_CLAIM,
+                        verifier.keyId, e.getMessage(), e,
+                        isNotYetValid(token));
+            } catch (TokenExpiredException e) {
+                throw new VerificationException(Outcome.EXPIRED,
+                        verifier.keyId, "token expired", e);
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Check, if a token is not valid yet, i.e. its <code>nbf</code> or
+     * <code>iat</code> claim lies in the future. The token may be accepted
+     * later, so its rejection must not be cached.
+     */
+    private static boolean isNotYetValid(DecodedJWT token) {
+        final long now = System.currentTimeMillis();
+        final Date notBefore = token.getNotBefore();
+        final Date issuedAt = token.getIssuedAt();
+        return ((notBefore != null) && (notBefore.getTime() > now)) ||
+                ((issuedAt != null) && (issuedAt.getTime() > now));
+    }
+
+
+    private void record(Outcome outcome, String keyId, long startTime) {
+        if (metrics != null) {
+            metrics.record(outcome, keyId, System.nanoTime() - startTime);
+        }
+    }
+
+
+    private boolean fetchUnknownKey(String keyId) {
+        boolean changed = false;
+        for (JwksKeyManager keyManager : keyManagers) {
+            if (keyManager.fetchUnknownKey(keyId)) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+
+    /**
+     * An immutable set of verifiers, indexed by key id and issuer.
+     */
+    private static final class VerifierSet {
+        private final List<Verifier> verifiers;
+        private final Map<String, List<Verifier>> byKeyId = new HashMap<>();
+        private final Map<String, List<Verifier>> byIssuer = new HashMap<>();
+        private final List<Verifier> withoutIssuer = new ArrayList<>();
+
+
+        private VerifierSet(List<Verifier> verifiers) {
+            this.verifiers = verifiers;
+            for (Verifier verifier : verifiers) {
+                add(byKeyId, verifier.keyId, verifier);
+                if (verifier.issuer != null) {
+                    add(byIssuer, verifier.issuer, verifier);
+                } else {
+                    withoutIssuer.add(verifier);
+                }
+            }
+        }
+
+
+        /**
+         * Select the verifiers to try for a token. If the key id
+         * (<code>kid</code> header) of the token matches the id of a key,
+         * only this key is used. Otherwise, if the issuer (<code>iss</code>
+         * claim) of the token matches the issuer of keys, these keys and the
+         * keys not bound to an issuer are used. Only if neither matches, all
+         * keys are tried in turn.
+         */
+        private List<Verifier> select(DecodedJWT token) {
+            String keyId = token.getKeyId();
+            if (keyId != null) {
+                List<Verifier> result = byKeyId.get(keyId);
+                if (result != null) {
+                    return result;
+                }
+            }
+            String issuer = token.getIssuer();
+            if (issuer != null) {
+                List<Verifier> result = byIssuer.get(issuer);
+                if (result != null) {
+                    if (withoutIssuer.isEmpty()) {
+                        return result;
+                    }
+                    List<Verifier> candidates = new ArrayList<>(result);
+                    candidates.addAll(withoutIssuer);
+                    return candidates;
+                }
+            }
+            logger.debug("no key matches key id '{}' or issuer '{}', trying all keys",
+                    keyId, issuer);
+            return verifiers;
+        }
+
+
+        private static void add(Map<String, List<Verifier>> index,
+                String key, Verifier verifier) {
+            if (key != null) {
+                List<Verifier> list = index.get(key);
+                if (list == null) {
+                    list = new ArrayList<>(1);
+                    index.put(key, list);
+                }
+                list.add(verifier);
+            }
+        }
+    }
+
+
+    /**
+     * Creates verifiers for keys, checking the configured claims.
+     */
+    private static final class VerifierFactory {
+        private final List<String> audiences;
+        private final List<String> issuers;
+        private final boolean ignoreIssuedAt;
+        private final long issuedAtLeeway;
+        private final long expiresAtLeeway;
+        private final long notBeforeLeeway;
+
+
+        private VerifierFactory(List<String> audiences, List<String> issuers,
+                boolean ignoreIssuedAt, long issuedAtLeeway,
+                long expiresAtLeeway, long notBeforeLeeway) {
+            this.audiences = audiences;
+            this.issuers = issuers;
+            this.ignoreIssuedAt = ignoreIssuedAt;
+            this.issuedAtLeeway = issuedAtLeeway;
+            this.expiresAtLeeway = expiresAtLeeway;
+            this.notBeforeLeeway = notBeforeLeeway;
+        }
+
+
+        private Verifier create(String keyId, RSAPublicKey publicKey,
+                String issuer) {
+            Algorithm algorithm = Algorithm.RSA256(publicKey, null);
+
+            Verification builder = JWT.require(algorithm);
+            if (audiences != null) {
+                // verify that "aud" claim contains at least one of the audiences
+                builder.withAnyOfAudience(
+                        audiences.toArray(new String[audiences.size()]));
+            }
+            if (issuers != null || issuer != null) {
+                // verify that "iss" claim contains one of the provided issuers
+                List<String> allIssuers = new ArrayList<>();
+                if (issuer != null) {
+                    allIssuers.add(issuer);
+                }
+                if (issuers != null) {
+                    allIssuers.addAll(issuers);
+                }
+                builder.withIssuer(allIssuers.toArray(
+                        new String[allIssuers.size()]));
+            }
+            if (ignoreIssuedAt) {
+                builder.ignoreIssuedAt();
+            } else {
+                if (issuedAtLeeway > 0) {
+                    builder.acceptIssuedAt(issuedAtLeeway);
+                }
+            }
+            if (expiresAtLeeway > 0) {
+                builder.acceptExpiresAt(expiresAtLeeway);
+            }
+            if (notBeforeLeeway > 0) {
+                builder.acceptNotBefore(notBeforeLeeway);
+            }
+            return new Verifier(keyId, issuer, builder.build());
+        }
     }
 
 
     private static class Verifier {
         private final String keyId;
+        private final String issuer;
         private final JWTVerifier verifier;
 
 
-        private Verifier(String keyId, JWTVerifier verifier) {
+        private Verifier(String keyId, String issuer, JWTVerifier verifier) {
             this.keyId = keyId;
+            this.issuer = issuer;
             this.verifier = verifier;
         }
 
@@ -155,11 +534,41 @@ public class AuthenticationProvider implements SRUAuthenticationInfoProvider {
     }
 
 
+    /**
+     * A failed verification, carrying the outcome for the metrics.
+     */
+    @SuppressWarnings("serial")
+    private static final class VerificationException extends SRUException {
+        private final Outcome outcome;
+        private final String keyId;
+        private final boolean notYetValid;
+
+
+        private VerificationException(Outcome outcome, String keyId,
+                String message, Throwable cause) {
+            this(outcome, keyId, message, cause, false);
+        }
+
+
+        private VerificationException(Outcome outcome, String keyId,
+                String message, Throwable cause, boolean notYetValid) {
+            super(SRUConstants.SRU_AUTHENTICATION_ERROR,
+                    "error processing request authentication", message,
+                    cause);
+            this.outcome = outcome;
+            this.keyId = keyId;
+            this.notYetValid = notYetValid;
+        }
+    }
+
+
     private static class AuthenticationInfo implements SRUAuthenticationInfo {
         private final String subject;
+        private final String keyId;
 
-        private AuthenticationInfo(String subject) {
+        private AuthenticationInfo(String subject, String keyId) {
             this.subject = subject;
+            this.keyId = keyId;
         }
 
         @Override
@@ -183,7 +592,21 @@ public class AuthenticationProvider implements SRUAuthenticationInfoProvider {
         private long issuedAtLeeway = -1;
         private long expiresAtLeeway = -1;
         private long notBeforeLeeway = -1;
-        private Verification builder;
+        private int tokenCacheSize = 0;
+        private long tokenCacheLeeway = 0;
+        private long tokenCacheMaxTtl = 0;
+        private int failureCacheSize = 0;
+        private long failureCacheTtl = 0;
+        private int throttleMaxFailures = 0;
+        private long throttleWindow = 0;
+        private int throttleMaxClients = 0;
+        private AuthenticationMetrics metrics;
+        private List<KeySet> keySets;
+        private long jwksRefreshInterval = DEFAULT_JWKS_REFRESH_INTERVAL;
+        private long jwksMinFetchInterval = DEFAULT_JWKS_MIN_FETCH_INTERVAL;
+        private long jwksFetchTimeout = DEFAULT_JWKS_FETCH_TIMEOUT;
+        private long keyWatchInterval = 0;
+        private long keyWatchOverlap = DEFAULT_KEY_WATCH_OVERLAP;
 
 
         private Builder() {
@@ -241,6 +664,213 @@ public class AuthenticationProvider implements SRUAuthenticationInfoProvider {
         }
 
 
+        /**
+         * Cache verified tokens, so repeated requests with the same token
+         * skip decoding and signature verification.
+         *
+         * @param size
+         *            the maximum number of cached tokens
+         * @param leeway
+         *            the time in seconds before the expiration of a token,
+         *            at which it needs to be verified again
+         * @param maxTtl
+         *            the maximum time in seconds a token is cached
+         * @return this builder
+         * @see TokenCache
+         */
+        public Builder withTokenCache(int size, long leeway, long maxTtl) {
+            if (size < 1) {
+                throw new IllegalArgumentException("size < 1");
+            }
+            if (leeway < 0) {
+                throw new IllegalArgumentException("leeway < 0");
+            }
+            if (maxTtl < 1) {
+                throw new IllegalArgumentException("maxTtl < 1");
+            }
+            this.tokenCacheSize = size;
+            this.tokenCacheLeeway = leeway;
+            this.tokenCacheMaxTtl = maxTtl;
+            return this;
+        }
+
+
+        /**
+         * Remember tokens that failed verification for a short time, so
+         * repeated attempts with the same invalid or expired token are
+         * rejected without decoding and verifying it again. Tokens rejected
+         * because they are not valid yet (<code>nbf</code> or
+         * <code>iat</code> in the future) are not remembered.
+         *
+         * @param size
+         *            the maximum number of remembered tokens
+         * @param ttl
+         *            the time in seconds a token is remembered
+         * @return this builder
+         * @see TokenCache
+         */
+        public Builder withFailureCache(int size, long ttl) {
+            if (size < 1) {
+                throw new IllegalArgumentException("size < 1");
+            }
+            if (ttl < 1) {
+                throw new IllegalArgumentException("ttl < 1");
+            }
+            this.failureCacheSize = size;
+            this.failureCacheTtl = ttl;
+            return this;
+        }
+
+
+        /**
+         * Throttle clients with too many failed authentication attempts.
+         * Further attempts of such a client are rejected until the window
+         * has passed.
+         *
+         * @param maxFailures
+         *            the number of failed attempts allowed per client within
+         *            the window
+         * @param window
+         *            the length of the window in seconds
+         * @param maxClients
+         *            the maximum number of tracked clients
+         * @return this builder
+         * @see AuthenticationThrottle
+         */
+        public Builder withThrottle(int maxFailures, long window,
+                int maxClients) {
+            if (maxFailures < 1) {
+                throw new IllegalArgumentException("maxFailures < 1");
+            }
+            if (window < 1) {
+                throw new IllegalArgumentException("window < 1");
+            }
+            if (maxClients < 1) {
+                throw new IllegalArgumentException("maxClients < 1");
+            }
+            this.throttleMaxFailures = maxFailures;
+            this.throttleWindow = window;
+            this.throttleMaxClients = maxClients;
+            return this;
+        }
+
+
+        /**
+         * Record the outcome and latency of each authentication.
+         *
+         * @param metrics
+         *            the metrics
+         * @return this builder
+         * @see AuthenticationStatistics
+         */
+        public Builder withMetrics(AuthenticationMetrics metrics) {
+            if (metrics == null) {
+                throw new NullPointerException("metrics == null");
+            }
+            this.metrics = metrics;
+            return this;
+        }
+
+
+        /**
+         * Use the keys of a JSON Web Key Set (JWKS). All signing keys of the
+         * set are used and the set is refreshed periodically in the
+         * background. The set is fetched for the first time by
+         * {@link #build()}, which fails, if no keys could be loaded.
+         *
+         * @param keyId
+         *            the name of the key set, which is used as key id for
+         *            keys without a <code>kid</code>
+         * @param url
+         *            the URL or domain of the JWKS endpoint
+         * @param issuer
+         *            the issuer of tokens signed with the keys of the set or
+         *            <code>null</code>
+         * @return this builder
+         * @see JwksKeyManager
+         */
+        public Builder withJwks(String keyId, String url, String issuer) {
+            if (keyId == null) {
+                throw new NullPointerException("keyId == null");
+            }
+            if (url == null) {
+                throw new NullPointerException("url == null");
+            }
+            if (keySets == null) {
+                keySets = new ArrayList<>();
+            }
+            keySets.add(new KeySet(keyId, url, issuer));
+            return this;
+        }
+
+
+        /**
+         * Configure how JSON Web Key Sets are refreshed.
+         *
+         * @param refreshInterval
+         *            the interval in seconds between background refreshes
+         * @param minFetchInterval
+         *            the minimum interval in seconds between two fetches,
+         *            which limits fetches triggered by unknown key ids
+         * @return this builder
+         */
+        public Builder withJwksRefresh(long refreshInterval,
+                long minFetchInterval) {
+            if (refreshInterval < 1) {
+                throw new IllegalArgumentException("refreshInterval < 1");
+            }
+            if (minFetchInterval < 0) {
+                throw new IllegalArgumentException("minFetchInterval < 0");
+            }
+            this.jwksRefreshInterval = refreshInterval;
+            this.jwksMinFetchInterval = minFetchInterval;
+            return this;
+        }
+
+
+        /**
+         * Configure how long {@link #build()} waits for the first fetch of
+         * each JSON Web Key Set. The timeout also limits connecting to and
+         * reading from the JWKS host on every fetch.
+         *
+         * @param timeout
+         *            the timeout in seconds
+         * @return this builder
+         */
+        public Builder withJwksFetchTimeout(long timeout) {
+            if (timeout < 1) {
+                throw new IllegalArgumentException("timeout < 1");
+            }
+            this.jwksFetchTimeout = timeout;
+            return this;
+        }
+
+
+        /**
+         * Watch the files of keys added with
+         * {@link #withPublicKey(String, File, String)} and reload them,
+         * once they have changed.
+         *
+         * @param pollInterval
+         *            the interval in seconds between two checks of the files
+         * @param overlap
+         *            the time in seconds a replaced key remains valid
+         * @return this builder
+         * @see KeyFileWatcher
+         */
+        public Builder withKeyFileWatch(long pollInterval, long overlap) {
+            if (pollInterval < 1) {
+                throw new IllegalArgumentException("pollInterval < 1");
+            }
+            if (overlap < 0) {
+                throw new IllegalArgumentException("overlap < 0");
+            }
+            this.keyWatchInterval = pollInterval;
+            this.keyWatchOverlap = overlap;
+            return this;
+        }
+
+
         public Builder withPublicKey(String keyId, RSAPublicKey publicKey, String issuer) {
             if (publicKey == null) {
                 throw new NullPointerException("publicKey == null");
@@ -269,11 +899,12 @@ public class AuthenticationProvider implements SRUAuthenticationInfoProvider {
 
 
         public Builder withPublicKey(String keyId, File file, String issuer) throws SRUConfigException {
-            try {
-                return withPublicKey(keyId, loadPublicKeyFromStream(keyId, new FileInputStream(file)), issuer);
-            } catch (FileNotFoundException e) {
-                throw new SRUConfigException("failed to load key '" + keyId + "'", e);
+            RSAPublicKey publicKey = loadPublicKey(keyId, file);
+            if (keys == null) {
+                keys = new ArrayList<>();
             }
+            keys.add(new Key(keyId, publicKey, issuer, file));
+            return this;
         }
 
 
@@ -282,6 +913,15 @@ public class AuthenticationProvider implements SRUAuthenticationInfoProvider {
         }
 
 
+        static RSAPublicKey loadPublicKey(String keyId, File file) throws SRUConfigException {
+            try {
+                return loadPublicKeyFromStream(keyId, new FileInputStream(file));
+            } catch (FileNotFoundException e) {
+                throw new SRUConfigException("failed to load key '" + keyId + "'", e);
+            }
+        }
+
+
         private static RSAPublicKey loadPublicKeyFromStream(String keyId, InputStream publicKeyStream) throws SRUConfigException {
             PemReader pemReader = null;
             try {
@@ -311,54 +951,85 @@ public class AuthenticationProvider implements SRUAuthenticationInfoProvider {
         }
 
 
-        public AuthenticationProvider build() {
-            List<Verifier> verifiers = null;
+        public AuthenticationProvider build() throws SRUConfigException {
+            VerifierFactory factory = new VerifierFactory(
+                    (audiences != null) ? new ArrayList<>(audiences) : null,
+                    (issuers != null) ? new ArrayList<>(issuers) : null,
+                    ignoreIssuedAt, issuedAtLeeway, expiresAtLeeway,
+                    notBeforeLeeway);
 
+            List<Verifier> verifiers = new ArrayList<>();
+            KeyFileWatcher keyFileWatcher = null;
             if (keys != null) {
-                verifiers = new ArrayList<>();
                 for (Key key : keys) {
-                    Algorithm algorithm = Algorithm.RSA256(key.publicKey, null);
-
-                    builder = JWT.require(algorithm);
-                    if (audiences != null) {
-                        // verify that "aud" claim contains at least one of the audiences
-                        builder.withAnyOfAudience(
-                                audiences.toArray(new String[audiences.size()]));
-                    }
-                    if (issuers != null || key.issuer != null) {
-                        // verify that "iss" claim contains one of the provided issuers
-                        List<String> allIssuers = new ArrayList<>();
-                        if (key.issuer != null) {
-                            allIssuers.add(key.issuer);
+                    if ((key.file != null) && (keyWatchInterval > 0)) {
+                        if (keyFileWatcher == null) {
+                            keyFileWatcher = new KeyFileWatcher(keyWatchInterval,
+                                    keyWatchOverlap, TimeUnit.SECONDS);
                         }
-                        if (issuers != null) {
-                            allIssuers.addAll(issuers);
-                        }
-                        builder.withIssuer(allIssuers.toArray(
-                                new String[allIssuers.size()]));
-                    }
-                    if (ignoreIssuedAt) {
-                        builder.ignoreIssuedAt();
+                        keyFileWatcher.addKeyFile(key.keyId, key.file,
+                                key.issuer, key.publicKey);
                     } else {
-                        if (issuedAtLeeway > 0) {
-                            builder.acceptIssuedAt(issuedAtLeeway);
-                        }
-                    }
-                    if (expiresAtLeeway > 0) {
-                        builder.acceptExpiresAt(expiresAtLeeway);
-                    }
-                    if (notBeforeLeeway > 0) {
-                        builder.acceptNotBefore(notBeforeLeeway);
+                        verifiers.add(factory.create(key.keyId, key.publicKey, key.issuer));
                     }
-                    JWTVerifier jwtVerifier = builder.build();
+                }
+            }
+            List<JwksKeyManager> keyManagers = new ArrayList<>();
+            if (keySets != null) {
+                /*
+                 * bound each HTTP request, so neither the background refresh
+                 * nor an on-demand fetch on a request thread can hang on an
+                 * unresponsive JWKS host
+                 */
+                final Integer timeout = (int) Math.min(Integer.MAX_VALUE,
+                        TimeUnit.SECONDS.toMillis(jwksFetchTimeout));
+                for (KeySet keySet : keySets) {
+                    keyManagers.add(new JwksKeyManager(keySet.keyId,
+                            new UrlJwkProvider(
+                                    toJwksUrl(keySet.keyId, keySet.url),
+                                    timeout, timeout),
+                            keySet.issuer, jwksRefreshInterval,
+                            jwksMinFetchInterval, TimeUnit.SECONDS));
+                }
+            }
 
-                    if (verifiers == null) {
-                        verifiers = new ArrayList<>();
-                    }
-                    verifiers.add(new Verifier(key.keyId, jwtVerifier));
+            TokenCache<AuthenticationInfo> tokenCache = null;
+            if ((!verifiers.isEmpty() || !keyManagers.isEmpty() ||
+                    (keyFileWatcher != null)) && (tokenCacheSize > 0)) {
+                tokenCache = new TokenCache<>(tokenCacheSize,
+                        tokenCacheLeeway, tokenCacheMaxTtl, TimeUnit.SECONDS);
+            }
+            TokenCache<String> failureCache = null;
+            if (failureCacheSize > 0) {
+                failureCache = new TokenCache<>(failureCacheSize, 0,
+                        failureCacheTtl, TimeUnit.SECONDS);
+            }
+            AuthenticationThrottle throttle = null;
+            if (throttleMaxFailures > 0) {
+                throttle = new AuthenticationThrottle(throttleMaxFailures,
+                        throttleWindow, TimeUnit.SECONDS, throttleMaxClients);
+            }
+            AuthenticationProvider provider = new AuthenticationProvider(
+                    Collections.unmodifiableList(verifiers),
+                    Collections.unmodifiableList(keyManagers), keyFileWatcher,
+                    factory, tokenCache, failureCache, throttle, metrics);
+            provider.start(jwksFetchTimeout);
+            return provider;
+        }
+
+
+        private static URL toJwksUrl(String keyId, String url)
+                throws SRUConfigException {
+            try {
+                if (url.startsWith("http://") || url.startsWith("https://")) {
+                    return new URL(url);
                 }
+                // a domain, resolve like UrlJwkProvider(String) does
+                return new URL("https://" + url + "/.well-known/jwks.json");
+            } catch (MalformedURLException e) {
+                throw new SRUConfigException("invalid URL for JWKS '" +
+                        keyId + "': " + url, e);
             }
-            return new AuthenticationProvider(verifiers);
         }
 
 
@@ -371,12 +1042,20 @@ public class AuthenticationProvider implements SRUAuthenticationInfoProvider {
             public final String keyId;
             public final RSAPublicKey publicKey;
             public final String issuer;
+            public final File file;
 
 
-            private Key(String keyId, RSAPublicKey publicKey, String issuer) {
+            private Key(String keyId, RSAPublicKey publicKey, String issuer,
+                    File file) {
                 this.keyId = keyId;
                 this.publicKey = publicKey;
                 this.issuer = issuer;
+                this.file = file;
+            }
+
+
+            private Key(String keyId, RSAPublicKey publicKey, String issuer) {
+                this(keyId, publicKey, issuer, null);
             }
 
 
@@ -384,6 +1063,20 @@ public class AuthenticationProvider implements SRUAuthenticationInfoProvider {
                 this(keyId, publicKey, null);
             }
         }
+
+
+        private static final class KeySet {
+            public final String keyId;
+            public final String url;
+            public final String issuer;
+
+
+            private KeySet(String keyId, String url, String issuer) {
+                this.keyId = keyId;
+                this.url = url;
+                this.issuer = issuer;
+            }
+        }
     }
 
 }
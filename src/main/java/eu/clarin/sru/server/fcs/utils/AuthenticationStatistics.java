@@ -0,0 +1,194 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.utils;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Keeps counters by outcome and latency histograms for all authentications
+ * and per key id in memory. Hit ratios of the token caches are derived from
+ * the outcomes.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class AuthenticationStatistics implements AuthenticationMetrics {
+    private static final Outcome[] OUTCOMES = Outcome.values();
+    private static final int MAX_KEYS = 256;
+    private final LongAdder[] counts = new LongAdder[OUTCOMES.length];
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final ConcurrentHashMap<String, LatencyHistogram> keyLatencies =
+            new ConcurrentHashMap<>();
+
+
+    /**
+     * Constructor.
+     */
+    public AuthenticationStatistics() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+
+    @Override
+    public void record(Outcome outcome, String keyId, long nanos) {
+        if (outcome == null) {
+            throw new NullPointerException("outcome == null");
+        }
+        counts[outcome.ordinal()].increment();
+        latencies.record(nanos);
+        if (keyId != null) {
+            LatencyHistogram histogram = keyLatencies.get(keyId);
+            if (histogram == null) {
+                // key ids are taken from tokens, so bound the number of keys
+                if (keyLatencies.size() >= MAX_KEYS) {
+                    return;
+                }
+                histogram = new LatencyHistogram();
+                final LatencyHistogram existing =
+                        keyLatencies.putIfAbsent(keyId, histogram);
+                if (existing != null) {
+                    histogram = existing;
+                }
+            }
+            histogram.record(nanos);
+        }
+    }
+
+
+    /**
+     * Get the number of authentications with a given outcome.
+     *
+     * @param outcome
+     *            the outcome
+     * @return the number of authentications
+     */
+    public long getCount(Outcome outcome) {
+        if (outcome == null) {
+            throw new NullPointerException("outcome == null");
+        }
+        return counts[outcome.ordinal()].sum();
+    }
+
+
+    /**
+     * Get the number of all authentications.
+     *
+     * @return the number of authentications
+     */
+    public long getCount() {
+        long total = 0;
+        for (LongAdder count : counts) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+
+    /**
+     * Get the latencies of all authentications.
+     *
+     * @return the latency histogram
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+
+    /**
+     * Get the ids of the keys, for which latencies have been recorded.
+     *
+     * @return the key ids
+     */
+    public Set<String> getKeyIds() {
+        return Collections.unmodifiableSet(
+                new TreeSet<>(keyLatencies.keySet()));
+    }
+
+
+    /**
+     * Get the latencies of the authentications with a given key.
+     *
+     * @param keyId
+     *            the key id
+     * @return the latency histogram or <code>null</code>, if no latencies
+     *         have been recorded for the key
+     */
+    public LatencyHistogram getLatencies(String keyId) {
+        if (keyId == null) {
+            throw new NullPointerException("keyId == null");
+        }
+        return keyLatencies.get(keyId);
+    }
+
+
+    /**
+     * Get the ratio of tokens, that were found in the cache of verified
+     * tokens.
+     *
+     * @return the hit ratio between <code>0</code> and <code>1</code>
+     */
+    public double getTokenCacheHitRatio() {
+        final long hits = getCount(Outcome.CACHED);
+        final long lookups = getCount() - getCount(Outcome.NO_TOKEN);
+        return ratio(hits, lookups);
+    }
+
+
+    /**
+     * Get the ratio of tokens missing the cache of verified tokens, that
+     * were found in the cache of rejected tokens.
+     *
+     * @return the hit ratio between <code>0</code> and <code>1</code>
+     */
+    public double getFailureCacheHitRatio() {
+        final long hits = getCount(Outcome.CACHED_FAILURE);
+        final long lookups = getCount() - getCount(Outcome.NO_TOKEN) -
+                getCount(Outcome.CACHED) - getCount(Outcome.THROTTLED);
+        return ratio(hits, lookups);
+    }
+
+
+    /**
+     * Get the number of authentications by outcome.
+     *
+     * @return the counts by outcome
+     */
+    public Map<Outcome, Long> getCounts() {
+        final Map<Outcome, Long> result = new EnumMap<>(Outcome.class);
+        for (Outcome outcome : OUTCOMES) {
+            result.put(outcome, getCount(outcome));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+
+    private static double ratio(long hits, long lookups) {
+        return (lookups > 0) ? ((double) hits / lookups) : 0.0;
+    }
+
+} // class AuthenticationStatistics
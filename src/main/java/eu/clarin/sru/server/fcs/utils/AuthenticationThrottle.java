@@ -0,0 +1,166 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.utils;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Throttles clients that repeatedly fail to authenticate. Failed attempts
+ * are counted per client address within a fixed window; once a client has
+ * exceeded the maximum number of failures, further attempts are rejected
+ * without verifying the token until the window has passed. The number of
+ * tracked clients is bounded; when the bound is exceeded, the least
+ * recently seen clients are forgotten.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class AuthenticationThrottle {
+    private final int maxFailures;
+    private final long windowNanos;
+    private final int maxClients;
+    private final LinkedHashMap<String, Client> clients =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder throttled = new LongAdder();
+
+
+    /**
+     * Constructor.
+     *
+     * @param maxFailures
+     *            the number of failed attempts allowed within the window
+     * @param window
+     *            the length of the window
+     * @param unit
+     *            the time unit of the window
+     * @param maxClients
+     *            the maximum number of tracked clients
+     */
+    public AuthenticationThrottle(int maxFailures, long window, TimeUnit unit,
+            int maxClients) {
+        if (maxFailures < 1) {
+            throw new IllegalArgumentException("maxFailures < 1");
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("window < 1");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit == null");
+        }
+        if (maxClients < 1) {
+            throw new IllegalArgumentException("maxClients < 1");
+        }
+        this.maxFailures = maxFailures;
+        this.windowNanos = unit.toNanos(window);
+        this.maxClients = maxClients;
+    }
+
+
+    /**
+     * Check, if a client is currently throttled.
+     *
+     * @param address
+     *            the address of the client or <code>null</code>, if unknown
+     * @return <code>true</code> if the client is throttled
+     */
+    public boolean isThrottled(String address) {
+        if (address == null) {
+            return false;
+        }
+        final long now = System.nanoTime();
+        synchronized (clients) {
+            final Client client = clients.get(address);
+            if (client == null) {
+                return false;
+            }
+            if ((now - client.windowStart) >= windowNanos) {
+                clients.remove(address);
+                return false;
+            }
+            if (client.failures >= maxFailures) {
+                throttled.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+
+    /**
+     * Record a failed authentication attempt of a client.
+     *
+     * @param address
+     *            the address of the client or <code>null</code>, if unknown
+     */
+    public void recordFailure(String address) {
+        if (address == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        synchronized (clients) {
+            Client client = clients.get(address);
+            if ((client == null) ||
+                    ((now - client.windowStart) >= windowNanos)) {
+                client = new Client(now);
+                clients.put(address, client);
+                while (clients.size() > maxClients) {
+                    clients.remove(clients.keySet().iterator().next());
+                }
+            }
+            client.failures++;
+        }
+    }
+
+
+    /**
+     * Get the number of currently tracked clients.
+     *
+     * @return the number of clients
+     */
+    public int size() {
+        synchronized (clients) {
+            return clients.size();
+        }
+    }
+
+
+    /**
+     * Get the number of attempts rejected because the client was throttled.
+     *
+     * @return the number of throttled attempts
+     */
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+
+    private static final class Client {
+        private final long windowStart;
+        private int failures;
+
+
+        private Client(long windowStart) {
+            this.windowStart = windowStart;
+        }
+    }
+
+} // class AuthenticationThrottle
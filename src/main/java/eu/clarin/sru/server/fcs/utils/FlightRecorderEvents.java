@@ -0,0 +1,190 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.utils;
+
+
+/**
+ * Factory methods for the Java Flight Recorder events emitted while
+ * processing requests, i.e. for explain, query parsing, searching, writing
+ * records and verifying authentication tokens. Each phase is represented by
+ * a {@link Span}, which is started by one of the <code>begin</code> methods
+ * and must be ended by calling {@link Span#end()}.
+ * <p>
+ * This is the Java 8 implementation, which does not emit any events. The
+ * multi-release JAR contains a Java 11 implementation of this class, which
+ * emits the events using the <code>jdk.jfr</code> API.
+ * </p>
+ */
+public final class FlightRecorderEvents {
+    private static final Span NOOP = new Span();
+
+
+    /**
+     * A phase of a request. Attributes not supported by the event of the
+     * phase are ignored.
+     */
+    public static class Span {
+        Span() {
+        }
+
+
+        /**
+         * Set the resources the phase was performed on.
+         *
+         * @param resource
+         *            the persistent identifier(s) of the resource(s)
+         */
+        public void setResource(String resource) {
+        }
+
+
+        /**
+         * Set the number of records returned.
+         *
+         * @param recordCount
+         *            the number of records
+         */
+        public void setRecordCount(int recordCount) {
+        }
+
+
+        /**
+         * Set the total number of hits.
+         *
+         * @param hitCount
+         *            the number of hits or <code>-1</code>, if unknown
+         */
+        public void setHitCount(int hitCount) {
+        }
+
+
+        /**
+         * Set the id of the key used to verify a token.
+         *
+         * @param keyId
+         *            the key id or <code>null</code>
+         */
+        public void setKeyId(String keyId) {
+        }
+
+
+        /**
+         * Set the outcome of the phase.
+         *
+         * @param outcome
+         *            the outcome
+         */
+        public void setOutcome(String outcome) {
+        }
+
+
+        /**
+         * End the phase and emit the event.
+         */
+        public void end() {
+        }
+    }
+
+
+    private FlightRecorderEvents() {
+        /* hide constructor */
+    }
+
+
+    /**
+     * Check, if Flight Recorder events are supported by this runtime.
+     * Whether they are actually recorded, depends on the running recordings,
+     * see {@link #isEnabled()}.
+     *
+     * @return <code>true</code> if events are supported
+     */
+    public static boolean isAvailable() {
+        return false;
+    }
+
+
+    /**
+     * Check, if any of the events is currently enabled, i.e. if a running
+     * recording would record it.
+     *
+     * @return <code>true</code> if an event is enabled
+     */
+    public static boolean isEnabled() {
+        return false;
+    }
+
+
+    /**
+     * Begin an <em>explain</em> request.
+     *
+     * @return the span
+     */
+    public static Span beginExplain() {
+        return NOOP;
+    }
+
+
+    /**
+     * Begin parsing a query.
+     *
+     * @param queryType
+     *            the query type
+     * @return the span
+     */
+    public static Span beginQueryParse(String queryType) {
+        return NOOP;
+    }
+
+
+    /**
+     * Begin performing a search.
+     *
+     * @param queryType
+     *            the query type
+     * @return the span
+     */
+    public static Span beginSearch(String queryType) {
+        return NOOP;
+    }
+
+
+    /**
+     * Begin writing a record including its data views.
+     *
+     * @param queryType
+     *            the query type
+     * @param position
+     *            the position of the record within the response
+     * @return the span
+     */
+    public static Span beginRecordWrite(String queryType, int position) {
+        return NOOP;
+    }
+
+
+    /**
+     * Begin verifying an authentication token.
+     *
+     * @return the span
+     */
+    public static Span beginTokenVerification() {
+        return NOOP;
+    }
+
+} // class FlightRecorderEvents
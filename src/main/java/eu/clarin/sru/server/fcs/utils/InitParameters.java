@@ -0,0 +1,75 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.utils;
+
+import java.util.Map;
+
+import eu.clarin.sru.server.SRUConfigException;
+
+
+/**
+ * Helper methods for reading init-parameters.
+ */
+public final class InitParameters {
+
+    private InitParameters() {
+        /* hide constructor */
+    }
+
+
+    /**
+     * Get the value of a numeric init-parameter.
+     *
+     * @param params
+     *            the init-parameters
+     * @param name
+     *            the name of the init-parameter
+     * @param defaultValue
+     *            the value to use, if the init-parameter is not set
+     * @return the value of the init-parameter or the default value
+     * @throws SRUConfigException
+     *             if the value is not a number or negative
+     */
+    public static long parseLong(Map<String, String> params, String name,
+            long defaultValue) throws SRUConfigException {
+        if (params == null) {
+            throw new NullPointerException("params == null");
+        }
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        final String value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        final long result;
+        try {
+            result = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new SRUConfigException("init-parameter '" + name +
+                    "' is not a valid number: " + value);
+        }
+        if (result < 0) {
+            throw new SRUConfigException("init-parameter '" + name +
+                    "' must not be negative: " + value);
+        }
+        return result;
+    }
+
+} // class InitParameters
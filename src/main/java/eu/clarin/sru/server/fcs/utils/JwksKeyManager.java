@@ -0,0 +1,350 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.utils;
+
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.auth0.jwk.InvalidPublicKeyException;
+import com.auth0.jwk.Jwk;
+import com.auth0.jwk.JwkException;
+import com.auth0.jwk.UrlJwkProvider;
+
+
+/**
+ * Keeps the RSA signing keys of a JSON Web Key Set (JWKS) up to date. All
+ * keys of the set are loaded and refreshed periodically in the background,
+ * so keys can be rotated at the issuer without redeploying the endpoint.
+ * Additionally, the set can be fetched on demand, if a token refers to an
+ * unknown key id; on-demand fetches are rate-limited, so tokens with bogus
+ * key ids cannot be used to flood the JWKS host, and are skipped, while
+ * another fetch is in progress, so request threads do not queue up behind a
+ * slow JWKS host.
+ * <p>
+ * The caller of {@link #start(long, TimeUnit)} waits for the first fetch,
+ * so a key set, that cannot be loaded, can be detected at startup. The keys
+ * are replaced atomically; interested parties are notified using a
+ * {@link Listener}. Failed fetches are logged and keep the previous keys.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class JwksKeyManager {
+    private static final Logger logger =
+            LoggerFactory.getLogger(JwksKeyManager.class);
+    private final String name;
+    private final UrlJwkProvider provider;
+    private final String issuer;
+    private final long refreshInterval;
+    private final long minFetchInterval;
+    private final AtomicLong nextFetch = new AtomicLong(System.nanoTime());
+    private final ReentrantLock fetchLock = new ReentrantLock();
+    private volatile Map<String, RSAPublicKey> keys = Collections.emptyMap();
+    private volatile Listener listener;
+    private ScheduledThreadPoolExecutor scheduler;
+
+
+    /**
+     * Receives notifications about changed keys.
+     */
+    public interface Listener {
+        /**
+         * Called after the keys of a key set have changed.
+         *
+         * @param manager
+         *            the key manager
+         */
+        public void keysChanged(JwksKeyManager manager);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param name
+     *            the name of the key set, which is also used as key id for
+     *            keys without a <code>kid</code>
+     * @param provider
+     *            the provider used for fetching the key set
+     * @param issuer
+     *            the issuer, tokens signed with the keys of this set must
+     *            be issued by, or <code>null</code>
+     * @param refreshInterval
+     *            the interval between background refreshes
+     * @param minFetchInterval
+     *            the minimum interval between two fetches
+     * @param unit
+     *            the time unit of the intervals
+     */
+    public JwksKeyManager(String name, UrlJwkProvider provider, String issuer,
+            long refreshInterval, long minFetchInterval, TimeUnit unit) {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        if (provider == null) {
+            throw new NullPointerException("provider == null");
+        }
+        if (refreshInterval < 1) {
+            throw new IllegalArgumentException("refreshInterval < 1");
+        }
+        if (minFetchInterval < 0) {
+            throw new IllegalArgumentException("minFetchInterval < 0");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit == null");
+        }
+        this.name = name;
+        this.provider = provider;
+        this.issuer = issuer;
+        this.refreshInterval = unit.toNanos(refreshInterval);
+        this.minFetchInterval = unit.toNanos(minFetchInterval);
+    }
+
+
+    /**
+     * Get the name of the key set.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Get the issuer of tokens signed with the keys of this set.
+     *
+     * @return the issuer or <code>null</code>
+     */
+    public String getIssuer() {
+        return issuer;
+    }
+
+
+    /**
+     * Get the current keys.
+     *
+     * @return an unmodifiable map of key ids to keys
+     */
+    public Map<String, RSAPublicKey> getKeys() {
+        return keys;
+    }
+
+
+    /**
+     * Set the listener to notify about changed keys.
+     *
+     * @param listener
+     *            the listener or <code>null</code>
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+
+    /**
+     * Start refreshing the key set in the background. The first fetch is
+     * performed immediately and the caller waits for it, but at most for the
+     * given time; a fetch, that takes longer, completes in the background.
+     *
+     * @param timeout
+     *            the maximum time to wait for the first fetch
+     * @param unit
+     *            the time unit of the timeout
+     * @return <code>true</code> if the first fetch loaded any keys,
+     *         <code>false</code> if it failed, found no usable keys or did
+     *         not complete in time
+     */
+    public synchronized boolean start(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout < 0");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit == null");
+        }
+        if (scheduler != null) {
+            throw new IllegalStateException("already started");
+        }
+        scheduler = new ScheduledThreadPoolExecutor(1,
+                Threads.newThreadFactory("fcs-jwks"));
+        final Future<Boolean> first = scheduler.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                refresh();
+                return !keys.isEmpty();
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, refreshInterval, refreshInterval, TimeUnit.NANOSECONDS);
+        try {
+            return first.get(timeout, unit);
+        } catch (TimeoutException e) {
+            logger.warn("fetching JWKS '{}' did not complete within {} ms",
+                    name, unit.toMillis(timeout));
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+
+    /**
+     * Stop refreshing the key set.
+     */
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+
+    /**
+     * Fetch the key set now.
+     *
+     * @return <code>true</code> if the keys have changed
+     */
+    public boolean refresh() {
+        fetchLock.lock();
+        return refreshLocked();
+    }
+
+
+    /**
+     * Fetch the key set on demand, because a token refers to an unknown key
+     * id. The key set is only fetched, if the key is still unknown, the
+     * minimum interval since the last fetch has passed and no other fetch is
+     * in progress.
+     *
+     * @param keyId
+     *            the unknown key id
+     * @return <code>true</code> if the keys have changed
+     */
+    public boolean fetchUnknownKey(String keyId) {
+        if (keyId == null) {
+            throw new NullPointerException("keyId == null");
+        }
+        if (keys.containsKey(keyId)) {
+            return false;
+        }
+        final long next = nextFetch.get();
+        final long now = System.nanoTime();
+        if (((now - next) < 0) ||
+                !nextFetch.compareAndSet(next, now + minFetchInterval)) {
+            logger.debug("not fetching JWKS '{}' for unknown key id '{}', " +
+                    "rate limit exceeded", name, keyId);
+            return false;
+        }
+        if (!fetchLock.tryLock()) {
+            logger.debug("not fetching JWKS '{}' for unknown key id '{}', " +
+                    "fetch already in progress", name, keyId);
+            return false;
+        }
+        logger.debug("fetching JWKS '{}' for unknown key id '{}'",
+                name, keyId);
+        return refreshLocked();
+    }
+
+
+    /*
+     * the caller must hold the fetch lock, which is released before the
+     * listener is notified
+     */
+    private boolean refreshLocked() {
+        try {
+            nextFetch.set(System.nanoTime() + minFetchInterval);
+            final Map<String, RSAPublicKey> fetched;
+            try {
+                fetched = fetchKeys();
+            } catch (JwkException | RuntimeException e) {
+                logger.warn("failed to fetch JWKS '{}', keeping {} key(s): {}",
+                        name, keys.size(), e.getMessage());
+                return false;
+            }
+            if (fetched.equals(keys)) {
+                return false;
+            }
+            logger.info("JWKS '{}' changed, now using key(s) {}",
+                    name, fetched.keySet());
+            keys = fetched;
+        } finally {
+            fetchLock.unlock();
+        }
+        final Listener l = listener;
+        if (l != null) {
+            l.keysChanged(this);
+        }
+        return true;
+    }
+
+
+    private Map<String, RSAPublicKey> fetchKeys() throws JwkException {
+        final List<Jwk> jwks = provider.getAll();
+        final Map<String, RSAPublicKey> result = new LinkedHashMap<>();
+        if (jwks != null) {
+            for (Jwk jwk : jwks) {
+                if (!"RSA".equals(jwk.getType()) ||
+                        ((jwk.getUsage() != null) &&
+                                !"sig".equals(jwk.getUsage()))) {
+                    logger.debug("ignoring key '{}' of JWKS '{}' " +
+                            "(type = {}, use = {})", jwk.getId(), name,
+                            jwk.getType(), jwk.getUsage());
+                    continue;
+                }
+                final PublicKey key;
+                try {
+                    key = jwk.getPublicKey();
+                } catch (InvalidPublicKeyException e) {
+                    logger.warn("ignoring invalid key '{}' of JWKS '{}': {}",
+                            jwk.getId(), name, e.getMessage());
+                    continue;
+                }
+                if (key instanceof RSAPublicKey) {
+                    result.put((jwk.getId() != null) ? jwk.getId() : name,
+                            (RSAPublicKey) key);
+                }
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+} // class JwksKeyManager
@@ -0,0 +1,340 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.utils;
+
+import java.io.File;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.clarin.sru.server.SRUConfigException;
+
+
+/**
+ * Watches PEM encoded public key files and reloads them, once they have
+ * changed, so keys can be rotated without restarting the endpoint. Files
+ * are polled in the background for changes of their modification time or
+ * size. After a key has been replaced, the previous key remains valid for
+ * an overlap window, so tokens signed with either key are accepted while
+ * the issuer switches over.
+ * <p>
+ * The current keys are published as an immutable list; interested parties
+ * are notified using a {@link Listener}, whenever the list changes. A file
+ * that cannot be read or parsed (e.g. because it is being written) is
+ * logged and retried with the next poll, the previous key is kept.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class KeyFileWatcher {
+    private static final Logger logger =
+            LoggerFactory.getLogger(KeyFileWatcher.class);
+    private final long pollInterval;
+    private final long overlap;
+    private final List<WatchedFile> files = new ArrayList<>();
+    private volatile List<Key> keys = Collections.emptyList();
+    private volatile Listener listener;
+    private ScheduledThreadPoolExecutor scheduler;
+
+
+    /**
+     * Receives notifications about changed keys.
+     */
+    public interface Listener {
+        /**
+         * Called after the keys have changed.
+         *
+         * @param watcher
+         *            the key file watcher
+         */
+        public void keysChanged(KeyFileWatcher watcher);
+    }
+
+
+    /**
+     * A key loaded from a key file.
+     */
+    public static final class Key {
+        private final String keyId;
+        private final String issuer;
+        private final RSAPublicKey publicKey;
+
+
+        private Key(String keyId, String issuer, RSAPublicKey publicKey) {
+            this.keyId = keyId;
+            this.issuer = issuer;
+            this.publicKey = publicKey;
+        }
+
+
+        /**
+         * Get the id of the key.
+         *
+         * @return the key id
+         */
+        public String getKeyId() {
+            return keyId;
+        }
+
+
+        /**
+         * Get the issuer of tokens signed with the key.
+         *
+         * @return the issuer or <code>null</code>
+         */
+        public String getIssuer() {
+            return issuer;
+        }
+
+
+        /**
+         * Get the public key.
+         *
+         * @return the public key
+         */
+        public RSAPublicKey getPublicKey() {
+            return publicKey;
+        }
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param pollInterval
+     *            the interval between two checks of the key files
+     * @param overlap
+     *            the time a replaced key remains valid
+     * @param unit
+     *            the time unit of the interval and the overlap
+     */
+    public KeyFileWatcher(long pollInterval, long overlap, TimeUnit unit) {
+        if (pollInterval < 1) {
+            throw new IllegalArgumentException("pollInterval < 1");
+        }
+        if (overlap < 0) {
+            throw new IllegalArgumentException("overlap < 0");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit == null");
+        }
+        this.pollInterval = unit.toNanos(pollInterval);
+        this.overlap = unit.toNanos(overlap);
+    }
+
+
+    /**
+     * Watch a key file.
+     *
+     * @param keyId
+     *            the id of the key
+     * @param file
+     *            the key file
+     * @param issuer
+     *            the issuer of tokens signed with the key or
+     *            <code>null</code>
+     * @param publicKey
+     *            the key currently contained in the file
+     */
+    public void addKeyFile(String keyId, File file, String issuer,
+            RSAPublicKey publicKey) {
+        if (keyId == null) {
+            throw new NullPointerException("keyId == null");
+        }
+        if (file == null) {
+            throw new NullPointerException("file == null");
+        }
+        if (publicKey == null) {
+            throw new NullPointerException("publicKey == null");
+        }
+        synchronized (files) {
+            files.add(new WatchedFile(keyId, file, issuer, publicKey));
+            publish();
+        }
+    }
+
+
+    /**
+     * Get the current keys. Keys replaced within the overlap window are
+     * included after the key that replaced them.
+     *
+     * @return an unmodifiable list of keys
+     */
+    public List<Key> getKeys() {
+        return keys;
+    }
+
+
+    /**
+     * Set the listener to notify about changed keys.
+     *
+     * @param listener
+     *            the listener or <code>null</code>
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+
+    /**
+     * Start checking the key files in the background.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            throw new IllegalStateException("already started");
+        }
+        scheduler = new ScheduledThreadPoolExecutor(1,
+                Threads.newThreadFactory("fcs-keywatch"));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, pollInterval, pollInterval, TimeUnit.NANOSECONDS);
+    }
+
+
+    /**
+     * Stop checking the key files.
+     */
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+
+    /**
+     * Check the key files now. Changed files are reloaded and keys, whose
+     * overlap window has passed, are dropped.
+     *
+     * @return <code>true</code> if the keys have changed
+     */
+    public boolean check() {
+        boolean changed = false;
+        synchronized (files) {
+            final long now = System.nanoTime();
+            for (WatchedFile file : files) {
+                if (file.reload(now)) {
+                    changed = true;
+                }
+                if (file.expire(now)) {
+                    changed = true;
+                }
+            }
+            if (changed) {
+                publish();
+            }
+        }
+        if (changed) {
+            final Listener l = listener;
+            if (l != null) {
+                l.keysChanged(this);
+            }
+        }
+        return changed;
+    }
+
+
+    private void publish() {
+        final List<Key> result = new ArrayList<>();
+        for (WatchedFile file : files) {
+            result.add(new Key(file.keyId, file.issuer, file.publicKey));
+            if (file.previousKey != null) {
+                result.add(new Key(file.keyId, file.issuer, file.previousKey));
+            }
+        }
+        keys = Collections.unmodifiableList(result);
+    }
+
+
+    private final class WatchedFile {
+        private final String keyId;
+        private final File file;
+        private final String issuer;
+        private RSAPublicKey publicKey;
+        private RSAPublicKey previousKey;
+        private long previousKeyExpires;
+        private long lastModified;
+        private long length;
+
+
+        private WatchedFile(String keyId, File file, String issuer,
+                RSAPublicKey publicKey) {
+            this.keyId = keyId;
+            this.file = file;
+            this.issuer = issuer;
+            this.publicKey = publicKey;
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+
+        private boolean reload(long now) {
+            final long modified = file.lastModified();
+            final long size = file.length();
+            if ((modified == lastModified) && (size == length)) {
+                return false;
+            }
+            final RSAPublicKey key;
+            try {
+                key = AuthenticationProvider.Builder.loadPublicKey(keyId, file);
+            } catch (SRUConfigException | RuntimeException e) {
+                logger.warn("failed to reload key '{}' from file '{}', " +
+                        "keeping current key: {}", keyId, file,
+                        e.getMessage());
+                return false;
+            }
+            lastModified = modified;
+            length = size;
+            if (key.equals(publicKey)) {
+                return false;
+            }
+            logger.info("key '{}' in file '{}' has changed, previous key " +
+                    "remains valid for {} seconds", keyId, file,
+                    TimeUnit.NANOSECONDS.toSeconds(overlap));
+            if (overlap > 0) {
+                previousKey = publicKey;
+                previousKeyExpires = now + overlap;
+            }
+            publicKey = key;
+            return true;
+        }
+
+
+        private boolean expire(long now) {
+            if ((previousKey != null) && ((now - previousKeyExpires) >= 0)) {
+                logger.debug("overlap window for previous key '{}' has passed",
+                        keyId);
+                previousKey = null;
+                return true;
+            }
+            return false;
+        }
+    }
+
+} // class KeyFileWatcher
@@ -0,0 +1,212 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A histogram of latencies with logarithmic buckets. Each power of two is
+ * divided into eight linear sub-buckets, so recorded values are accurate
+ * to within 12.5%, while the histogram has a fixed size and recording a
+ * value is a few arithmetic operations and an atomic increment. Values
+ * above roughly an hour are counted in the last bucket.
+ * <p>
+ * This class is thread-safe. Reads are not atomic with respect to
+ * concurrent updates, i.e. a snapshot may miss values that are recorded
+ * at the same time.
+ * </p>
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 41;
+    private static final int BUCKET_COUNT =
+            (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos
+     *            the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketIndex(nanos));
+        count.increment();
+        sum.add(nanos);
+        long current = max.get();
+        while ((nanos > current) && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+
+    /**
+     * Get the number of recorded latencies.
+     *
+     * @return the number of recorded latencies
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+
+    /**
+     * Get the sum of all recorded latencies.
+     *
+     * @param unit
+     *            the time unit of the result
+     * @return the sum of all latencies
+     */
+    public long getSum(TimeUnit unit) {
+        return unit.convert(sum.sum(), TimeUnit.NANOSECONDS);
+    }
+
+
+    /**
+     * Get the largest recorded latency.
+     *
+     * @param unit
+     *            the time unit of the result
+     * @return the largest latency
+     */
+    public long getMax(TimeUnit unit) {
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+
+    /**
+     * Get the latency below which a given percentage of the recorded
+     * latencies fall. The result is the upper bound of the bucket containing
+     * the percentile, but never more than the largest recorded latency.
+     *
+     * @param percentile
+     *            the percentile, between <code>0</code> and
+     *            <code>100</code>
+     * @param unit
+     *            the time unit of the result
+     * @return the latency or <code>0</code>, if no latencies have been
+     *         recorded
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+        if ((percentile < 0) || (percentile > 100)) {
+            throw new IllegalArgumentException(
+                    "percentile not between 0 and 100");
+        }
+        final long[] snapshot = getBucketCounts();
+        long total = 0;
+        for (long c : snapshot) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                final long value = Math.min(getBucketUpperBound(i) - 1,
+                        max.get());
+                return unit.convert(value, TimeUnit.NANOSECONDS);
+            }
+        }
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+
+    /**
+     * Get a snapshot of the bucket counts.
+     *
+     * @return the number of latencies recorded in each bucket
+     * @see #getBucketUpperBound(int)
+     */
+    public long[] getBucketCounts() {
+        final long[] result = new long[BUCKET_COUNT];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = buckets.get(i);
+        }
+        return result;
+    }
+
+
+    /**
+     * Get the (exclusive) upper bound of a bucket.
+     *
+     * @param index
+     *            the index of the bucket
+     * @return the upper bound in nanoseconds or {@link Long#MAX_VALUE} for
+     *         the last bucket
+     */
+    public static long getBucketUpperBound(int index) {
+        if ((index < 0) || (index >= BUCKET_COUNT)) {
+            throw new IndexOutOfBoundsException("index = " + index);
+        }
+        if (index == BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        return getBucketLowerBound(index + 1);
+    }
+
+
+    /**
+     * Get the number of buckets.
+     *
+     * @return the number of buckets
+     */
+    public static int getBucketCount() {
+        return BUCKET_COUNT;
+    }
+
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) &
+                (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+
+    private static long getBucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long sub = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+} // class LatencyHistogram
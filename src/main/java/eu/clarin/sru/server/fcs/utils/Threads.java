@@ -0,0 +1,146 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Factory methods for the threads used for background and concurrent work,
+ * e.g. fan-out searches or key refreshes.
+ * <p>
+ * This is the Java 8 implementation, which uses daemon platform threads. The
+ * multi-release JAR contains a Java 21 implementation of this class, which
+ * uses virtual threads instead, so blocking backend calls made by these
+ * threads do not tie up platform threads. The request itself is still
+ * processed on a thread of the servlet container.
+ * </p>
+ */
+public final class Threads {
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+
+    private Threads() {
+        /* hide constructor */
+    }
+
+
+    /**
+     * Check, if virtual threads are used.
+     *
+     * @return <code>true</code> if virtual threads are used
+     */
+    public static boolean isVirtual() {
+        return false;
+    }
+
+
+    /**
+     * Create a thread factory. Threads are named <code>name-N</code> and do
+     * not prevent the JVM from exiting.
+     *
+     * @param name
+     *            the base name of the threads
+     * @return the thread factory
+     */
+    public static ThreadFactory newThreadFactory(final String name) {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        final AtomicInteger counter = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread =
+                        new Thread(r, name + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+
+    /**
+     * Create a thread factory for platform threads with a given priority,
+     * e.g. for speculative work, that should yield to searches. Unlike
+     * {@link #newThreadFactory(String)}, this factory never creates virtual
+     * threads, because they ignore thread priorities. Threads are named
+     * <code>name-N</code> and do not prevent the JVM from exiting.
+     *
+     * @param name
+     *            the base name of the threads
+     * @param priority
+     *            the priority of the threads
+     * @return the thread factory
+     */
+    public static ThreadFactory newPlatformThreadFactory(String name,
+            final int priority) {
+        if ((priority < Thread.MIN_PRIORITY) ||
+                (priority > Thread.MAX_PRIORITY)) {
+            throw new IllegalArgumentException("invalid priority: " +
+                    priority);
+        }
+        final ThreadFactory factory = newThreadFactory(name);
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = factory.newThread(r);
+                thread.setPriority(priority);
+                return thread;
+            }
+        };
+    }
+
+
+    /**
+     * Create an executor, that runs at most a given number of tasks
+     * concurrently. If the executor is saturated, the submitting thread runs
+     * the task itself.
+     *
+     * @param name
+     *            the base name of the threads
+     * @param threads
+     *            the maximum number of concurrently running tasks
+     * @param queueSize
+     *            the maximum number of tasks waiting for execution
+     * @return the executor
+     */
+    public static ExecutorService newBoundedExecutor(String name, int threads,
+            int queueSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads < 1");
+        }
+        if (queueSize < 0) {
+            throw new IllegalArgumentException("queueSize < 0");
+        }
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads,
+                threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                newThreadFactory(name),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+} // class Threads
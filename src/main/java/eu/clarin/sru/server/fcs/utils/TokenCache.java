@@ -0,0 +1,220 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A cache for the results of verifying bearer tokens, e.g. the
+ * authentication information of valid tokens or the reason why a token
+ * was rejected. Entries are keyed by a SHA-256 hash of the raw token, so
+ * raw tokens are not retained in memory. An entry is valid until the
+ * expiration time of the token (<code>exp</code> claim) minus a leeway,
+ * but at most for a maximum time-to-live; expired entries are dropped on
+ * access and the token has to be verified again. The cache is bounded by
+ * the number of entries; when the bound is exceeded, the least recently
+ * used entries are evicted.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @param <V>
+ *            the type of the cached values
+ */
+public final class TokenCache<V> {
+    private final int maxEntries;
+    private final long leewayMillis;
+    private final long maxTtlMillis;
+    private final LinkedHashMap<String, Entry<V>> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries
+     *            the maximum number of entries
+     * @param leeway
+     *            the time before the expiration of a token at which its
+     *            entry expires
+     * @param maxTtl
+     *            the maximum time-to-live of an entry
+     * @param unit
+     *            the time unit of the leeway and the maximum time-to-live
+     */
+    public TokenCache(int maxEntries, long leeway, long maxTtl,
+            TimeUnit unit) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries < 1");
+        }
+        if (leeway < 0) {
+            throw new IllegalArgumentException("leeway < 0");
+        }
+        if (maxTtl < 1) {
+            throw new IllegalArgumentException("maxTtl < 1");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit == null");
+        }
+        this.maxEntries = maxEntries;
+        this.leewayMillis = unit.toMillis(leeway);
+        this.maxTtlMillis = unit.toMillis(maxTtl);
+    }
+
+
+    /**
+     * Get the cached value for a token.
+     *
+     * @param rawToken
+     *            the raw token
+     * @return the cached value or <code>null</code>, if there is no
+     *         (unexpired) value for the token
+     */
+    public V get(String rawToken) {
+        final String key = hash(rawToken);
+        final long now = System.currentTimeMillis();
+        synchronized (entries) {
+            final Entry<V> entry = entries.get(key);
+            if ((entry != null) && (now < entry.expires)) {
+                hits.increment();
+                return entry.value;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+
+    /**
+     * Add the value for a token to the cache. Tokens expiring within the
+     * leeway are not cached.
+     *
+     * @param rawToken
+     *            the raw token
+     * @param expiresAt
+     *            the expiration time of the token or <code>null</code>, if
+     *            the token does not expire
+     * @param value
+     *            the value
+     */
+    public void put(String rawToken, Date expiresAt, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+        final long now = System.currentTimeMillis();
+        long expires = now + maxTtlMillis;
+        if (expiresAt != null) {
+            expires = Math.min(expires, expiresAt.getTime() - leewayMillis);
+        }
+        if (expires <= now) {
+            return;
+        }
+        final String key = hash(rawToken);
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, expires));
+            while (entries.size() > maxEntries) {
+                entries.remove(entries.keySet().iterator().next());
+            }
+        }
+    }
+
+
+    /**
+     * Remove all entries from the cache, e.g. because the keys used for
+     * verifying tokens have changed.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+
+    /**
+     * Get the number of cached tokens.
+     *
+     * @return the number of cached tokens
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+
+    /**
+     * Get the number of lookups that found a valid entry.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+
+    /**
+     * Get the number of lookups that found no valid entry.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+
+    private static String hash(String rawToken) {
+        if (rawToken == null) {
+            throw new NullPointerException("rawToken == null");
+        }
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(
+                    digest.digest(rawToken.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expires;
+
+
+        private Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+} // class TokenCache
@@ -0,0 +1,413 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * Factory methods for the Java Flight Recorder events emitted while
+ * processing requests, i.e. for explain, query parsing, searching, writing
+ * records and verifying authentication tokens. Each phase is represented by
+ * a {@link Span}, which is started by one of the <code>begin</code> methods
+ * and must be ended by calling {@link Span#end()}.
+ * <p>
+ * This is the Java 11 implementation, which emits the events using the
+ * <code>jdk.jfr</code> API. The events are in the category
+ * <em>CLARIN FCS</em>. The per-record event is disabled by default; enable
+ * it in the JFR settings using
+ * <code>eu.clarin.fcs.RecordWrite#enabled=true</code>. If an event is
+ * disabled, no span is allocated.
+ * </p>
+ */
+public final class FlightRecorderEvents {
+    private static final Span NOOP = new Span();
+    private static final List<EventType> EVENT_TYPES = Arrays.asList(
+            EventType.getEventType(ExplainEvent.class),
+            EventType.getEventType(QueryParseEvent.class),
+            EventType.getEventType(SearchEvent.class),
+            EventType.getEventType(RecordWriteEvent.class),
+            EventType.getEventType(TokenVerificationEvent.class));
+
+
+    /**
+     * A phase of a request. Attributes not supported by the event of the
+     * phase are ignored.
+     */
+    public static class Span {
+        Span() {
+        }
+
+
+        /**
+         * Set the resources the phase was performed on.
+         *
+         * @param resource
+         *            the persistent identifier(s) of the resource(s)
+         */
+        public void setResource(String resource) {
+        }
+
+
+        /**
+         * Set the number of records returned.
+         *
+         * @param recordCount
+         *            the number of records
+         */
+        public void setRecordCount(int recordCount) {
+        }
+
+
+        /**
+         * Set the total number of hits.
+         *
+         * @param hitCount
+         *            the number of hits or <code>-1</code>, if unknown
+         */
+        public void setHitCount(int hitCount) {
+        }
+
+
+        /**
+         * Set the id of the key used to verify a token.
+         *
+         * @param keyId
+         *            the key id or <code>null</code>
+         */
+        public void setKeyId(String keyId) {
+        }
+
+
+        /**
+         * Set the outcome of the phase.
+         *
+         * @param outcome
+         *            the outcome
+         */
+        public void setOutcome(String outcome) {
+        }
+
+
+        /**
+         * End the phase and emit the event.
+         */
+        public void end() {
+        }
+    }
+
+
+    private FlightRecorderEvents() {
+        /* hide constructor */
+    }
+
+
+    /**
+     * Check, if Flight Recorder events are supported by this runtime.
+     * Whether they are actually recorded, depends on the running recordings,
+     * see {@link #isEnabled()}.
+     *
+     * @return <code>true</code> if events are supported
+     */
+    public static boolean isAvailable() {
+        return true;
+    }
+
+
+    /**
+     * Check, if any of the events is currently enabled, i.e. if a running
+     * recording would record it.
+     *
+     * @return <code>true</code> if an event is enabled
+     */
+    public static boolean isEnabled() {
+        for (EventType type : EVENT_TYPES) {
+            if (type.isEnabled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Begin an <em>explain</em> request.
+     *
+     * @return the span
+     */
+    public static Span beginExplain() {
+        final ExplainEvent event = new ExplainEvent();
+        if (!event.isEnabled()) {
+            return NOOP;
+        }
+        event.begin();
+        return new EventSpan(event);
+    }
+
+
+    /**
+     * Begin parsing a query.
+     *
+     * @param queryType
+     *            the query type
+     * @return the span
+     */
+    public static Span beginQueryParse(String queryType) {
+        final QueryParseEvent event = new QueryParseEvent();
+        if (!event.isEnabled()) {
+            return NOOP;
+        }
+        event.queryType = queryType;
+        event.begin();
+        return new QueryParseSpan(event);
+    }
+
+
+    /**
+     * Begin performing a search.
+     *
+     * @param queryType
+     *            the query type
+     * @return the span
+     */
+    public static Span beginSearch(String queryType) {
+        final SearchEvent event = new SearchEvent();
+        if (!event.isEnabled()) {
+            return NOOP;
+        }
+        event.queryType = queryType;
+        event.hitCount = -1;
+        event.begin();
+        return new SearchSpan(event);
+    }
+
+
+    /**
+     * Begin writing a record including its data views.
+     *
+     * @param queryType
+     *            the query type
+     * @param position
+     *            the position of the record within the response
+     * @return the span
+     */
+    public static Span beginRecordWrite(String queryType, int position) {
+        final RecordWriteEvent event = new RecordWriteEvent();
+        if (!event.isEnabled()) {
+            return NOOP;
+        }
+        event.queryType = queryType;
+        event.position = position;
+        event.begin();
+        return new EventSpan(event);
+    }
+
+
+    /**
+     * Begin verifying an authentication token.
+     *
+     * @return the span
+     */
+    public static Span beginTokenVerification() {
+        final TokenVerificationEvent event = new TokenVerificationEvent();
+        if (!event.isEnabled()) {
+            return NOOP;
+        }
+        event.begin();
+        return new TokenVerificationSpan(event);
+    }
+
+
+    private static class EventSpan extends Span {
+        private final Event event;
+
+
+        private EventSpan(Event event) {
+            this.event = event;
+        }
+
+
+        @Override
+        public void end() {
+            event.commit();
+        }
+    } // class EventSpan
+
+
+    private static final class QueryParseSpan extends EventSpan {
+        private final QueryParseEvent event;
+
+
+        private QueryParseSpan(QueryParseEvent event) {
+            super(event);
+            this.event = event;
+        }
+
+
+        @Override
+        public void setOutcome(String outcome) {
+            event.outcome = outcome;
+        }
+    } // class QueryParseSpan
+
+
+    private static final class SearchSpan extends EventSpan {
+        private final SearchEvent event;
+
+
+        private SearchSpan(SearchEvent event) {
+            super(event);
+            this.event = event;
+        }
+
+
+        @Override
+        public void setResource(String resource) {
+            event.resource = resource;
+        }
+
+
+        @Override
+        public void setRecordCount(int recordCount) {
+            event.recordCount = recordCount;
+        }
+
+
+        @Override
+        public void setHitCount(int hitCount) {
+            event.hitCount = hitCount;
+        }
+
+
+        @Override
+        public void setOutcome(String outcome) {
+            event.outcome = outcome;
+        }
+    } // class SearchSpan
+
+
+    private static final class TokenVerificationSpan extends EventSpan {
+        private final TokenVerificationEvent event;
+
+
+        private TokenVerificationSpan(TokenVerificationEvent event) {
+            super(event);
+            this.event = event;
+        }
+
+
+        @Override
+        public void setKeyId(String keyId) {
+            event.keyId = keyId;
+        }
+
+
+        @Override
+        public void setOutcome(String outcome) {
+            event.outcome = outcome;
+        }
+    } // class TokenVerificationSpan
+
+
+    @Name("eu.clarin.fcs.Explain")
+    @Label("FCS Explain")
+    @Description("Writing the endpoint description of an explain request")
+    @Category("CLARIN FCS")
+    @StackTrace(false)
+    private static final class ExplainEvent extends Event {
+    } // class ExplainEvent
+
+
+    @Name("eu.clarin.fcs.QueryParse")
+    @Label("FCS Query Parse")
+    @Description("Parsing the query of a searchRetrieve request")
+    @Category("CLARIN FCS")
+    @StackTrace(false)
+    private static final class QueryParseEvent extends Event {
+        @Label("Query Type")
+        String queryType;
+
+        @Label("Outcome")
+        String outcome;
+    } // class QueryParseEvent
+
+
+    @Name("eu.clarin.fcs.Search")
+    @Label("FCS Search")
+    @Description("Performing the search of a searchRetrieve request")
+    @Category("CLARIN FCS")
+    @StackTrace(false)
+    private static final class SearchEvent extends Event {
+        @Label("Query Type")
+        String queryType;
+
+        @Label("Resource")
+        @Description("Requested resource PIDs (x-fcs-context)")
+        String resource;
+
+        @Label("Record Count")
+        int recordCount;
+
+        @Label("Hit Count")
+        int hitCount;
+
+        @Label("Outcome")
+        String outcome;
+    } // class SearchEvent
+
+
+    @Name("eu.clarin.fcs.RecordWrite")
+    @Label("FCS Record Write")
+    @Description("Writing a record and its data views")
+    @Category("CLARIN FCS")
+    @StackTrace(false)
+    @Enabled(false)
+    private static final class RecordWriteEvent extends Event {
+        @Label("Query Type")
+        String queryType;
+
+        @Label("Position")
+        int position;
+    } // class RecordWriteEvent
+
+
+    @Name("eu.clarin.fcs.TokenVerification")
+    @Label("FCS Token Verification")
+    @Description("Verifying a JSON Web Token")
+    @Category("CLARIN FCS")
+    @StackTrace(false)
+    private static final class TokenVerificationEvent extends Event {
+        @Label("Key Id")
+        String keyId;
+
+        @Label("Outcome")
+        String outcome;
+    } // class TokenVerificationEvent
+
+} // class FlightRecorderEvents
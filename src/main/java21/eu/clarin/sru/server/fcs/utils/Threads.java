@@ -0,0 +1,207 @@
+/**
+ * This software is copyright (c) 2013-2025 by
+ *  - Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ *  - Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ * This is free software. You can redistribute it
+ * and/or modify it under the terms described in
+ * the GNU General Public License v3 of which you
+ * should have received a copy. Otherwise you can download
+ * it from
+ *
+ *   http://www.gnu.org/licenses/gpl-3.0.txt
+ *
+ * @copyright Leibniz-Institut fuer Deutsche Sprache (http://www.ids-mannheim.de)
+ * @copyright Saxon Academy of Sciences and Humanities in Leipzig (https://www.saw-leipzig.de)
+ *
+ * @license http://www.gnu.org/licenses/gpl-3.0.txt
+ *  GNU General Public License v3
+ */
+package eu.clarin.sru.server.fcs.utils;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Factory methods for the threads used for background and concurrent work,
+ * e.g. fan-out searches or key refreshes.
+ * <p>
+ * This is the Java 21 implementation, which uses virtual threads. Virtual
+ * threads are not pooled; concurrency is bounded using semaphores instead,
+ * so the number of fan-out threads can be raised well beyond the number of
+ * processors for backends, that mostly wait.
+ * </p>
+ */
+public final class Threads {
+
+    private Threads() {
+        /* hide constructor */
+    }
+
+
+    /**
+     * Check, if virtual threads are used.
+     *
+     * @return <code>true</code> if virtual threads are used
+     */
+    public static boolean isVirtual() {
+        return true;
+    }
+
+
+    /**
+     * Create a thread factory. Threads are named <code>name-N</code> and do
+     * not prevent the JVM from exiting.
+     *
+     * @param name
+     *            the base name of the threads
+     * @return the thread factory
+     */
+    public static ThreadFactory newThreadFactory(String name) {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        return Thread.ofVirtual().name(name + "-", 1).factory();
+    }
+
+
+    /**
+     * Create a thread factory for platform threads with a given priority,
+     * e.g. for speculative work, that should yield to searches. Unlike
+     * {@link #newThreadFactory(String)}, this factory never creates virtual
+     * threads, because they ignore thread priorities. Threads are named
+     * <code>name-N</code> and do not prevent the JVM from exiting.
+     *
+     * @param name
+     *            the base name of the threads
+     * @param priority
+     *            the priority of the threads
+     * @return the thread factory
+     */
+    public static ThreadFactory newPlatformThreadFactory(String name,
+            int priority) {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        if ((priority < Thread.MIN_PRIORITY) ||
+                (priority > Thread.MAX_PRIORITY)) {
+            throw new IllegalArgumentException("invalid priority: " +
+                    priority);
+        }
+        return Thread.ofPlatform().daemon().priority(priority)
+                .name(name + "-", 1).factory();
+    }
+
+
+    /**
+     * Create an executor, that runs at most a given number of tasks
+     * concurrently. If the executor is saturated, the submitting thread runs
+     * the task itself.
+     *
+     * @param name
+     *            the base name of the threads
+     * @param threads
+     *            the maximum number of concurrently running tasks
+     * @param queueSize
+     *            the maximum number of tasks waiting for execution
+     * @return the executor
+     */
+    public static ExecutorService newBoundedExecutor(String name, int threads,
+            int queueSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads < 1");
+        }
+        if (queueSize < 0) {
+            throw new IllegalArgumentException("queueSize < 0");
+        }
+        return new BoundedExecutor(
+                Executors.newThreadPerTaskExecutor(newThreadFactory(name)),
+                threads, threads + queueSize);
+    }
+
+
+    /**
+     * Starts a virtual thread per task, but only lets a bounded number of
+     * them run at the same time. Waiting tasks park their virtual thread and
+     * do not occupy a carrier thread.
+     */
+    private static final class BoundedExecutor
+            extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore running;
+        private final Semaphore admitted;
+
+
+        private BoundedExecutor(ExecutorService delegate, int threads,
+                int capacity) {
+            this.delegate = delegate;
+            this.running = new Semaphore(threads);
+            this.admitted = new Semaphore(capacity);
+        }
+
+
+        @Override
+        public void execute(Runnable command) {
+            if (command == null) {
+                throw new NullPointerException("command == null");
+            }
+            if (!admitted.tryAcquire()) {
+                // saturated, run in the submitting thread
+                command.run();
+                return;
+            }
+            try {
+                delegate.execute(() -> {
+                    running.acquireUninterruptibly();
+                    try {
+                        command.run();
+                    } finally {
+                        running.release();
+                        admitted.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                admitted.release();
+                throw e;
+            }
+        }
+
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    } // class BoundedExecutor
+
+} // class Threads